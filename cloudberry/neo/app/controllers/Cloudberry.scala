@@ -13,6 +13,7 @@ import edu.uci.ics.cloudberry.zion.actor.DataStoreManager.{DataManagerResponse,
 import edu.uci.ics.cloudberry.zion.actor.{BerryClient, ViewStatusClient, DataStoreManager}
 import edu.uci.ics.cloudberry.zion.common.Config
 import edu.uci.ics.cloudberry.zion.model.impl._
+import edu.uci.ics.cloudberry.zion.model.slicing.SliceCache
 import play.Logger
 import play.api.data.Form
 import play.api.data.Forms._
@@ -39,18 +40,19 @@ class Cloudberry @Inject()(val wsClient: WSClient,
   val (asterixConn, qlGenerator) =
     config.AsterixLang match {
       case "sparksql" => (new SparkConn(url = "local[4]"), SparkSQLGenerator)
-      case "mysql" => (new MySQLConn(config.MySqlURL), MySQLGenerator)
-      case "postgresql" => (new PostgreSQLConn(config.PostgreSqlURL), PostgreSQLGenerator)
+      case "mysql" => (new MySQLConn(config.MySqlURL, JdbcPool.settings(config)), MySQLGenerator)
+      case "postgresql" => (new PostgreSQLConn(config.PostgreSqlURL, JdbcPool.settings(config)), PostgreSQLGenerator)
       case "aql" => (new AsterixAQLConn(config.AsterixURL, wsClient), AQLGenerator)
       case "sqlpp" => (new AsterixSQLPPConn(config.AsterixURL, wsClient), SQLPPGenerator)
-      case "oracle" => (new OracleConn(config.OracleURL), OracleGenerator)
+      case "oracle" => (new OracleConn(config.OracleURL, JdbcPool.settings(config)), OracleGenerator)
       case "elasticsearch" => (new ElasticsearchConn(config.ElasticsearchURL, wsClient), ElasticsearchGenerator)
       case _ => throw new IllegalArgumentException(s"unknown asterixdb.lang option:${config.AsterixLang}")
     }
 
   Await.result(Migration_20160814.migration.up(asterixConn), 10.seconds)
 
-  val manager = system.actorOf(DataStoreManager.props(Migration_20160814.berryMeta, asterixConn, qlGenerator, config))
+  val sliceCache: Option[SliceCache] = SliceCache(config)
+  val manager = system.actorOf(DataStoreManager.props(Migration_20160814.berryMeta, asterixConn, qlGenerator, config, sliceCache))
 
   Logger.info("Cloudberry is initializing")
 
@@ -86,7 +88,7 @@ class Cloudberry @Inject()(val wsClient: WSClient,
 
   def ws = WebSocket.accept[JsValue, JsValue] { request =>
     ActorFlow.actorRef { out =>
-      RequestRouter.props(BerryClient.props(new JSONParser(), manager, new QueryPlanner(), config, out), config, request)
+      RequestRouter.props(BerryClient.props(new JSONParser(), manager, new QueryPlanner(), config, out, sliceCache), config, request)
     }
   }
 
@@ -108,7 +110,7 @@ class Cloudberry @Inject()(val wsClient: WSClient,
     val source = Source.single(request.body)
 
     val flow = Cloudberry.actorFlow[JsValue, JsValue]({ out =>
-      BerryClient.props(new JSONParser(), manager, new QueryPlanner(), config, out)
+      BerryClient.props(new JSONParser(), manager, new QueryPlanner(), config, out, sliceCache)
     }, BerryClient.Done)
     val toStringFlow = Flow[JsValue].map(js => js.toString() + System.lineSeparator())
     Ok.chunked((source via flow) via toStringFlow)
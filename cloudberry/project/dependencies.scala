@@ -31,6 +31,7 @@ object Dependencies {
     "org.apache.spark" % "spark-core_2.11" % "2.1.0" exclude("org.slf4j", "slf4j-log4j12"),
     "org.apache.spark" % "spark-sql_2.11" % "2.1.0" exclude("org.slf4j", "slf4j-log4j12"),
     ("com.typesafe.play" %% "play-json" % playVersion).exclude("commons-logging", "commons-logging"),
-    "com.typesafe.play" %% "play-ws" % playVersion
+    "com.typesafe.play" %% "play-ws" % playVersion,
+    "com.h2database" % "h2" % "1.4.197" % Test
   ) ++ testDeps
 }
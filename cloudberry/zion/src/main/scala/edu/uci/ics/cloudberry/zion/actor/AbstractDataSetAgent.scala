@@ -1,18 +1,26 @@
 package edu.uci.ics.cloudberry.zion.actor
 
-import akka.actor.{Actor, ActorLogging, Props, Stash}
+import akka.actor.{Actor, ActorLogging, ActorRef, Props, Stash, Status}
 import akka.pattern.pipe
+import akka.stream.{ActorMaterializer, Materializer}
 import edu.uci.ics.cloudberry.zion.common.Config
-import edu.uci.ics.cloudberry.zion.model.datastore.{IDataConn, IQLGenerator}
+import edu.uci.ics.cloudberry.zion.model.datastore._
 import edu.uci.ics.cloudberry.zion.model.schema._
 import play.api.libs.json._
 
+import scala.concurrent.duration._
 import scala.concurrent.{ExecutionContext, Future}
+import scala.util.{Failure, Success}
 
 /**
   * Abstract class of DataSetAgent.
   * It separate the query related read-only work with the maintenance workload which usually modify the dataset.
   * All maintenance workloads are queued so that it conducted one by one.
+  * With an [[IStreamingDataConn]], the rows of a query without aggregation, e.g. the tweets of a sample, are parsed
+  * as the response comes in rather than once it is all read.
+  * A [[AbstractDataSetAgent.ColumnarQuery]] is answered by a [[ResultBatch]] when the connection reads one itself.
+  * A [[AbstractDataSetAgent.StreamedQuery]] is answered chunk by chunk as the streamed rows come, so that its requester
+  * merges them before the whole response is read.
   *
   * @param dbName
   * @param queryParser
@@ -45,20 +53,107 @@ abstract class AbstractDataSetAgent(val dbName: String,
     */
   protected def maintenanceWork: Receive
 
+  // stops its streams with the agent
+  private lazy val materializer: Materializer = ActorMaterializer()
+
   override def receive: Receive = querying orElse {
     maintenanceWork
   }
 
   protected def querying: Receive = {
-    case query: Query =>
-      estimate(query) match {
-        case Some(result) => sender() ! result
-        case None =>
-          //TODO should ask the MetaActor about other required schemas.
-          conn.postQuery(queryParser.generate(query, Map(dbName -> schema))) pipeTo sender()
-      }
+    case query: Query => answerQuery(query, columnar = false)
+    case AbstractDataSetAgent.ColumnarQuery(query) => answerQuery(query, columnar = true)
+    case AbstractDataSetAgent.StreamedQuery(query, to) => streamQuery(query, to)
+  }
+
+  private def answerQuery(query: Query, columnar: Boolean): Unit = {
+    estimate(query) match {
+      case Some(result) => sender() ! result
+      case None =>
+        //TODO should ask the MetaActor about other required schemas.
+        val statement = queryParser.generate(query, Map(dbName -> schema))
+        conn match {
+          case columnarConn: IColumnarDataConn if columnar =>
+            columnarConn.postQueryBatch(statement) pipeTo sender()
+          case streamingConn: IStreamingDataConn if AbstractDataSetAgent.isStreamable(query) =>
+            postQueryStream(streamingConn, statement) pipeTo sender()
+          case _ =>
+            conn.postQuery(statement) pipeTo sender()
+        }
+    }
+  }
+
+  // the end of the rows goes to the requester after its last chunk, and to the sender, whose query is then over
+  private def streamQuery(query: Query, to: ActorRef): Unit = {
+    import AbstractDataSetAgent._
+    val curSender = sender()
+    val fSent: Future[Unit] = estimate(query) match {
+      case Some(result) =>
+        Future.successful(result).map(estimated => to ! ResultChunk(estimated.as[JsArray]))
+      case None =>
+        val statement = queryParser.generate(query, Map(dbName -> schema))
+        conn match {
+          case streamingConn: IStreamingDataConn if isStreamable(query) =>
+            streamingConn.postQueryStream(statement)
+              .groupedWithin(ChunkRows, ChunkInterval)
+              .runForeach(rows => to ! ResultChunk(JsArray(rows)))(materializer)
+              .map(_ => ())
+              .recover {
+                case e: QueryFailedException => log.error(e, "query failed: " + statement)
+              }
+          case _ =>
+            conn.postQuery(statement).map(result => to ! ResultChunk(result.as[JsArray]))
+        }
+    }
+    fSent.onComplete {
+      case Success(_) =>
+        to ! ResultEnd
+        curSender ! ResultEnd
+      case Failure(e) =>
+        to ! Status.Failure(e)
+        curSender ! Status.Failure(e)
+    }
   }
 
+  // a failed query is answered as postQuery answers it
+  private def postQueryStream(streamingConn: IStreamingDataConn, statement: String): Future[JsValue] = {
+    IStreamingDataConn.collect(streamingConn.postQueryStream(statement))(materializer).recover {
+      case e: QueryFailedException =>
+        log.error(e, "query failed: " + statement)
+        streamingConn.defaultQueryResponse
+    }
+  }
+
+}
+
+object AbstractDataSetAgent {
+
+  /**
+    * A query whose requester merges the [[ResultBatch]] of an [[IColumnarDataConn]] as well as the JSON of the others.
+    */
+  case class ColumnarQuery(query: Query)
+
+  /**
+    * A query whose rows are sent to `to` in [[ResultChunk]]s, followed by a [[ResultEnd]], or a [[Status.Failure]].
+    * The rows of a query without aggregation over an [[IStreamingDataConn]] come as the response is read,
+    * the other results come in one chunk. The sender gets the same end, once all the chunks are sent.
+    */
+  case class StreamedQuery(query: Query, to: ActorRef)
+
+  case class ResultChunk(rows: JsArray)
+
+  case object ResultEnd
+
+  // a chunk holds the rows read within the interval, at most ChunkRows of them
+  val ChunkRows = 1000
+  val ChunkInterval: FiniteDuration = 100.milliseconds
+
+  /**
+    * Whether the rows of the query are read as they come from an [[IStreamingDataConn]]: those of an aggregation
+    * are too few to be worth it.
+    */
+  def isStreamable(query: Query): Boolean = query.groups.isEmpty && query.globalAggr.isEmpty
+
 }
 
 abstract class AbstractUpdatableDataSetAgent(override val dbName: String,
@@ -7,6 +7,7 @@ import edu.uci.ics.cloudberry.zion.actor.DataStoreManager.AskInfo
 import edu.uci.ics.cloudberry.zion.common.Config
 import edu.uci.ics.cloudberry.zion.model.datastore.{ICategoricalTransform, IPostTransform, JsonRequestException, NoTransform}
 import edu.uci.ics.cloudberry.zion.model.impl.{DataSetInfo, JSONParser, QueryPlanner}
+import edu.uci.ics.cloudberry.zion.model.slicing.SliceCache
 import play.api.libs.json._
 
 import scala.concurrent.{ExecutionContext, Future}
@@ -21,7 +22,8 @@ class BerryClient(val jsonParser: JSONParser,
                   val dataManager: ActorRef,
                   val planner: QueryPlanner,
                   val config: Config,
-                  val out: ActorRef
+                  val out: ActorRef,
+                  val sliceCacheOpt: Option[SliceCache] = None
                  )(implicit val ec: ExecutionContext) extends Actor with Stash with ActorLogging {
 
   import BerryClient._
@@ -71,7 +73,7 @@ class BerryClient(val jsonParser: JSONParser,
           case _ => "default"
         }
         val child = context.child(actorName).getOrElse(
-          context.actorOf(Props(new ProgressiveSolver(dataManager, planner, config, out)), actorName)
+          context.actorOf(Props(new ProgressiveSolver(dataManager, planner, config, out, sliceCacheOpt)), actorName)
         )
         child ! ProgressiveSolver.Cancel // Cancel ongoing slicing work if any
         child ! ProgressiveSolver.SlicingRequest(paceMS, resultSizeLimit, queries, mapInfos, transform, returnDelta)
@@ -84,9 +86,10 @@ object BerryClient {
 
   val Done = Json.obj("key" -> JsString("done"))
 
-  def props(jsonParser: JSONParser, dataManager: ActorRef, planner: QueryPlanner, config: Config, out: ActorRef)
+  def props(jsonParser: JSONParser, dataManager: ActorRef, planner: QueryPlanner, config: Config, out: ActorRef,
+            sliceCacheOpt: Option[SliceCache] = None)
            (implicit ec: ExecutionContext) = {
-    Props(new BerryClient(jsonParser, dataManager, planner, config, out))
+    Props(new BerryClient(jsonParser, dataManager, planner, config, out, sliceCacheOpt))
   }
 
   def noSuchDatasetJson(name: String): JsValue = {
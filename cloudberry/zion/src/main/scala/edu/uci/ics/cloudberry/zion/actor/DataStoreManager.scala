@@ -1,20 +1,22 @@
 package edu.uci.ics.cloudberry.zion.actor
 
 import akka.actor._
-import akka.pattern.ask
+import akka.pattern.{after, ask, pipe}
 import akka.util.Timeout
 import edu.uci.ics.cloudberry.zion.actor.OriginalDataAgent.NewStats
 import edu.uci.ics.cloudberry.zion.common.Config
 import edu.uci.ics.cloudberry.zion.model.datastore._
-import edu.uci.ics.cloudberry.zion.model.impl.{DataSetInfo, Stats, UnresolvedSchema}
+import edu.uci.ics.cloudberry.zion.model.impl.StatementScheduler.Priority
+import edu.uci.ics.cloudberry.zion.model.impl.{DataSetInfo, QueryResultCache, StatementScheduler, Stats, UnresolvedSchema}
 import edu.uci.ics.cloudberry.zion.model.impl.DataSetInfo._
 import edu.uci.ics.cloudberry.zion.model.schema._
+import edu.uci.ics.cloudberry.zion.model.slicing.SliceCache
 import org.joda.time.{DateTime, Interval}
 import play.api.libs.functional.syntax._
 import play.api.libs.json._
 
 import scala.collection.mutable
-import scala.concurrent.{ExecutionContext, Future}
+import scala.concurrent.{ExecutionContext, Future, TimeoutException}
 import scala.util.control.NonFatal
 import scala.util.{Failure, Success}
 
@@ -22,7 +24,8 @@ class DataStoreManager(metaDataset: String,
                        val conn: IDataConn,
                        val queryGenFactory: IQLGeneratorFactory,
                        val config: Config,
-                       val childMaker: DataStoreManager.ChildMakerFuncType)
+                       val childMaker: DataStoreManager.ChildMakerFuncType,
+                       val sliceCacheOpt: Option[SliceCache] = None)
                       (implicit ec: ExecutionContext) extends Actor with Stash with ActorLogging {
 
   import DataStoreManager._
@@ -37,6 +40,17 @@ class DataStoreManager(metaDataset: String,
   val creatingSet: TSet = scala.collection.mutable.Set[String]()
   val managerParser = queryGenFactory()
   implicit val askTimeOut: Timeout = Timeout(config.DataManagerAppendViewTimeOut)
+  // bound the statements admitted by the scheduler, whose slots are freed only once they complete: a query that
+  // runs past the timeout of its requester still holds its slot while the backend runs it
+  val queryTimeOut: Timeout = Timeout(config.SchedulerQueryTimeOut)
+  val maintenanceTimeOut: Timeout = Timeout(config.SchedulerMaintenanceTimeOut)
+  val resultCache: QueryResultCache = QueryResultCache(config)
+  // the datasets whose caching was switched at runtime, overriding the config
+  val resultCacheSwitches: scala.collection.mutable.Map[String, Boolean] = scala.collection.mutable.Map[String, Boolean]()
+  // admits the queries, the view maintenance and the stats collection to the backend by their priority
+  val scheduler: StatementScheduler = StatementScheduler(config)
+  // the timeouts are scheduled out of the actor, from the callbacks of the statements
+  private val timer: Scheduler = context.system.scheduler
 
   val metaActor: ActorRef = childMaker(AgentType.Meta, context, "meta", DataSetInfo.MetaDataDBName, DataSetInfo.MetaSchema, None, queryGenFactory(), conn, config)
 
@@ -73,6 +87,10 @@ class DataStoreManager(metaDataset: String,
     case register: Register => registerNewDataset(sender(), register)
     case deregister: Deregister => deregisterDataSet(sender(), deregister)
     case query: Query => answerQuery(query)
+    case scheduled: ScheduledQuery if scheduled.streamed =>
+      answerQuery(scheduled.query, priority = scheduled.priority, session = scheduled.session, streamTo = Some(sender()))
+    case scheduled: ScheduledQuery =>
+      answerQuery(scheduled.query, priority = scheduled.priority, session = scheduled.session, columnar = true)
     case append: AppendView => answerQuery(append, Some(DateTime.now()))
     case append: AppendViewAutomatic =>
       //TODO move updating logics to ViewDataAgent
@@ -125,12 +143,19 @@ class DataStoreManager(metaDataset: String,
         val updatedDataInterval = newStats.dataInterval
         val updatedInfo = originInfo.copy(stats = updatedStats, dataInterval = updatedDataInterval)
         metaData.put(newStats.dbName, updatedInfo)
+        invalidateResults(newStats.dbName)
         flushMetaData()
       } else {
         log.error("Database not existed in meta table: " + newStats.dbName)
       }
 
     case FlushMeta => flushMetaData()
+
+    case switch: SwitchResultCache =>
+      resultCacheSwitches.put(switch.dataset, switch.enabled)
+      if (!switch.enabled) resultCache.invalidate(switch.dataset)
+    case AskResultCacheStats => sender() ! resultCache.stats
+    case AskSchedulerStats => sender() ! scheduler.stats
   }
 
   //persistent metadata periodically
@@ -187,6 +212,7 @@ class DataStoreManager(metaDataset: String,
     if (metaData.contains(dropTableName)) {
 
       metaData.remove(dropTableName)
+      invalidateResults(dropTableName)
       context.child("data-" + dropTableName).foreach(child => child ! PoisonPill)
       val metaRecordFilter = FilterStatement(DataSetInfo.MetaSchema.fieldMap("name"), None, Relation.matches, Seq(dropTableName))
       metaActor ! DeleteRecord(metaDataset, Seq(metaRecordFilter))
@@ -195,6 +221,7 @@ class DataStoreManager(metaDataset: String,
         info.createQueryOpt.exists(query => query.dataset == dropTableName)
       }.foreach { case (name, info) =>
         metaActor ! DropView(name)
+        invalidateResults(name)
         context.child("data-" + name).foreach(child => child ! PoisonPill)
       }
 
@@ -213,7 +240,12 @@ class DataStoreManager(metaDataset: String,
     }
   }
 
-  private def answerQuery(query: IQuery, now: Option[DateTime] = None): Unit = {
+  private def answerQuery(query: IQuery,
+                          now: Option[DateTime] = None,
+                          priority: Priority.Value = Priority.Interactive,
+                          session: String = DefaultSession,
+                          columnar: Boolean = false,
+                          streamTo: Option[ActorRef] = None): Unit = {
     if (!metaData.contains(query.dataset)) return
 
     val actor = context.child("data-" + query.dataset).getOrElse {
@@ -232,16 +264,40 @@ class DataStoreManager(metaDataset: String,
       }
     }
     query match {
-      case q: Query => actor.forward(q)
+      case q: Query if isResultCached(q) =>
+        resultCache.getOrLoad(q)(scheduler.submit(priority, session)(actor.ask(q)(queryTimeOut).mapTo[JsValue])) pipeTo sender()
+      case q: Query if streamTo.isDefined =>
+        // the agent sends the chunks and the end to the requester itself, the ask only holds the slot until the end
+        val requester = streamTo.get
+        scheduler.submit(priority, session)(actor.ask(AbstractDataSetAgent.StreamedQuery(q, requester))(queryTimeOut)).onFailure {
+          case e => requester ! Status.Failure(e)
+        }
+      case q: Query if columnar =>
+        scheduler.submit(priority, session)(actor.ask(AbstractDataSetAgent.ColumnarQuery(q))(queryTimeOut)) pipeTo sender()
+      case q: Query => scheduler.submit(priority, session)(actor.ask(q)(queryTimeOut)) pipeTo sender()
       case q: AppendView =>
-        (actor ? q) map {
-          case true => updateStats(q.dataset, now.get)
+        scheduler.submit(Priority.Maintenance, q.dataset)(actor.ask(q)(maintenanceTimeOut)) map {
+          case true =>
+            invalidateResults(q.dataset)
+            updateStats(q.dataset, now.get)
           case false =>
         }
       case _ => ???
     }
   }
 
+  // the cached query results and the cached slice buckets of the dataset go together
+  private def invalidateResults(dataset: String): Unit = {
+    resultCache.invalidate(dataset)
+    sliceCacheOpt.foreach(_.results.invalidate(dataset))
+  }
+
+  // the estimable queries are answered from the stats, which move on between two NewStats
+  private def isResultCached(query: Query): Boolean = {
+    !query.isEstimable && resultCacheSwitches.getOrElse(query.dataset,
+      config.QueryCacheDataSets.exists(dataset => dataset == "*" || dataset == query.dataset))
+  }
+
   private def createView(create: CreateView): Unit = {
     if (metaData.contains(create.dataset) || !metaData.contains(create.query.dataset) || creatingSet.contains(create.dataset)) {
       log.warning(s"invalid dataset in the CreateView msg: $create")
@@ -259,7 +315,7 @@ class DataStoreManager(metaDataset: String,
     val fixEndFilter = FilterStatement(schema.timeField, None, Relation.<, Seq(TimeField.TimeFormat.print(now)))
     val newCreateQuery = create.query.copy(filter = fixEndFilter +: create.query.filter)
     val queryString = managerParser.generate(create.copy(query = newCreateQuery), Map(create.query.dataset -> sourceInfo.schema))
-    conn.postControl(queryString) onSuccess {
+    scheduler.submit(Priority.Maintenance, create.dataset)(bounded(conn.postControl(queryString))) onSuccess {
       case true =>
         collectStats(create.dataset, resultSchema) onComplete {
           case Success((interval, size)) =>
@@ -290,14 +346,26 @@ class DataStoreManager(metaDataset: String,
     val maxTimeQuery = Query(dataset, globalAggr = Some(GlobalAggregateStatement(AggregateStatement(timeField, Max, Field.as(Max(timeField), "max")))))
     val cardinalityQuery = Query(dataset, globalAggr = Some(GlobalAggregateStatement(AggregateStatement(schema.fieldMap("*"), Count, Field.as(Min(timeField), "count")))))
     val parser = queryGenFactory()
+    def post(query: Query): Future[JsValue] = {
+      // a statement that fails to generate does not take a slot
+      val statement = parser.generate(query, Map(dataset -> schema))
+      scheduler.submit(Priority.Statistics, dataset)(bounded(conn.postQuery(statement)))
+    }
     import TimeField.TimeFormat
     for {
-      minTime <- conn.postQuery(parser.generate(minTimeQuery, Map(dataset -> schema))).map(r => (r \\ "min").head.as[String])
-      maxTime <- conn.postQuery(parser.generate(maxTimeQuery, Map(dataset -> schema))).map(r => (r \\ "max").head.as[String])
-      cardinality <- conn.postQuery(parser.generate(cardinalityQuery, Map(dataset -> schema))).map(r => (r \\ "count").head.as[Long])
+      minTime <- post(minTimeQuery).map(r => (r \\ "min").head.as[String])
+      maxTime <- post(maxTimeQuery).map(r => (r \\ "max").head.as[String])
+      cardinality <- post(cardinalityQuery).map(r => (r \\ "count").head.as[Long])
     } yield (new TJodaInterval(TimeFormat.parseDateTime(minTime), TimeFormat.parseDateTime(maxTime)), cardinality)
   }
 
+  // fails the statement once it runs past the maintenance timeout, so that it frees its slot
+  private def bounded[T](statement: Future[T]): Future[T] = {
+    val timeOut = maintenanceTimeOut.duration
+    val timedOut = after(timeOut, timer)(Future.failed(new TimeoutException(s"the statement did not complete within $timeOut")))
+    Future.firstCompletedOf(Seq(statement, timedOut))
+  }
+
   private def flushMetaData(): Unit = {
     metaActor ! UpsertRecord(metaDataset, Json.toJson(metaData.values.map(DataSetInfo.write(_))).asInstanceOf[JsArray])
   }
@@ -317,9 +385,10 @@ object DataStoreManager {
   def props(metaDataSet: String,
             conn: IDataConn,
             queryParserFactory: IQLGeneratorFactory,
-            config: Config)
+            config: Config,
+            sliceCacheOpt: Option[SliceCache] = None)
            (implicit ec: ExecutionContext) = {
-    Props(new DataStoreManager(metaDataSet, conn, queryParserFactory, config, defaultMaker))
+    Props(new DataStoreManager(metaDataSet, conn, queryParserFactory, config, defaultMaker, sliceCacheOpt))
   }
 
   def defaultMaker(agentType: AgentType.Value,
@@ -376,4 +445,20 @@ object DataStoreManager {
 
   case object ListAllDataset
 
+  case class SwitchResultCache(dataset: String, enabled: Boolean)
+
+  case object AskResultCacheStats
+
+  /**
+    * A query of a client, admitted to the backend in the class and the turn of its session.
+    * Unless its result is cached, it is answered by a [[ResultBatch]] or by JSON, see [[IQuerySolver]].
+    * A streamed query is answered as an [[AbstractDataSetAgent.StreamedQuery]], in chunks, or by its JSON if it is cached.
+    */
+  case class ScheduledQuery(query: Query, priority: StatementScheduler.Priority.Value, session: String, streamed: Boolean = false)
+
+  // the session of the queries that come without one
+  val DefaultSession = ""
+
+  case object AskSchedulerStats
+
 }
@@ -1,37 +1,88 @@
 package edu.uci.ics.cloudberry.zion.actor
 
-import akka.actor.ActorRef
+import akka.actor.{Actor, ActorRef, ActorRefFactory, Props, ReceiveTimeout, Status}
 import akka.pattern.ask
 import akka.util.Timeout
-import edu.uci.ics.cloudberry.zion.actor.DataStoreManager.AskInfoAndViews
+import edu.uci.ics.cloudberry.zion.actor.AbstractDataSetAgent.{ResultChunk, ResultEnd}
+import edu.uci.ics.cloudberry.zion.actor.DataStoreManager.{AskInfoAndViews, ScheduledQuery}
+import edu.uci.ics.cloudberry.zion.model.datastore.ResultBatch
+import edu.uci.ics.cloudberry.zion.model.impl.StatementScheduler.Priority
 import edu.uci.ics.cloudberry.zion.model.impl.{DataSetInfo, QueryPlanner}
 import edu.uci.ics.cloudberry.zion.model.schema.Query
-import play.api.libs.json.{JsObject, JsString, JsValue}
+import play.api.libs.json.{JsArray, JsObject, JsString, JsValue}
 
-import scala.concurrent.{ExecutionContext, Future}
+import scala.concurrent.{ExecutionContext, Future, Promise}
+import scala.util.{Failure, Success}
 
 trait IQuerySolver {
   def dataManager: ActorRef
 
   def planner: QueryPlanner
 
-  protected def solveAQuery(query: Query)(implicit timeout: Timeout, execution: ExecutionContext): Future[JsValue] = {
-    val fInfos = dataManager ? AskInfoAndViews(query.dataset) map {
-      case seq: Seq[_] if seq.forall(_.isInstanceOf[DataSetInfo]) =>
-        seq.map(_.asInstanceOf[DataSetInfo])
-      case _ => Seq.empty
-    }
+  /**
+    * The class the queries of the solver are admitted in by the [[DataStoreManager]].
+    */
+  protected def priority: Priority.Value
+
+  /**
+    * The session the solver works for, whose queries take turns with those of the other sessions.
+    */
+  protected def session: String
 
-    fInfos.flatMap {
+  protected def solveAQuery(query: Query)(implicit timeout: Timeout, execution: ExecutionContext): Future[JsValue] = {
+    askInfos(query).flatMap {
       case seq if seq.isEmpty =>
         Future(IQuerySolver.noSuchDatasetJson(query.dataset))
       case infos: Seq[DataSetInfo] =>
         val (queries, merger) = planner.makePlan(query, infos.head, infos.tail)
         val fResponse = Future.traverse(queries) { subQuery =>
-          dataManager ? subQuery
-        }.map(seq => seq.map(_.asInstanceOf[JsValue]))
+          dataManager ? ScheduledQuery(subQuery, priority, session)
+        }
+
+        // the batches of a columnar connection are merged on their columns, and turned into JSON only once merged
+        fResponse.map { responses =>
+          if (responses.forall(_.isInstanceOf[ResultBatch])) {
+            merger.mergeBatches(responses.map(_.asInstanceOf[ResultBatch]))
+          } else {
+            merger(responses.map {
+              case batch: ResultBatch => batch.toJson
+              case json => json.asInstanceOf[JsValue]
+            })
+          }
+        }
+    }
+  }
+
+  /**
+    * Answers a query without groups or a global aggregation, see [[AbstractDataSetAgent.isStreamable]], by chunks
+    * of its rows: `onChunk` gets each chunk as the backend returns it, and the future completes once all the
+    * sub-queries of its plan are over. The chunks are not merged here, the caller merges them as they come.
+    *
+    * @param factory the context of the calling actor, which owns the actor that receives the chunks
+    */
+  protected def streamAQuery(query: Query, factory: ActorRefFactory)(onChunk: JsArray => Unit)
+                            (implicit timeout: Timeout, execution: ExecutionContext): Future[Unit] = {
+    val done = Promise[Unit]()
+    // made by the calling actor itself, since its context is not safe to use in the callbacks of a future
+    val forwarder = factory.actorOf(Props(new IQuerySolver.ChunkForwarder(onChunk, done, timeout)))
+    askInfos(query).onComplete {
+      case Success(seq) if seq.isEmpty =>
+        forwarder ! Status.Failure(new IllegalArgumentException(s"Dataset ${query.dataset} does not exist"))
+      case Success(infos) =>
+        val (queries, _) = planner.makePlan(query, infos.head, infos.tail)
+        forwarder ! IQuerySolver.ChunkForwarder.Expect(queries.size)
+        queries.foreach(subQuery => dataManager.tell(ScheduledQuery(subQuery, priority, session, streamed = true), forwarder))
+      case Failure(e) =>
+        forwarder ! Status.Failure(e)
+    }
+    done.future
+  }
 
-        fResponse.map { responses => merger(responses) }
+  private def askInfos(query: Query)(implicit timeout: Timeout, execution: ExecutionContext): Future[Seq[DataSetInfo]] = {
+    dataManager ? AskInfoAndViews(query.dataset) map {
+      case seq: Seq[_] if seq.forall(_.isInstanceOf[DataSetInfo]) =>
+        seq.map(_.asInstanceOf[DataSetInfo])
+      case _ => Seq.empty
     }
   }
 
@@ -51,4 +102,54 @@ object IQuerySolver {
   def noSuchDatasetJson(name: String): JsValue = {
     JsObject(Seq("error" -> JsString(s"Dataset $name does not exist")))
   }
+
+  /**
+    * Hands the chunks of the streamed sub-queries to `onChunk` and completes `done` once the expected number
+    * of them is over. A cached sub-query comes as its whole result, one chunk that is over at once.
+    * It fails `done` if a sub-query fails, or if nothing comes for longer than the timeout, and stops once it is done.
+    */
+  private[actor] class ChunkForwarder(onChunk: JsArray => Unit, done: Promise[Unit], timeout: Timeout) extends Actor {
+
+    import ChunkForwarder._
+
+    private var expected = Int.MaxValue
+    private var ended = 0
+
+    context.setReceiveTimeout(timeout.duration)
+
+    override def receive: Receive = {
+      case Expect(count) =>
+        expected = count
+        checkDone()
+      case ResultChunk(rows) =>
+        onChunk(rows)
+      case ResultEnd =>
+        ended += 1
+        checkDone()
+      case rows: JsArray =>
+        onChunk(rows)
+        ended += 1
+        checkDone()
+      case Status.Failure(e) =>
+        done.tryFailure(e)
+        context.stop(self)
+      case ReceiveTimeout =>
+        done.tryFailure(new IllegalStateException(s"no chunk came in ${timeout.duration}"))
+        context.stop(self)
+    }
+
+    private def checkDone(): Unit = {
+      if (ended >= expected) {
+        done.trySuccess(())
+        context.stop(self)
+      }
+    }
+  }
+
+  private[actor] object ChunkForwarder {
+
+    case class Expect(count: Int)
+
+  }
+
 }
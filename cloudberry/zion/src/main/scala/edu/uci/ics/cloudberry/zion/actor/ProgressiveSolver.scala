@@ -7,40 +7,61 @@ import edu.uci.ics.cloudberry.zion.actor.ProgressiveSolver._
 import edu.uci.ics.cloudberry.zion.common.Config
 import edu.uci.ics.cloudberry.zion.model.datastore.IPostTransform
 import edu.uci.ics.cloudberry.zion.model.impl.QueryPlanner.IMerger
+import edu.uci.ics.cloudberry.zion.model.impl.StatementScheduler.Priority
 import edu.uci.ics.cloudberry.zion.model.impl.{DataSetInfo, QueryPlanner}
 import edu.uci.ics.cloudberry.zion.model.schema._
-import edu.uci.ics.cloudberry.zion.model.slicing.Drum
+import edu.uci.ics.cloudberry.zion.model.slicing.{Drum, PipelineWidth, SliceCache}
 import org.joda.time.DateTime
 import play.api.libs.json.{JsArray, JsNumber, JsValue, JsObject, Json}
 
 import scala.concurrent.duration.FiniteDuration
 import scala.concurrent.{ExecutionContext, Future}
+import scala.util.control.NonFatal
 import scala.util.{Failure, Success}
 
 /**
   * The Streaming Actor slices one query to a sequence of mini-queries and responds with a stream of partial results.
   * If it receives multiple queries, the later queries will be stashed until the existing slicing is over.
   * If it receives a Cancel message, the current slicing will be stopped.
+  * With a [[SliceCache]], the whole time buckets of a slice that are already in the cache are not queried again,
+  * and the others are queried at most `slicecache.max.concurrency` at a time.
+  * If the config allows more than one slice in flight, the slices of a query without a result limit are pipelined:
+  * the next slices are issued while the earlier ones run, as many as the [[PipelineWidth]] learns the backend runs
+  * side by side, and their results are merged in the order they arrive.
+  * A query group with a query whose partial results do not merge exactly, see [[QueryPlanner.isMergeable]],
+  * is answered in one slice over the whole boundary, without going through the time buckets.
+  * The rows of a query without groups or a global aggregation are streamed: the chunks of a slice are merged
+  * as they come, and the slice is answered with their merge once all of them are in.
   *
   * @param dataManager
   * @param planner
   * @param config
   * @param out
+  * @param sliceCacheOpt
   */
 class ProgressiveSolver(val dataManager: ActorRef,
                         val planner: QueryPlanner,
                         val config: Config,
-                        val out: ActorRef
+                        val out: ActorRef,
+                        val sliceCacheOpt: Option[SliceCache] = None
                        )(implicit val ec: ExecutionContext) extends Actor with Stash with IQuerySolver with ActorLogging {
 
   implicit val askTimeOut: Timeout = config.UserTimeOut
 
+  override protected val priority: Priority.Value = Priority.Slicing
+
+  // the client that made the solver
+  override protected val session: String = context.parent.path.toString
+
   private var ts: Long = 0
   private val reporter: ActorRef = context.actorOf(Props(new Reporter(out)))
+  // the merged chunks of the streamed queries of the slices in flight, by the index of the query in the group
+  private var streamedRows = Map.empty[TInterval, Map[Int, JsArray]]
 
   override def receive: Receive = {
     case request: SlicingRequest =>
       ts = DateTime.now().getMillis
+      streamedRows = Map.empty
       reporter ! Reporter.Reset(FiniteDuration(request.intervalMS, "ms"))
       val queryInfos = request.queries.map { query =>
         val info = request.infos(query.dataset)
@@ -59,15 +80,27 @@ class ProgressiveSolver(val dataManager: ActorRef,
 
       val initialDuration = config.FirstQueryTimeGap
       val minimumDuration = config.MinTimeGap
-      val interval = calculateFirst(boundary, initialDuration)
+      val mergeable = request.queries.forall(QueryPlanner.isMergeable)
+      val interval = if (mergeable) calculateFirst(boundary, initialDuration) else boundary
       val queryGroup = QueryGroup(ts, queryInfos, request.postTransform)
       val initResult = Seq.fill(queryInfos.size)(JsArray())
       issueQueryGroup(interval, queryGroup)
       val drumEstimator = new Drum(boundary.toDuration.getStandardHours.toInt, alpha = 0.00001, minimumDuration.toHours.toInt)
-      context.become(askSlice(request.resultSizeLimitOpt, request.intervalMS, request.intervalMS, interval, drumEstimator, Int.MaxValue, boundary, queryGroup, initResult, issuedTimestamp = DateTime.now, request.returnDelta), discardOld = true)
+      if (mergeable && config.SlicingPipelineMax > 1 && request.resultSizeLimitOpt.isEmpty) {
+        val now = DateTime.now.getMillis
+        val firstSlice = Slice(interval, Int.MaxValue, now, inFlight = 1)
+        val pipeline = Pipeline(request.intervalMS, boundary, queryGroup, request.returnDelta, drumEstimator,
+          new PipelineWidth(config.SlicingPipelineMax), Seq(firstSlice), answered = Seq.empty, coveredFrom = boundary.getEndMillis,
+          nextEnd = interval.getStartMillis, lastDeadline = now + request.intervalMS, initResult)
+        context.become(pipelining(pipeline), discardOld = true)
+      } else {
+        context.become(askSlice(request.resultSizeLimitOpt, request.intervalMS, request.intervalMS, interval, drumEstimator, Int.MaxValue, boundary, queryGroup, initResult, issuedTimestamp = DateTime.now, request.returnDelta), discardOld = true)
+      }
     case _: MiniQueryResult =>
       // do nothing
       log.debug(s"receive: obsolete query result")
+    case _: MiniQueryChunk =>
+      log.debug(s"receive: obsolete query chunk")
     case Cancel =>
       // do nothing
       log.debug(s"receive: cancel")
@@ -84,16 +117,10 @@ class ProgressiveSolver(val dataManager: ActorRef,
                        accumulateResults: Seq[JsArray],
                        issuedTimestamp: DateTime,
                        returnDelta : Boolean): Receive = {
+    case chunk: MiniQueryChunk if chunk.key == ts =>
+      mergeChunk(queryGroup, chunk)
     case result: MiniQueryResult if result.key == ts =>
-      val mergedResults = queryGroup.queries.zipWithIndex.map {
-        case (q, idx) =>
-          if(returnDelta){
-            q.merger(Seq(result.jsons(idx)))
-          }
-          else {
-            q.merger(Seq(accumulateResults(idx), result.jsons(idx)))
-          }
-      }
+      val mergedResults = mergeResults(queryGroup, accumulateResults, withStreamed(result).jsons, returnDelta)
 
       val timeSpend = DateTime.now.getMillis - issuedTimestamp.getMillis
       val diff = Math.max(0, timeLimitMS - timeSpend)
@@ -104,36 +131,7 @@ class ProgressiveSolver(val dataManager: ActorRef,
 
         val limitResultOpt = resultSizeLimitOpt.map(limit => Seq(JsArray(mergedResults.head.value.take(limit))))
         val returnedResult = limitResultOpt.getOrElse(mergedResults)
-
-        // handle average results
-        val avgHandledResults = returnedResult.map(
-          mergedResult => {
-            QueryPlanner.handleAvg(mergedResult)
-          }
-        )
-
-        val timeInterval = Json.obj(
-          "timeInterval" -> Json.obj(
-            "start" -> JsNumber(curInterval.getStart().getMillis()),
-            "end" -> JsNumber(boundary.getEnd().getMillis())
-        ))
-        // for query with slicing request, add current timeInterval information in its query results.
-        val infoValue = queryGroup.postTransform.transform(JsArray(avgHandledResults))
-
-        val results : JsValue = infoValue match {
-          case _: JsArray =>
-            Json.toJson(JsObject(Seq("value" -> infoValue)) ++ timeInterval)
-          case _: JsValue =>
-            val infoObject = infoValue.asOpt[JsObject].getOrElse(JsObject(Seq.empty))
-            Json.toJson(infoObject ++ timeInterval)
-        }
-
-        reporter ! Reporter.PartialResult(curInterval.getStartMillis, boundary.getEndMillis, 1.0, results)
-        reporter ! Reporter.Fin(queryGroup.postTransform.transform(BerryClient.Done), returnDelta)
-
-        queryGroup.queries.foreach(qinfo => suggestViews(qinfo.query))
-        unstashAll() // in case there are new queries
-        context.become(receive, discardOld = true)
+        finishSlicing(returnedResult, curInterval.getStartMillis, boundary, queryGroup, returnDelta)
       } else {
         val progress = if (resultSizeLimitOpt.isDefined) {
           mergedResults.size / resultSizeLimitOpt.get.toDouble
@@ -141,35 +139,15 @@ class ProgressiveSolver(val dataManager: ActorRef,
           curInterval.withEnd(boundary.getEnd).toDurationMillis.toDouble / boundary.toDurationMillis
         }
 
-        // handle average results
-        val avgHandledResults = mergedResults.map(
-          mergedResult => {
-            QueryPlanner.handleAvg(mergedResult)
-          }
-        )
-
-        val timeInterval = Json.obj(
-          "timeInterval" -> Json.obj(
-            "start" -> JsNumber(curInterval.getStart().getMillis()),
-            "end" -> JsNumber(boundary.getEnd().getMillis())
-        ))
-        // for query with slicing request, add current timeInterval information in its query results.
-        val infoValue = queryGroup.postTransform.transform(JsArray(avgHandledResults))
-
-        val results : JsValue = infoValue match {
-          case _: JsArray =>
-            Json.toJson(JsObject(Seq("value" -> infoValue)) ++ timeInterval)
-          case _: JsValue =>
-            val infoObject = infoValue.asOpt[JsObject].getOrElse(JsObject(Seq.empty))
-            Json.toJson(infoObject ++ timeInterval)
-        }
-
+        val results = formatResults(mergedResults, curInterval.getStartMillis, boundary, queryGroup)
         reporter ! Reporter.PartialResult(curInterval.getStartMillis, boundary.getEndMillis, progress, results)
         issueQueryGroup(nextInterval, queryGroup)
         context.become(askSlice(resultSizeLimitOpt, paceMS, nextLimit, nextInterval, estimator, nextEstimateMS, boundary, queryGroup, mergedResults, DateTime.now, returnDelta), discardOld = true)
       }
     case result: MiniQueryResult =>
       log.debug(s"old result: $result")
+    case chunk: MiniQueryChunk =>
+      log.debug(s"old chunk: $chunk")
     case _: SlicingRequest =>
       stash()
     case ProgressiveSolver.Cancel =>
@@ -179,15 +157,168 @@ class ProgressiveSolver(val dataManager: ActorRef,
       context.become(receive, discardOld = true)
   }
 
+  private def pipelining(pipeline: Pipeline): Receive = {
+    case chunk: MiniQueryChunk if chunk.key == ts =>
+      mergeChunk(pipeline.queryGroup, chunk)
+    case result: MiniQueryResult if result.key == ts =>
+      pipeline.inFlight.find(_.interval == result.interval) match {
+        case Some(slice) => onSliceResult(pipeline, slice, withStreamed(result))
+        case None => log.debug(s"result of no slice in flight: $result")
+      }
+    case result: MiniQueryResult =>
+      log.debug(s"old result: $result")
+    case chunk: MiniQueryChunk =>
+      log.debug(s"old chunk: $chunk")
+    case _: SlicingRequest =>
+      stash()
+    case ProgressiveSolver.Cancel =>
+      reporter ! Reporter.Fin(JsNumber(0), pipeline.returnDelta)
+      log.debug("pipelining receive cancel")
+      unstashAll()
+      context.become(receive, discardOld = true)
+  }
+
+  private def onSliceResult(pipeline: Pipeline, slice: Slice, result: MiniQueryResult): Unit = {
+    val now = DateTime.now.getMillis
+    val actualMS = now - slice.issuedAt
+    val range = slice.interval.toDuration.getStandardHours.toInt
+    // the Drum learns the time of a slice as if it had the backend alone, its share of the time it ran side by side
+    pipeline.estimator.learn(range, slice.estimateMS.toInt, (actualMS / slice.inFlight).toInt)
+    pipeline.width.learn(slice.inFlight, range, actualMS)
+
+    val boundary = pipeline.boundary
+    val mergedResults = mergeResults(pipeline.queryGroup, pipeline.accumulateResults, result.jsons, pipeline.returnDelta)
+    val inFlight = pipeline.inFlight.filterNot(_ == slice)
+    // the answered slices join the covered range once the slices after them are answered too
+    var answered = pipeline.answered :+ slice.interval
+    var coveredFrom = pipeline.coveredFrom
+    var next = answered.find(_.getEndMillis == coveredFrom)
+    while (next.isDefined) {
+      coveredFrom = next.get.getStartMillis
+      answered = answered.filterNot(_ == next.get)
+      next = answered.find(_.getEndMillis == coveredFrom)
+    }
+
+    if (inFlight.isEmpty && pipeline.nextEnd <= boundary.getStartMillis) {
+      finishSlicing(mergedResults, coveredFrom, boundary, pipeline.queryGroup, pipeline.returnDelta)
+    } else {
+      val answeredMS = boundary.getEndMillis - coveredFrom + answered.map(_.toDurationMillis).sum
+      val progress = answeredMS.toDouble / boundary.toDurationMillis
+      val results = formatResults(mergedResults, coveredFrom, boundary, pipeline.queryGroup)
+      reporter ! Reporter.PartialResult(coveredFrom, boundary.getEndMillis, progress, results)
+
+      val issued = issueSlices(pipeline, inFlight, now)
+      val issuedPipeline = if (issued.isEmpty) pipeline else {
+        pipeline.copy(nextEnd = issued.last.interval.getStartMillis, lastDeadline = Math.max(pipeline.lastDeadline, now) + issued.size * pipeline.paceMS)
+      }
+      context.become(pipelining(issuedPipeline.copy(inFlight = inFlight ++ issued, answered = answered,
+        coveredFrom = coveredFrom, accumulateResults = mergedResults)), discardOld = true)
+    }
+  }
+
+  /**
+    * Issues the slices that fit in the width, each due one pace after the one before it, so that the results still
+    * come at the pace of the [[Reporter]]. The Drum plans their ranges against these time budgets, shared by the
+    * slices that run side by side as it learned them.
+    */
+  private def issueSlices(pipeline: Pipeline, inFlight: Seq[Slice], now: Long): Seq[Slice] = {
+    val free = pipeline.width.current - inFlight.size
+    if (free <= 0 || pipeline.nextEnd <= pipeline.boundary.getStartMillis) {
+      return Seq.empty
+    }
+    val firstDue = Math.max(pipeline.lastDeadline, now)
+    val budgets = (1 to free).map(i => ((firstDue + i * pipeline.paceMS - now) / pipeline.width.current).toInt)
+    val plans = pipeline.estimator.plan(budgets)
+
+    val planned = Seq.newBuilder[(TInterval, Int)]
+    var end = pipeline.nextEnd
+    plans.foreach { plan =>
+      if (end > pipeline.boundary.getStartMillis) {
+        val start = Math.max(pipeline.boundary.getStartMillis, new DateTime(end).minusHours(Math.max(1, plan.range)).getMillis)
+        planned += ((new TInterval(start, end), plan.estimateMS))
+        end = start
+      }
+    }
+    val intervals = planned.result()
+    intervals.map { case (interval, estimateMS) =>
+      issueQueryGroup(interval, pipeline.queryGroup)
+      Slice(interval, estimateMS, now, inFlight.size + intervals.size)
+    }
+  }
+
+  private def mergeResults(queryGroup: QueryGroup, accumulateResults: Seq[JsArray], jsons: Seq[JsArray], returnDelta: Boolean): Seq[JsArray] = {
+    queryGroup.queries.zipWithIndex.map {
+      case (q, idx) =>
+        if(returnDelta){
+          q.merger(Seq(jsons(idx)))
+        }
+        else {
+          q.merger(Seq(accumulateResults(idx), jsons(idx)))
+        }
+    }
+  }
+
+  private def mergeChunk(queryGroup: QueryGroup, chunk: MiniQueryChunk): Unit = {
+    val merger = queryGroup.queries(chunk.index).merger
+    val rows = streamedRows.getOrElse(chunk.interval, Map.empty)
+    val merged = rows.get(chunk.index).map(acc => merger(Seq(acc, chunk.rows))).getOrElse(merger(Seq(chunk.rows)))
+    streamedRows += chunk.interval -> (rows + (chunk.index -> merged))
+  }
+
+  // puts the merged chunks of the streamed queries of the slice in place of their empty answers
+  private def withStreamed(result: MiniQueryResult): MiniQueryResult = {
+    val streamed = streamedRows.getOrElse(result.interval, Map.empty)
+    streamedRows -= result.interval
+    result.copy(jsons = result.jsons.zipWithIndex.map { case (json, idx) => streamed.getOrElse(idx, json) })
+  }
+
+  private def formatResults(mergedResults: Seq[JsArray], start: Long, boundary: TInterval, queryGroup: QueryGroup): JsValue = {
+    // handle average results
+    val avgHandledResults = mergedResults.map(
+      mergedResult => {
+        QueryPlanner.handleAvg(mergedResult)
+      }
+    )
+
+    val timeInterval = Json.obj(
+      "timeInterval" -> Json.obj(
+        "start" -> JsNumber(start),
+        "end" -> JsNumber(boundary.getEnd().getMillis())
+    ))
+    // for query with slicing request, add current timeInterval information in its query results.
+    val infoValue = queryGroup.postTransform.transform(JsArray(avgHandledResults))
+
+    infoValue match {
+      case _: JsArray =>
+        Json.toJson(JsObject(Seq("value" -> infoValue)) ++ timeInterval)
+      case _: JsValue =>
+        val infoObject = infoValue.asOpt[JsObject].getOrElse(JsObject(Seq.empty))
+        Json.toJson(infoObject ++ timeInterval)
+    }
+  }
+
+  private def finishSlicing(results: Seq[JsArray], start: Long, boundary: TInterval, queryGroup: QueryGroup, returnDelta: Boolean): Unit = {
+    reporter ! Reporter.PartialResult(start, boundary.getEndMillis, 1.0, formatResults(results, start, boundary, queryGroup))
+    reporter ! Reporter.Fin(queryGroup.postTransform.transform(BerryClient.Done), returnDelta)
+
+    queryGroup.queries.foreach(qinfo => suggestViews(qinfo.query))
+    unstashAll() // in case there are new queries
+    context.become(receive, discardOld = true)
+  }
+
   private def issueQueryGroup(interval: TInterval, queryGroup: QueryGroup): Unit = {
-    val futures = Future.traverse(queryGroup.queries) {
-      queryInfo =>
+    val futures = Future.traverse(queryGroup.queries.zipWithIndex) {
+      case (queryInfo, index) =>
         if (queryInfo.queryBound.overlaps(interval)) {
           val overlaps = queryInfo.queryBound.overlap(interval)
-          val schema = queryInfo.dataSetInfo.schema.asInstanceOf[Schema]
-          val timeFilter = FilterStatement(schema.timeField, None, Relation.inRange,
-            Seq(overlaps.getStart, overlaps.getEnd).map(TimeField.TimeFormat.print))
-          solveAQuery(queryInfo.query.copy(filter = timeFilter +: queryInfo.query.filter))
+          sliceCacheOpt match {
+            case Some(sliceCache) if QueryPlanner.isMergeable(queryInfo.query) => solveInBuckets(queryInfo, overlaps, sliceCache)
+            case _ if AbstractDataSetAgent.isStreamable(queryInfo.query) =>
+              streamAQuery(withInterval(queryInfo, overlaps), context) { rows =>
+                self ! MiniQueryChunk(queryGroup.key, interval, index, rows)
+              }.map(_ => JsArray())
+            case _ => solveAQuery(withInterval(queryInfo, overlaps))
+          }
         } else {
           Future(JsArray())
         }
@@ -195,11 +326,40 @@ class ProgressiveSolver(val dataManager: ActorRef,
 
     futures.onComplete {
       case Success(answers) =>
-        self ! MiniQueryResult(queryGroup.key, queryGroup, answers.map(_.asInstanceOf[JsArray]))
+        self ! MiniQueryResult(queryGroup.key, queryGroup, answers.map(_.asInstanceOf[JsArray]), interval)
       case Failure(fails) => log.error(fails, "answer query failed")
     }
   }
 
+  private def withInterval(queryInfo: MiniQuery, interval: TInterval): Query = {
+    val schema = queryInfo.dataSetInfo.schema.asInstanceOf[Schema]
+    val timeFilter = FilterStatement(schema.timeField, None, Relation.inRange,
+      Seq(interval.getStart, interval.getEnd).map(TimeField.TimeFormat.print))
+    queryInfo.query.copy(filter = timeFilter +: queryInfo.query.filter)
+  }
+
+  /**
+    * Answers the interval piece by piece: the whole buckets that end before the dataset does come from the cache,
+    * or are queried and cached, the rest is queried as usual. The pieces are merged by the merger of the query.
+    * A slice over many buckets that are not cached yet does not send them all to the backend at once.
+    */
+  private def solveInBuckets(queryInfo: MiniQuery, interval: TInterval, sliceCache: SliceCache): Future[JsValue] = {
+    val pieces = sliceCache.buckets.split(interval, queryInfo.dataSetInfo.dataInterval.getEndMillis)
+    inLanes(pieces, config.SliceCacheMaxConcurrency) { case (piece, isBucket) =>
+      val query = withInterval(queryInfo, piece)
+      if (isBucket) {
+        sliceCache.results.getOrLoad(query) {
+          solveAQuery(query).flatMap {
+            case result: JsArray => Future.successful(result)
+            case other => Future.failed(new IllegalStateException(s"unexpected answer of $query: $other"))
+          }
+        }
+      } else {
+        solveAQuery(query)
+      }
+    }.map(results => if (results.size == 1) results.head else queryInfo.merger(results))
+  }
+
   private def calculateFirst(entireInterval: TInterval, duration: FiniteDuration): TInterval = {
     val startTime = Math.max(entireInterval.getEndMillis - duration.toMillis, entireInterval.getStartMillis)
     new TInterval(startTime, entireInterval.getEndMillis)
@@ -226,10 +386,55 @@ object ProgressiveSolver {
 
   case class SlicingRequest(intervalMS: Long, resultSizeLimitOpt: Option[Int], queries: Seq[Query], infos: Map[String, DataSetInfo], postTransform: IPostTransform, returnDelta: Boolean)
 
-  private case class MiniQueryResult(key: Long, queryGroup: QueryGroup, jsons: Seq[JsArray])
+  private case class MiniQueryResult(key: Long, queryGroup: QueryGroup, jsons: Seq[JsArray], interval: TInterval)
+
+  /**
+    * A chunk of the rows of the query at `index` in the group, streamed for the slice over `interval`.
+    */
+  private case class MiniQueryChunk(key: Long, interval: TInterval, index: Int, rows: JsArray)
 
   private case class MiniQuery(query: Query, dataSetInfo: DataSetInfo, queryBound: TInterval, merger: IMerger)
 
   private case class QueryGroup(key: Long, queries: Seq[MiniQuery], postTransform: IPostTransform)
 
+  /**
+    * A slice in flight, with the number of slices in flight when it was issued.
+    */
+  private case class Slice(interval: TInterval, estimateMS: Long, issuedAt: Long, inFlight: Int)
+
+  /**
+    * Maps the items to futures, at most `lanes` of them running at a time: the item i starts once the item
+    * i - lanes is done. The results keep the order of the items.
+    */
+  private def inLanes[A, B](items: Seq[A], lanes: Int)(f: A => Future[B])(implicit ec: ExecutionContext): Future[Seq[B]] = {
+    val started = items.foldLeft(Vector.empty[Future[B]]) { (started, item) =>
+      if (started.size < lanes) {
+        started :+ f(item)
+      } else {
+        val laneFree = started(started.size - lanes).map(_ => ()).recover { case NonFatal(_) => () }
+        started :+ laneFree.flatMap(_ => f(item))
+      }
+    }
+    Future.sequence(started)
+  }
+
+  /**
+    * The state of a pipelined slicing. The slices are issued from the end of the boundary backward, down to nextEnd,
+    * and the results of the answered ones are merged in accumulateResults as they arrive. The range covered without
+    * a gap goes from coveredFrom to the end of the boundary; the answered slices before a gap wait in answered.
+    * The last slice issued is due at lastDeadline.
+    */
+  private case class Pipeline(paceMS: Long,
+                              boundary: TInterval,
+                              queryGroup: QueryGroup,
+                              returnDelta: Boolean,
+                              estimator: Drum,
+                              width: PipelineWidth,
+                              inFlight: Seq[Slice],
+                              answered: Seq[TInterval],
+                              coveredFrom: Long,
+                              nextEnd: Long,
+                              lastDeadline: Long,
+                              accumulateResults: Seq[JsArray])
+
 }
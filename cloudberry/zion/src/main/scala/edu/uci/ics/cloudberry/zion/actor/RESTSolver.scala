@@ -4,6 +4,7 @@ import akka.actor.{Actor, ActorLogging, ActorRef}
 import akka.util.Timeout
 import edu.uci.ics.cloudberry.zion.model.datastore.IPostTransform
 import edu.uci.ics.cloudberry.zion.model.impl.QueryPlanner
+import edu.uci.ics.cloudberry.zion.model.impl.StatementScheduler.Priority
 import edu.uci.ics.cloudberry.zion.model.schema.Query
 import play.api.libs.json._
 
@@ -21,13 +22,18 @@ class RESTSolver(val dataManager: ActorRef,
                 )(implicit val ec: ExecutionContext, implicit val timeout: Timeout)
   extends Actor with IQuerySolver with ActorLogging {
 
+  override protected val priority: Priority.Value = Priority.Interactive
+
+  // the client that made the solver
+  override protected val session: String = context.parent.path.toString
+
   override def receive: Actor.Receive = {
     case (queries: Seq[Query], transform: IPostTransform) =>
       val futureResult = Future.traverse(queries)(q => solveAQuery(q)).map(JsArray.apply)
       futureResult.map(result => (queries, result)).foreach { case (qs, r) =>
         // handle average results
-        val avgHandledResult = r.value.map(rows => QueryPlanner.handleAvg(rows.as[JsArray]))
-        out ! transform.transform(Json.parse(Json.toJson(avgHandledResult).toString()))
+        val avgHandledResult = JsArray(r.value.map(rows => QueryPlanner.handleAvg(rows.as[JsArray])))
+        out ! transform.transform(avgHandledResult)
         //Disabled this suggest views to avoid competing resources in DB with ongoing ProgressiveSolver.
         //TODO Once we have view management mechanism, could use a common service to request a view creation.
         //qs.foreach(suggestViews)
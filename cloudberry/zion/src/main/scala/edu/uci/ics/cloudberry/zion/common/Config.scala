@@ -32,7 +32,50 @@ class Config(config: Configuration) {
 
   val MinTimeGap = config.getString("berry.query.gap").map(parseTimePair).getOrElse(1 day)
 
+  // the most slices of a slicing query in flight at a time, one slice after the other if 1
+  val SlicingPipelineMax: Int = config.getInt("berry.slicing.pipeline.max").getOrElse(1)
+
   val AgentCollectStatsInterval: FiniteDuration = config.getString("agent.collect.stats.interval").map(parseTimePair).getOrElse(4 hours)
+
+  // the datasets whose query results are cached, "*" for all of them
+  val QueryCacheDataSets: Seq[String] = config.getStringSeq("querycache.datasets").getOrElse(Seq.empty)
+
+  val QueryCacheMaxEntries: Int = config.getInt("querycache.max.entries").getOrElse(10000)
+
+  val QueryCacheMaxBytes: Long = config.getBytes("querycache.max.bytes").getOrElse(256L * 1024 * 1024)
+
+  val QueryCacheTTL: FiniteDuration = config.getString("querycache.ttl").map(parseTimePair).getOrElse(10 minutes)
+
+  // the length of the time buckets whose slice results are reused across slicing requests, not cached if absent
+  val SliceCacheBucket: Option[FiniteDuration] = config.getString("slicecache.bucket").map(parseTimePair)
+
+  val SliceCacheMaxEntries: Int = config.getInt("slicecache.max.entries").getOrElse(100000)
+
+  val SliceCacheMaxBytes: Long = config.getBytes("slicecache.max.bytes").getOrElse(512L * 1024 * 1024)
+
+  val SliceCacheTTL: FiniteDuration = config.getString("slicecache.ttl").map(parseTimePair).getOrElse(1 day)
+
+  // the buckets of one mini-query that are queried at the same time when they are not cached
+  val SliceCacheMaxConcurrency: Int = config.getInt("slicecache.max.concurrency").getOrElse(2)
+
+  // the connections of the JDBC connectors, each used by its own thread
+  val JdbcPoolSize: Int = config.getInt("jdbc.pool.size").getOrElse(8)
+
+  val JdbcFetchSize: Int = config.getInt("jdbc.fetch.size").getOrElse(1000)
+
+  // the statements the data manager runs on its backend at a time, of which the view maintenance and the stats take a few
+  val SchedulerMaxInFlight: Int = config.getInt("scheduler.max.inflight").getOrElse(16)
+
+  val SchedulerMaxBackground: Int = config.getInt("scheduler.max.background").getOrElse(2)
+
+  val SchedulerMaxYield: FiniteDuration = config.getString("scheduler.max.yield").map(parseTimePair).getOrElse(10 minutes)
+
+  // the longest a query holds its slot, however long its requester waits for it, so that the slot is freed when
+  // the backend is done with the query rather than when the user gives up on it
+  val SchedulerQueryTimeOut: FiniteDuration = config.getString("scheduler.timeout.query").map(parseTimePair).getOrElse(1 hour)
+
+  // the longest a view maintenance or a stats statement holds its slot
+  val SchedulerMaintenanceTimeOut: FiniteDuration = config.getString("scheduler.timeout.maintenance").map(parseTimePair).getOrElse(1 hour)
 }
 
 object Config {
@@ -20,3 +20,5 @@ case class JsonRequestException(msg: String) extends CherryException(msg, null)
 case class FieldNotFound(fieldName: String) extends QueryParsingException(s"cannot find field $fieldName")
 
 case class CollectStatsException(msg: String) extends CherryException(msg, null)
+
+case class QueryFailedException(msg: String) extends CherryException(msg, null)
@@ -0,0 +1,12 @@
+package edu.uci.ics.cloudberry.zion.model.datastore
+
+import scala.concurrent.Future
+
+/**
+  * A connection that reads the rows of a query result into a [[ResultBatch]] itself, e.g. from a JDBC result set,
+  * so that the partial results of a query are merged on their columns and only the merged rows become JSON.
+  */
+trait IColumnarDataConn extends IDataConn {
+
+  def postQueryBatch(statement: String): Future[ResultBatch]
+}
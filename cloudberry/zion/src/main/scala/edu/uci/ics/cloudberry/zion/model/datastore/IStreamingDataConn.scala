@@ -0,0 +1,31 @@
+package edu.uci.ics.cloudberry.zion.model.datastore
+
+import akka.NotUsed
+import akka.stream.Materializer
+import akka.stream.scaladsl.Source
+import play.api.libs.json.{JsArray, JsValue}
+
+import scala.concurrent.Future
+
+/**
+  * A connection that can also hand the rows of a query result over while the response is still being read,
+  * instead of holding the whole response before parsing it.
+  */
+trait IStreamingDataConn extends IDataConn {
+
+  /**
+    * The rows of the query result in the order of the response. As the response is read only once,
+    * the source is to be run once; it fails if the query fails.
+    */
+  def postQueryStream(statement: String): Source[JsValue, NotUsed]
+}
+
+object IStreamingDataConn {
+
+  /**
+    * Collects the streamed rows into the array of the whole result as they come.
+    */
+  def collect(rows: Source[JsValue, _])(implicit materializer: Materializer): Future[JsArray] = {
+    rows.runFold(Vector.newBuilder[JsValue])(_ += _).map(builder => JsArray(builder.result()))(materializer.executionContext)
+  }
+}
@@ -0,0 +1,352 @@
+package edu.uci.ics.cloudberry.zion.model.datastore
+
+import java.util
+
+import play.api.libs.json._
+
+import scala.collection.mutable.ArrayBuffer
+
+/**
+  * The rows of a query result stored column by column: the numbers and booleans in primitive arrays and the strings
+  * as codes into a dictionary of the column, so a large result costs a few arrays instead of a tree of [[JsValue]]s.
+  * The values a column can not hold in its type fall back to JSON values.
+  *
+  * As in the JSON objects it stands for, a row may lack a column (absent) or hold a null in it.
+  * The batch is converted to JSON once, by [[toJson]].
+  */
+final class ResultBatch private(val names: IndexedSeq[String], columns: IndexedSeq[ResultBatch.Column], val size: Int) {
+
+  import ResultBatch._
+
+  private lazy val indexOf: Map[String, Int] = names.zipWithIndex.toMap
+
+  /**
+    * The index of the column, or -1 if no row has it.
+    */
+  def columnIndex(name: String): Int = indexOf.getOrElse(name, -1)
+
+  def columnType(column: Int): ColumnType.Value = columns(column).columnType
+
+  def isPresent(column: Int, row: Int): Boolean = columns(column).present.get(row)
+
+  def isNull(column: Int, row: Int): Boolean = columns(column).nulls.get(row)
+
+  def long(column: Int, row: Int): Long = columns(column).long(row)
+
+  def double(column: Int, row: Int): Double = columns(column).double(row)
+
+  def string(column: Int, row: Int): String = columns(column).string(row)
+
+  def boolean(column: Int, row: Int): Boolean = columns(column).boolean(row)
+
+  /**
+    * The value as JSON, [[JsNull]] for both a null and an absent value.
+    */
+  def value(column: Int, row: Int): JsValue = {
+    val col = columns(column)
+    if (col.present.get(row) && !col.nulls.get(row)) col.value(row) else JsNull
+  }
+
+  def row(row: Int): JsObject = {
+    val fields = ArrayBuffer.empty[(String, JsValue)]
+    var column = 0
+    while (column < columns.size) {
+      if (columns(column).present.get(row)) {
+        fields += names(column) -> value(column, row)
+      }
+      column += 1
+    }
+    JsObject(fields)
+  }
+
+  def toJson: JsArray = JsArray((0 until size).map(row))
+}
+
+object ResultBatch {
+
+  object ColumnType extends Enumeration {
+    val Empty, Long, Double, String, Boolean, Json = Value
+  }
+
+  val empty: ResultBatch = new Builder().result()
+
+  /**
+    * The batch of an array of JSON objects.
+    */
+  def fromJson(rows: JsArray): ResultBatch = {
+    val builder = new Builder()
+    rows.value.foreach(builder.addRow)
+    builder.result()
+  }
+
+  /**
+    * Builds a batch row by row. The columns are looked up once by [[column]] and then set by index;
+    * the type of a column is that of its first value, widened from long to double, or to JSON on a conflict.
+    * A value once set stays, so a reader that may drop a row checks the row before setting any of its values.
+    */
+  final class Builder {
+    private val columnNames = ArrayBuffer.empty[String]
+    private val indexOf = new util.HashMap[String, Integer]()
+    private val builders = ArrayBuffer.empty[ColumnBuilder]
+    private var rows = 0
+
+    /**
+      * The index of the column, which is added if it is new.
+      */
+    def column(name: String): Int = {
+      val index = indexOf.get(name)
+      if (index != null) {
+        index
+      } else {
+        columnNames += name
+        builders += new ColumnBuilder
+        indexOf.put(name, builders.size - 1)
+        builders.size - 1
+      }
+    }
+
+    def setLong(column: Int, value: Long): Unit = builders(column).setLong(rows, value)
+
+    /**
+      * Sets a double, or a null if it is not finite, as JSON has no such numbers.
+      */
+    def setDouble(column: Int, value: Double): Unit = {
+      if (value.isNaN || value.isInfinite) builders(column).setNull(rows) else builders(column).setDouble(rows, value)
+    }
+
+    /**
+      * Sets a decimal as a long or a double if it is one exactly, or as JSON otherwise.
+      */
+    def setDecimal(column: Int, value: BigDecimal): Unit = {
+      if (value.isValidLong) {
+        builders(column).setLong(rows, value.toLongExact)
+      } else if (!value.toDouble.isInfinite && BigDecimal(value.toDouble) == value) {
+        builders(column).setDouble(rows, value.toDouble)
+      } else {
+        builders(column).setJson(rows, JsNumber(value))
+      }
+    }
+
+    def setString(column: Int, value: String): Unit = {
+      if (value == null) builders(column).setNull(rows) else builders(column).setString(rows, value)
+    }
+
+    def setBoolean(column: Int, value: Boolean): Unit = builders(column).setBoolean(rows, value)
+
+    def setNull(column: Int): Unit = builders(column).setNull(rows)
+
+    def setValue(column: Int, value: JsValue): Unit = value match {
+      case JsNumber(number) => setDecimal(column, number)
+      case JsString(string) => setString(column, string)
+      case JsBoolean(boolean) => setBoolean(column, boolean)
+      case JsNull => setNull(column)
+      case other => builders(column).setJson(rows, other)
+    }
+
+    def endRow(): Unit = rows += 1
+
+    /**
+      * Adds a JSON object as a whole row.
+      */
+    def addRow(row: JsValue): Unit = row match {
+      case obj: JsObject =>
+        obj.fields.foreach { case (name, value) => setValue(column(name), value) }
+        endRow()
+      case other =>
+        throw new IllegalArgumentException("a result row should be a JSON object, got " + other)
+    }
+
+    /**
+      * Sets the value of a row of another batch, without going through JSON unless the value is one.
+      */
+    def copy(column: Int, from: ResultBatch, fromColumn: Int, row: Int): Unit = {
+      if (from.isPresent(fromColumn, row)) {
+        if (from.isNull(fromColumn, row)) {
+          setNull(column)
+        } else {
+          from.columnType(fromColumn) match {
+            case ColumnType.Long => setLong(column, from.long(fromColumn, row))
+            case ColumnType.Double => setDouble(column, from.double(fromColumn, row))
+            case ColumnType.String => setString(column, from.string(fromColumn, row))
+            case ColumnType.Boolean => setBoolean(column, from.boolean(fromColumn, row))
+            case _ => setValue(column, from.value(fromColumn, row))
+          }
+        }
+      }
+    }
+
+    /**
+      * The batch of the rows ended so far, after which the builder is not to be used any more.
+      */
+    def result(): ResultBatch = new ResultBatch(columnNames.toIndexedSeq, builders.map(_.result()).toIndexedSeq, rows)
+  }
+
+  private def capacity(length: Int, row: Int): Int = Math.max(row + 1, Math.max(16, length * 2))
+
+  private final class ColumnBuilder {
+    private var columnType = ColumnType.Empty
+    private val present = new util.BitSet()
+    private val nulls = new util.BitSet()
+    private var longs = Array.emptyLongArray
+    private var doubles = Array.emptyDoubleArray
+    private var codes = Array.emptyIntArray
+    private val codeOf = new util.HashMap[String, Integer]()
+    private val dictionary = ArrayBuffer.empty[String]
+    private val booleans = new util.BitSet()
+    private var jsons = Array.empty[JsValue]
+
+    def setNull(row: Int): Unit = {
+      present.set(row)
+      nulls.set(row)
+    }
+
+    def setLong(row: Int, value: Long): Unit = columnType match {
+      case ColumnType.Empty | ColumnType.Long =>
+        columnType = ColumnType.Long
+        if (row >= longs.length) longs = util.Arrays.copyOf(longs, capacity(longs.length, row))
+        longs(row) = value
+        setValue(row)
+      case ColumnType.Double => setDouble(row, value.toDouble)
+      case _ => setJson(row, JsNumber(value))
+    }
+
+    def setDouble(row: Int, value: Double): Unit = columnType match {
+      case ColumnType.Empty | ColumnType.Double =>
+        columnType = ColumnType.Double
+        if (row >= doubles.length) doubles = util.Arrays.copyOf(doubles, capacity(doubles.length, row))
+        doubles(row) = value
+        setValue(row)
+      case ColumnType.Long =>
+        doubles = longs.map(_.toDouble)
+        longs = Array.emptyLongArray
+        columnType = ColumnType.Double
+        setDouble(row, value)
+      case _ => setJson(row, JsNumber(value))
+    }
+
+    def setString(row: Int, value: String): Unit = columnType match {
+      case ColumnType.Empty | ColumnType.String =>
+        columnType = ColumnType.String
+        if (row >= codes.length) codes = util.Arrays.copyOf(codes, capacity(codes.length, row))
+        var code = codeOf.get(value)
+        if (code == null) {
+          code = dictionary.size
+          codeOf.put(value, code)
+          dictionary += value
+        }
+        codes(row) = code
+        setValue(row)
+      case _ => setJson(row, JsString(value))
+    }
+
+    def setBoolean(row: Int, value: Boolean): Unit = columnType match {
+      case ColumnType.Empty | ColumnType.Boolean =>
+        columnType = ColumnType.Boolean
+        booleans.set(row, value)
+        setValue(row)
+      case _ => setJson(row, JsBoolean(value))
+    }
+
+    def setJson(row: Int, value: JsValue): Unit = {
+      if (columnType != ColumnType.Json) {
+        val column = result()
+        jsons = Array.tabulate[JsValue](capacity(present.length(), row)) { r =>
+          if (present.get(r) && !nulls.get(r)) column.value(r) else JsNull
+        }
+        longs = Array.emptyLongArray
+        doubles = Array.emptyDoubleArray
+        codes = Array.emptyIntArray
+        columnType = ColumnType.Json
+      }
+      if (row >= jsons.length) jsons = util.Arrays.copyOf(jsons, capacity(jsons.length, row))
+      jsons(row) = value
+      setValue(row)
+    }
+
+    private def setValue(row: Int): Unit = {
+      present.set(row)
+      nulls.clear(row)
+    }
+
+    /**
+      * The column of the rows set so far; the arrays are shared, so the builder is not to be used any more.
+      */
+    def result(): Column = columnType match {
+      case ColumnType.Empty => new EmptyColumn(present, nulls)
+      case ColumnType.Long => new LongColumn(present, nulls, longs)
+      case ColumnType.Double => new DoubleColumn(present, nulls, doubles)
+      case ColumnType.String => new StringColumn(present, nulls, codes, dictionary.toArray)
+      case ColumnType.Boolean => new BooleanColumn(present, nulls, booleans)
+      case ColumnType.Json => new JsonColumn(present, nulls, jsons)
+    }
+  }
+
+  private[datastore] sealed abstract class Column(val present: util.BitSet, val nulls: util.BitSet) {
+    def columnType: ColumnType.Value
+
+    /**
+      * The value of a present and non-null row.
+      */
+    def value(row: Int): JsValue
+
+    def long(row: Int): Long = throw new UnsupportedOperationException(s"a $columnType column has no long values")
+
+    def double(row: Int): Double = throw new UnsupportedOperationException(s"a $columnType column has no double values")
+
+    def string(row: Int): String = throw new UnsupportedOperationException(s"a $columnType column has no string values")
+
+    def boolean(row: Int): Boolean = throw new UnsupportedOperationException(s"a $columnType column has no boolean values")
+  }
+
+  private final class EmptyColumn(present: util.BitSet, nulls: util.BitSet) extends Column(present, nulls) {
+    override def columnType: ColumnType.Value = ColumnType.Empty
+
+    override def value(row: Int): JsValue = JsNull
+  }
+
+  private final class LongColumn(present: util.BitSet, nulls: util.BitSet, values: Array[Long]) extends Column(present, nulls) {
+    override def columnType: ColumnType.Value = ColumnType.Long
+
+    override def value(row: Int): JsValue = JsNumber(values(row))
+
+    override def long(row: Int): Long = values(row)
+
+    override def double(row: Int): Double = values(row).toDouble
+  }
+
+  private final class DoubleColumn(present: util.BitSet, nulls: util.BitSet, values: Array[Double]) extends Column(present, nulls) {
+    override def columnType: ColumnType.Value = ColumnType.Double
+
+    override def value(row: Int): JsValue = JsNumber(values(row))
+
+    override def double(row: Int): Double = values(row)
+  }
+
+  private final class StringColumn(present: util.BitSet, nulls: util.BitSet, codes: Array[Int], dictionary: Array[String])
+    extends Column(present, nulls) {
+
+    // the strings are repeated from row to row, e.g. the names of the groups, and so are their JsStrings
+    private val jsStrings: Array[JsString] = dictionary.map(JsString)
+
+    override def columnType: ColumnType.Value = ColumnType.String
+
+    override def value(row: Int): JsValue = jsStrings(codes(row))
+
+    override def string(row: Int): String = dictionary(codes(row))
+  }
+
+  private final class BooleanColumn(present: util.BitSet, nulls: util.BitSet, values: util.BitSet) extends Column(present, nulls) {
+    override def columnType: ColumnType.Value = ColumnType.Boolean
+
+    override def value(row: Int): JsValue = JsBoolean(values.get(row))
+
+    override def boolean(row: Int): Boolean = values.get(row)
+  }
+
+  private final class JsonColumn(present: util.BitSet, nulls: util.BitSet, values: Array[JsValue]) extends Column(present, nulls) {
+    override def columnType: ColumnType.Value = ColumnType.Json
+
+    override def value(row: Int): JsValue = values(row)
+  }
+
+}
@@ -1,14 +1,16 @@
 package edu.uci.ics.cloudberry.zion.model.impl
 
-import edu.uci.ics.cloudberry.zion.model.datastore.IDataConn
+import akka.NotUsed
+import akka.stream.scaladsl.Source
+import edu.uci.ics.cloudberry.zion.model.datastore.IStreamingDataConn
 import play.api.Logger
 import play.api.libs.json.{JsObject, JsString, JsValue, Json}
-import play.api.libs.ws.{WSClient, WSResponse}
+import play.api.libs.ws.{StreamedResponse, WSClient, WSResponse}
 
 import scala.concurrent.duration.Duration
 import scala.concurrent.{ExecutionContext, Future}
 
-class AsterixAQLConn(url: String, wSClient: WSClient)(implicit ec: ExecutionContext) extends IDataConn {
+class AsterixAQLConn(url: String, wSClient: WSClient)(implicit ec: ExecutionContext) extends IStreamingDataConn {
 
   import AsterixAQLConn._
 
@@ -17,6 +19,10 @@ class AsterixAQLConn(url: String, wSClient: WSClient)(implicit ec: ExecutionCont
   def postQuery(aql: String): Future[JsValue] = {
     postWithCheckingStatus(aql, (ws: WSResponse) => ws.json, (ws: WSResponse) => defaultQueryResponse)
   }
+
+  def postQueryStream(aql: String): Source[JsValue, NotUsed] = {
+    Source.fromFuture(stream(aql)).flatMapConcat(response => JsonRowFraming.rows(response, new JsonRowFraming(None)))
+  }
   
   def postControl(aql: String): Future[Boolean] = {
     postWithCheckingStatus(aql, (ws: WSResponse) => true, (ws: WSResponse) => false)
@@ -40,6 +46,13 @@ class AsterixAQLConn(url: String, wSClient: WSClient)(implicit ec: ExecutionCont
     f
   }
 
+  protected def stream(aql: String): Future[StreamedResponse] = {
+    Logger.debug("AQL:" + aql)
+    val f = wSClient.url(url).withRequestTimeout(Duration.Inf).withMethod("POST").withBody(aql).stream()
+    f.onFailure(wsFailureHandler(aql))
+    f
+  }
+
   protected def wsFailureHandler(aql: String): PartialFunction[Throwable, Unit] = {
     case e: Throwable => Logger.error("WS Error:" + aql, e); throw e
   }
@@ -49,7 +62,7 @@ object AsterixAQLConn {
   val defaultEmptyResponse = Json.toJson(Seq(Seq.empty[JsValue]))
 }
 
-class AsterixSQLPPConn(url: String, wSClient: WSClient)(implicit ec: ExecutionContext) extends IDataConn {
+class AsterixSQLPPConn(url: String, wSClient: WSClient)(implicit ec: ExecutionContext) extends IStreamingDataConn {
 
   import AsterixSQLPPConn._
 
@@ -61,6 +74,12 @@ class AsterixSQLPPConn(url: String, wSClient: WSClient)(implicit ec: ExecutionCo
     }, (ws: WSResponse) => defaultQueryResponse)
   }
 
+  def postQueryStream(query: String): Source[JsValue, NotUsed] = {
+    Source.fromFuture(stream(query)).flatMapConcat { response =>
+      JsonRowFraming.rows(response, new JsonRowFraming(Some("results"), Map("status" -> "success")))
+    }
+  }
+
   def postControl(query: String): Future[Boolean] = {
     postWithCheckingStatus(query, (ws: WSResponse) => true, (ws: WSResponse) => false)
   }
@@ -84,6 +103,13 @@ class AsterixSQLPPConn(url: String, wSClient: WSClient)(implicit ec: ExecutionCo
     f
   }
 
+  protected def stream(query: String): Future[StreamedResponse] = {
+    Logger.debug("Query:" + query)
+    val f = wSClient.url(url).withRequestTimeout(Duration.Inf).withMethod("POST").withBody(params(query)).stream()
+    f.onFailure(wsFailureHandler(query))
+    f
+  }
+
   protected def wsFailureHandler(query: String): PartialFunction[Throwable, Unit] = {
     case e: Throwable => Logger.error("WS Error:" + query, e)
       throw e
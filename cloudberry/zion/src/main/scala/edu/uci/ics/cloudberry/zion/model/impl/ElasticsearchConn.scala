@@ -8,6 +8,12 @@ import play.api.libs.ws.{WSClient, WSResponse}
 import scala.concurrent.{ExecutionContext, Future}
 import scala.concurrent.duration.Duration
 
+/**
+  * A connection to Elasticsearch. It is not an [[edu.uci.ics.cloudberry.zion.model.datastore.IStreamingDataConn]]:
+  * the rows of a search are its hits, nested in `hits.hits` of the response rather than in one of its top-level
+  * fields as [[JsonRowFraming]] expects, and each hit is reshaped from its `_source` once read, or joined with the
+  * hits of another search of the same msearch. A streamed query over it gets its whole result as one chunk.
+  */
 class ElasticsearchConn(url: String, wSClient: WSClient)(implicit ec: ExecutionContext) extends IDataConn {
 
   import ElasticsearchConn._
@@ -0,0 +1,321 @@
+package edu.uci.ics.cloudberry.zion.model.impl
+
+import java.util
+
+import edu.uci.ics.cloudberry.zion.model.datastore.ResultBatch
+import edu.uci.ics.cloudberry.zion.model.datastore.ResultBatch.ColumnType
+import edu.uci.ics.cloudberry.zion.model.schema._
+import play.api.libs.json._
+
+import scala.collection.mutable.ArrayBuffer
+import scala.util.Try
+
+/**
+  * Merges the partial results of one aggregation query: the rows with the same values on the keys are combined
+  * aggregate by aggregate, as [[QueryPlanner.merge]] needs it for the views and the slices of a query.
+  *
+  * The partial results come as [[ResultBatch]]es, whose typed columns the keys and the aggregates are read from.
+  * The groups are numbered in the order they are first seen, and every aggregate keeps its running values in
+  * arrays indexed by group, so a row costs one hash lookup and the merged rows are built once by [[result]].
+  * The fields an accumulator writes take its merged values, the other fields of a group are those of its first row.
+  */
+private[impl] class GroupMerger(keys: Seq[String], aggrValues: Map[String, AggregateFunc]) {
+
+  import GroupMerger._
+
+  private val groupOf = new util.HashMap[Any, Integer]()
+  // the batch and the row each group is first seen in
+  private val firstBatches = ArrayBuffer.empty[ResultBatch]
+  private var firstRows = new Array[Int](InitialGroups)
+  private val accumulators: Array[Accumulator] = aggrValues.map { case (name, func) => accumulator(name, func) }.toArray
+  private val writers: Map[String, Accumulator] = accumulators.flatMap(acc => acc.fields.map(_ -> acc)).toMap
+
+  def add(batch: ResultBatch): Unit = {
+    val keyColumns = keys.map(batch.columnIndex).toArray
+    val accumulatorColumns = accumulators.map(_.fields.map(batch.columnIndex).toArray)
+    var row = 0
+    while (row < batch.size) {
+      val key = groupKey(batch, keyColumns, row)
+      val seen = groupOf.get(key)
+      val group: Int = if (seen != null) seen else newGroup(key, batch, row)
+      var index = 0
+      while (index < accumulators.length) {
+        accumulators(index).add(group, batch, accumulatorColumns(index), row)
+        index += 1
+      }
+      row += 1
+    }
+  }
+
+  private def newGroup(key: Any, batch: ResultBatch, row: Int): Int = {
+    val group = firstBatches.size
+    groupOf.put(key, group)
+    firstBatches += batch
+    if (group >= firstRows.length) firstRows = util.Arrays.copyOf(firstRows, firstRows.length * 2)
+    firstRows(group) = row
+    group
+  }
+
+  def result: ResultBatch = {
+    val builder = new ResultBatch.Builder()
+    for (group <- firstBatches.indices) {
+      val batch = firstBatches(group)
+      val row = firstRows(group)
+      for (column <- batch.names.indices if batch.isPresent(column, row)) {
+        val name = batch.names(column)
+        writers.get(name) match {
+          case Some(accumulator) => accumulator.write(builder, builder.column(name), group, name)
+          case None => builder.copy(builder.column(name), batch, column, row)
+        }
+      }
+      builder.endRow()
+    }
+    builder.result()
+  }
+
+  private def groupKey(batch: ResultBatch, columns: Array[Int], row: Int): Any = columns.length match {
+    case 0 => ()
+    case 1 => keyValue(batch, columns(0), row)
+    case _ => columns.toList.map(column => keyValue(batch, column, row))
+  }
+}
+
+private[impl] object GroupMerger {
+
+  val SumPrefix = "__sum__"
+  val CountPrefix = "__count__"
+
+  private val InitialGroups = 16
+
+  private def isValue(batch: ResultBatch, column: Int, row: Int): Boolean = {
+    column >= 0 && batch.isPresent(column, row) && !batch.isNull(column, row)
+  }
+
+  // plain values hash faster than the JsValues, and 1 and 1.0 are the same group
+  private def keyValue(batch: ResultBatch, column: Int, row: Int): Any = {
+    if (!isValue(batch, column, row)) {
+      JsNull
+    } else {
+      batch.columnType(column) match {
+        case ColumnType.String => batch.string(column, row)
+        case ColumnType.Long => batch.long(column, row)
+        case ColumnType.Double =>
+          val double = batch.double(column, row)
+          if (double.toLong.toDouble == double && double.toLong != Long.MaxValue) double.toLong else double
+        case _ => batch.value(column, row) match {
+          case JsNumber(number) if number.isValidLong => number.toLongExact
+          case JsNumber(number) => number.toDouble
+          case other => other
+        }
+      }
+    }
+  }
+
+  private def number(batch: ResultBatch, column: Int, row: Int): Option[Double] = {
+    if (!isValue(batch, column, row)) {
+      None
+    } else {
+      batch.columnType(column) match {
+        case ColumnType.Long => Some(batch.long(column, row).toDouble)
+        case ColumnType.Double => Some(batch.double(column, row))
+        case _ => batch.value(column, row).asOpt[JsNumber].map(_.value.toDouble)
+      }
+    }
+  }
+
+  private def accumulator(name: String, func: AggregateFunc): Accumulator = func match {
+    case Count | Sum => new SumAccumulator(name)
+    case Max => new ExtremeAccumulator(name, keepLarger = true)
+    case Min => new ExtremeAccumulator(name, keepLarger = false)
+    case Avg => new AvgAccumulator(name)
+    case DistinctCount => new DistinctCountAccumulator(name)
+    case TopK(k) => new TopKAccumulator(name, k)
+  }
+
+  private abstract class Accumulator(val name: String) {
+    // the fields of the merged rows that take the value of the accumulator
+    def fields: Seq[String] = Seq(name)
+
+    // the columns are those of the fields in the batch, -1 for a field it does not have
+    def add(group: Int, batch: ResultBatch, columns: Array[Int], row: Int): Unit
+
+    def write(builder: ResultBatch.Builder, column: Int, group: Int, field: String): Unit
+  }
+
+  /**
+    * Counts and sums, kept as longs until a value needs a double.
+    */
+  private class SumAccumulator(name: String) extends Accumulator(name) {
+    private var longs = new Array[Long](InitialGroups)
+    private var doubles: Array[Double] = _
+
+    override def add(group: Int, batch: ResultBatch, columns: Array[Int], row: Int): Unit = {
+      val column = columns(0)
+      if (isValue(batch, column, row)) {
+        batch.columnType(column) match {
+          case ColumnType.Long if doubles == null => addLong(group, batch.long(column, row))
+          case ColumnType.Long => addDouble(group, batch.long(column, row).toDouble)
+          case ColumnType.Double => addDouble(group, batch.double(column, row))
+          case _ => batch.value(column, row) match {
+            case JsNumber(number) if doubles == null && number.isValidLong => addLong(group, number.toLongExact)
+            case JsNumber(number) => addDouble(group, number.toDouble)
+            case _ =>
+          }
+        }
+      }
+    }
+
+    private def addLong(group: Int, value: Long): Unit = {
+      if (group >= longs.length) longs = util.Arrays.copyOf(longs, Math.max(group + 1, longs.length * 2))
+      longs(group) += value
+    }
+
+    private def addDouble(group: Int, value: Double): Unit = {
+      if (doubles == null) doubles = longs.map(_.toDouble)
+      if (group >= doubles.length) doubles = util.Arrays.copyOf(doubles, Math.max(group + 1, doubles.length * 2))
+      doubles(group) += value
+    }
+
+    override def write(builder: ResultBatch.Builder, column: Int, group: Int, field: String): Unit = {
+      if (doubles == null) {
+        builder.setLong(column, if (group < longs.length) longs(group) else 0L)
+      } else {
+        builder.setDouble(column, if (group < doubles.length) doubles(group) else 0.0)
+      }
+    }
+  }
+
+  /**
+    * Max and Min of numbers or of times, which come as strings.
+    */
+  private class ExtremeAccumulator(name: String, keepLarger: Boolean) extends Accumulator(name) {
+    // a Long, a Double, a String or, for the other values, a JsValue
+    private val best = ArrayBuffer.empty[Any]
+
+    override def add(group: Int, batch: ResultBatch, columns: Array[Int], row: Int): Unit = {
+      val column = columns(0)
+      if (isValue(batch, column, row)) {
+        val value: Any = batch.columnType(column) match {
+          case ColumnType.Long => batch.long(column, row)
+          case ColumnType.Double => batch.double(column, row)
+          case ColumnType.String => batch.string(column, row)
+          case _ => batch.value(column, row)
+        }
+        while (best.size <= group) best += null
+        val current = best(group)
+        if (current == null || (if (keepLarger) compare(value, current) > 0 else compare(value, current) < 0)) {
+          best(group) = value
+        }
+      }
+    }
+
+    override def write(builder: ResultBatch.Builder, column: Int, group: Int, field: String): Unit = {
+      (if (group < best.size) best(group) else null) match {
+        case long: Long => builder.setLong(column, long)
+        case double: Double => builder.setDouble(column, double)
+        case string: String => builder.setString(column, string)
+        case json: JsValue => builder.setValue(column, json)
+        case _ => builder.setNull(column)
+      }
+    }
+
+    private def compare(left: Any, right: Any): Int = (left, right) match {
+      case (l: Long, r: Long) => java.lang.Long.compare(l, r)
+      case (l: Double, r: Double) => java.lang.Double.compare(l, r)
+      case (l: String, r: String) =>
+        Try(TimeField.TimeFormat.parseMillis(l).compare(TimeField.TimeFormat.parseMillis(r))).getOrElse(l.compare(r))
+      case _ => (decimal(left), decimal(right)) match {
+        case (Some(l), Some(r)) => l.compare(r)
+        case _ => 0
+      }
+    }
+
+    private def decimal(value: Any): Option[BigDecimal] = value match {
+      case long: Long => Some(BigDecimal(long))
+      case double: Double => Some(BigDecimal(double))
+      case JsNumber(number) => Some(number)
+      case _ => None
+    }
+  }
+
+  /**
+    * The average weighted by the number of records behind each partial average. The resolved queries answer
+    * an average as its `__sum__` and `__count__` fields, which are merged and written back, so that the merged
+    * rows can be merged again and [[QueryPlanner.handleAvg]] turns them into the average at the end.
+    * A partial average without its count cannot be weighted and counts once.
+    */
+  private class AvgAccumulator(name: String) extends Accumulator(name) {
+    private val sumField = SumPrefix + name
+    private val countField = CountPrefix + name
+    private var sums = new Array[Double](InitialGroups)
+    private var counts = new Array[Long](InitialGroups)
+
+    override def fields: Seq[String] = Seq(name, sumField, countField)
+
+    override def add(group: Int, batch: ResultBatch, columns: Array[Int], row: Int): Unit = {
+      val countOpt = number(batch, columns(2), row)
+      val sumOpt = number(batch, columns(1), row).orElse(number(batch, columns(0), row).map(_ * countOpt.getOrElse(1.0)))
+      sumOpt.foreach { sum =>
+        if (group >= sums.length) {
+          sums = util.Arrays.copyOf(sums, Math.max(group + 1, sums.length * 2))
+          counts = util.Arrays.copyOf(counts, sums.length)
+        }
+        sums(group) += sum
+        counts(group) += countOpt.map(_.toLong).getOrElse(1L)
+      }
+    }
+
+    override def write(builder: ResultBatch.Builder, column: Int, group: Int, field: String): Unit = {
+      val (sum, count) = if (group < counts.length) (sums(group), counts(group)) else (0.0, 0L)
+      field match {
+        case `sumField` => builder.setDouble(column, sum)
+        case `countField` => builder.setLong(column, count)
+        case _ => if (count > 0) builder.setDouble(column, sum / count) else builder.setNull(column)
+      }
+    }
+  }
+
+  /**
+    * The partial results only carry the number of distinct values, not the values themselves,
+    * so the largest of them is kept: a lower bound that is exact as long as one partial saw every value.
+    * [[QueryPlanner.isMergeable]] keeps the planner and the slicing from splitting such a query in the first place.
+    */
+  private class DistinctCountAccumulator(name: String) extends Accumulator(name) {
+    private var counts = new Array[Long](InitialGroups)
+
+    override def add(group: Int, batch: ResultBatch, columns: Array[Int], row: Int): Unit = {
+      number(batch, columns(0), row).foreach { value =>
+        if (group >= counts.length) counts = util.Arrays.copyOf(counts, Math.max(group + 1, counts.length * 2))
+        counts(group) = Math.max(counts(group), value.toLong)
+      }
+    }
+
+    override def write(builder: ResultBatch.Builder, column: Int, group: Int, field: String): Unit = {
+      builder.setLong(column, if (group < counts.length) counts(group) else 0L)
+    }
+  }
+
+  /**
+    * The first k distinct values of the partial top-k lists, in the order the partials came in.
+    * Like the distinct count it is only exact for a group answered by one partial.
+    */
+  private class TopKAccumulator(name: String, k: Int) extends Accumulator(name) {
+    private val tops = ArrayBuffer.empty[Vector[JsValue]]
+
+    override def add(group: Int, batch: ResultBatch, columns: Array[Int], row: Int): Unit = {
+      val column = columns(0)
+      if (column >= 0 && batch.isPresent(column, row)) {
+        while (tops.size <= group) tops += Vector.empty
+        val values = batch.value(column, row) match {
+          case array: JsArray => array.value
+          case single => Seq(single)
+        }
+        tops(group) = (tops(group) ++ values).distinct.take(k)
+      }
+    }
+
+    override def write(builder: ResultBatch.Builder, column: Int, group: Int, field: String): Unit = {
+      builder.setValue(column, JsArray(if (group < tops.size) tops(group) else Seq.empty))
+    }
+  }
+}
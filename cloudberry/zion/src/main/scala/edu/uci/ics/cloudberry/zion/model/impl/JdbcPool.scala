@@ -0,0 +1,111 @@
+package edu.uci.ics.cloudberry.zion.model.impl
+
+import java.sql.{Connection, DriverManager, ResultSet, SQLException}
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.{ConcurrentLinkedQueue, Executors, ThreadFactory}
+
+import edu.uci.ics.cloudberry.zion.common.Config
+import play.api.Logger
+
+import scala.concurrent.{ExecutionContext, ExecutionContextExecutorService, Future}
+import scala.util.control.NonFatal
+
+/**
+  * Runs the JDBC statements of a connector on its own threads, one pooled connection per thread at most,
+  * so that the queries of concurrent users run side by side without blocking the dispatcher of the actors.
+  *
+  * The statements are not kept between queries: their texts carry their literals inline, so a text seldom comes
+  * again. A connection that fails is closed and replaced by a new one on the next demand.
+  */
+class JdbcPool(url: String, settings: JdbcPool.Settings) {
+
+  import JdbcPool.closeQuietly
+
+  private val idle = new ConcurrentLinkedQueue[Connection]()
+  private val threadCount = new AtomicInteger()
+
+  private val executor: ExecutionContextExecutorService = ExecutionContext.fromExecutorService(
+    Executors.newFixedThreadPool(settings.maxConnections, new ThreadFactory {
+      override def newThread(runnable: Runnable): Thread = {
+        val thread = new Thread(runnable, s"jdbc-pool-${threadCount.incrementAndGet()}")
+        thread.setDaemon(true)
+        thread
+      }
+    }))
+
+  /**
+    * Runs the query and reads its whole result, fetching settings.fetchSize rows at a time.
+    */
+  def query[T](sql: String)(read: ResultSet => T): Future[T] = withConnection { connection =>
+    val statement = connection.createStatement()
+    try {
+      statement.setFetchSize(settings.fetchSize)
+      val result = statement.executeQuery(sql)
+      try {
+        read(result)
+      } finally {
+        result.close()
+      }
+    } finally {
+      statement.close()
+    }
+  }
+
+  /**
+    * Runs the statements in order, e.g. the DDL of a view, which are not worth preparing.
+    */
+  def update(statements: Seq[String]): Future[Unit] = withConnection { connection =>
+    val statement = connection.createStatement()
+    try {
+      statements.foreach(sql => statement.executeUpdate(sql))
+    } finally {
+      statement.close()
+    }
+  }
+
+  def close(): Unit = {
+    executor.shutdown()
+    Iterator.continually(idle.poll()).takeWhile(_ != null).foreach(closeQuietly)
+  }
+
+  private def withConnection[T](block: Connection => T): Future[T] = Future {
+    val connection = Option(idle.poll()).getOrElse(DriverManager.getConnection(url))
+    val result = try {
+      block(connection)
+    } catch {
+      case e: SQLException =>
+        closeQuietly(connection)
+        throw e
+      case NonFatal(e) =>
+        idle.offer(connection)
+        throw e
+    }
+    idle.offer(connection)
+    result
+  }(executor)
+}
+
+object JdbcPool {
+
+  /**
+    * @param maxConnections the number of connections, and of the threads that use them
+    * @param fetchSize      the number of rows to fetch from the database at a time
+    */
+  case class Settings(maxConnections: Int = 8, fetchSize: Int = 1000) {
+    require(maxConnections > 0, "the pool should have at least one connection")
+  }
+
+  /**
+    * The settings configured by `jdbc.*`.
+    */
+  def settings(config: Config): Settings = Settings(config.JdbcPoolSize, config.JdbcFetchSize)
+
+  private def closeQuietly(connection: Connection): Unit = {
+    try {
+      connection.close()
+    } catch {
+      case NonFatal(e) => Logger.warn("failed to close a JDBC connection", e)
+    }
+  }
+
+}
@@ -0,0 +1,193 @@
+package edu.uci.ics.cloudberry.zion.model.impl
+
+import akka.stream.stage.{GraphStage, GraphStageLogic, InHandler, OutHandler}
+import akka.stream.scaladsl.Source
+import akka.stream.{Attributes, FlowShape, Inlet, Outlet}
+import akka.util.ByteString
+import edu.uci.ics.cloudberry.zion.model.datastore.QueryFailedException
+import play.api.Logger
+import play.api.libs.json.{JsValue, Json}
+import play.api.libs.ws.StreamedResponse
+
+import scala.collection.mutable
+import scala.collection.mutable.ArrayBuffer
+
+/**
+  * Cuts the rows out of a JSON response as its bytes come in, without holding more than the current row:
+  * the rows are the elements of the top-level array, or of the array in one field of the top-level object.
+  * The string fields of the top-level object, e.g. the status of an AsterixDB response, are kept on the side.
+  *
+  * @param rowsField the field of the top-level object that holds the rows, None if the response is the array of rows
+  */
+class JsonRowFramer(rowsField: Option[String]) {
+
+  private var buffer = ByteString.empty
+  private var pos = 0
+  private var depth = 0
+  private var started = false
+  private var inString = false
+  private var escaped = false
+  private var stringStart = -1
+  private var rowsDepth = -1
+  private var rowStart = -1
+  private var key: String = null
+  private var afterColon = false
+  private val fields = mutable.Map.empty[String, String]
+
+  /**
+    * Reads the next bytes and returns the rows they complete, as the bytes of their JSON.
+    */
+  def offer(bytes: ByteString): Seq[ByteString] = {
+    // one compact buffer, so that reading a byte does not look up the chunks
+    buffer = (buffer ++ bytes).compact
+    val rows = ArrayBuffer.empty[ByteString]
+    while (pos < buffer.length) {
+      val c = buffer(pos).toChar
+      if (inString) {
+        if (escaped) {
+          escaped = false
+        } else if (c == '\\') {
+          escaped = true
+        } else if (c == '"') {
+          inString = false
+          if (stringStart >= 0) {
+            onTopLevelString(buffer.slice(stringStart, pos).utf8String)
+            stringStart = -1
+          }
+        }
+      } else {
+        if (depth == rowsDepth && rowStart < 0 && !Character.isWhitespace(c) && c != ',' && c != ']') {
+          rowStart = pos
+        }
+        c match {
+          case '"' =>
+            inString = true
+            if (depth == 1 && rowsField.isDefined) stringStart = pos + 1
+          case '{' | '[' =>
+            if (c == '[' && rowsDepth == -1 && isRowsArray) rowsDepth = depth + 1
+            depth += 1
+            started = true
+          case '}' | ']' if depth == rowsDepth =>
+            if (rowStart >= 0) rows += buffer.slice(rowStart, pos)
+            rowStart = -1
+            rowsDepth = -2 // the rows are over
+            depth -= 1
+          case '}' | ']' =>
+            depth -= 1
+            if (depth == rowsDepth && rowStart >= 0) {
+              rows += buffer.slice(rowStart, pos + 1)
+              rowStart = -1
+            }
+          case ',' =>
+            if (depth == rowsDepth && rowStart >= 0) {
+              rows += buffer.slice(rowStart, pos)
+              rowStart = -1
+            }
+            if (depth == 1) afterColon = false
+          case ':' =>
+            if (depth == 1) afterColon = true
+          case _ =>
+        }
+      }
+      pos += 1
+    }
+    compact()
+    rows
+  }
+
+  /**
+    * Whether the whole JSON value has been read.
+    */
+  def isComplete: Boolean = started && depth == 0 && !inString
+
+  /**
+    * The string value of a field of the top-level object, if the rows are in a field.
+    */
+  def topLevelField(name: String): Option[String] = fields.get(name)
+
+  private def isRowsArray: Boolean = rowsField match {
+    case None => depth == 0
+    case Some(name) => depth == 1 && afterColon && key == name
+  }
+
+  private def onTopLevelString(string: String): Unit = {
+    if (afterColon) fields(key) = string else key = string
+  }
+
+  // drops the bytes that are read and are not part of a pending row or field name
+  private def compact(): Unit = {
+    val keep = Seq(rowStart, stringStart).filter(_ >= 0) match {
+      case Seq() => pos
+      case starts => starts.min
+    }
+    buffer = buffer.drop(keep)
+    pos -= keep
+    if (rowStart >= 0) rowStart -= keep
+    if (stringStart >= 0) stringStart -= keep
+  }
+}
+
+/**
+  * The stage that parses the rows cut by a [[JsonRowFramer]] and pushes them downstream one by one.
+  * It fails if the response ends before its JSON does, or if a top-level field differs from the one expected,
+  * e.g. the `"status": "success"` of an AsterixDB response.
+  */
+class JsonRowFraming(rowsField: Option[String], expectedFields: Map[String, String] = Map.empty)
+  extends GraphStage[FlowShape[ByteString, JsValue]] {
+
+  val in: Inlet[ByteString] = Inlet("JsonRowFraming.in")
+  val out: Outlet[JsValue] = Outlet("JsonRowFraming.out")
+
+  override val shape: FlowShape[ByteString, JsValue] = FlowShape(in, out)
+
+  override def createLogic(inheritedAttributes: Attributes): GraphStageLogic = new GraphStageLogic(shape) with InHandler with OutHandler {
+
+    private val framer = new JsonRowFramer(rowsField)
+
+    override def onPush(): Unit = {
+      val rows = framer.offer(grab(in))
+      if (rows.isEmpty) {
+        pull(in)
+      } else {
+        emitMultiple(out, rows.map(row => Json.parse(row.toArray)).toList)
+      }
+    }
+
+    override def onPull(): Unit = {
+      if (!hasBeenPulled(in)) pull(in)
+    }
+
+    override def onUpstreamFinish(): Unit = {
+      if (!framer.isComplete) {
+        failStage(new QueryFailedException("the response ended in the middle of its JSON"))
+      } else {
+        expectedFields.find { case (name, value) => !framer.topLevelField(name).contains(value) } match {
+          case Some((name, value)) =>
+            failStage(new QueryFailedException(s"the response has $name ${framer.topLevelField(name).getOrElse("missing")} instead of $value"))
+          case None =>
+            complete(out)
+        }
+      }
+    }
+
+    setHandler(in, this)
+    setHandler(out, this)
+  }
+}
+
+object JsonRowFraming {
+
+  /**
+    * The rows of a streamed HTTP response, or a failure with its body if its status is not OK.
+    */
+  def rows(response: StreamedResponse, framing: JsonRowFraming): Source[JsValue, Any] = {
+    if (response.headers.status == 200) {
+      response.body.via(framing)
+    } else {
+      response.body.fold(ByteString.empty)(_ ++ _).map { body =>
+        Logger.error("Query failed:" + body.utf8String)
+        throw new QueryFailedException(s"the response has status ${response.headers.status}")
+      }
+    }
+  }
+}
@@ -1,20 +1,19 @@
 package edu.uci.ics.cloudberry.zion.model.impl
 
-import edu.uci.ics.cloudberry.zion.model.datastore.IDataConn
+import edu.uci.ics.cloudberry.zion.model.datastore.{IColumnarDataConn, ResultBatch}
 import edu.uci.ics.cloudberry.zion.model.schema.TimeField
 import play.api.libs.ws.WSResponse
 import play.api.libs.json.{Json, _}
 import play.Logger
 
 import scala.concurrent.{ExecutionContext, Future}
-import scala.util.control.Breaks.{break, breakable}
-import java.sql.{Connection, DriverManager, _}
+import java.sql._
 import java.lang._
 
 
-class MySQLConn(url: String)(implicit ec: ExecutionContext) extends IDataConn {
+class MySQLConn(url: String, settings: JdbcPool.Settings = JdbcPool.Settings())(implicit ec: ExecutionContext) extends IColumnarDataConn {
   val defaultQueryResponse = Json.toJson(Seq(Seq.empty[JsValue]))
-  val connection: Connection = DriverManager.getConnection(url)
+  val pool = new JdbcPool(url, settings)
 
   def post(query: String): Future[WSResponse] = {
     throw new UnsupportedOperationException
@@ -22,85 +21,93 @@ class MySQLConn(url: String)(implicit ec: ExecutionContext) extends IDataConn {
 
   def postQuery(query: String): Future[JsValue] = query match {
     case berry if query.contains(SQLConn.metaName) => postBerryQuery(query)
+    case _ => postGeneralQuery(query).map(_.toJson)
+  }
+
+  def postQueryBatch(query: String): Future[ResultBatch] = query match {
+    case berry if query.contains(SQLConn.metaName) => postBerryQuery(query).map(rows => ResultBatch.fromJson(rows.as[JsArray]))
     case _ => postGeneralQuery(query)
   }
 
-  protected def postGeneralQuery(query: String): Future[JsValue] = {
-    val statement = connection.createStatement
-    val result = statement.executeQuery(query)
+  protected def postGeneralQuery(query: String): Future[ResultBatch] = pool.query(query)(readBatch)
+
+  // the columns are read by index, and a row with a value of no known type is dropped before any of its values is set
+  protected def readBatch(result: ResultSet): ResultBatch = {
     val resultMetadata = result.getMetaData
     val columnCount = resultMetadata.getColumnCount
-    var qJsonArray: JsArray = Json.arr()
+    val builder = new ResultBatch.Builder()
+    val columns = (1 to columnCount).map(columnId => builder.column(resultMetadata.getColumnLabel(columnId))).toArray
+    val values = new Array[AnyRef](columnCount)
     while (result.next) {
-      var columnId = 0
-      var rsJson: JsObject = Json.obj()
-      breakable {
-        for (columnId <- 1 to columnCount) {
-          val columnLabel = resultMetadata.getColumnLabel(columnId)
-          val value = result.getObject(columnLabel)
-          value match {
-            case int: Integer =>
-              rsJson = rsJson ++ Json.obj(columnLabel -> JsNumber(int.toInt))
-            case boolean: java.lang.Boolean =>
-              rsJson = rsJson ++ Json.obj(columnLabel -> JsBoolean(boolean))
-            case date: Date =>
-              rsJson = rsJson ++ Json.obj(columnLabel -> JsString(TimeField.TimeFormat.print(date.getTime)))
-            case time: Time =>
-              rsJson = rsJson ++ Json.obj(columnLabel -> JsString(TimeField.TimeFormat.print(time.getTime)))
-            case timestamp: Timestamp =>
-              rsJson = rsJson ++ Json.obj(columnLabel -> JsString(TimeField.TimeFormat.print(timestamp.getTime)))
-            case long: Long =>
-              rsJson = rsJson ++ Json.obj(columnLabel -> JsNumber(long.toLong))
-            case double: Double =>
-              rsJson = rsJson ++ Json.obj(columnLabel -> JsNumber(double.toDouble))
-            case float: Float =>
-              rsJson = rsJson ++ Json.obj(columnLabel -> JsNumber(float.asInstanceOf[BigDecimal]))
-            case short: Short =>
-              rsJson = rsJson ++ Json.obj(columnLabel -> JsNumber(short.toInt))
-            case decimal: BigDecimal =>
-              rsJson = rsJson ++ Json.obj(columnLabel -> JsNumber(decimal))
-            case str: String =>
-              rsJson = rsJson ++ Json.obj(columnLabel -> JsString(str))
-            case blob: Blob => //large data
-              rsJson = rsJson ++ Json.obj(columnLabel -> JsString(blob.toString))
-            case byte: Byte =>
-              rsJson = rsJson ++ Json.obj(columnLabel -> byte.toByte)
-            case _ =>
-              Logger.warn(s"type of value $value is not detectd")
-              break
+      for (columnId <- 1 to columnCount) {
+        values(columnId - 1) = result.getObject(columnId)
+      }
+      values.find(value => !isKnown(value)) match {
+        case Some(value) =>
+          Logger.warn(s"type of value $value is not detectd")
+        case None =>
+          for (index <- 0 until columnCount) {
+            set(builder, columns(index), values(index))
           }
-        }
-        qJsonArray = qJsonArray :+ rsJson
+          builder.endRow()
       }
     }
-    Future(Json.toJson(qJsonArray))
+    builder.result()
   }
 
-  protected def postBerryQuery(query: String): Future[JsValue] = {
-    val statement = connection.createStatement
-    val result = statement.executeQuery(query)
-    var qJsonArray: JsArray = Json.arr()
+  private def isKnown(value: AnyRef): scala.Boolean = value match {
+    case _: Integer | _: java.lang.Boolean | _: Date | _: Time | _: Timestamp | _: Long | _: Double | _: Float | _: Short |
+         _: java.math.BigDecimal | _: String | _: Blob | _: Byte => true
+    case _ => false
+  }
+
+  private def set(builder: ResultBatch.Builder, column: Int, value: AnyRef): Unit = value match {
+    case int: Integer =>
+      builder.setLong(column, int.longValue)
+    case boolean: java.lang.Boolean =>
+      builder.setBoolean(column, boolean.booleanValue)
+    case date: Date =>
+      builder.setString(column, TimeField.TimeFormat.print(date.getTime))
+    case time: Time =>
+      builder.setString(column, TimeField.TimeFormat.print(time.getTime))
+    case timestamp: Timestamp =>
+      builder.setString(column, TimeField.TimeFormat.print(timestamp.getTime))
+    case long: Long =>
+      builder.setLong(column, long.longValue)
+    case double: Double =>
+      builder.setDouble(column, double.doubleValue)
+    case float: Float =>
+      builder.setDecimal(column, scala.math.BigDecimal(float.toString))
+    case short: Short =>
+      builder.setLong(column, short.longValue)
+    case decimal: java.math.BigDecimal =>
+      builder.setDecimal(column, scala.math.BigDecimal(decimal))
+    case str: String =>
+      builder.setString(column, str)
+    case blob: Blob => //large data
+      builder.setString(column, blob.toString)
+    case byte: Byte =>
+      builder.setLong(column, byte.longValue)
+  }
+
+  protected def postBerryQuery(query: String): Future[JsValue] = pool.query(query) { result =>
+    val rows = Seq.newBuilder[JsValue]
     while (result.next) {
-      var rsJson: JsObject = Json.obj()
       val name = result.getObject("name")
       val schema = result.getObject("schema")
       val stats = result.getObject("stats")
       val dataInterval = result.getObject("dataInterval")
-      rsJson = rsJson ++ Json.obj("name" -> JsString(name.asInstanceOf[String]))
-      rsJson = rsJson ++ Json.obj("schema" -> Json.parse(schema.toString))
-      rsJson = rsJson ++ Json.obj("stats" -> Json.parse(stats.toString))
-      rsJson = rsJson ++ Json.obj("dataInterval" -> Json.parse(dataInterval.toString))
-      qJsonArray = qJsonArray :+ rsJson
+      rows += Json.obj(
+        "name" -> JsString(name.asInstanceOf[String]),
+        "schema" -> Json.parse(schema.toString),
+        "stats" -> Json.parse(stats.toString),
+        "dataInterval" -> Json.parse(dataInterval.toString))
     }
-    Future(Json.toJson(qJsonArray))
+    JsArray(rows.result())
   }
 
   def postControl(query: String) = {
-    val statement = connection.createStatement
-    query.split(";\n").foreach {
-      case q => statement.executeUpdate(q)
-    }
-    Future(true)
+    pool.update(query.split(";\n")).map(_ => true)
   }
 
 }
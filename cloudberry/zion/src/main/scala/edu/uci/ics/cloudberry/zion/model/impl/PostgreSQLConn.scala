@@ -2,4 +2,5 @@ package edu.uci.ics.cloudberry.zion.model.impl
 
 import scala.concurrent.ExecutionContext
 
-class PostgreSQLConn(url: String)(implicit ec: ExecutionContext) extends MySQLConn(url) {}
+class PostgreSQLConn(url: String, settings: JdbcPool.Settings = JdbcPool.Settings())(implicit ec: ExecutionContext)
+  extends MySQLConn(url, settings) {}
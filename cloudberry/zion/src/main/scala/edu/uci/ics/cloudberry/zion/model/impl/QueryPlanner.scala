@@ -2,6 +2,7 @@ package edu.uci.ics.cloudberry.zion.model.impl
 
 import java.security.MessageDigest
 
+import edu.uci.ics.cloudberry.zion.model.datastore.ResultBatch
 import edu.uci.ics.cloudberry.zion.model.schema._
 import org.joda.time.{DateTime, Interval}
 import play.api.libs.json._
@@ -100,6 +101,10 @@ class QueryPlanner {
         val queryInterval = query.getTimeInterval(schema.timeField).getOrElse(new Interval(new DateTime(0), DateTime.now()))
         val viewInterval = new Interval(new DateTime(0), view.stats.lastModifyTime)
         val unCovered = getUnCoveredInterval(viewInterval, queryInterval)
+        if (unCovered.nonEmpty && !isMergeable(query)) {
+          // the view and the source would answer partial results that cannot be merged exactly
+          return (Seq(query), Unioner)
+        }
 
         val seqBuilder = Seq.newBuilder[Query]
 
@@ -139,6 +144,18 @@ object QueryPlanner {
     sourceName + "_" + MessageDigest.getInstance("MD5").digest(keyword.getBytes("UTF-8")).map("%02x" format _).mkString
   }
 
+  /**
+    * Whether the partial results of the query, over views or time slices, merge into its exact result.
+    * A partial distinct count or top-k does not carry the values or their counts that an exact merge needs.
+    */
+  def isMergeable(query: Query): Boolean = {
+    val funcs = query.groups.toSeq.flatMap(_.aggregates.map(_.func)) ++ query.globalAggr.map(_.aggregate.func)
+    funcs.forall {
+      case DistinctCount | TopK(_) => false
+      case _ => true
+    }
+  }
+
   def unionAll(responses: TraversableOnce[JsValue]): JsArray = {
     if (responses.size == 1) return responses.toSeq.head.asInstanceOf[JsArray]
     val builder = Seq.newBuilder[JsValue]
@@ -150,6 +167,12 @@ object QueryPlanner {
 
   trait IMerger {
     def apply(jsons: TraversableOnce[JsValue]): JsArray
+
+    /**
+      * Merges the results of the queries as the [[ResultBatch]]es of a columnar connection,
+      * so that the rows are converted to JSON once they are merged.
+      */
+    def mergeBatches(batches: Seq[ResultBatch]): JsArray
   }
 
   case class Merger(keys: Seq[String],
@@ -159,10 +182,15 @@ object QueryPlanner {
                     limitOpt: Option[Int]) extends IMerger {
     override def apply(jsons: TraversableOnce[JsValue]) =
       merge(jsons.map(_.asInstanceOf[JsArray]).toSeq, keys, aggrValues, orderOn, project, limitOpt)
+
+    override def mergeBatches(batches: Seq[ResultBatch]) =
+      QueryPlanner.mergeBatches(batches, keys, aggrValues, orderOn, project, limitOpt)
   }
 
   case object Unioner extends IMerger {
     override def apply(jsons: TraversableOnce[JsValue]) = unionAll(jsons)
+
+    override def mergeBatches(batches: Seq[ResultBatch]) = unionAll(batches.map(_.toJson))
   }
 
   def merge(jsArrays: Seq[JsArray],
@@ -175,11 +203,39 @@ object QueryPlanner {
     val jsons = jsArrays.filter(_.value.nonEmpty)
 
     val mergedArray: JsArray = if (aggrValues.nonEmpty && jsons.size > 1) {
-      mergeValues(jsons, keys, aggrValues)
+      mergeValues(jsons.map(ResultBatch.fromJson), keys, aggrValues)
     } else {
       unionAll(jsons)
     }
 
+    arrange(mergedArray, orderOn, project, limitOpt)
+  }
+
+  /**
+    * Merges the columnar results like [[merge]] does the JSON ones.
+    */
+  def mergeBatches(batches: Seq[ResultBatch],
+                   keys: Seq[String],
+                   aggrValues: Map[String, AggregateFunc],
+                   orderOn: Map[String, SortOrder.Value],
+                   project: Set[String],
+                   limitOpt: Option[Int]): JsArray = {
+    if (batches.isEmpty) return JsArray()
+    val nonEmpty = batches.filter(_.size > 0)
+
+    val mergedArray: JsArray = if (aggrValues.nonEmpty && nonEmpty.size > 1) {
+      mergeValues(nonEmpty, keys, aggrValues)
+    } else {
+      unionAll(nonEmpty.map(_.toJson))
+    }
+
+    arrange(mergedArray, orderOn, project, limitOpt)
+  }
+
+  private def arrange(mergedArray: JsArray,
+                      orderOn: Map[String, SortOrder.Value],
+                      project: Set[String],
+                      limitOpt: Option[Int]): JsArray = {
     val ordered: JsArray = if (orderOn.nonEmpty) {
       orderJsArray(mergedArray, orderOn)
     } else {
@@ -198,50 +254,11 @@ object QueryPlanner {
     }
   }
 
-  private def mergeValues(jsons: Seq[JsArray], keys: Seq[String], aggrValues: Map[String, AggregateFunc]): JsArray = {
-    if (keys.isEmpty) {
-      //e.g. global aggregation functions
-      val size = jsons.head.value.size
-      require(jsons.forall(_.value.size == size))
-      return JsArray(
-        0 to size map { i =>
-          val row = jsons.map(_.value(i))
-          row.reduce((l, r) => aggrRecord(l.asInstanceOf[JsObject], r.asInstanceOf[JsObject], aggrValues))
-        })
-    }
-
-    val map = scala.collection.mutable.Map[Seq[JsValue], JsObject]()
-    map ++= jsons.head.value.map { r =>
-      val k = keys.map(r \ _).map(_.get)
-      k -> r.as[JsObject]
-    }
-
-    for (json <- jsons.tail) {
-      for (r <- json.value) {
-        val ks = keys.map(r \ _).map(_.get)
-
-        map.get(ks) match {
-          case Some(oldObj) => map += ks -> aggrRecord(oldObj, r.as[JsObject], aggrValues)
-          case None => map += ks -> r.as[JsObject]
-        }
-      }
-    }
-    JsArray(map.values.toSeq)
-  }
-
-  private def aggrRecord(left: JsObject, right: JsObject, aggrValues: Map[String, AggregateFunc]): JsObject = {
-    val updatedObj = JsObject(aggrValues.map { case (name, func) =>
-      func match {
-        case Count | Sum =>
-          name -> JsNumber((left \ name).as[JsNumber].value + (right \ name).as[JsNumber].value)
-        case Max => ???
-        case Min => ???
-        case topk: TopK => ???
-        case Avg => ???
-        case DistinctCount => ???
-      }
-    })
-    left ++ updatedObj
+  private def mergeValues(batches: Seq[ResultBatch], keys: Seq[String], aggrValues: Map[String, AggregateFunc]): JsArray = {
+    // without keys, e.g. the global aggregation functions, all the rows fall into one group
+    val merger = new GroupMerger(keys, aggrValues)
+    batches.foreach(merger.add)
+    merger.result.toJson
   }
 
   private def orderJsArray(mergedArray: JsArray, orderOn: Map[String, SortOrder.Value]): JsArray = {
@@ -285,46 +302,34 @@ object QueryPlanner {
     JsArray(jsArray.value.map(obj => JsObject(obj.asInstanceOf[JsObject].fields.filter(e => project.contains(e._1)))))
   }
 
-  // Handle avg function
-  def handleAvg(result:JsArray):JsValue =
-  {
+  // Handle avg function: replaces the "__sum__[fieldName]" and "__count__[fieldName]" of every row
+  // by "[fieldName]" with their quotient, in the place of the sum
+  def handleAvg(result: JsArray): JsValue = {
+    import GroupMerger.{CountPrefix, SumPrefix}
+
     // If result is empty, return immediately
     if (result.value.isEmpty) {
       return result
     }
 
-    var mergedField: List[Array[String]] = List()
-    // Check whether this result contains "__count__[fieldName]" or "__sum__[fieldName]",
-    // and if yes, extract the field names to mergedField variable
-    val record = result.value(0).as[JsObject]
-    record.keys.foreach(field => {
-      if (field.startsWith("__count__") || field.startsWith("__sum__")) {
-        val realField = field.replaceAll("__sum__", "").replaceAll("__count__", "")
-        val newField = Array(realField, "__count__" + realField, "__sum__" + realField)
-        mergedField = newField +: mergedField
-      }
-    })
-
     // No avg fields need to be merged, return immediately
-    if (mergedField.isEmpty) {
+    val record = result.value(0).as[JsObject]
+    if (!record.keys.exists(field => field.startsWith(SumPrefix) || field.startsWith(CountPrefix))) {
       return result
     }
 
-    //merge sum and count to avg
-    val handledRows = result.value.map(row => {
-      var outJson = row.toString()
-      mergedField.foreach(f => {
-        val count = (row \ f(1)).as[JsNumber]
-        val sum = (row \ f(2)).as[JsNumber]
-        val avg = (sum.toString().toDouble * 1.0 ) / count.toString().toDouble
-        //remove count
-        outJson =  outJson.replaceAll("\"" + f(1) + "\":" + count + ",", "")
-        //replace sum with avg
-        outJson =  outJson.replaceAll("\"" + f(2) + "\":" + sum, "\"" + f(0) + "\":" + avg)
+    JsArray(result.value.map { row =>
+      val obj = row.as[JsObject]
+      JsObject(obj.fields.collect {
+        case (field, sum) if field.startsWith(SumPrefix) =>
+          val realField = field.substring(SumPrefix.length)
+          val avg = (sum.asOpt[JsNumber], (obj \ (CountPrefix + realField)).asOpt[JsNumber]) match {
+            case (Some(s), Some(count)) if count.value != 0 => JsNumber(s.value.toDouble / count.value.toDouble)
+            case _ => JsNull
+          }
+          realField -> avg
+        case (field, value) if !field.startsWith(CountPrefix) => field -> value
       })
-      Json.parse(outJson)
     })
-    JsArray(handledRows)
   }
-
 }
@@ -0,0 +1,179 @@
+package edu.uci.ics.cloudberry.zion.model.impl
+
+import java.util
+
+import edu.uci.ics.cloudberry.zion.common.Config
+import edu.uci.ics.cloudberry.zion.model.schema._
+import play.api.libs.json._
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+import scala.concurrent.duration.FiniteDuration
+import scala.concurrent.{ExecutionContext, Future, Promise}
+import scala.util.control.NonFatal
+import scala.util.{Success, Try}
+
+/**
+  * A shared cache of query results, keyed on the [[QueryResultCache.fingerprint]] of the resolved query.
+  *
+  * Entries are evicted in LRU order once there are more than maxEntries of them or they take more than maxBytes,
+  * and expire ttl after they are loaded. Identical queries that miss at the same time share one backend call.
+  * [[invalidate]] drops every entry that read the dataset; a result still loading while its dataset is
+  * invalidated is returned to its callers but not kept. A loaded result is returned once it is kept, so that the
+  * same query sent right after the answer finds it.
+  */
+class QueryResultCache(val maxEntries: Int,
+                       val maxBytes: Long,
+                       val ttl: FiniteDuration,
+                       clock: () => Long = () => System.currentTimeMillis()) {
+
+  import QueryResultCache._
+
+  private class Entry(val datasets: Set[String], val value: JsValue, val bytes: Long, val expireAt: Long)
+
+  // all the state below is guarded by the cache itself
+  private val entries = new util.LinkedHashMap[String, Entry](16, 0.75f, true)
+  private val loading = mutable.HashMap.empty[String, (Set[String], Future[JsValue])]
+  private val generations = mutable.HashMap.empty[String, Long].withDefaultValue(0L)
+  private var epoch = 0L
+  private var bytes = 0L
+  private var hits = 0L
+  private var misses = 0L
+  private var evictions = 0L
+
+  /**
+    * The cached result of the query, or the result of load, which is kept if it succeeds.
+    */
+  def getOrLoad(query: Query)(load: => Future[JsValue])(implicit ec: ExecutionContext): Future[JsValue] = {
+    val key = fingerprint(query)
+    val datasets = datasetsOf(query)
+    val (future, started) = synchronized {
+      Option(entries.get(key)).filter(_.expireAt > clock()) match {
+        case Some(entry) =>
+          hits += 1
+          (Future.successful(entry.value), None)
+        case None =>
+          remove(key)
+          misses += 1
+          loading.get(key) match {
+            case Some((_, loadingFuture)) => (loadingFuture, None)
+            case None =>
+              val started = try load catch {
+                case NonFatal(e) => Future.failed[JsValue](e)
+              }
+              val kept = Promise[JsValue]()
+              loading.put(key, (datasets, kept.future))
+              (kept.future, Some((started, kept, versionOf(datasets))))
+          }
+      }
+    }
+
+    started.foreach { case (loaded, kept, loadVersion) =>
+      loaded.onComplete { result =>
+        val entry = result.map(value => new Entry(datasets, value, sizeOf(value), clock() + ttl.toMillis))
+        synchronized {
+          if (loading.get(key).exists(_._2 eq kept.future)) loading.remove(key)
+          entry match {
+            case Success(loadedEntry) if versionOf(datasets) == loadVersion => put(key, loadedEntry)
+            case _ =>
+          }
+        }
+        kept.complete(result)
+      }
+    }
+    future
+  }
+
+  /**
+    * Drops the results of every query that reads the dataset.
+    */
+  def invalidate(dataset: String): Unit = synchronized {
+    generations(dataset) += 1
+    entries.asScala.collect { case (key, entry) if entry.datasets.contains(dataset) => key }.toList.foreach(remove)
+    // new queries should not wait for a result that will be thrown away
+    loading.collect { case (key, (datasets, _)) if datasets.contains(dataset) => key }.toList.foreach(loading.remove)
+  }
+
+  def invalidateAll(): Unit = synchronized {
+    epoch += 1
+    entries.clear()
+    loading.clear()
+    bytes = 0L
+  }
+
+  def stats: Stats = synchronized {
+    Stats(hits, misses, evictions, entries.size(), bytes)
+  }
+
+  private def versionOf(datasets: Set[String]): (Long, Seq[Long]) = (epoch, datasets.toSeq.map(generations))
+
+  private def put(key: String, entry: Entry): Unit = {
+    if (entry.bytes > maxBytes) return
+    remove(key)
+    entries.put(key, entry)
+    bytes += entry.bytes
+    val eldest = entries.entrySet().iterator()
+    while (entries.size() > maxEntries || bytes > maxBytes) {
+      val evicted = eldest.next()
+      bytes -= evicted.getValue.bytes
+      eldest.remove()
+      evictions += 1
+    }
+  }
+
+  private def remove(key: String): Unit = {
+    val entry = entries.remove(key)
+    if (entry != null) bytes -= entry.bytes
+  }
+}
+
+object QueryResultCache {
+
+  case class Stats(hits: Long, misses: Long, evictions: Long, entries: Int, bytes: Long)
+
+  private val Separator = "\u0000"
+
+  def apply(config: Config): QueryResultCache =
+    new QueryResultCache(config.QueryCacheMaxEntries, config.QueryCacheMaxBytes, config.QueryCacheTTL)
+
+  /**
+    * The canonical form of the query: the dataset first, then the query with its filters sorted,
+    * the values of the `in` filters sorted and the time bounds printed in one format.
+    * Queries that only differ in these ways get the same fingerprint.
+    */
+  def fingerprint(query: Query): String = {
+    val filters = query.filter.map(normalize(_).toString).sorted
+    query.dataset + Separator + query.copy(filter = Seq.empty) + filters.mkString(Separator, Separator, "")
+  }
+
+  /**
+    * The datasets the query reads, those of its lookups included.
+    */
+  def datasetsOf(query: Query): Set[String] =
+    Set(query.dataset) ++ query.lookup.map(_.dataset) ++ query.groups.toSeq.flatMap(_.lookups.map(_.dataset))
+
+  private def normalize(filter: FilterStatement): FilterStatement = filter.field match {
+    case _: TimeField =>
+      filter.copy(values = filter.values.map { value =>
+        Try(TimeField.TimeFormat.print(TimeField.TimeFormat.parseMillis(value.toString))).getOrElse(value)
+      })
+    case _ if filter.relation == Relation.in =>
+      filter.copy(values = filter.values.distinct.sortBy(_.toString))
+    case _ => filter
+  }
+
+  /**
+    * The length of the result as compact JSON text, counted without writing it out; only the escapes of the
+    * strings are left out. Good enough to bound the memory.
+    */
+  private[impl] def sizeOf(value: JsValue): Long = value match {
+    case JsNull => 4
+    case JsBoolean(bool) => if (bool) 4 else 5
+    case JsNumber(number) => number.toString.length
+    case JsString(string) => string.length + 2
+    case array: JsArray => array.value.foldLeft(2L + math.max(0, array.value.size - 1))(_ + sizeOf(_))
+    case obj: JsObject => obj.fields.foldLeft(2L + math.max(0, obj.fields.size - 1)) { case (size, (name, field)) =>
+      size + name.length + 3 + sizeOf(field)
+    }
+  }
+}
@@ -0,0 +1,173 @@
+package edu.uci.ics.cloudberry.zion.model.impl
+
+import java.util
+
+import edu.uci.ics.cloudberry.zion.common.Config
+
+import scala.collection.JavaConverters._
+import scala.concurrent.duration.FiniteDuration
+import scala.concurrent.{ExecutionContext, Future, Promise}
+import scala.util.control.NonFatal
+
+/**
+  * Admits the statements sent to one backend: at most maxInFlight of them run at a time, and the others wait in the
+  * queue of their [[StatementScheduler.Priority]]. A waiting statement of a higher class is admitted before any of a
+  * lower class; within a class the sessions take turns, so that one WebSocket slicing a long range does not hold
+  * back the others.
+  *
+  * The background classes, maintenance and statistics, run at most maxBackground at a time and only when no
+  * foreground statement waits, so they yield to the users under load. A background statement that has waited for
+  * maxYield is admitted before the foreground ones, even past maxBackground, so that the views and the stats do not
+  * fall behind forever.
+  *
+  * A slot is held until the future of the statement completes, so the tasks should bound how long they wait.
+  */
+class StatementScheduler(val maxInFlight: Int,
+                         val maxBackground: Int,
+                         val maxYield: FiniteDuration,
+                         clock: () => Long = () => System.currentTimeMillis()) {
+
+  import StatementScheduler.{ClassStats, Priority}
+
+  require(maxInFlight > 0, "the scheduler should admit at least one statement")
+  require(maxBackground > 0 && maxBackground <= maxInFlight, "the background statements should fit in the in-flight ones")
+
+  private class Pending(val session: String, val enqueuedAt: Long, val start: () => Unit)
+
+  // the waiting statements of one class, in one FIFO per session and the sessions in their turn order
+  private class ClassQueue {
+    private val sessions = new util.LinkedHashMap[String, util.ArrayDeque[Pending]]()
+    var size = 0
+
+    def offer(pending: Pending): Unit = {
+      var queue = sessions.get(pending.session)
+      if (queue == null) {
+        queue = new util.ArrayDeque[Pending]()
+        sessions.put(pending.session, queue)
+      }
+      queue.add(pending)
+      size += 1
+    }
+
+    def poll(): Pending = {
+      val iterator = sessions.entrySet().iterator()
+      val turn = iterator.next()
+      iterator.remove()
+      val pending = turn.getValue.poll()
+      // the session goes to the end of the turns if it has more to run
+      if (!turn.getValue.isEmpty) sessions.put(turn.getKey, turn.getValue)
+      size -= 1
+      pending
+    }
+
+    def oldest: Long = sessions.values().asScala.map(_.peek().enqueuedAt).min
+  }
+
+  // all the state below is guarded by the scheduler itself
+  private val queues = Priority.values.toSeq.map(_ => new ClassQueue)
+  private val inFlightOf = Array.fill(Priority.maxId)(0)
+  private val admitted = Array.fill(Priority.maxId)(0L)
+  private val totalWait = Array.fill(Priority.maxId)(0L)
+  private val maxWait = Array.fill(Priority.maxId)(0L)
+  private var inFlight = 0
+  private var backgroundInFlight = 0
+
+  /**
+    * Runs the task once it is admitted, and returns its result.
+    *
+    * @param session the session the statement runs for, e.g. the path of a client or the name of a dataset
+    */
+  def submit[T](priority: Priority.Value, session: String)(task: => Future[T])(implicit ec: ExecutionContext): Future[T] = {
+    val promise = Promise[T]()
+    val pending = new Pending(session, clock(), () => {
+      val started = try task catch {
+        case NonFatal(e) => Future.failed[T](e)
+      }
+      started.onComplete { result =>
+        release(priority)
+        promise.complete(result)
+      }
+    })
+    synchronized {
+      queues(priority.id).offer(pending)
+    }
+    dispatch()
+    promise.future
+  }
+
+  def stats: StatementScheduler.Stats = synchronized {
+    StatementScheduler.Stats(inFlight, Priority.values.toSeq.map { priority =>
+      val id = priority.id
+      priority -> ClassStats(queues(id).size, inFlightOf(id), admitted(id), totalWait(id), maxWait(id))
+    }.toMap)
+  }
+
+  private def release(priority: Priority.Value): Unit = {
+    synchronized {
+      inFlight -= 1
+      inFlightOf(priority.id) -= 1
+      if (Priority.isBackground(priority)) backgroundInFlight -= 1
+    }
+    dispatch()
+  }
+
+  // the tasks are started out of the lock, as they may complete at once and release their slots
+  private def dispatch(): Unit = {
+    val started = synchronized {
+      Iterator.continually(admitNext()).takeWhile(_.isDefined).flatten.toList
+    }
+    started.foreach(_.start())
+  }
+
+  private def admitNext(): Option[Pending] = {
+    if (inFlight >= maxInFlight) return None
+    val now = clock()
+    val waiting = Priority.values.toSeq.filter(priority => queues(priority.id).size > 0)
+    val (background, foreground) = waiting.partition(Priority.isBackground)
+    val backgroundFree = backgroundInFlight < maxBackground
+    val overdue = background.find(priority => now - queues(priority.id).oldest >= maxYield.toMillis)
+    val chosen = overdue
+      .orElse(foreground.headOption)
+      .orElse(background.headOption.filter(_ => backgroundFree))
+    chosen.map { priority =>
+      val id = priority.id
+      val pending = queues(id).poll()
+      val wait = now - pending.enqueuedAt
+      inFlight += 1
+      inFlightOf(id) += 1
+      if (Priority.isBackground(priority)) backgroundInFlight += 1
+      admitted(id) += 1
+      totalWait(id) += wait
+      maxWait(id) = Math.max(maxWait(id), wait)
+      pending
+    }
+  }
+}
+
+object StatementScheduler {
+
+  /**
+    * The classes of statements, from the most urgent one.
+    */
+  object Priority extends Enumeration {
+    val Interactive, Slicing, Maintenance, Statistics = Value
+
+    def isBackground(priority: Value): Boolean = priority == Maintenance || priority == Statistics
+  }
+
+  /**
+    * @param queued          the statements waiting to be admitted
+    * @param inFlight        the statements admitted and not completed yet
+    * @param admitted        the statements admitted so far
+    * @param totalWaitMillis the time the admitted statements waited in the queue, in total
+    * @param maxWaitMillis   the longest time an admitted statement waited in the queue
+    */
+  case class ClassStats(queued: Int, inFlight: Int, admitted: Long, totalWaitMillis: Long, maxWaitMillis: Long) {
+    def meanWaitMillis: Double = if (admitted == 0) 0.0 else totalWaitMillis.toDouble / admitted
+  }
+
+  case class Stats(inFlight: Int, classes: Map[Priority.Value, ClassStats])
+
+  def apply(config: Config): StatementScheduler =
+    new StatementScheduler(config.SchedulerMaxInFlight, config.SchedulerMaxBackground, config.SchedulerMaxYield)
+}
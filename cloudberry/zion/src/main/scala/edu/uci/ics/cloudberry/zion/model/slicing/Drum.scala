@@ -19,10 +19,27 @@ class Drum(totalRange: Int, alpha: Double, minRange: Int) {
     if (history.size < 1) {
       return RangeTime(minRange, Int.MaxValue)
     }
+    estimate(history, limit, history.last.range)
+  }
+
+  /**
+    * Plans the ranges of the next slices at once, one for each time limit, for the slices that run side by side.
+    * Each range grows from the one planned before it as if that one had been learned,
+    * so the ranges still at most double from one slice to the next.
+    */
+  def plan(limits: Seq[Int]): Seq[RangeTime] = {
+    val history = stats.result()
+    if (history.size < 1) {
+      return limits.map(_ => RangeTime(minRange, Int.MaxValue))
+    }
+    limits.scanLeft(RangeTime(history.last.range, 0)) { (last, limit) =>
+      estimate(history, limit, last.range)
+    }.tail
+  }
 
-    val lastRange = history.last.range
+  private def estimate(history: Seq[MiniQueryStats], limit: Int, lastRange: Int): RangeTime = {
     val lastTime = history.last.actualMS + Double.MinPositiveValue
-    val linearEstimate = lastRange * limit / lastTime
+    val linearEstimate = history.last.range * limit / lastTime
 
     val closeRange = validateRange(linearEstimate, minRange, lastRange)
     if (history.size < 3) { // too few observations
@@ -0,0 +1,63 @@
+package edu.uci.ics.cloudberry.zion.model.slicing
+
+import scala.collection.mutable
+
+/**
+  * The number of slices to keep in flight, adapted to how many of them the backend really runs side by side.
+  *
+  * It learns the time per unit of range for each number of slices in flight, from which the range answered per
+  * millisecond follows. The width grows by one while one more slice answers at least minGain more range per
+  * millisecond, or while that is not known yet, and shrinks by one once the last slice added does not pay.
+  * What it learned for a width is forgotten after maxAge observations of the other widths, as the load of the
+  * backend moves on, so that a width it left is probed again.
+  *
+  * @param maxWidth  the most slices to keep in flight
+  * @param minGain   the relative gain of throughput one more slice should bring
+  * @param smoothing the weight of a new observation in the learned time per unit of range
+  * @param maxAge    the observations after which the time learned for a width is stale
+  */
+class PipelineWidth(maxWidth: Int, minGain: Double = 0.1, smoothing: Double = 0.5, maxAge: Int = 20) {
+
+  require(maxWidth > 0, "at least one slice should be in flight")
+  require(maxAge > 0, "an observation should be fresh for a while")
+
+  private val msPerRange = mutable.Map.empty[Int, Double]
+  private val learnedAt = mutable.Map.empty[Int, Long]
+  private var observations = 0L
+  private var width = 1
+
+  def current: Int = width
+
+  /**
+    * @param inFlight the number of slices in flight while the slice ran
+    * @param range    the range of the slice
+    * @param actualMS the time the slice took
+    */
+  def learn(inFlight: Int, range: Int, actualMS: Long): Unit = {
+    if (range <= 0 || inFlight <= 0) return
+    val observed = Math.max(actualMS, 1L).toDouble / range
+    // a stale time is replaced rather than smoothed
+    msPerRange(inFlight) = learned(inFlight).map(_ * (1 - smoothing) + observed * smoothing).getOrElse(observed)
+    observations += 1
+    learnedAt(inFlight) = observations
+    width = adapt()
+  }
+
+  private def learned(inFlight: Int): Option[Double] =
+    msPerRange.get(inFlight).filter(_ => observations - learnedAt(inFlight) < maxAge)
+
+  // the range answered per millisecond with that many slices in flight
+  private def throughput(inFlight: Int): Option[Double] = learned(inFlight).map(inFlight / _)
+
+  private def adapt(): Int = throughput(width) match {
+    case None => width
+    case Some(atWidth) =>
+      if (width > 1 && throughput(width - 1).exists(narrower => atWidth < narrower * (1 + minGain))) {
+        width - 1
+      } else if (width < maxWidth && throughput(width + 1).forall(wider => wider >= atWidth * (1 + minGain))) {
+        width + 1
+      } else {
+        width
+      }
+  }
+}
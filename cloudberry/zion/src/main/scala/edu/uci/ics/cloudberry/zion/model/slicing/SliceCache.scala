@@ -0,0 +1,21 @@
+package edu.uci.ics.cloudberry.zion.model.slicing
+
+import edu.uci.ics.cloudberry.zion.common.Config
+import edu.uci.ics.cloudberry.zion.model.impl.QueryResultCache
+
+/**
+  * The results of the mini-queries over whole [[TimeBuckets]], shared by the progressive solvers.
+  * A bucket result is keyed on the query with the bucket as its time filter.
+  */
+class SliceCache(val buckets: TimeBuckets, val results: QueryResultCache)
+
+object SliceCache {
+
+  /**
+    * The cache configured by `slicecache.*`, if a bucket length is set.
+    */
+  def apply(config: Config): Option[SliceCache] = config.SliceCacheBucket.map { bucket =>
+    new SliceCache(new TimeBuckets(bucket.toMillis),
+      new QueryResultCache(config.SliceCacheMaxEntries, config.SliceCacheMaxBytes, config.SliceCacheTTL))
+  }
+}
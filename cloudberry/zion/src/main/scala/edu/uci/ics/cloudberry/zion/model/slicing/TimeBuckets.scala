@@ -0,0 +1,45 @@
+package edu.uci.ics.cloudberry.zion.model.slicing
+
+import edu.uci.ics.cloudberry.zion.TInterval
+
+/**
+  * Cuts slice intervals along fixed time buckets aligned on the epoch, so that the slices of different requests
+  * share their whole buckets whatever their own boundaries are.
+  *
+  * @param bucketMillis the length of a bucket, e.g. one day
+  */
+class TimeBuckets(val bucketMillis: Long) {
+
+  require(bucketMillis > 0, "the bucket length should be positive")
+
+  /**
+    * Splits the interval into consecutive pieces in ascending time order. A piece is flagged as a bucket when
+    * it is a whole bucket that ends no later than `stableEnd`, i.e. its data will not change any more;
+    * the partial buckets at both ends and everything past `stableEnd` are left in plain pieces.
+    */
+  def split(interval: TInterval, stableEnd: Long): Seq[(TInterval, Boolean)] = {
+    val start = interval.getStartMillis
+    val end = interval.getEndMillis
+    val firstBucket = ceil(start)
+    val lastBucketEnd = Math.min(floor(end), floor(stableEnd))
+    if (firstBucket >= lastBucketEnd) {
+      return Seq((interval, false))
+    }
+
+    val pieces = Seq.newBuilder[(TInterval, Boolean)]
+    if (start < firstBucket) {
+      pieces += ((new TInterval(start, firstBucket), false))
+    }
+    for (bucket <- firstBucket until lastBucketEnd by bucketMillis) {
+      pieces += ((new TInterval(bucket, bucket + bucketMillis), true))
+    }
+    if (lastBucketEnd < end) {
+      pieces += ((new TInterval(lastBucketEnd, end), false))
+    }
+    pieces.result()
+  }
+
+  def floor(millis: Long): Long = Math.floorDiv(millis, bucketMillis) * bucketMillis
+
+  def ceil(millis: Long): Long = -Math.floorDiv(-millis, bucketMillis) * bucketMillis
+}
@@ -99,6 +99,137 @@ class DataStoreManagerTest extends TestkitExample with SpecificationLike with Mo
       base.expectMsg(query)
       ok
     }
+    "admit a scheduled query in its class and report the wait of the class" in {
+      val mockParserFactory = mock[IQLGeneratorFactory]
+      val mockConn = mock[IDataConn]
+
+      val initialInfo = JsArray(Seq(DataSetInfo.write(sourceInfo)))
+      val dataManager = system.actorOf(Props(new DataStoreManager(metaDataSet, mockConn, mockParserFactory, Config.Default, testActorMaker)))
+      val metaQuery = meta.receiveOne(5 seconds)
+      metaQuery.asInstanceOf[Query].dataset must_== metaDataSet
+      meta.reply(initialInfo)
+
+      val query = Query(dataset = sourceInfo.name)
+      val result = JsArray(Seq(Json.obj("count" -> 1)))
+      sender.send(dataManager, ScheduledQuery(query, StatementScheduler.Priority.Slicing, "client"))
+      base.expectMsg(AbstractDataSetAgent.ColumnarQuery(query))
+      base.reply(result)
+      sender.expectMsg(result)
+
+      sender.send(dataManager, AskSchedulerStats)
+      val stats = sender.receiveOne(5 seconds).asInstanceOf[StatementScheduler.Stats]
+      stats.inFlight must_== 0
+      stats.classes(StatementScheduler.Priority.Slicing).admitted must_== 1
+    }
+    "hand a streamed query to the agent with its requester and hold the slot until the agent ends it" in {
+      val mockParserFactory = mock[IQLGeneratorFactory]
+      val mockConn = mock[IDataConn]
+
+      val initialInfo = JsArray(Seq(DataSetInfo.write(sourceInfo)))
+      val dataManager = system.actorOf(Props(new DataStoreManager(metaDataSet, mockConn, mockParserFactory, Config.Default, testActorMaker)))
+      val metaQuery = meta.receiveOne(5 seconds)
+      metaQuery.asInstanceOf[Query].dataset must_== metaDataSet
+      meta.reply(initialInfo)
+
+      val query = Query(dataset = sourceInfo.name)
+      sender.send(dataManager, ScheduledQuery(query, StatementScheduler.Priority.Slicing, "client", streamed = true))
+      base.expectMsg(AbstractDataSetAgent.StreamedQuery(query, sender.ref))
+
+      sender.send(dataManager, AskSchedulerStats)
+      sender.receiveOne(5 seconds).asInstanceOf[StatementScheduler.Stats].inFlight must_== 1
+
+      base.reply(AbstractDataSetAgent.ResultEnd)
+      sender.expectNoMsg(200 milliseconds)
+      sender.send(dataManager, AskSchedulerStats)
+      sender.receiveOne(5 seconds).asInstanceOf[StatementScheduler.Stats].inFlight must_== 0
+    }
+    "free the slot of a query the agent never answers once the query timeout is over" in {
+      val mockParserFactory = mock[IQLGeneratorFactory]
+      val mockConn = mock[IDataConn]
+
+      val initialInfo = JsArray(Seq(DataSetInfo.write(sourceInfo)))
+      val oneSlotConfig = new Config(play.api.Configuration("scheduler.max.inflight" -> 1, "scheduler.max.background" -> 1,
+        "scheduler.timeout.query" -> "500 milliseconds"))
+      val dataManager = system.actorOf(Props(new DataStoreManager(metaDataSet, mockConn, mockParserFactory, oneSlotConfig, testActorMaker)))
+      val metaQuery = meta.receiveOne(5 seconds)
+      metaQuery.asInstanceOf[Query].dataset must_== metaDataSet
+      meta.reply(initialInfo)
+
+      val lost = Query(dataset = sourceInfo.name, isEstimable = true)
+      sender.send(dataManager, lost)
+      base.expectMsg(lost)
+      sender.expectMsgType[Status.Failure](5 seconds)
+
+      val query = Query(dataset = sourceInfo.name)
+      val result = JsArray(Seq(Json.obj("count" -> 1)))
+      sender.send(dataManager, query)
+      base.expectMsg(query)
+      base.reply(result)
+      sender.expectMsg(result)
+    }
+    "hold the slot of a query that outlasts the user timeout until the agent answers it" in {
+      val mockParserFactory = mock[IQLGeneratorFactory]
+      val mockConn = mock[IDataConn]
+
+      val initialInfo = JsArray(Seq(DataSetInfo.write(sourceInfo)))
+      val oneSlotConfig = new Config(play.api.Configuration("scheduler.max.inflight" -> 1, "scheduler.max.background" -> 1,
+        "actor.user.timeout" -> "200 milliseconds"))
+      val dataManager = system.actorOf(Props(new DataStoreManager(metaDataSet, mockConn, mockParserFactory, oneSlotConfig, testActorMaker)))
+      val metaQuery = meta.receiveOne(5 seconds)
+      metaQuery.asInstanceOf[Query].dataset must_== metaDataSet
+      meta.reply(initialInfo)
+
+      val slow = Query(dataset = sourceInfo.name, isEstimable = true)
+      val slowResult = JsArray(Seq(Json.obj("count" -> 2)))
+      sender.send(dataManager, slow)
+      base.expectMsg(slow)
+      val slowAgent = base.lastSender
+      sender.expectNoMsg(500 milliseconds)
+
+      val query = Query(dataset = sourceInfo.name)
+      val result = JsArray(Seq(Json.obj("count" -> 1)))
+      sender.send(dataManager, query)
+      base.expectNoMsg(500 milliseconds)
+
+      base.send(slowAgent, slowResult)
+      sender.expectMsg(slowResult)
+      base.expectMsg(query)
+      base.reply(result)
+      sender.expectMsg(result)
+    }
+    "answer a repeated query from the result cache until NewStats comes" in {
+      val mockParserFactory = mock[IQLGeneratorFactory]
+      val mockConn = mock[IDataConn]
+
+      val initialInfo = JsArray(Seq(DataSetInfo.write(sourceInfo)))
+      val cacheConfig = new Config(play.api.Configuration("querycache.datasets" -> Seq(sourceInfo.name)))
+      val dataManager = system.actorOf(Props(new DataStoreManager(metaDataSet, mockConn, mockParserFactory, cacheConfig, testActorMaker)))
+      val metaQuery = meta.receiveOne(5 seconds)
+      metaQuery.asInstanceOf[Query].dataset must_== metaDataSet
+      meta.reply(initialInfo)
+
+      val query = Query(dataset = sourceInfo.name)
+      val result = JsArray(Seq(Json.obj("count" -> 1)))
+      sender.send(dataManager, query)
+      base.expectMsg(query)
+      base.reply(result)
+      sender.expectMsg(result)
+
+      sender.send(dataManager, query)
+      sender.expectMsg(result)
+      base.expectNoMsg(500 milli)
+
+      sender.send(dataManager, NewStats(sourceInfo.name, 1, sourceInfo.dataInterval))
+      meta.receiveOne(5 seconds)
+      sender.send(dataManager, query)
+      base.expectMsg(query)
+      base.reply(result)
+      sender.expectMsg(result)
+
+      sender.send(dataManager, AskResultCacheStats)
+      sender.expectMsg(QueryResultCache.Stats(hits = 1, misses = 2, evictions = 0, entries = 1, bytes = Json.stringify(result).length))
+      ok
+    }
     "update meta info if create view succeeds" in {
       val now = DateTime.now()
       val parser = new AQLGenerator
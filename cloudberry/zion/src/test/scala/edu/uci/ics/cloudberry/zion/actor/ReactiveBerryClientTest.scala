@@ -2,20 +2,26 @@ package edu.uci.ics.cloudberry.zion.actor
 
 import java.util.concurrent.Executors
 
+import akka.actor.{ActorRef, Props}
 import akka.testkit.TestProbe
 import edu.uci.ics.cloudberry.zion.TInterval
 import edu.uci.ics.cloudberry.zion.common.Config
+import edu.uci.ics.cloudberry.zion.model.datastore.NoTransform
 import edu.uci.ics.cloudberry.zion.model.impl.QueryPlanner.{IMerger, Unioner}
+import edu.uci.ics.cloudberry.zion.model.impl.StatementScheduler.Priority
 import edu.uci.ics.cloudberry.zion.model.impl.{JSONParser, QueryPlanner, TestQuery}
 import edu.uci.ics.cloudberry.zion.model.schema
 import edu.uci.ics.cloudberry.zion.model.schema._
+import edu.uci.ics.cloudberry.zion.model.slicing.SliceCache
 import org.joda.time.{DateTime, DateTimeZone}
 import org.mockito.invocation.InvocationOnMock
 import org.mockito.stubbing.Answer
 import org.specs2.mock.Mockito
 import org.specs2.mutable.SpecificationLike
+import play.api.Configuration
 import play.api.libs.json._
 
+import scala.collection.mutable.ArrayBuffer
 import scala.concurrent.ExecutionContext
 
 class ReactiveBerryClientTest extends TestkitExample with SpecificationLike with Mockito {
@@ -189,7 +195,10 @@ class ReactiveBerryClientTest extends TestkitExample with SpecificationLike with
       dataManager.receiveOne(5 seconds).asInstanceOf[DataStoreManager.AskInfoAndViews]
       dataManager.reply(Seq(TestQuery.sourceInfo))
 
-      val slicedQ1 = dataManager.receiveOne(5 seconds).asInstanceOf[Query]
+      val scheduledQ1 = dataManager.receiveOne(5 seconds).asInstanceOf[DataStoreManager.ScheduledQuery]
+      scheduledQ1.priority must_== Priority.Slicing
+      scheduledQ1.session must_== client.path.toString
+      val slicedQ1 = scheduledQ1.query
       val interval1 = slicedQ1.getTimeInterval(TimeField("create_at")).get
       interval1.getEnd must_== endTime
       interval1.toDurationMillis must_== Config.Default.FirstQueryTimeGap.toMillis
@@ -206,7 +215,7 @@ class ReactiveBerryClientTest extends TestkitExample with SpecificationLike with
 
       dataManager.receiveOne(5 seconds).asInstanceOf[DataStoreManager.AskInfoAndViews]
       dataManager.reply(Seq(TestQuery.sourceInfo))
-      val slicedQ2 = dataManager.receiveOne(5 seconds).asInstanceOf[Query]
+      val slicedQ2 = dataManager.receiveOne(5 seconds).asInstanceOf[DataStoreManager.ScheduledQuery].query
       val interval2 = slicedQ2.getTimeInterval(TimeField("create_at")).get
       println(interval2)
       interval2.getEnd must_== interval1.getStart
@@ -224,7 +233,7 @@ class ReactiveBerryClientTest extends TestkitExample with SpecificationLike with
 
       dataManager.receiveOne(5 seconds).asInstanceOf[DataStoreManager.AskInfoAndViews]
       dataManager.reply(Seq(TestQuery.sourceInfo))
-      val slicedQ3 = dataManager.receiveOne(5 seconds).asInstanceOf[Query]
+      val slicedQ3 = dataManager.receiveOne(5 seconds).asInstanceOf[DataStoreManager.ScheduledQuery].query
       val interval3 = slicedQ3.getTimeInterval(TimeField("create_at")).get
       println(interval3)
       interval3.getEnd must_== interval2.getStart
@@ -243,6 +252,186 @@ class ReactiveBerryClientTest extends TestkitExample with SpecificationLike with
       ok
     }
 
+    "pipeline the slices and merge their results in the order they arrive" in {
+      val sender = new TestProbe(system)
+      val dataManager = new TestProbe(system)
+      val parser = new JSONParser
+      val mockPlanner = mock[QueryPlanner]
+      when(mockPlanner.calculateMergeFunc(any, any)).thenReturn(QueryPlanner.Unioner)
+      //Return the input query
+      when(mockPlanner.makePlan(any, any, any)).thenAnswer(new Answer[(Seq[Query], IMerger)] {
+        override def answer(invocation: InvocationOnMock): (Seq[Query], IMerger) = {
+          val query = invocation.getArguments().head.asInstanceOf[Query]
+          (Seq(query), Unioner)
+        }
+      })
+
+      val config = new Config(Configuration("berry.slicing.pipeline.max" -> 2))
+      val client = system.actorOf(BerryClient.props(parser, dataManager.ref, mockPlanner, config, sender.ref))
+
+      sender.send(client, makeOptionJsonObj(hourCountJSON))
+      dataManager.receiveOne(5 seconds).asInstanceOf[DataStoreManager.AskInfo]
+      dataManager.reply(Some(TestQuery.sourceInfo))
+
+      dataManager.receiveOne(5 seconds).asInstanceOf[DataStoreManager.AskInfoAndViews]
+      dataManager.reply(Seq(TestQuery.sourceInfo))
+
+      val slicedQ1 = dataManager.receiveOne(5 seconds).asInstanceOf[DataStoreManager.ScheduledQuery].query
+      val interval1 = slicedQ1.getTimeInterval(TimeField("create_at")).get
+      interval1.getEnd must_== endTime
+
+      dataManager.reply(getRet(1))
+      sender.expectMsg(JsObject(Seq(
+        "value" -> JsArray(Seq(getRet(1))),
+        "timeInterval" -> JsObject(Seq(
+          "start" -> JsNumber(interval1.getStart.getMillis()),
+          "end" -> JsNumber(endTime.getMillis())
+        ))
+      )))
+
+      // the width grows to two slices in flight, both issued before either one is answered
+      val slices = ArrayBuffer.empty[(Query, ActorRef)]
+      while (slices.size < 2) {
+        dataManager.receiveOne(5 seconds) match {
+          case _: DataStoreManager.AskInfoAndViews => dataManager.reply(Seq(TestQuery.sourceInfo))
+          case scheduled: DataStoreManager.ScheduledQuery => slices += ((scheduled.query, dataManager.lastSender))
+        }
+      }
+      val Seq((slicedQ2, sender2), (slicedQ3, sender3)) = slices.sortBy(-_._1.getTimeInterval(TimeField("create_at")).get.getEndMillis)
+      val interval2 = slicedQ2.getTimeInterval(TimeField("create_at")).get
+      val interval3 = slicedQ3.getTimeInterval(TimeField("create_at")).get
+      interval2.getEnd must_== interval1.getStart
+      interval3.getEnd must_== interval2.getStart
+
+      // the older slice comes first: its result is merged, but the covered range still ends at the newer one
+      dataManager.send(sender3, getRet(3))
+      sender.expectMsg(JsObject(Seq(
+        "value" -> JsArray(Seq(getRet(1) ++ getRet(3))),
+        "timeInterval" -> JsObject(Seq(
+          "start" -> JsNumber(interval1.getStart.getMillis()),
+          "end" -> JsNumber(endTime.getMillis())
+        ))
+      )))
+
+      dataManager.send(sender2, getRet(2))
+      sender.expectMsg(JsObject(Seq(
+        "value" -> JsArray(Seq(getRet(1) ++ getRet(3) ++ getRet(2))),
+        "timeInterval" -> JsObject(Seq(
+          "start" -> JsNumber(interval3.getStart.getMillis()),
+          "end" -> JsNumber(endTime.getMillis())
+        ))
+      )))
+      ok
+    }
+
+    "reuse the cached buckets of a repeated slice and merge them in time order" in {
+      val dataManager = new TestProbe(system)
+      val out = new TestProbe(system)
+      val mockPlanner = mock[QueryPlanner]
+      when(mockPlanner.calculateMergeFunc(any, any)).thenReturn(QueryPlanner.Unioner)
+      //Return the input query
+      when(mockPlanner.makePlan(any, any, any)).thenAnswer(new Answer[(Seq[Query], IMerger)] {
+        override def answer(invocation: InvocationOnMock): (Seq[Query], IMerger) = {
+          val query = invocation.getArguments().head.asInstanceOf[Query]
+          (Seq(query), Unioner)
+        }
+      })
+
+      // one slice covers the whole request, cut in day buckets
+      val config = new Config(Configuration("berry.firstquery.gap" -> "10 days", "slicecache.bucket" -> "1 day"))
+      val solver = system.actorOf(Props(new ProgressiveSolver(dataManager.ref, mockPlanner, config, out.ref, SliceCache(config))))
+
+      val firstDay = new DateTime(2016, 6, 1, 0, 0)
+      def sliceOver(days: Int): ProgressiveSolver.SlicingRequest = {
+        val timeFilter = FilterStatement(TestQuery.createAt, None, Relation.inRange,
+          Seq(firstDay, firstDay.plusDays(days)).map(TimeField.TimeFormat.print))
+        ProgressiveSolver.SlicingRequest(2000, None, Seq(Query(TestQuery.TwitterDataSet, filter = Seq(timeFilter))),
+          Map(TestQuery.TwitterDataSet -> TestQuery.sourceInfo), NoTransform, returnDelta = false)
+      }
+      // answers each bucket query with the day of its bucket, and returns the days queried
+      def answerBuckets(count: Int): Seq[Int] = {
+        val queried = ArrayBuffer.empty[Int]
+        while (queried.size < count) {
+          dataManager.receiveOne(5 seconds) match {
+            case _: DataStoreManager.AskInfoAndViews => dataManager.reply(Seq(TestQuery.sourceInfo))
+            case scheduled: DataStoreManager.ScheduledQuery =>
+              val bucket = scheduled.query.getTimeInterval(TimeField("create_at")).get
+              bucket.toDurationMillis must_== 1.day.toMillis
+              queried += bucket.getStart.getDayOfMonth
+              dataManager.reply(getRet(bucket.getStart.getDayOfMonth))
+          }
+        }
+        queried.sorted
+      }
+      def expectDays(days: Int*): Unit = out.expectMsg(JsObject(Seq(
+        "value" -> JsArray(Seq(days.map(getRet).reduce(_ ++ _))),
+        "timeInterval" -> JsObject(Seq(
+          "start" -> JsNumber(firstDay.getMillis),
+          "end" -> JsNumber(firstDay.plusDays(days.size).getMillis)
+        ))
+      )))
+
+      out.send(solver, sliceOver(2))
+      answerBuckets(2) must_== Seq(1, 2)
+      expectDays(1, 2)
+
+      // only the new bucket goes to the backend, the cached ones are merged with it
+      out.send(solver, sliceOver(3))
+      answerBuckets(1) must_== Seq(3)
+      expectDays(1, 2, 3)
+      ok
+    }
+
+    "answer a distinct count query in one slice, without cutting it into buckets or pipelining it" in {
+      val dataManager = new TestProbe(system)
+      val out = new TestProbe(system)
+      val mockPlanner = mock[QueryPlanner]
+      when(mockPlanner.calculateMergeFunc(any, any)).thenReturn(QueryPlanner.Unioner)
+      when(mockPlanner.makePlan(any, any, any)).thenAnswer(new Answer[(Seq[Query], IMerger)] {
+        override def answer(invocation: InvocationOnMock): (Seq[Query], IMerger) = {
+          val query = invocation.getArguments().head.asInstanceOf[Query]
+          (Seq(query), Unioner)
+        }
+      })
+
+      val config = new Config(Configuration("berry.firstquery.gap" -> "1 day", "slicecache.bucket" -> "1 day",
+        "berry.slicing.pipeline.max" -> 2))
+      val solver = system.actorOf(Props(new ProgressiveSolver(dataManager.ref, mockPlanner, config, out.ref, SliceCache(config))))
+
+      val firstDay = new DateTime(2016, 6, 1, 0, 0)
+      val lastDay = firstDay.plusDays(5)
+      val timeFilter = FilterStatement(TestQuery.createAt, None, Relation.inRange,
+        Seq(firstDay, lastDay).map(TimeField.TimeFormat.print))
+      val users = AggregateStatement(TestQuery.id, DistinctCount, Field.as(DistinctCount(TestQuery.id), "users"))
+      val query = Query(TestQuery.TwitterDataSet, filter = Seq(timeFilter),
+        groups = Some(GroupStatement(Seq(TestQuery.byState), Seq(users))))
+      out.send(solver, ProgressiveSolver.SlicingRequest(2000, None, Seq(query),
+        Map(TestQuery.TwitterDataSet -> TestQuery.sourceInfo), NoTransform, returnDelta = false))
+
+      var scheduledOpt: Option[DataStoreManager.ScheduledQuery] = None
+      while (scheduledOpt.isEmpty) {
+        dataManager.receiveOne(5 seconds) match {
+          case _: DataStoreManager.AskInfoAndViews => dataManager.reply(Seq(TestQuery.sourceInfo))
+          case scheduled: DataStoreManager.ScheduledQuery => scheduledOpt = Some(scheduled)
+        }
+      }
+      val interval = scheduledOpt.get.query.getTimeInterval(TimeField("create_at")).get
+      interval.getStartMillis must_== firstDay.getMillis
+      interval.getEndMillis must_== lastDay.getMillis
+
+      val answer = Json.arr(Json.obj("state" -> 1, "users" -> 4))
+      dataManager.reply(answer)
+      out.expectMsg(JsObject(Seq(
+        "value" -> JsArray(Seq(answer)),
+        "timeInterval" -> JsObject(Seq(
+          "start" -> JsNumber(firstDay.getMillis),
+          "end" -> JsNumber(lastDay.getMillis)
+        ))
+      )))
+      dataManager.expectNoMsg(500 milliseconds)
+      ok
+    }
+
     "slice a query batch should generate a slice for each query" in {
       val sender = new TestProbe(system)
       val dataManager = new TestProbe(system)
@@ -270,7 +459,7 @@ class ReactiveBerryClientTest extends TestkitExample with SpecificationLike with
       dataManager.receiveOne(5 seconds).asInstanceOf[DataStoreManager.AskInfoAndViews]
       dataManager.reply(Seq(TestQuery.sourceInfo))
 
-      val slicedQ1 = dataManager.receiveOne(5 seconds).asInstanceOf[Query]
+      val slicedQ1 = dataManager.receiveOne(5 seconds).asInstanceOf[DataStoreManager.ScheduledQuery].query
       val interval1 = slicedQ1.getTimeInterval(TimeField("create_at")).get
       interval1.getEnd must_== endTime
       interval1.toDurationMillis must_== Config.Default.FirstQueryTimeGap.toMillis
@@ -282,7 +471,7 @@ class ReactiveBerryClientTest extends TestkitExample with SpecificationLike with
         }
       )
 
-      val slicedQ2 = dataManager.receiveOne(5 seconds).asInstanceOf[Query]
+      val slicedQ2 = dataManager.receiveOne(5 seconds).asInstanceOf[DataStoreManager.ScheduledQuery].query
       val interval2 = slicedQ2.getTimeInterval(TimeField("create_at")).get
       interval2.getEnd must_== endTime
       interval2.toDurationMillis must_== Config.Default.FirstQueryTimeGap.toMillis
@@ -340,7 +529,7 @@ class ReactiveBerryClientTest extends TestkitExample with SpecificationLike with
       var qx: Query = Query("dataset")
 
       while (intervalx.getStartMillis > startTime.getMillis) {
-        qx = dataManager.receiveOne(5 second).asInstanceOf[Query]
+        qx = dataManager.receiveOne(5 second).asInstanceOf[DataStoreManager.ScheduledQuery].query
         intervalx = qx.getTimeInterval(TimeField("create_at")).get
         dataManager.reply(getRet(0))
         response ++= getRet(0)
@@ -388,7 +577,7 @@ class ReactiveBerryClientTest extends TestkitExample with SpecificationLike with
 
       dataManager.receiveOne(5 seconds).asInstanceOf[DataStoreManager.AskInfoAndViews]
       dataManager.reply(Seq(TestQuery.sourceInfo))
-      val slicedQ1 = dataManager.receiveOne(5 seconds).asInstanceOf[Query]
+      val slicedQ1 = dataManager.receiveOne(5 seconds).asInstanceOf[DataStoreManager.ScheduledQuery].query
       val interval1 = slicedQ1.getTimeInterval(TimeField("create_at")).get
       interval1.getEnd must_== endTime
       interval1.toDurationMillis must_== Config.Default.FirstQueryTimeGap.toMillis
@@ -406,7 +595,7 @@ class ReactiveBerryClientTest extends TestkitExample with SpecificationLike with
 
       dataManager.receiveOne(5 seconds).asInstanceOf[DataStoreManager.AskInfoAndViews]
       dataManager.reply(Seq(TestQuery.sourceInfo))
-      val slicedQ2 = dataManager.receiveOne(5 seconds).asInstanceOf[Query]
+      val slicedQ2 = dataManager.receiveOne(5 seconds).asInstanceOf[DataStoreManager.ScheduledQuery].query
       val interval2 = slicedQ2.getTimeInterval(TimeField("create_at")).get
       interval2.getEnd must_== interval1.getStart
       interval2.getStartMillis must be_>=(startTime.getMillis)
@@ -423,7 +612,7 @@ class ReactiveBerryClientTest extends TestkitExample with SpecificationLike with
 
       dataManager.receiveOne(5 seconds).asInstanceOf[DataStoreManager.AskInfoAndViews]
       dataManager.reply(Seq(TestQuery.sourceInfo))
-      val slicedQ11 = dataManager.receiveOne(5 seconds).asInstanceOf[Query]
+      val slicedQ11 = dataManager.receiveOne(5 seconds).asInstanceOf[DataStoreManager.ScheduledQuery].query
       val interval11 = slicedQ11.getTimeInterval(TimeField("create_at")).get
       interval11.getEnd must_== endTime2
       interval11.toDurationMillis must_== Config.Default.FirstQueryTimeGap.toMillis
@@ -473,7 +662,7 @@ class ReactiveBerryClientTest extends TestkitExample with SpecificationLike with
       dataManager.receiveOne(5 seconds).asInstanceOf[DataStoreManager.AskInfoAndViews]
       dataManager.reply(Seq(TestQuery.sourceInfo))
 
-      val slicedQ1 = dataManager.receiveOne(5 seconds).asInstanceOf[Query]
+      val slicedQ1 = dataManager.receiveOne(5 seconds).asInstanceOf[DataStoreManager.ScheduledQuery].query
       val interval1 = slicedQ1.getTimeInterval(TimeField("create_at")).get
       interval1.getEnd must_== endTime
       interval1.toDurationMillis must_== Config.Default.FirstQueryTimeGap.toMillis
@@ -490,7 +679,7 @@ class ReactiveBerryClientTest extends TestkitExample with SpecificationLike with
 
       dataManager.receiveOne(5 seconds).asInstanceOf[DataStoreManager.AskInfoAndViews]
       dataManager.reply(Seq(TestQuery.sourceInfo))
-      val slicedQ2 = dataManager.receiveOne(5 seconds).asInstanceOf[Query]
+      val slicedQ2 = dataManager.receiveOne(5 seconds).asInstanceOf[DataStoreManager.ScheduledQuery].query
       val interval2 = slicedQ2.getTimeInterval(TimeField("create_at")).get
       interval2.getEnd must_== interval1.getStart
       interval2.getStartMillis must be_>=(startTime.getMillis)
@@ -515,5 +704,55 @@ class ReactiveBerryClientTest extends TestkitExample with SpecificationLike with
       sender.expectMsg(BerryClient.Done)
       ok
     }
+
+    "stream the rows of a query without groups and merge their chunks as they arrive" in {
+      val sender = new TestProbe(system)
+      val dataManager = new TestProbe(system)
+      val parser = new JSONParser
+      val mockPlanner = mock[QueryPlanner]
+      when(mockPlanner.calculateMergeFunc(any, any)).thenReturn(QueryPlanner.Unioner)
+      //Return the input query
+      when(mockPlanner.makePlan(any, any, any)).thenAnswer(new Answer[(Seq[Query], IMerger)] {
+        override def answer(invocation: InvocationOnMock): (Seq[Query], IMerger) = {
+          val query = invocation.getArguments().head.asInstanceOf[Query]
+          (Seq(query), Unioner)
+        }
+      })
+
+      val client = system.actorOf(BerryClient.props(parser, dataManager.ref, mockPlanner, Config.Default, sender.ref))
+
+      val sampleJSON = Json.obj(
+        "dataset" -> "twitter.ds_tweet",
+        "filter" -> (hourCountJSON \ "filter").get,
+        "select" -> Json.obj("order" -> Seq(JsString("-create_at")), "limit" -> 10, "offset" -> 0, "field" -> Seq("create_at", "id"))
+      )
+      sender.send(client, makeOptionJsonObj(sampleJSON))
+      dataManager.receiveOne(5 seconds).asInstanceOf[DataStoreManager.AskInfo]
+      dataManager.reply(Some(TestQuery.sourceInfo))
+
+      dataManager.receiveOne(5 seconds).asInstanceOf[DataStoreManager.AskInfoAndViews]
+      dataManager.reply(Seq(TestQuery.sourceInfo))
+
+      val scheduledQ1 = dataManager.receiveOne(5 seconds).asInstanceOf[DataStoreManager.ScheduledQuery]
+      scheduledQ1.streamed must_== true
+      val interval1 = scheduledQ1.query.getTimeInterval(TimeField("create_at")).get
+
+      val chunk1 = JsArray(Seq(Json.obj("create_at" -> "2016-12-30T10:00:00.000Z", "id" -> 1)))
+      val chunk2 = JsArray(Seq(Json.obj("create_at" -> "2016-12-30T09:00:00.000Z", "id" -> 2)))
+      dataManager.reply(AbstractDataSetAgent.ResultChunk(chunk1))
+      dataManager.reply(AbstractDataSetAgent.ResultChunk(chunk2))
+      sender.expectNoMsg(200 milliseconds)
+      dataManager.reply(AbstractDataSetAgent.ResultEnd)
+
+      val result1: JsValue = JsObject(Seq(
+        "value" -> JsArray(Seq(chunk1 ++ chunk2)),
+        "timeInterval" -> JsObject(Seq(
+          "start" -> JsNumber(interval1.getStart.getMillis()),
+          "end" -> JsNumber(endTime.getMillis())
+        ))
+      ))
+      sender.expectMsg(result1)
+      ok
+    }
   }
 }
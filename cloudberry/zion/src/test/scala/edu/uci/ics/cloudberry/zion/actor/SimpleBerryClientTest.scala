@@ -4,6 +4,7 @@ import java.util.concurrent.Executors
 
 import akka.testkit.TestProbe
 import edu.uci.ics.cloudberry.zion.common.Config
+import edu.uci.ics.cloudberry.zion.model.impl.StatementScheduler.Priority
 import edu.uci.ics.cloudberry.zion.model.impl.{JSONParser, QueryPlanner}
 import edu.uci.ics.cloudberry.zion.model.schema.{CreateView, Query, QueryExeOption}
 import edu.uci.ics.cloudberry.zion.model.util.MockConnClient
@@ -52,9 +53,10 @@ class SimpleBerryClientTest extends TestkitExample with SpecificationLike with M
       val json1 = JsArray(Seq(Json.obj("a" -> 4)))
       val json2 = JsArray(Seq(Json.obj("b" -> 8)))
 
-      dataManager.expectMsg(query1)
+      // the queries of the client take their turns as one session
+      dataManager.expectMsg(DataStoreManager.ScheduledQuery(query1, Priority.Interactive, client.path.toString))
       dataManager.reply(json1)
-      dataManager.expectMsg(query2)
+      dataManager.expectMsg(DataStoreManager.ScheduledQuery(query2, Priority.Interactive, client.path.toString))
       dataManager.reply(json2)
 
       sender.expectMsg(JsArray(Seq(JsArray(Seq(Json.obj("a" -> 4), Json.obj("b" -> 8))))))
@@ -2,9 +2,10 @@ package edu.uci.ics.cloudberry.zion.actor
 
 import java.util.concurrent.Executors
 
+import akka.stream.scaladsl.Source
 import akka.testkit.TestProbe
 import edu.uci.ics.cloudberry.zion.common.Config
-import edu.uci.ics.cloudberry.zion.model.datastore.{IDataConn, IQLGenerator}
+import edu.uci.ics.cloudberry.zion.model.datastore.{IColumnarDataConn, IDataConn, IQLGenerator, IStreamingDataConn, ResultBatch}
 import edu.uci.ics.cloudberry.zion.model.impl.TwitterDataStore
 import edu.uci.ics.cloudberry.zion.model.schema.{AppendView, Query}
 import edu.uci.ics.cloudberry.zion.model.util.MockConnClient
@@ -12,7 +13,7 @@ import org.mockito.Mockito._
 import org.mockito.invocation.InvocationOnMock
 import org.mockito.stubbing.Answer
 import org.specs2.mutable.SpecificationLike
-import play.api.libs.json.{JsNumber, JsObject}
+import play.api.libs.json.{JsArray, JsNumber, JsObject}
 
 import scala.concurrent.{ExecutionContext, Future}
 import scala.concurrent.duration._
@@ -43,6 +44,65 @@ class ViewDataAgentTest extends TestkitExample with SpecificationLike with MockC
       sender.expectMsg(jsResponse)
       ok
     }
+    "answer a query without aggregation from the streamed rows of a streaming connection" in {
+      val sender = new TestProbe(system)
+      val mockQueryParser = mock[IQLGenerator]
+      val mockConn = mock[IStreamingDataConn]
+
+      val dbName = "test"
+      val aqlString = "sample"
+      val rows = (1 to 3).map(i => JsObject(Seq("id" -> JsNumber(i))))
+      val sample = Query(dbName)
+      when(mockQueryParser.generate(sample, Map(dbName -> schema))).thenReturn(aqlString)
+      when(mockConn.postQueryStream(aqlString)).thenReturn(Source(rows.toList))
+
+      val agent = system.actorOf(ViewDataAgent.props(dbName, schema, mockQueryParser, mockConn, Config.Default))
+      sender.send(agent, sample)
+      sender.expectMsg(JsArray(rows))
+      verify(mockConn, never()).postQuery(aqlString)
+      ok
+    }
+    "send the streamed rows of a streamed query in chunks to its requester and end them" in {
+      val sender = new TestProbe(system)
+      val requester = new TestProbe(system)
+      val mockQueryParser = mock[IQLGenerator]
+      val mockConn = mock[IStreamingDataConn]
+
+      val dbName = "test"
+      val aqlString = "sample"
+      val rows = (1 to 3).map(i => JsObject(Seq("id" -> JsNumber(i))))
+      val sample = Query(dbName)
+      when(mockQueryParser.generate(sample, Map(dbName -> schema))).thenReturn(aqlString)
+      when(mockConn.postQueryStream(aqlString)).thenReturn(Source(rows.toList))
+
+      val agent = system.actorOf(ViewDataAgent.props(dbName, schema, mockQueryParser, mockConn, Config.Default))
+      sender.send(agent, AbstractDataSetAgent.StreamedQuery(sample, requester.ref))
+      requester.expectMsg(AbstractDataSetAgent.ResultChunk(JsArray(rows)))
+      requester.expectMsg(AbstractDataSetAgent.ResultEnd)
+      sender.expectMsg(AbstractDataSetAgent.ResultEnd)
+      ok
+    }
+    "answer a columnar query by the batch of a columnar connection and a plain query by its JSON" in {
+      val sender = new TestProbe(system)
+      val mockQueryParser = mock[IQLGenerator]
+      val mockConn = mock[IColumnarDataConn]
+
+      val dbName = "test"
+      val sqlString = "count"
+      val rows = JsArray(Seq(JsObject(Seq("count" -> JsNumber(1)))))
+      val batch = ResultBatch.fromJson(rows)
+      val query = Query(dbName)
+      when(mockQueryParser.generate(query, Map(dbName -> schema))).thenReturn(sqlString)
+      when(mockConn.postQueryBatch(sqlString)).thenReturn(Future(batch))
+      when(mockConn.postQuery(sqlString)).thenReturn(Future(rows))
+
+      val agent = system.actorOf(ViewDataAgent.props(dbName, schema, mockQueryParser, mockConn, Config.Default))
+      sender.send(agent, AbstractDataSetAgent.ColumnarQuery(query))
+      sender.expectMsg(batch)
+      sender.send(agent, query)
+      sender.expectMsg(rows)
+      ok
+    }
     "queue the a serials of append queries" in {
 
       val sender1 = new TestProbe(system)
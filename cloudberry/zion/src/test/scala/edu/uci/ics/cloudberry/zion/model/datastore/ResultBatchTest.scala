@@ -0,0 +1,93 @@
+package edu.uci.ics.cloudberry.zion.model.datastore
+
+import edu.uci.ics.cloudberry.zion.model.datastore.ResultBatch.ColumnType
+import org.specs2.mutable.Specification
+import play.api.libs.json._
+
+class ResultBatchTest extends Specification {
+
+  "ResultBatch" should {
+    "convert the JSON rows back as they were" in {
+      val rows = Json.arr(
+        Json.obj("state" -> "CA", "count" -> 10, "avg" -> 1.5, "isRetweet" -> true, "tag" -> Json.arr("zika")),
+        Json.obj("state" -> "NV", "count" -> 2, "avg" -> JsNull, "isRetweet" -> false),
+        Json.obj("state" -> "CA", "extra" -> Json.obj("a" -> 1))
+      )
+      val batch = ResultBatch.fromJson(rows)
+
+      batch.size must_== 3
+      batch.names must_== IndexedSeq("state", "count", "avg", "isRetweet", "tag", "extra")
+      batch.toJson must_== rows
+    }
+    "keep the values in typed columns" in {
+      val batch = ResultBatch.fromJson(Json.arr(
+        Json.obj("state" -> "CA", "count" -> 10, "avg" -> 2),
+        Json.obj("state" -> "NV", "count" -> 2, "avg" -> 0.5)
+      ))
+      val state = batch.columnIndex("state")
+      val count = batch.columnIndex("count")
+      val avg = batch.columnIndex("avg")
+
+      batch.columnType(state) must_== ColumnType.String
+      batch.string(state, 1) must_== "NV"
+      batch.columnType(count) must_== ColumnType.Long
+      batch.long(count, 0) must_== 10L
+      batch.columnType(avg) must_== ColumnType.Double
+      batch.double(avg, 0) must_== 2.0
+      batch.columnIndex("missing") must_== -1
+    }
+    "fall back to JSON values on conflicting types" in {
+      val rows = Json.arr(Json.obj("v" -> 1), Json.obj("v" -> "one"), Json.obj("v" -> JsNull), Json.obj("v" -> 1.5))
+      val batch = ResultBatch.fromJson(rows)
+
+      batch.columnType(0) must_== ColumnType.Json
+      batch.toJson must_== rows
+    }
+    "tell absent values from nulls" in {
+      val builder = new ResultBatch.Builder()
+      val a = builder.column("a")
+      val b = builder.column("b")
+      builder.setLong(a, 1)
+      builder.setNull(b)
+      builder.endRow()
+      builder.setLong(a, 2)
+      builder.endRow()
+      val batch = builder.result()
+
+      batch.isPresent(b, 0) must beTrue
+      batch.isNull(b, 0) must beTrue
+      batch.isPresent(b, 1) must beFalse
+      batch.toJson must_== Json.arr(Json.obj("a" -> 1, "b" -> JsNull), Json.obj("a" -> 2))
+    }
+    "copy the rows of another batch with their types" in {
+      val from = ResultBatch.fromJson(Json.arr(
+        Json.obj("state" -> "CA", "count" -> 10, "avg" -> 1.5, "isRetweet" -> true),
+        Json.obj("state" -> "NV", "count" -> JsNull, "tag" -> Json.arr("zika"))
+      ))
+      val builder = new ResultBatch.Builder()
+      for (row <- 0 until from.size) {
+        from.names.indices.foreach(column => builder.copy(builder.column(from.names(column)), from, column, row))
+        builder.endRow()
+      }
+      val batch = builder.result()
+
+      batch.toJson must_== from.toJson
+      batch.columnType(batch.columnIndex("state")) must_== ColumnType.String
+      batch.columnType(batch.columnIndex("count")) must_== ColumnType.Long
+      batch.isPresent(batch.columnIndex("avg"), 1) must beFalse
+    }
+    "keep the decimals that are no doubles exactly" in {
+      val builder = new ResultBatch.Builder()
+      val a = builder.column("a")
+      builder.setDecimal(a, BigDecimal("0.1"))
+      builder.endRow()
+      builder.setDecimal(a, BigDecimal("12345678901234567890.123"))
+      builder.endRow()
+      builder.setDouble(a, Double.NaN)
+      builder.endRow()
+
+      builder.result().toJson must_== Json.arr(
+        Json.obj("a" -> 0.1), Json.obj("a" -> BigDecimal("12345678901234567890.123")), Json.obj("a" -> JsNull))
+    }
+  }
+}
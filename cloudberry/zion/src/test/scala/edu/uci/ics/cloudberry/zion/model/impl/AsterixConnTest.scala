@@ -0,0 +1,93 @@
+package edu.uci.ics.cloudberry.zion.model.impl
+
+import akka.actor.ActorSystem
+import akka.stream.scaladsl.{Sink, Source}
+import akka.stream.{ActorMaterializer, Materializer}
+import edu.uci.ics.cloudberry.zion.model.datastore.{IStreamingDataConn, QueryFailedException}
+import org.specs2.mutable.Specification
+import play.api.libs.json._
+import play.api.libs.ws.WSClient
+import play.api.mvc.Action
+import play.api.mvc.Results._
+import play.api.routing.sird._
+import play.api.test.WsTestClient
+import play.core.server.Server
+
+import scala.concurrent.duration._
+import scala.concurrent.{Await, ExecutionContext}
+
+class AsterixConnTest extends Specification {
+
+  sequential
+
+  implicit val system: ActorSystem = ActorSystem("AsterixConnTest")
+  implicit val materializer: Materializer = ActorMaterializer()
+  implicit val ec: ExecutionContext = system.dispatcher
+
+  val rows = Seq(
+    Json.obj("state" -> 6, "count" -> 10),
+    Json.obj("state" -> 32, "count" -> 20),
+    Json.obj("state" -> 4, "count" -> 30)
+  )
+
+  val aqlResponse: String = Json.stringify(JsArray(rows))
+
+  val sqlppResponse: String =
+    s"""{ "requestID": "7c5b2d5a", "signature": "*", "results": $aqlResponse, "plans": {}, "status": "success" }"""
+
+  val sqlppFailure: String =
+    """{ "requestID": "7c5b2d5b", "errors": [{ "code": "1", "msg": "Cannot find dataset twitter.ds_tweet" }], "status": "fatal" }"""
+
+  /**
+    * Serves the canned response in small chunks, as a large result would come in.
+    */
+  def withAsterix[T](response: String, status: Int = 200)(block: (String, WSClient) => T): T = {
+    Server.withRouter() {
+      case POST(p"/query") => Action(Status(status).chunked(Source(response.grouped(7).toList)).as("application/json"))
+    } { implicit port =>
+      WsTestClient.withClient(client => block(s"http://localhost:${port.value}/query", client))
+    }
+  }
+
+  def run(source: Source[JsValue, _]): Seq[JsValue] =
+    Await.result(source.runWith(Sink.fold(Seq.empty[JsValue])(_ :+ _)), 10.seconds)
+
+  "AsterixSQLPPConn" should {
+    "stream the rows of the results" in {
+      withAsterix(sqlppResponse) { (url, client) =>
+        run(new AsterixSQLPPConn(url, client).postQueryStream("select 1;")) must_== rows
+      }
+    }
+    "fail the stream of a failed query" in {
+      withAsterix(sqlppFailure) { (url, client) =>
+        run(new AsterixSQLPPConn(url, client).postQueryStream("select 1;")) must throwA[QueryFailedException]
+      }
+    }
+    "fail the stream of a truncated response" in {
+      withAsterix(sqlppResponse.take(sqlppResponse.length - 20)) { (url, client) =>
+        run(new AsterixSQLPPConn(url, client).postQueryStream("select 1;")) must throwA[QueryFailedException]
+      }
+    }
+    "collect the streamed rows into one array" in {
+      withAsterix(sqlppResponse) { (url, client) =>
+        val collected = Await.result(IStreamingDataConn.collect(new AsterixSQLPPConn(url, client).postQueryStream("select 1;")), 10.seconds)
+        collected must_== JsArray(rows)
+      }
+    }
+  }
+
+  "AsterixAQLConn" should {
+    "stream the rows of the response" in {
+      withAsterix(aqlResponse) { (url, client) =>
+        run(new AsterixAQLConn(url, client).postQueryStream("for $t in dataset t return $t")) must_== rows
+      }
+    }
+    "fail the stream of an error status" in {
+      withAsterix("""{"error-code": [1, "ASX0001"], "summary": "Syntax error"}""", status = 500) { (url, client) =>
+        run(new AsterixAQLConn(url, client).postQueryStream("for $t in")) must throwA[QueryFailedException]
+      }
+    }
+  }
+
+  step(system.terminate())
+}
@@ -0,0 +1,59 @@
+package edu.uci.ics.cloudberry.zion.model.impl
+
+import akka.util.ByteString
+import org.specs2.mutable.Specification
+import play.api.libs.json._
+
+class JsonRowFramingTest extends Specification {
+
+  val rows = Seq(
+    Json.obj("state" -> 6, "count" -> 10, "text" -> "a \"quoted\" [text], {with} brackets"),
+    Json.obj("state" -> 32, "count" -> 20, "tag" -> Json.arr("zika", "virus")),
+    Json.obj("state" -> 4, "text" -> "été \\")
+  )
+
+  val aqlResponse: String = "[ " + rows.map(Json.stringify).mkString(",\n ") + " ]\n"
+
+  val sqlppResponse: String =
+    s"""{ "requestID": "7c5b2d5a", "signature": "*", "results": ${Json.stringify(JsArray(rows))},
+       |  "plans": {}, "status": "success", "metrics": { "elapsedTime": "10.5ms", "resultCount": 3 } }""".stripMargin
+
+  def frame(response: String, rowsField: Option[String], chunkSize: Int): (Seq[JsValue], JsonRowFramer) = {
+    val framer = new JsonRowFramer(rowsField)
+    val framed = ByteString(response).grouped(chunkSize).flatMap(framer.offer).map(row => Json.parse(row.toArray)).toList
+    (framed, framer)
+  }
+
+  "JsonRowFramer" should {
+    "cut the rows of a top-level array however the bytes are chunked" in {
+      (1 to ByteString(aqlResponse).length).foreach { chunkSize =>
+        val (framed, framer) = frame(aqlResponse, None, chunkSize)
+        framed must_== rows
+        framer.isComplete must beTrue
+      }
+      ok
+    }
+    "cut the rows of a field and keep the other string fields" in {
+      (1 to ByteString(sqlppResponse).length).foreach { chunkSize =>
+        val (framed, framer) = frame(sqlppResponse, Some("results"), chunkSize)
+        framed must_== rows
+        framer.isComplete must beTrue
+        framer.topLevelField("status") must_== Some("success")
+      }
+      ok
+    }
+    "cut scalar rows" in {
+      frame("[1, \"two\" ,3.5,null]", None, 3)._1 must_== Seq(JsNumber(1), JsString("two"), JsNumber(3.5), JsNull)
+    }
+    "cut no rows from an empty array" in {
+      val (framed, framer) = frame("""{"results": [ ], "status": "success"}""", Some("results"), 4)
+      framed must beEmpty
+      framer.isComplete must beTrue
+    }
+    "tell a truncated response" in {
+      val (framed, framer) = frame(aqlResponse.take(aqlResponse.length / 2), None, 16)
+      framed.size must be_<(rows.size)
+      framer.isComplete must beFalse
+    }
+  }
+}
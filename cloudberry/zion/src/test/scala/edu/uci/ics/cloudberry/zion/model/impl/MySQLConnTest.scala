@@ -0,0 +1,65 @@
+package edu.uci.ics.cloudberry.zion.model.impl
+
+import java.sql.{SQLException, Timestamp}
+
+import edu.uci.ics.cloudberry.zion.model.datastore.ResultBatch
+import edu.uci.ics.cloudberry.zion.model.schema.TimeField
+import org.specs2.mutable.Specification
+import play.api.libs.json._
+
+import scala.concurrent.ExecutionContext.Implicits.global
+import scala.concurrent.duration._
+import scala.concurrent.{Await, Future}
+
+/**
+  * Runs the connector against an in-memory H2 database in the MySQL mode.
+  */
+class MySQLConnTest extends Specification {
+
+  sequential
+
+  val conn = new MySQLConn("jdbc:h2:mem:mysqlconn;MODE=MySQL;DB_CLOSE_DELAY=-1;DATABASE_TO_UPPER=FALSE", JdbcPool.Settings(maxConnections = 4))
+
+  def await[T](future: Future[T]): T = Await.result(future, 10.seconds)
+
+  val created = "2017-01-01 10:00:00"
+
+  "MySQLConn" should {
+    "run the control statements in order" in {
+      await(conn.postControl(
+        s"""create table tweets (id bigint primary key, state int, name varchar(20), score double, created timestamp);
+           |insert into tweets values (1, 6, 'CA', 1.5, '$created');
+           |insert into tweets values (2, 32, 'NV', 2.0, '$created');
+           |insert into tweets values (3, 6, 'CA', 0.25, '$created')""".stripMargin)) must beTrue
+    }
+    "read the typed rows" in {
+      val time = TimeField.TimeFormat.print(Timestamp.valueOf(created).getTime)
+      await(conn.postQuery("select id, state, name, score, created from tweets order by id")) must_== Json.arr(
+        Json.obj("id" -> 1, "state" -> 6, "name" -> "CA", "score" -> 1.5, "created" -> time),
+        Json.obj("id" -> 2, "state" -> 32, "name" -> "NV", "score" -> 2.0, "created" -> time),
+        Json.obj("id" -> 3, "state" -> 6, "name" -> "CA", "score" -> 0.25, "created" -> time))
+    }
+    "read the typed rows into the columns of a batch" in {
+      val batch = await(conn.postQueryBatch("select state, name, score from tweets order by id"))
+      batch.size must_== 3
+      batch.columnType(batch.columnIndex("state")) must_== ResultBatch.ColumnType.Long
+      batch.long(batch.columnIndex("state"), 1) must_== 32L
+      batch.string(batch.columnIndex("name"), 2) must_== "CA"
+      batch.double(batch.columnIndex("score"), 0) must_== 1.5
+    }
+    "run the concurrent queries on the pooled connections" in {
+      val queries = (1 to 20).map(i => s"select state, count(*) as cnt from tweets where id <= ${i % 3 + 1} group by state order by state")
+      val results = await(Future.sequence(queries.map(conn.postQuery)))
+      results.zip(queries).foreach { case (result, query) =>
+        result must_== await(conn.postQuery(query))
+      }
+      results.head must_== Json.arr(Json.obj("state" -> 6, "cnt" -> 1), Json.obj("state" -> 32, "cnt" -> 1))
+    }
+    "fail the failed query and keep serving the others" in {
+      await(conn.postQuery("select * from missing")) must throwA[SQLException]
+      await(conn.postQuery("select count(*) as cnt from tweets")) must_== Json.arr(Json.obj("cnt" -> 3))
+    }
+  }
+
+  step(conn.pool.close())
+}
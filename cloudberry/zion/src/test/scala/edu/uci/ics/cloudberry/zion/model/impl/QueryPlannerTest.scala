@@ -1,5 +1,6 @@
 package edu.uci.ics.cloudberry.zion.model.impl
 
+import edu.uci.ics.cloudberry.zion.model.datastore.ResultBatch
 import edu.uci.ics.cloudberry.zion.model.schema._
 import org.joda.time.DateTime
 import org.specs2.mutable.Specification
@@ -67,6 +68,14 @@ class QueryPlannerTest extends Specification {
       queries.exists(_.dataset == zikaHalfYearViewInfo.name) must_== true
       queries.exists(_.dataset == TwitterDataSet) must_== true
     }
+    "makePlan should not split a distinct count query between a view and the source" in {
+      val users = AggregateStatement(id, DistinctCount, Field.as(DistinctCount(id), "users"))
+      val queryUsers = queryCount.copy(groups = Some(GroupStatement(Seq(byHour, byState), Seq(users))))
+      QueryPlanner.isMergeable(queryUsers) must_== false
+      planner.makePlan(queryUsers, sourceInfo, Seq(zikaHalfYearViewInfo)) must_== (Seq(queryUsers), QueryPlanner.Unioner)
+      // a view that covers the query answers it alone
+      planner.makePlan(queryUsers, sourceInfo, Seq(zikaFullYearViewInfo))._1 must_== Seq(queryUsers.copy(dataset = zikaFullYearViewInfo.name))
+    }
     "makePlan generate a merger to merge the count query result" in {
       import QueryPlanner._
       val (_, mergerX) = planner.makePlan(queryCount, sourceInfo, Seq(zikaHalfYearViewInfo))
@@ -210,7 +219,82 @@ class QueryPlannerTest extends Specification {
         """.stripMargin)
     }
     "merge aggregate only JsArray result into on JsArray" in {
-      ok
+      val counts = Seq(10, 20, 30).map(count => JsArray(Seq(Json.obj("count" -> count))))
+      QueryPlanner.merge(counts, Seq.empty, Map("count" -> Count), Map.empty, Set.empty, None) must_==
+        Json.arr(Json.obj("count" -> 60))
+    }
+    "merge max, min and avg results" in {
+      val aggrs = Map("max" -> Max, "min" -> Min, "last" -> Max, "avg" -> Avg)
+      val left = Json.arr(
+        Json.obj("state" -> 1, "max" -> 5, "min" -> 2, "last" -> "2016-01-02T00:00:00.000Z",
+          "__sum__avg" -> 2.0, "__count__avg" -> 1),
+        Json.obj("state" -> 2, "max" -> 1, "min" -> 1, "last" -> "2016-01-01T00:00:00.000Z",
+          "__sum__avg" -> 2.0, "__count__avg" -> 2))
+      val right = Json.arr(
+        Json.obj("state" -> 1.0, "max" -> 3, "min" -> 1, "last" -> "2016-01-03T00:00:00.000Z",
+          "__sum__avg" -> 15.0, "__count__avg" -> 3))
+
+      val merged = QueryPlanner.merge(Seq(left, right), Seq("state"), aggrs, Map("state" -> SortOrder.ASC), Set.empty, None)
+      merged must_== Json.arr(
+        Json.obj("state" -> 1, "max" -> 5, "min" -> 1, "last" -> "2016-01-03T00:00:00.000Z",
+          "__sum__avg" -> 17.0, "__count__avg" -> 4),
+        Json.obj("state" -> 2, "max" -> 1, "min" -> 1, "last" -> "2016-01-01T00:00:00.000Z",
+          "__sum__avg" -> 2.0, "__count__avg" -> 2))
+      QueryPlanner.handleAvg(merged) must_== Json.arr(
+        Json.obj("state" -> 1, "max" -> 5, "min" -> 1, "last" -> "2016-01-03T00:00:00.000Z", "avg" -> 4.25),
+        Json.obj("state" -> 2, "max" -> 1, "min" -> 1, "last" -> "2016-01-01T00:00:00.000Z", "avg" -> 1.0))
+    }
+    "merge the avg of three slices in sequence as the avg of all their records" in {
+      val aggrs = Map("avg" -> Avg)
+      val slices = Seq((10.0, 1), (20.0, 4), (3.0, 3)).map { case (sum, count) =>
+        Json.arr(Json.obj("day" -> "d1", "__sum__avg" -> sum, "__count__avg" -> count))
+      }
+      val merged = slices.reduce((acc, slice) => QueryPlanner.merge(Seq(acc, slice), Seq("day"), aggrs, Map.empty, Set.empty, None))
+      merged must_== Json.arr(Json.obj("day" -> "d1", "__sum__avg" -> 33.0, "__count__avg" -> 8))
+      QueryPlanner.handleAvg(merged) must_== Json.arr(Json.obj("day" -> "d1", "avg" -> 4.125))
+    }
+    "count a partial avg without its count once" in {
+      val aggrs = Map("avg" -> Avg)
+      val left = Json.arr(Json.obj("state" -> 1, "avg" -> 2.0))
+      val right = Json.arr(Json.obj("state" -> 1, "avg" -> 5.0))
+      QueryPlanner.merge(Seq(left, right), Seq("state"), aggrs, Map.empty, Set.empty, None) must_==
+        Json.arr(Json.obj("state" -> 1, "avg" -> 3.5))
+    }
+    "merge the distinct count and topK of distinct groups, and bound them for the same group" in {
+      val aggrs = Map("users" -> DistinctCount, "tags" -> TopK(3))
+      val left = Json.arr(Json.obj("day" -> "d1", "users" -> 4, "tags" -> Json.arr("a", "b")))
+      val right = Json.arr(Json.obj("day" -> "d2", "users" -> 7, "tags" -> Json.arr("b", "c", "d")))
+      QueryPlanner.merge(Seq(left, right), Seq("day"), aggrs, Map("day" -> SortOrder.ASC), Set.empty, None) must_== Json.arr(
+        Json.obj("day" -> "d1", "users" -> 4, "tags" -> Json.arr("a", "b")),
+        Json.obj("day" -> "d2", "users" -> 7, "tags" -> Json.arr("b", "c", "d")))
+
+      // the largest distinct count is a lower bound, the first k distinct values come in the order of the partials
+      val sameDay = Json.arr(Json.obj("day" -> "d1", "users" -> 7, "tags" -> Json.arr("b", "c", "d")))
+      QueryPlanner.merge(Seq(left, sameDay), Seq("day"), aggrs, Map.empty, Set.empty, None) must_==
+        Json.arr(Json.obj("day" -> "d1", "users" -> 7, "tags" -> Json.arr("a", "b", "c")))
+    }
+    "merge the sums and counts of avg and turn them into the avg" in {
+      val aggrs = Map("__sum__avg" -> Sum, "__count__avg" -> Count)
+      val left = Json.arr(Json.obj("state" -> 1, "__count__avg" -> 2, "__sum__avg" -> 3))
+      val right = Json.arr(Json.obj("state" -> 1, "__count__avg" -> 2, "__sum__avg" -> 2.5), Json.obj("state" -> 2, "__count__avg" -> 0, "__sum__avg" -> 0))
+      val merged = QueryPlanner.merge(Seq(left, right), Seq("state"), aggrs, Map("state" -> SortOrder.ASC), Set.empty, None)
+      merged must_== Json.arr(Json.obj("state" -> 1, "__count__avg" -> 4, "__sum__avg" -> 5.5), Json.obj("state" -> 2, "__count__avg" -> 0, "__sum__avg" -> 0))
+      QueryPlanner.handleAvg(merged) must_== Json.arr(Json.obj("state" -> 1, "avg" -> 1.375), Json.obj("state" -> 2, "avg" -> JsNull))
+    }
+    "merge the columnar results of the queries as their JSON" in {
+      val aggrs = Map("count" -> Count, "max" -> Max, "avg" -> Avg)
+      val left = Json.arr(
+        Json.obj("state" -> "CA", "count" -> 2, "max" -> 1.5, "__sum__avg" -> 3, "__count__avg" -> 2),
+        Json.obj("state" -> "NV", "count" -> 1, "max" -> 2, "__sum__avg" -> 1, "__count__avg" -> 1))
+      val right = Json.arr(Json.obj("state" -> "CA", "count" -> 3, "max" -> 4, "__sum__avg" -> 6, "__count__avg" -> 3))
+      val merger = QueryPlanner.Merger(Seq("state"), aggrs, Map("state" -> SortOrder.ASC), Set.empty, None)
+
+      val merged = merger.mergeBatches(Seq(left, right).map(ResultBatch.fromJson))
+      merged must_== Json.arr(
+        Json.obj("state" -> "CA", "count" -> 5, "max" -> 4, "__sum__avg" -> 9.0, "__count__avg" -> 5),
+        Json.obj("state" -> "NV", "count" -> 1, "max" -> 2, "__sum__avg" -> 1.0, "__count__avg" -> 1))
+      merged must_== merger(Seq(left, right))
+      QueryPlanner.Unioner.mergeBatches(Seq(left, right).map(ResultBatch.fromJson)) must_== QueryPlanner.Unioner(Seq(left, right))
     }
     "merge empty seq of JsArray result into one JsArray.empty" in {
       val ret = QueryPlanner.merge(Seq(JsArray()), Seq("day", "state"), aggrMap, Map("count" -> SortOrder.DSC), Set.empty, None)
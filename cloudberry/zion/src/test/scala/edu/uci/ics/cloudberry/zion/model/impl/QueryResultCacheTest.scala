@@ -0,0 +1,126 @@
+package edu.uci.ics.cloudberry.zion.model.impl
+
+import java.util.concurrent.atomic.AtomicInteger
+
+import edu.uci.ics.cloudberry.zion.model.schema._
+import org.specs2.mutable.Specification
+import play.api.libs.json.{JsValue, Json}
+
+import scala.concurrent.duration._
+import scala.concurrent.{Await, ExecutionContext, Future, Promise}
+
+class QueryResultCacheTest extends Specification {
+
+  import TestQuery._
+
+  implicit val ec: ExecutionContext = ExecutionContext.global
+
+  val result: JsValue = Json.arr(Json.obj("count" -> 42))
+  val query = Query(TwitterDataSet, filter = Seq(timeFilter, stateFilter, zikaFilter))
+
+  class Loader(value: JsValue = result) {
+    val calls = new AtomicInteger()
+
+    def apply(): Future[JsValue] = {
+      calls.incrementAndGet()
+      Future.successful(value)
+    }
+  }
+
+  def get(cache: QueryResultCache, query: Query, loader: Loader): JsValue =
+    Await.result(cache.getOrLoad(query)(loader()), 1.second)
+
+  "QueryResultCache" should {
+    "give the same fingerprint to queries that only differ in filter order, in values and time format" in {
+      val reordered = query.copy(filter = Seq(zikaFilter, stateFilter.copy(values = stateValue.reverse), timeFilter))
+      val otherFormat = query.copy(filter = Seq(
+        timeFilter.copy(values = Seq("2016-01-01T01:00:00.000+0100", endTime)), stateFilter, zikaFilter))
+      QueryResultCache.fingerprint(reordered) must_== QueryResultCache.fingerprint(query)
+      QueryResultCache.fingerprint(otherFormat) must_== QueryResultCache.fingerprint(query)
+      QueryResultCache.fingerprint(query.copy(filter = Seq(timeFilter, stateFilter))) must_!=
+        QueryResultCache.fingerprint(query)
+    }
+    "answer a repeated query from the cache" in {
+      val cache = new QueryResultCache(10, 1024, 1.minute)
+      val loader = new Loader()
+      get(cache, query, loader) must_== result
+      get(cache, query.copy(filter = query.filter.reverse), loader) must_== result
+      loader.calls.get must_== 1
+      cache.stats must_== QueryResultCache.Stats(hits = 1, misses = 1, evictions = 0, entries = 1,
+        bytes = Json.stringify(result).length)
+    }
+    "estimate the size of a result as its JSON text" in {
+      val value = Json.arr(Json.obj("state" -> "CA", "count" -> 42, "ratio" -> 0.5, "tags" -> Json.arr("a", "b"),
+        "valid" -> true, "empty" -> false, "missing" -> play.api.libs.json.JsNull, "nested" -> Json.obj()), Json.arr())
+      QueryResultCache.sizeOf(value) must_== Json.stringify(value).length
+    }
+    "share one load between the identical queries in flight" in {
+      val cache = new QueryResultCache(10, 1024, 1.minute)
+      val promise = Promise[JsValue]()
+      val calls = new AtomicInteger()
+      val futures = (1 to 5).map(_ => cache.getOrLoad(query) {
+        calls.incrementAndGet()
+        promise.future
+      })
+      promise.success(result)
+      futures.map(Await.result(_, 1.second)).toSet must_== Set(result)
+      calls.get must_== 1
+    }
+    "not keep a failed load" in {
+      val cache = new QueryResultCache(10, 1024, 1.minute)
+      Await.ready(cache.getOrLoad(query)(Future.failed(new RuntimeException("boom"))), 1.second)
+      val loader = new Loader()
+      get(cache, query, loader) must_== result
+      loader.calls.get must_== 1
+    }
+    "expire an entry after its ttl" in {
+      var now = 0L
+      val cache = new QueryResultCache(10, 1024, 1.minute, () => now)
+      val loader = new Loader()
+      get(cache, query, loader)
+      now = 59.seconds.toMillis
+      get(cache, query, loader)
+      now = 61.seconds.toMillis
+      get(cache, query, loader)
+      loader.calls.get must_== 2
+    }
+    "evict the least recently used entries beyond its entries or bytes" in {
+      val byEntries = new QueryResultCache(2, 1024, 1.minute)
+      val loader = new Loader()
+      val queries = Seq(zikaFilter, virusFilter, stateFilter).map(f => Query(TwitterDataSet, filter = Seq(f)))
+      queries.foreach(get(byEntries, _, loader))
+      byEntries.stats.entries must_== 2
+      byEntries.stats.evictions must_== 1
+      get(byEntries, queries.head, loader)
+      loader.calls.get must_== 4
+
+      val size = Json.stringify(result).length
+      val byBytes = new QueryResultCache(10, size * 2, 1.minute)
+      queries.foreach(get(byBytes, _, loader))
+      byBytes.stats.bytes must_== size * 2
+      byBytes.stats.entries must_== 2
+    }
+    "drop the results of the queries reading an invalidated dataset" in {
+      val cache = new QueryResultCache(10, 1024, 1.minute)
+      val loader = new Loader()
+      val lookup = LookupStatement(Seq(geoStateID), PopulationDataSet, Seq(stateID), Seq(population), Seq(population))
+      val withLookup = Query(TwitterDataSet, lookup = Seq(lookup))
+      get(cache, query, loader)
+      get(cache, withLookup, loader)
+      cache.invalidate(PopulationDataSet)
+      get(cache, query, loader)
+      get(cache, withLookup, loader)
+      loader.calls.get must_== 3
+
+      // a result loaded across an invalidation is not kept
+      val promise = Promise[JsValue]()
+      cache.invalidate(TwitterDataSet)
+      val stale = cache.getOrLoad(query)(promise.future)
+      cache.invalidate(TwitterDataSet)
+      promise.success(result)
+      Await.result(stale, 1.second) must_== result
+      get(cache, query, loader)
+      loader.calls.get must_== 4
+    }
+  }
+}
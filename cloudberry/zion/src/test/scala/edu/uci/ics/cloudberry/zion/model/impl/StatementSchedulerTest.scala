@@ -0,0 +1,122 @@
+package edu.uci.ics.cloudberry.zion.model.impl
+
+import java.util.concurrent.Executor
+
+import edu.uci.ics.cloudberry.zion.model.impl.StatementScheduler.{ClassStats, Priority}
+import org.specs2.mutable.Specification
+
+import scala.collection.mutable
+import scala.collection.mutable.ArrayBuffer
+import scala.concurrent.duration._
+import scala.concurrent.{ExecutionContext, Future, Promise}
+
+class StatementSchedulerTest extends Specification {
+
+  // runs the callbacks at once, so that a statement is admitted as soon as another one completes
+  implicit val ec: ExecutionContext = ExecutionContext.fromExecutor(new Executor {
+    override def execute(runnable: Runnable): Unit = runnable.run()
+  })
+
+  class Statements(maxInFlight: Int, maxBackground: Int = 1, maxYield: FiniteDuration = 1.minute) {
+    var now = 0L
+    val scheduler = new StatementScheduler(maxInFlight, maxBackground, maxYield, () => now)
+    val started = ArrayBuffer.empty[String]
+    private val promises = mutable.Map.empty[String, Promise[String]]
+
+    def submit(name: String, priority: Priority.Value = Priority.Interactive, session: String = "client"): Future[String] =
+      scheduler.submit(priority, session) {
+        started += name
+        val promise = Promise[String]()
+        promises.put(name, promise)
+        promise.future
+      }
+
+    def complete(name: String): Unit = promises(name).success(name)
+  }
+
+  "StatementScheduler" should {
+    "run at most maxInFlight statements at a time" in {
+      val statements = new Statements(maxInFlight = 2)
+      val futures = Seq("a", "b", "c").map(statements.submit(_))
+      statements.started must_== Seq("a", "b")
+      statements.complete("a")
+      futures.head.value.flatMap(_.toOption) must beSome("a")
+      statements.started must_== Seq("a", "b", "c")
+      statements.scheduler.stats.inFlight must_== 2
+    }
+    "admit the waiting statements from the most urgent class" in {
+      val statements = new Statements(maxInFlight = 1)
+      statements.submit("running")
+      statements.submit("stats", Priority.Statistics)
+      statements.submit("maintenance", Priority.Maintenance)
+      statements.submit("slice", Priority.Slicing)
+      statements.submit("interactive", Priority.Interactive)
+      Seq("running", "interactive", "slice", "maintenance").foreach(statements.complete)
+      statements.started must_== Seq("running", "interactive", "slice", "maintenance", "stats")
+    }
+    "let the sessions of a class take turns" in {
+      val statements = new Statements(maxInFlight = 1)
+      statements.submit("running")
+      Seq("a1", "a2", "a3").foreach(statements.submit(_, Priority.Slicing, "a"))
+      Seq("b1", "b2").foreach(statements.submit(_, Priority.Slicing, "b"))
+      Seq("running", "a1", "b1", "a2", "b2").foreach(statements.complete)
+      statements.started must_== Seq("running", "a1", "b1", "a2", "b2", "a3")
+    }
+    "run at most maxBackground background statements, leaving the rest to the foreground" in {
+      val statements = new Statements(maxInFlight = 3, maxBackground = 1)
+      statements.submit("view", Priority.Maintenance)
+      statements.submit("stats", Priority.Statistics)
+      statements.submit("slice", Priority.Slicing)
+      statements.started must_== Seq("view", "slice")
+      statements.complete("view")
+      statements.started must_== Seq("view", "slice", "stats")
+    }
+    "admit a background statement before the foreground once it has waited for maxYield" in {
+      val statements = new Statements(maxInFlight = 1, maxYield = 1.minute)
+      statements.submit("running")
+      statements.submit("view", Priority.Maintenance)
+      statements.submit("interactive")
+      statements.complete("running")
+      statements.started must_== Seq("running", "interactive")
+
+      statements.submit("slice", Priority.Slicing)
+      statements.now += 1.minute.toMillis
+      statements.complete("interactive")
+      statements.started must_== Seq("running", "interactive", "view")
+    }
+    "admit an overdue background statement even when maxBackground of them are running" in {
+      val statements = new Statements(maxInFlight = 3, maxBackground = 1, maxYield = 1.minute)
+      statements.submit("view", Priority.Maintenance)
+      statements.submit("stats", Priority.Statistics)
+      statements.started must_== Seq("view")
+
+      statements.now += 1.minute.toMillis
+      statements.submit("slice", Priority.Slicing)
+      statements.started must_== Seq("view", "stats", "slice")
+      statements.scheduler.stats.inFlight must_== 3
+    }
+    "report the time the statements waited in their queue" in {
+      val statements = new Statements(maxInFlight = 1)
+      statements.submit("running")
+      statements.submit("first", Priority.Slicing)
+      statements.now = 100
+      statements.submit("second", Priority.Slicing)
+      statements.now = 300
+      statements.complete("running")
+      statements.complete("first")
+
+      val stats = statements.scheduler.stats
+      stats.inFlight must_== 1
+      stats.classes(Priority.Slicing) must_== ClassStats(queued = 0, inFlight = 1, admitted = 2, totalWaitMillis = 500, maxWaitMillis = 300)
+      stats.classes(Priority.Slicing).meanWaitMillis must_== 250.0
+      stats.classes(Priority.Interactive) must_== ClassStats(queued = 0, inFlight = 0, admitted = 1, totalWaitMillis = 0, maxWaitMillis = 0)
+    }
+    "release the slot of a statement that fails to start" in {
+      val statements = new Statements(maxInFlight = 1)
+      val failed = statements.scheduler.submit(Priority.Interactive, "client")(throw new IllegalStateException("no connection"))
+      failed.value.exists(_.isFailure) must beTrue
+      statements.submit("next")
+      statements.started must_== Seq("next")
+    }
+  }
+}
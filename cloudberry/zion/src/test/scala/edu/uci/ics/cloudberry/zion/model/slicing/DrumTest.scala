@@ -1,5 +1,6 @@
 package edu.uci.ics.cloudberry.zion.model.slicing
 
+import edu.uci.ics.cloudberry.zion.model.slicing.Drum.RangeTime
 import org.specs2.mutable.Specification
 
 class DrumTest extends Specification {
@@ -39,5 +40,12 @@ class DrumTest extends Specification {
       rangeTime.estimateMS must_== 2420
       rangeTime.range must_== 6
     }
+    "plan the ranges of several slices, each at most twice the one before it" in {
+      val planner = new Drum(totalRange = 100, alpha = 0.6, minRange)
+      planner.plan(Seq(2000, 2000)) must_== Seq(RangeTime(minRange, Int.MaxValue), RangeTime(minRange, Int.MaxValue))
+      planner.learn(1, Int.MaxValue, 500)
+      planner.plan(Seq(3500)) must_== Seq(planner.estimate(3500))
+      planner.plan(Seq(3500, 7000, 7000)).map(_.range) must_== Seq(2, 4, 8)
+    }
   }
 }
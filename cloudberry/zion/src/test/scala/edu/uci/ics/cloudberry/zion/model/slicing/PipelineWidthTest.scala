@@ -0,0 +1,44 @@
+package edu.uci.ics.cloudberry.zion.model.slicing
+
+import org.specs2.mutable.Specification
+
+class PipelineWidthTest extends Specification {
+
+  "PipelineWidth" should {
+    "start with one slice and widen while one more slice answers more range per millisecond" in {
+      val width = new PipelineWidth(maxWidth = 4)
+      width.current must_== 1
+      width.learn(inFlight = 1, range = 10, actualMS = 100)
+      width.current must_== 2
+      width.learn(inFlight = 2, range = 10, actualMS = 100)
+      width.current must_== 3
+    }
+    "narrow once one more slice does not pay, and stay there" in {
+      val width = new PipelineWidth(maxWidth = 4)
+      width.learn(inFlight = 1, range = 10, actualMS = 100)
+      width.learn(inFlight = 2, range = 10, actualMS = 100)
+      // three slices take so long that they answer no more than two
+      width.learn(inFlight = 3, range = 10, actualMS = 150)
+      width.current must_== 2
+      width.learn(inFlight = 2, range = 10, actualMS = 100)
+      width.current must_== 2
+    }
+    "probe one more slice again once what it learned about it is stale" in {
+      val width = new PipelineWidth(maxWidth = 4, maxAge = 5)
+      width.learn(inFlight = 1, range = 10, actualMS = 100)
+      width.learn(inFlight = 2, range = 10, actualMS = 100)
+      width.learn(inFlight = 3, range = 10, actualMS = 150)
+      width.current must_== 2
+      (1 to 4).foreach(_ => width.learn(inFlight = 2, range = 10, actualMS = 100))
+      width.current must_== 2
+      width.learn(inFlight = 2, range = 10, actualMS = 100)
+      width.current must_== 3
+    }
+    "never go beyond the max width" in {
+      val width = new PipelineWidth(maxWidth = 2)
+      width.learn(inFlight = 1, range = 10, actualMS = 100)
+      width.learn(inFlight = 2, range = 10, actualMS = 50)
+      width.current must_== 2
+    }
+  }
+}
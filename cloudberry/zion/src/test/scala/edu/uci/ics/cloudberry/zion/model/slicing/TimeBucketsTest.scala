@@ -0,0 +1,42 @@
+package edu.uci.ics.cloudberry.zion.model.slicing
+
+import edu.uci.ics.cloudberry.zion.TInterval
+import org.specs2.mutable.Specification
+
+class TimeBucketsTest extends Specification {
+
+  val hour: Long = 3600 * 1000L
+  val day: Long = 24 * hour
+  val buckets = new TimeBuckets(day)
+
+  def pieces(start: Long, end: Long, stableEnd: Long): Seq[(Long, Long, Boolean)] =
+    buckets.split(new TInterval(start, end), stableEnd).map { case (piece, isBucket) =>
+      (piece.getStartMillis, piece.getEndMillis, isBucket)
+    }
+
+  "TimeBuckets" should {
+    "split an interval into its whole buckets and the partial ends" in {
+      pieces(10 * day + 5 * hour, 13 * day + 2 * hour, 20 * day) must_== Seq(
+        (10 * day + 5 * hour, 11 * day, false),
+        (11 * day, 12 * day, true),
+        (12 * day, 13 * day, true),
+        (13 * day, 13 * day + 2 * hour, false))
+    }
+    "keep the buckets past the stable end in one plain piece" in {
+      pieces(10 * day, 14 * day, 12 * day + hour) must_== Seq(
+        (10 * day, 11 * day, true),
+        (11 * day, 12 * day, true),
+        (12 * day, 14 * day, false))
+    }
+    "leave an interval without a whole bucket as it is" in {
+      pieces(10 * day + hour, 11 * day + hour, 20 * day) must_== Seq((10 * day + hour, 11 * day + hour, false))
+      pieces(10 * day, 12 * day, 10 * day + hour) must_== Seq((10 * day, 12 * day, false))
+    }
+    "align the buckets before the epoch as well" in {
+      buckets.floor(-hour) must_== -day
+      buckets.ceil(-hour) must_== 0
+      buckets.ceil(day) must_== day
+      pieces(-day - hour, hour, 2 * day) must_== Seq((-day - hour, -day, false), (-day, 0L, true), (0L, hour, false))
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package edu.uci.ics.cloudberry.gnosis
 
+import com.vividsolutions.jts.geom.prep.PreparedGeometry
 import com.vividsolutions.jts.geom.{Envelope, Geometry}
 import com.vividsolutions.jts.index.strtree.STRtree
 import org.wololo.geojson.{Feature, FeatureCollection, GeoJSONFactory}
@@ -27,19 +28,81 @@ class USGeoJSONIndex() extends IGeoIndex {
   def loadShape(geoJsonString: String)(implicit builder: (Map[String, AnyRef], Geometry) => IUSGeoJSONEntity): Unit = {
     val geoJSONReader = new GeoJSONReader()
     val featureCollection: FeatureCollection = GeoJSONFactory.create(geoJsonString).asInstanceOf[FeatureCollection]
-    featureCollection.getFeatures.foreach { f: Feature =>
-      val geometry: Geometry = geoJSONReader.read(f.getGeometry)
-      entities += builder(f.getProperties.asScala.toMap, geometry)
+    loadFeatures(featureCollection.getFeatures.map { f: Feature =>
+      (f.getProperties.asScala.toMap, geoJSONReader.read(f.getGeometry))
+    })
+  }
+
+  /**
+    * Load already parsed features, e.g. from a [[ShapeSnapshot]]. The same restriction as loadShape applies.
+    */
+  def loadFeatures(features: Seq[ShapeSnapshot.ShapeFeature])
+                  (implicit builder: (Map[String, AnyRef], Geometry) => IUSGeoJSONEntity): Unit = {
+    features.foreach { case (properties, geometry) =>
+      entities += builder(properties, geometry)
       index.insert(geometry.getEnvelopeInternal, entities.size - 1)
     }
   }
 
+  // building the tree on first use is not thread-safe by itself, the lazy val makes it so
+  private lazy val builtIndex: STRtree = {
+    index.build()
+    index
+  }
+
+  private lazy val pointLocator = new PreparedPointLocator(builtIndex, entities.map(_.geometry))
+
   override def search(geometry: Geometry): Seq[IUSGeoJSONEntity] = {
     search(geometry.getEnvelopeInternal).filter(_.geometry.intersects(geometry))
   }
 
   override def search(envelope: Envelope): Seq[IUSGeoJSONEntity] = {
-    index.query(envelope).asScala.map(item => entities(item.asInstanceOf[Int]))
+    builtIndex.query(envelope).asScala.map(item => entities(item.asInstanceOf[Int]))
+  }
+
+  @volatile private var pointRaster: RasterPointLocator = _
+
+  /**
+    * Builds the grid that [[searchPoint]] uses from then on. Call it once all the shapes are loaded.
+    */
+  def buildPointRaster(maxCells: Int = RasterPointLocator.DefaultMaxCells): Unit = {
+    pointRaster = new RasterPointLocator(pointLocator, maxCells)
+  }
+
+  /**
+    * The smallest entity whose shape covers the point, through the grid once it is built.
+    */
+  def searchPoint(longitude: Double, latitude: Double): Option[IUSGeoJSONEntity] = {
+    val id = locatePoint(longitude, latitude)
+    if (id < 0) None else Some(entities(id))
+  }
+
+  /**
+    * [[searchPoint]] as the position of the entity in `entities`, or -1.
+    */
+  def locatePoint(longitude: Double, latitude: Double): Int = {
+    val raster = pointRaster
+    if (raster != null) raster.locate(longitude, latitude) else pointLocator.locate(longitude, latitude)
+  }
+
+  /**
+    * The positions in `entities` of the entities whose envelope intersects `envelope`.
+    */
+  def searchPositions(envelope: Envelope): Seq[Int] = {
+    builtIndex.query(envelope).asScala.map(_.asInstanceOf[Int])
+  }
+
+  /**
+    * The prepared geometry of the entity at `position`, created once and shared by all threads.
+    */
+  def prepared(position: Int): PreparedGeometry = pointLocator.prepare(position)
+
+  /**
+    * Exact point lookup that skips the grid.
+    */
+  def searchPointExact(longitude: Double, latitude: Double): Option[IUSGeoJSONEntity] = {
+    val id = pointLocator.locate(longitude, latitude)
+    if (id < 0) None else Some(entities(id))
   }
 }
 
@@ -55,18 +118,68 @@ class NYGeoJSONIndex() extends IGeoIndex {
   def loadShape(geoJsonString: String)(implicit builder: (Map[String, AnyRef], Geometry) => INYGeoJSONEntity): Unit = {
     val geoJSONReader = new GeoJSONReader()
     val featureCollection: FeatureCollection = GeoJSONFactory.create(geoJsonString).asInstanceOf[FeatureCollection]
-    featureCollection.getFeatures.foreach { f: Feature =>
-      val geometry: Geometry = geoJSONReader.read(f.getGeometry)
-      entities += builder(f.getProperties.asScala.toMap, geometry)
+    loadFeatures(featureCollection.getFeatures.map { f: Feature =>
+      (f.getProperties.asScala.toMap, geoJSONReader.read(f.getGeometry))
+    })
+  }
+
+  /**
+    * Load already parsed features, e.g. from a [[ShapeSnapshot]]. The same restriction as loadShape applies.
+    */
+  def loadFeatures(features: Seq[ShapeSnapshot.ShapeFeature])
+                  (implicit builder: (Map[String, AnyRef], Geometry) => INYGeoJSONEntity): Unit = {
+    features.foreach { case (properties, geometry) =>
+      entities += builder(properties, geometry)
       index.insert(geometry.getEnvelopeInternal, entities.size - 1)
     }
   }
 
+  // building the tree on first use is not thread-safe by itself, the lazy val makes it so
+  private lazy val builtIndex: STRtree = {
+    index.build()
+    index
+  }
+
+  private lazy val pointLocator = new PreparedPointLocator(builtIndex, entities.map(_.geometry))
+
   override def search(geometry: Geometry): Seq[INYGeoJSONEntity] = {
     search(geometry.getEnvelopeInternal).filter(_.geometry.intersects(geometry))
   }
 
   override def search(envelope: Envelope): Seq[INYGeoJSONEntity] = {
-    index.query(envelope).asScala.map(item => entities(item.asInstanceOf[Int]))
+    builtIndex.query(envelope).asScala.map(item => entities(item.asInstanceOf[Int]))
+  }
+
+  @volatile private var pointRaster: RasterPointLocator = _
+
+  /**
+    * Builds the grid that [[searchPoint]] uses from then on. Call it once all the shapes are loaded.
+    */
+  def buildPointRaster(maxCells: Int = RasterPointLocator.DefaultMaxCells): Unit = {
+    pointRaster = new RasterPointLocator(pointLocator, maxCells)
+  }
+
+  /**
+    * The smallest entity whose shape covers the point, through the grid once it is built.
+    */
+  def searchPoint(longitude: Double, latitude: Double): Option[INYGeoJSONEntity] = {
+    val id = locatePoint(longitude, latitude)
+    if (id < 0) None else Some(entities(id))
+  }
+
+  /**
+    * [[searchPoint]] as the position of the entity in `entities`, or -1.
+    */
+  def locatePoint(longitude: Double, latitude: Double): Int = {
+    val raster = pointRaster
+    if (raster != null) raster.locate(longitude, latitude) else pointLocator.locate(longitude, latitude)
+  }
+
+  /**
+    * Exact point lookup that skips the grid.
+    */
+  def searchPointExact(longitude: Double, latitude: Double): Option[INYGeoJSONEntity] = {
+    val id = pointLocator.locate(longitude, latitude)
+    if (id < 0) None else Some(entities(id))
   }
 }
\ No newline at end of file
@@ -15,4 +15,29 @@ trait IGnosis {
   }
 
   def tagPoint(longitude: Double, latitude: Double): Option[IGeoTagInfo]
+
+  /**
+    * The id of the tag tagPoint would give, or -1 if the point is not tagged. See [[tagJson]].
+    */
+  def locateTag(longitude: Double, latitude: Double): Int
+
+  /**
+    * The pre-serialized JSON of a tag id, the same text as the `toString` of the [[IGeoTagInfo]].
+    */
+  def tagJson(tag: Int): String
+
+  /**
+    * tagPoint as JSON, or null if the point is not tagged.
+    */
+  def tagPointJson(longitude: Double, latitude: Double): String = {
+    val tag = locateTag(longitude, latitude)
+    if (tag < 0) null else tagJson(tag)
+  }
+
+  /**
+    * Batch form of [[locateTag]]: sets `tags(i)` to the tag id of the point i.
+    */
+  def tagPoints(longitudes: Array[Double], latitudes: Array[Double], tags: Array[Int]): Unit = {
+    PointBatch.run(longitudes, latitudes, tags)(locateTag)
+  }
 }
@@ -1,20 +1,22 @@
 package edu.uci.ics.cloudberry.gnosis
 
-import java.io.{File, FilenameFilter}
+import java.io.File
 
-import com.vividsolutions.jts.geom.{Coordinate, Envelope, Geometry}
+import com.vividsolutions.jts.geom.Geometry
 import play.api.libs.json.{JsObject, Json, Writes}
 
 class NewYorkGnosis(levelGeoPathMap: Map[TypeLevel, File]) extends IGnosis{
 
   import NewYorkGnosis._
 
-  val levelShapeMap = load(levelGeoPathMap)
+  // nothing is read until the first lookup, from the shape snapshots when they exist
+  lazy val levelShapeMap: Map[TypeLevel, NYGeoJSONIndex] = load(levelGeoPathMap)
 
   override def load(shapeMap: Map[TypeLevel, File]): Map[TypeLevel, NYGeoJSONIndex] = {
     NYLevels.map(level => {
       val index = new NYGeoJSONIndex()
       loadShape(shapeMap.get(level).get, index)(INYGeoJSONEntity.apply)
+      if (level == NeighborLevel) index.buildPointRaster()
       level -> index
     }).toMap
   }
@@ -27,10 +29,18 @@ class NewYorkGnosis(levelGeoPathMap: Map[TypeLevel, File]) extends IGnosis{
 
   // used in geo tag
   override def tagPoint(longitude: Double, latitude: Double): Option[NYGeoTagInfo] = {
-    val box = new Envelope(new Coordinate(longitude, latitude))
-    neighborShapes.search(box).headOption.map(entity => NYGeoTagInfo(entity.asInstanceOf[NYNeighborEntity]))
+    levelShapeMap.get(NeighborLevel).get.searchPoint(longitude, latitude).map(entity => NYGeoTagInfo(entity.asInstanceOf[NYNeighborEntity]))
   }
 
+  // tag ids are the positions of the neighborhoods
+  private lazy val tagFragments: Array[String] =
+    levelShapeMap.get(NeighborLevel).get.entities.map(entity => NYGeoTagInfo(entity.asInstanceOf[NYNeighborEntity]).toString).toArray
+
+  override def locateTag(longitude: Double, latitude: Double): Int =
+    levelShapeMap.get(NeighborLevel).get.locatePoint(longitude, latitude)
+
+  override def tagJson(tag: Int): String = tagFragments(tag)
+
 }
 
 object NewYorkGnosis {
@@ -52,15 +62,6 @@ object NewYorkGnosis {
   }
 
   def loadShape(file: File, index: NYGeoJSONIndex)(builder: (Map[String, AnyRef], Geometry) => INYGeoJSONEntity): Unit = {
-    if (file.isDirectory) {
-      file.listFiles(new FilenameFilter {
-        override def accept(dir: File, name: String): Boolean = name.endsWith(".json")
-      }).foreach { file =>
-        loadShape(file, index)(builder)
-      }
-    } else {
-      val textJson = loadSmallJSONFile(file)
-      index.loadShape(textJson)(builder)
-    }
+    index.loadFeatures(ShapeSnapshot.load(file))(builder)
   }
 }
@@ -0,0 +1,93 @@
+package edu.uci.ics.cloudberry.gnosis
+
+import java.util
+import java.util.concurrent.{ForkJoinPool, RecursiveAction}
+
+/**
+  * Runs a point lookup over a whole batch of points.
+  *
+  * The points are visited in Z-order, so that consecutive lookups hit the same grid cells and shapes,
+  * and batches larger than [[PointBatch.SequentialThreshold]] are split across the common fork/join pool.
+  */
+object PointBatch {
+
+  val SequentialThreshold: Int = 4096
+
+  // bits per axis of the Z-order key, about 600 meters of longitude
+  private val KeyBits = 16
+  private val KeyScale = (1 << KeyBits) - 1
+
+  /**
+    * Sets `results(i)` to `locate(longitudes(i), latitudes(i))` for every point.
+    */
+  def run(longitudes: Array[Double], latitudes: Array[Double], results: Array[Int])
+         (locate: (Double, Double) => Int): Unit = {
+    require(longitudes.length == latitudes.length, "longitudes and latitudes should have the same length")
+    require(results.length >= longitudes.length, "results is shorter than the batch")
+
+    val order = spatialOrder(longitudes, latitudes)
+    val task = new LocateTask(order, 0, order.length, longitudes, latitudes, results, locate)
+    if (order.length <= SequentialThreshold) task.compute() else ForkJoinPool.commonPool().invoke(task)
+  }
+
+  /**
+    * The positions of the points sorted by their Z-order key.
+    */
+  def spatialOrder(longitudes: Array[Double], latitudes: Array[Double]): Array[Int] = {
+    // the key in the high half and the position in the low half, so one primitive sort does it
+    val keys = new Array[Long](longitudes.length)
+    var i = 0
+    while (i < keys.length) {
+      val x = quantize(longitudes(i), -180, 360)
+      val y = quantize(latitudes(i), -90, 180)
+      keys(i) = (interleave(x, y) << 32) | i
+      i += 1
+    }
+    if (keys.length > SequentialThreshold) util.Arrays.parallelSort(keys) else util.Arrays.sort(keys)
+    val order = new Array[Int](keys.length)
+    i = 0
+    while (i < keys.length) {
+      order(i) = keys(i).toInt
+      i += 1
+    }
+    order
+  }
+
+  private def quantize(value: Double, min: Double, range: Double): Int = {
+    val scaled = (value - min) / range * KeyScale
+    // NaN falls to 0 as well
+    if (!(scaled > 0)) 0 else if (scaled >= KeyScale) KeyScale else scaled.toInt
+  }
+
+  private def interleave(x: Int, y: Int): Long = {
+    var key = 0L
+    var bit = 0
+    while (bit < KeyBits) {
+      key |= ((x >> bit) & 1L) << (2 * bit)
+      key |= ((y >> bit) & 1L) << (2 * bit + 1)
+      bit += 1
+    }
+    key
+  }
+
+  private class LocateTask(order: Array[Int], from: Int, until: Int,
+                           longitudes: Array[Double], latitudes: Array[Double], results: Array[Int],
+                           locate: (Double, Double) => Int) extends RecursiveAction {
+
+    override def compute(): Unit = {
+      if (until - from <= SequentialThreshold) {
+        var i = from
+        while (i < until) {
+          val point = order(i)
+          results(point) = locate(longitudes(point), latitudes(point))
+          i += 1
+        }
+      } else {
+        val middle = (from + until) >>> 1
+        RecursiveAction.invokeAll(
+          new LocateTask(order, from, middle, longitudes, latitudes, results, locate),
+          new LocateTask(order, middle, until, longitudes, latitudes, results, locate))
+      }
+    }
+  }
+}
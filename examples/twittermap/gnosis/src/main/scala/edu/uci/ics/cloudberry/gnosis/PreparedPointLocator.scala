@@ -0,0 +1,77 @@
+package edu.uci.ics.cloudberry.gnosis
+
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+import com.vividsolutions.jts.geom.prep.{PreparedGeometry, PreparedGeometryFactory}
+import com.vividsolutions.jts.geom.{Coordinate, Envelope, Geometry, GeometryFactory}
+import com.vividsolutions.jts.index.strtree.STRtree
+
+/**
+  * Exact point-in-polygon lookup over the shapes of a built STRtree whose items are the positions in `geometries`.
+  *
+  * The tree only narrows the shapes down to the ones whose envelope holds the point, then the candidates are tested
+  * against their [[PreparedGeometry]] from the smallest area to the largest, and the first shape that covers the point
+  * wins. Ties on the area go to the shape loaded first, so the answer never depends on the tree layout.
+  *
+  * Prepared geometries are created on first use and shared by all threads.
+  */
+class PreparedPointLocator(tree: STRtree, val geometries: IndexedSeq[Geometry]) {
+
+  private val factory = new GeometryFactory()
+  private val areas: Array[Double] = geometries.map(_.getArea).toArray
+  private val prepared = new AtomicReferenceArray[PreparedGeometry](geometries.size)
+
+  /**
+    * @return the position of the smallest shape covering the point, or -1 if there is none
+    */
+  def locate(longitude: Double, latitude: Double): Int = {
+    val candidates = tree.query(new Envelope(longitude, longitude, latitude, latitude))
+    val size = candidates.size()
+    if (size == 0) return -1
+
+    // the candidate lists are short, an insertion sort is enough
+    val order = new Array[Int](size)
+    var i = 0
+    while (i < size) {
+      val id = candidates.get(i).asInstanceOf[Int]
+      var j = i
+      while (j > 0 && before(id, order(j - 1))) {
+        order(j) = order(j - 1)
+        j -= 1
+      }
+      order(j) = id
+      i += 1
+    }
+
+    locateAmong(order, 0, size, longitude, latitude)
+  }
+
+  /**
+    * The first of `ids` in [from, until) whose shape covers the point, or -1. The ids should be in [[before]] order.
+    */
+  private[gnosis] def locateAmong(ids: Array[Int], from: Int, until: Int, longitude: Double, latitude: Double): Int = {
+    val point = factory.createPoint(new Coordinate(longitude, latitude))
+    var i = from
+    while (i < until) {
+      if (prepare(ids(i)).covers(point)) return ids(i)
+      i += 1
+    }
+    -1
+  }
+
+  /**
+    * The order in which the shapes are tested: smaller area first, then the one loaded first.
+    */
+  private[gnosis] def before(a: Int, b: Int): Boolean = areas(a) < areas(b) || (areas(a) == areas(b) && a < b)
+
+  private[gnosis] def prepare(id: Int): PreparedGeometry = {
+    val cached = prepared.get(id)
+    if (cached != null) return cached
+    val geometry = geometries(id)
+    val fresh = PreparedGeometryFactory.prepare(geometry)
+    // the first test builds the lazy point index of the prepared polygon, so do it before other threads can see it
+    if (!geometry.isEmpty) fresh.covers(factory.createPoint(geometry.getCoordinate))
+    prepared.compareAndSet(id, null, fresh)
+    prepared.get(id)
+  }
+}
@@ -0,0 +1,148 @@
+package edu.uci.ics.cloudberry.gnosis
+
+import java.util
+
+import com.vividsolutions.jts.geom.{Envelope, GeometryFactory}
+
+import scala.collection.mutable
+
+/**
+  * A uniform grid over the shapes of a [[PreparedPointLocator]], built once, that answers most point lookups with
+  * a single array read and gives the same answers as `exact.locate`.
+  *
+  * Every cell either has one owner, a shape that covers the whole cell and comes first in the exact test order,
+  * or has no shape at all, or keeps the short list of shapes crossing it, which are then tested exactly.
+  * The grid holds at most about `maxCells` cells and its cells are never smaller than [[RasterPointLocator.MinCellDegrees]].
+  */
+class RasterPointLocator(exact: PreparedPointLocator, maxCells: Int) {
+
+  import RasterPointLocator._
+
+  require(maxCells > 0, "maxCells should be positive")
+
+  private val geometries = exact.geometries
+
+  private val extent: Envelope = {
+    val envelope = new Envelope()
+    geometries.foreach(g => envelope.expandToInclude(g.getEnvelopeInternal))
+    envelope
+  }
+
+  private val cellSize: Double =
+    if (extent.isNull) MinCellDegrees
+    else math.max(MinCellDegrees, math.sqrt(extent.getWidth * extent.getHeight / maxCells))
+
+  val columns: Int = if (extent.isNull) 1 else math.max(1, math.ceil(extent.getWidth / cellSize).toInt)
+  val rows: Int = if (extent.isNull) 1 else math.max(1, math.ceil(extent.getHeight / cellSize).toInt)
+
+  // >= 0: the owner, Empty: no shape, otherwise -(k + 2) where k is the candidate list of the cell
+  private val cells: Array[Int] = Array.fill(columns * rows)(Empty)
+  // the candidate list k is listItems(listStart(k) until listStart(k + 1)), in the exact test order
+  private val (listStart: Array[Int], listItems: Array[Int]) = build()
+
+  /**
+    * @return the position of the smallest shape covering the point, or -1 if there is none
+    */
+  def locate(longitude: Double, latitude: Double): Int = {
+    if (extent.isNull || !extent.contains(longitude, latitude)) return -1
+    val value = cells(row(latitude) * columns + column(longitude))
+    if (value >= Empty) {
+      value
+    } else {
+      val k = -(value + 2)
+      exact.locateAmong(listItems, listStart(k), listStart(k + 1), longitude, latitude)
+    }
+  }
+
+  /**
+    * The number of cells that need an exact test, for sizing the grid.
+    */
+  def boundaryCells: Int = listStart.length - 1
+
+  private def column(longitude: Double): Int =
+    math.min(columns - 1, math.max(0, math.floor((longitude - extent.getMinX) / cellSize).toInt))
+
+  private def row(latitude: Double): Int =
+    math.min(rows - 1, math.max(0, math.floor((latitude - extent.getMinY) / cellSize).toInt))
+
+  // slightly larger than the cell, so that rounding in column() and row() can not put a point outside of its cell
+  private def cellEnvelope(column: Int, row: Int): Envelope = {
+    val pad = cellSize * CellPadding
+    val x = extent.getMinX + column * cellSize
+    val y = extent.getMinY + row * cellSize
+    new Envelope(x - pad, x + cellSize + pad, y - pad, y + cellSize + pad)
+  }
+
+  /**
+    * Visits the shapes in the exact test order, so that each cell keeps them sorted, and stops filling a cell once
+    * it has a shape covering all of it: no later shape can win there.
+    */
+  private def build(): (Array[Int], Array[Int]) = {
+    val factory = new GeometryFactory()
+    val lists = new Array[mutable.ArrayBuilder.ofInt](cells.length)
+    val closed = new util.BitSet(cells.length)
+    val order = geometries.indices.sortWith(exact.before)
+
+    order.foreach { id =>
+      val envelope = geometries(id).getEnvelopeInternal
+      if (!envelope.isNull) {
+        val prepared = exact.prepare(id)
+        var r = row(envelope.getMinY)
+        while (r <= row(envelope.getMaxY)) {
+          var c = column(envelope.getMinX)
+          while (c <= column(envelope.getMaxX)) {
+            val cell = r * columns + c
+            if (cells(cell) == Empty || (cells(cell) == Boundary && !closed.get(cell))) {
+              val box = factory.toGeometry(cellEnvelope(c, r))
+              if (prepared.intersects(box)) {
+                val covers = prepared.covers(box)
+                if (cells(cell) == Empty && covers) {
+                  cells(cell) = id
+                } else {
+                  if (lists(cell) == null) lists(cell) = new mutable.ArrayBuilder.ofInt
+                  lists(cell) += id
+                  cells(cell) = Boundary
+                  if (covers) closed.set(cell)
+                }
+              }
+            }
+            c += 1
+          }
+          r += 1
+        }
+      }
+    }
+
+    val start = new mutable.ArrayBuilder.ofInt
+    val items = new mutable.ArrayBuilder.ofInt
+    var offset = 0
+    var k = 0
+    cells.indices.foreach { cell =>
+      if (cells(cell) == Boundary) {
+        val list = lists(cell).result()
+        start += offset
+        items ++= list
+        offset += list.length
+        cells(cell) = -(k + 2)
+        k += 1
+      }
+    }
+    start += offset
+    (start.result(), items.result())
+  }
+}
+
+object RasterPointLocator {
+
+  val Empty: Int = -1
+  private val Boundary: Int = -2
+
+  /**
+    * Finer cells than this (about 100 meters) mostly add memory: city shapes are rarely smaller.
+    */
+  val MinCellDegrees: Double = 0.001
+
+  val DefaultMaxCells: Int = 1 << 20
+
+  private val CellPadding: Double = 1e-6
+}
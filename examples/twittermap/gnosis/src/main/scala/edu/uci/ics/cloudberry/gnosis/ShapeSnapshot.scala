@@ -0,0 +1,207 @@
+package edu.uci.ics.cloudberry.gnosis
+
+import java.io._
+import java.nio.channels.FileChannel
+import java.nio.charset.StandardCharsets
+import java.nio.file.StandardOpenOption
+import java.nio.{ByteBuffer, MappedByteBuffer}
+
+import com.vividsolutions.jts.geom.Geometry
+import com.vividsolutions.jts.io.{InStream, WKBReader, WKBWriter}
+import edu.uci.ics.cloudberry.util.Profile._
+import org.wololo.geojson.{Feature, FeatureCollection, GeoJSONFactory}
+import org.wololo.jts2geojson.GeoJSONReader
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable.ArrayBuffer
+
+/**
+  * A compact binary copy of the GeoJSON shape files, so that a gnosis can start without parsing GeoJSON.
+  *
+  * The snapshot of `path` (a file, or a directory of .json files) is `path.snapshot`. It keeps the feature properties
+  * as they are in GeoJSON, so the usual entity builders apply, and every geometry as WKB. It is memory-mapped when read.
+  * A snapshot older than its source is ignored.
+  *
+  * Usage: ShapeSnapshot /path/to/shape.json [/path/to/cities ...]
+  */
+object ShapeSnapshot {
+
+  val Suffix = ".snapshot"
+
+  private val Magic = 0x474E4F53 // "GNOS"
+  private val Version = 1
+
+  private val StringValue: Byte = 'S'.toByte
+  private val IntValue: Byte = 'I'.toByte
+  private val LongValue: Byte = 'L'.toByte
+  private val DoubleValue: Byte = 'D'.toByte
+  private val BooleanValue: Byte = 'B'.toByte
+  private val NullValue: Byte = 'N'.toByte
+
+  type ShapeFeature = (Map[String, AnyRef], Geometry)
+
+  def snapshotOf(source: File): File = new File(source.getPath + Suffix)
+
+  /**
+    * @return the snapshot of `source` if there is one at least as recent as the source
+    */
+  def find(source: File): Option[File] = {
+    val snapshot = snapshotOf(source)
+    if (snapshot.isFile && snapshot.lastModified() >= lastModified(source)) Some(snapshot) else None
+  }
+
+  /**
+    * Reads the GeoJSON features of `source` and writes them to its snapshot.
+    *
+    * @return the number of features written
+    */
+  def write(source: File): Int = {
+    val features = readGeoJSON(source)
+    val target = snapshotOf(source)
+    val tmp = new File(target.getPath + ".tmp")
+    val out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))
+    try {
+      val wkbWriter = new WKBWriter()
+      out.writeInt(Magic)
+      out.writeInt(Version)
+      out.writeInt(features.size)
+      features.foreach { case (properties, geometry) =>
+        val entries = properties.filter(entry => isSupported(entry._2))
+        out.writeShort(entries.size)
+        entries.foreach { case (key, value) =>
+          writeString(out, key)
+          writeValue(out, value)
+        }
+        val wkb = wkbWriter.write(geometry)
+        out.writeInt(wkb.length)
+        out.write(wkb)
+      }
+    } finally {
+      out.close()
+    }
+    // readers never see a half written snapshot
+    if (!tmp.renameTo(target)) {
+      target.delete()
+      if (!tmp.renameTo(target)) throw new IOException(s"can not move $tmp to $target")
+    }
+    features.size
+  }
+
+  /**
+    * Reads every feature of a snapshot, in the order they were written.
+    */
+  def read(snapshot: File): Seq[ShapeFeature] = {
+    val buffer = map(snapshot)
+    if (buffer.getInt() != Magic) throw new IOException(s"$snapshot is not a shape snapshot")
+    val version = buffer.getInt()
+    if (version != Version) throw new IOException(s"$snapshot has version $version, expected $Version")
+
+    val count = buffer.getInt()
+    val wkbReader = new WKBReader()
+    val wkbStream = new InStream {
+      override def read(buf: Array[Byte]): Unit = buffer.get(buf)
+    }
+    val features = new ArrayBuffer[ShapeFeature](count)
+    for (_ <- 0 until count) {
+      val entries = buffer.getShort()
+      val properties = Map.newBuilder[String, AnyRef]
+      for (_ <- 0 until entries) {
+        properties += readString(buffer) -> readValue(buffer)
+      }
+      val length = buffer.getInt()
+      val end = buffer.position() + length
+      val geometry = wkbReader.read(wkbStream)
+      buffer.position(end)
+      features += properties.result() -> geometry
+    }
+    features
+  }
+
+  /**
+    * Snapshot if there is an up to date one, otherwise the GeoJSON itself.
+    */
+  def load(source: File): Seq[ShapeFeature] = find(source) match {
+    case Some(snapshot) => read(snapshot)
+    case None => readGeoJSON(source)
+  }
+
+  def readGeoJSON(source: File): Seq[ShapeFeature] = {
+    if (source.isDirectory) {
+      jsonFiles(source).flatMap(readGeoJSON)
+    } else {
+      val geoJSONReader = new GeoJSONReader()
+      val featureCollection = GeoJSONFactory.create(loadSmallJSONFile(source)).asInstanceOf[FeatureCollection]
+      featureCollection.getFeatures.map { f: Feature =>
+        f.getProperties.asScala.toMap -> geoJSONReader.read(f.getGeometry)
+      }.toSeq
+    }
+  }
+
+  private def jsonFiles(dir: File): Seq[File] = {
+    dir.listFiles(new FilenameFilter {
+      override def accept(dir: File, name: String): Boolean = name.endsWith(".json")
+    }).toSeq
+  }
+
+  private def lastModified(source: File): Long = {
+    if (source.isDirectory) (source.lastModified() +: jsonFiles(source).map(_.lastModified())).max
+    else source.lastModified()
+  }
+
+  private def map(file: File): MappedByteBuffer = {
+    val channel = FileChannel.open(file.toPath, StandardOpenOption.READ)
+    try {
+      // the mapping stays valid after the channel is closed
+      channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+    } finally {
+      channel.close()
+    }
+  }
+
+  private def isSupported(value: AnyRef): Boolean = value match {
+    case null | _: String | _: Integer | _: java.lang.Long | _: java.lang.Double | _: java.lang.Boolean => true
+    case _ => false
+  }
+
+  private def writeValue(out: DataOutputStream, value: AnyRef): Unit = value match {
+    case null => out.writeByte(NullValue)
+    case s: String => out.writeByte(StringValue); writeString(out, s)
+    case i: Integer => out.writeByte(IntValue); out.writeInt(i)
+    case l: java.lang.Long => out.writeByte(LongValue); out.writeLong(l)
+    case d: java.lang.Double => out.writeByte(DoubleValue); out.writeDouble(d)
+    case b: java.lang.Boolean => out.writeByte(BooleanValue); out.writeBoolean(b)
+  }
+
+  private def readValue(buffer: ByteBuffer): AnyRef = buffer.get() match {
+    case StringValue => readString(buffer)
+    case IntValue => Int.box(buffer.getInt())
+    case LongValue => Long.box(buffer.getLong())
+    case DoubleValue => Double.box(buffer.getDouble())
+    case BooleanValue => Boolean.box(buffer.get() != 0)
+    case NullValue => null
+    case tag => throw new IOException(s"unknown value type: $tag")
+  }
+
+  private def writeString(out: DataOutputStream, value: String): Unit = {
+    val bytes = value.getBytes(StandardCharsets.UTF_8)
+    out.writeInt(bytes.length)
+    out.write(bytes)
+  }
+
+  private def readString(buffer: ByteBuffer): String = {
+    val bytes = new Array[Byte](buffer.getInt())
+    buffer.get(bytes)
+    new String(bytes, StandardCharsets.UTF_8)
+  }
+
+  def main(args: Array[String]): Unit = {
+    if (args.isEmpty) {
+      System.err.println("Usage: ShapeSnapshot /path/to/shape.json [/path/to/cities ...]")
+      System.exit(1)
+    }
+    args.foreach { path =>
+      val count = profile(s"snapshot $path")(write(new File(path)))
+      System.err.println(s"wrote $count features to ${snapshotOf(new File(path))}")
+    }
+  }
+}
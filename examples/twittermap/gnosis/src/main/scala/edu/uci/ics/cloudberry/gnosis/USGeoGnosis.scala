@@ -1,8 +1,8 @@
 package edu.uci.ics.cloudberry.gnosis
 
-import java.io.{File, FilenameFilter}
+import java.io.File
 
-import com.vividsolutions.jts.geom.{Coordinate, Envelope, Geometry}
+import com.vividsolutions.jts.geom.Geometry
 import edu.uci.ics.cloudberry.util.Rectangle
 import play.api.libs.json.{JsObject, Json, Writes}
 
@@ -12,12 +12,14 @@ class USGeoGnosis(levelGeoPathMap: Map[TypeLevel, File]) extends IGnosis{
 
   import USGeoGnosis._
 
-  val levelShapeMap: Map[TypeLevel, USGeoJSONIndex] = load(levelGeoPathMap)
+  // nothing is read until the first lookup, from the shape snapshots when they exist
+  lazy val levelShapeMap: Map[TypeLevel, USGeoJSONIndex] = load(levelGeoPathMap)
 
   override def load(shapeMap: Map[TypeLevel, File]): Map[TypeLevel, USGeoJSONIndex] = {
     OrderedLevels.map(level => {
       val index = new USGeoJSONIndex()
       loadShape(shapeMap.get(level).get, index)(IUSGeoJSONEntity.apply)
+      if (PointLevels.contains(level)) index.buildPointRaster()
       level -> index
     }).toMap
   }
@@ -44,29 +46,149 @@ class USGeoGnosis(levelGeoPathMap: Map[TypeLevel, File]) extends IGnosis{
   lazy val countyShapes: IGeoIndex = levelShapeMap.get(CountyLevel).get
   lazy val cityShapes: IGeoIndex = levelShapeMap.get(CityLevel).get
 
+  // positions of the cities in cityIndex.entities, in the order of cityByNameList
+  private lazy val cityPositionsByName: Map[String, Array[Int]] = {
+    cities.indices.groupBy(cities(_).name).map { case (name, positions) => name -> positions.reverse.toArray }
+  }
+
+  // the city cityByNameList would find first for a (name, state name)
+  private lazy val cityByNameState: Map[(String, String), Int] = {
+    cityPositionsByName.flatMap { case (name, positions) =>
+      positions.reverseIterator.map(position => (name, cities(position).stateName) -> position)
+    }
+  }
+
+  private lazy val cityEnvelopesByName: Map[String, NamedEnvelopes] =
+    cityPositionsByName.map { case (name, positions) => name -> new NamedEnvelopes(positions, cities) }
+
   // used in geo tag
   def tagNeighborhood(cityName: String, rectangle: Rectangle): Option[USGeoTagInfo] = {
-    val box = new Envelope(rectangle.swLog, rectangle.neLog, rectangle.swLat, rectangle.neLat)
-    cityByNameList.get(cityName).flatMap(list => list.find(_.geometry.getEnvelopeInternal.covers(box)).map(USGeoTagInfo(_)))
+    val position = locateNeighborhood(cityName, rectangle)
+    if (position < 0) None else Some(USGeoTagInfo(cities(position)))
+  }
+
+  /**
+    * tagNeighborhood as JSON, or null.
+    */
+  def tagNeighborhoodJson(cityName: String, rectangle: Rectangle): String = {
+    val position = locateNeighborhood(cityName, rectangle)
+    if (position < 0) null else tagJson(position)
+  }
+
+  private def locateNeighborhood(cityName: String, rectangle: Rectangle): Int = {
+    cityEnvelopesByName.get(cityName) match {
+      case Some(envelopes) =>
+        // ordered as new Envelope(rectangle...) would do
+        envelopes.firstCovering(math.min(rectangle.swLog, rectangle.neLog), math.max(rectangle.swLog, rectangle.neLog),
+                                math.min(rectangle.swLat, rectangle.neLat), math.max(rectangle.swLat, rectangle.neLat))
+      case None => -1
+    }
   }
 
   // used in geo tag
   override def tagPoint(longitude: Double, latitude: Double): Option[USGeoTagInfo] = {
-    val box = new Envelope(new Coordinate(longitude, latitude))
-    val cityOpt = cityShapes.search(box).headOption.map(entity => USGeoTagInfo(entity.asInstanceOf[USCityEntity]))
+    val cityOpt = levelShapeMap.get(CityLevel).get.searchPoint(longitude, latitude).map(USGeoTagInfo(_))
     if (cityOpt.isDefined) return cityOpt
-    countyShapes.search(box).headOption.map(entity => USGeoTagInfo(entity.asInstanceOf[USCountyEntity]))
+    levelShapeMap.get(CountyLevel).get.searchPoint(longitude, latitude).map(USGeoTagInfo(_))
+  }
+
+  private lazy val cityIndex: USGeoJSONIndex = levelShapeMap.get(CityLevel).get
+  private lazy val countyIndex: USGeoJSONIndex = levelShapeMap.get(CountyLevel).get
+
+  // tag ids are the positions of the cities, then of the counties after them
+  private lazy val tagEntities: IndexedSeq[IUSGeoJSONEntity] = (cityIndex.entities ++ countyIndex.entities).toIndexedSeq
+
+  private lazy val tagFragments: Array[String] = tagEntities.map(USGeoTagInfo(_).toString).toArray
+
+  override def locateTag(longitude: Double, latitude: Double): Int = {
+    val city = cityIndex.locatePoint(longitude, latitude)
+    if (city >= 0) return city
+    val county = countyIndex.locatePoint(longitude, latitude)
+    if (county >= 0) cityIndex.entities.size + county else -1
+  }
+
+  override def tagJson(tag: Int): String = tagFragments(tag)
+
+  /**
+    * Batch form of tagPoint into columns: the ids of point i go to `stateIDs(i)`, `countyIDs(i)` and `cityIDs(i)`,
+    * and an id the point does not have is -1.
+    */
+  def tagPoints(longitudes: Array[Double], latitudes: Array[Double],
+                stateIDs: Array[Int], countyIDs: Array[Int], cityIDs: Array[Int]): Unit = {
+    val tags = new Array[Int](longitudes.length)
+    tagPoints(longitudes, latitudes, tags)
+    var i = 0
+    while (i < tags.length) {
+      if (tags(i) < 0) {
+        stateIDs(i) = -1
+        countyIDs(i) = -1
+        cityIDs(i) = -1
+      } else {
+        tagEntities(tags(i)) match {
+          case city: USCityEntity =>
+            stateIDs(i) = city.stateID
+            countyIDs(i) = city.countyID
+            cityIDs(i) = city.cityID
+          case county: USCountyEntity =>
+            stateIDs(i) = county.stateID
+            countyIDs(i) = county.countyID
+            cityIDs(i) = -1
+          case state: USStateEntity =>
+            stateIDs(i) = state.stateID
+            countyIDs(i) = -1
+            cityIDs(i) = -1
+        }
+      }
+      i += 1
+    }
   }
 
   // used in geo tag
   def tagCity(cityName: String, stateAbbr: String): Option[USGeoTagInfo] = {
-    cityByNameList.get(cityName).flatMap(
-      list => list.find(_.stateName == StateAbbr2FullNameMap.get(stateAbbr).getOrElse("")).map(USGeoTagInfo(_)))
+    val position = locateCity(cityName, stateAbbr)
+    if (position < 0) None else Some(USGeoTagInfo(cities(position)))
+  }
+
+  /**
+    * tagCity as JSON, or null.
+    */
+  def tagCityJson(cityName: String, stateAbbr: String): String = {
+    val position = locateCity(cityName, stateAbbr)
+    if (position < 0) null else tagJson(position)
+  }
+
+  private def locateCity(cityName: String, stateAbbr: String): Int = {
+    StateAbbr2FullNameMap.get(stateAbbr).flatMap(stateName => cityByNameState.get((cityName, stateName))).getOrElse(-1)
   }
 }
 
 object USGeoGnosis {
 
+  /**
+    * The envelopes of the cities sharing a name, as primitive arrays kept in the order of `positions`.
+    */
+  private class NamedEnvelopes(positions: Array[Int], cities: Seq[USCityEntity]) {
+    private val minX = positions.map(cities(_).geometry.getEnvelopeInternal.getMinX)
+    private val maxX = positions.map(cities(_).geometry.getEnvelopeInternal.getMaxX)
+    private val minY = positions.map(cities(_).geometry.getEnvelopeInternal.getMinY)
+    private val maxY = positions.map(cities(_).geometry.getEnvelopeInternal.getMaxY)
+
+    /**
+      * The first city whose envelope covers the box, as `Envelope.covers` does, or -1.
+      */
+    def firstCovering(boxMinX: Double, boxMaxX: Double, boxMinY: Double, boxMaxY: Double): Int = {
+      var i = 0
+      while (i < positions.length) {
+        if (minX(i) <= boxMinX && boxMaxX <= maxX(i) && minY(i) <= boxMinY && boxMaxY <= maxY(i)) return positions(i)
+        i += 1
+      }
+      -1
+    }
+  }
+
+  // the levels tagPoint looks up
+  val PointLevels: Set[TypeLevel] = Set(CityLevel, CountyLevel)
+
   case class USGeoTagInfo(stateID: Int, stateName: String,
                           countyID: Option[Int], countyName: Option[String],
                           cityID: Option[Int], cityName: Option[String]) extends IGeoTagInfo{
@@ -90,16 +212,7 @@ object USGeoGnosis {
   }
 
   def loadShape(file: File, index: USGeoJSONIndex)(builder: (Map[String, AnyRef], Geometry) => IUSGeoJSONEntity): Unit = {
-    if (file.isDirectory) {
-      file.listFiles(new FilenameFilter {
-        override def accept(dir: File, name: String): Boolean = name.endsWith(".json")
-      }).foreach { file =>
-        loadShape(file, index)(builder)
-      }
-    } else {
-      val textJson = loadSmallJSONFile(file)
-      index.loadShape(textJson)(builder)
-    }
+    index.loadFeatures(ShapeSnapshot.load(file))(builder)
   }
 
   val StateAbbr2FullNameMap: Map[String, String] = Map(
@@ -39,14 +39,16 @@ object USHierarchyBuilder {
   val stateIndex = new USGeoJSONIndex()
   val countyIndex = new USGeoJSONIndex()
   val cityIndex = new USGeoJSONIndex()
-  val cityToCountyMap = mutable.Map.empty[Int, Int]
+
+  // features are serialized in parallel a chunk at a time, and written as soon as the chunk is done
+  val WriteChunkSize = 1024
 
   def main(args: Array[String]) = {
     val config: OptionMap = mutable.Map.empty[String, Any]
     parseOption(config, args.toList)
     profile("loadShape")(loadShapes(config))
-    profile("parseRelation")(parseRelation)
-    profile("writeRelation")(writeRelation)
+    val cityToCountyMap = profile("parseRelation")(parseRelation())
+    profile("writeRelation")(writeRelation(cityToCountyMap))
   }
 
   def loadShapes(config: OptionMap): Unit = {
@@ -62,42 +64,59 @@ object USHierarchyBuilder {
   }
 
 
-  def parseRelation(): Unit = {
+  /**
+    * The county of every city, by cityID.
+    */
+  def parseRelation(): Map[Int, Int] = {
     profile("parse city") {
-      cityIndex.entities.foreach(entity => {
+      // the cities are independent, the parallel collection spreads them over the fork/join pool
+      cityIndex.entities.par.map { entity =>
         val city = entity.asInstanceOf[USCityEntity]
-        val countyID = findCounty(city)
-        cityToCountyMap += city.cityID -> countyID
-      })
+        city.cityID -> findCounty(city)
+      }.seq.toMap
     }
   }
 
+  /**
+    * The county of the same state that holds the largest part of the city, or 0.
+    * The prepared county shapes skip the counties that miss the city, and the intersection of those that hold
+    * all of it: only the counties crossing the city boundary pay for a polygon intersection.
+    */
   def findCounty(city: USCityEntity): Int = {
-    countyIndex.search(city.geometry).foldLeft((0, 0.0))((p, entity) => {
-      if (entity.asInstanceOf[USCountyEntity].stateID != city.stateID) {
-        p
-      } else {
-        val area = entity.geometry.intersection(city.geometry).getArea
-        if (area > p._2) (entity.asInstanceOf[USCountyEntity].countyID, area)
-        else p
+    val cityArea = city.geometry.getArea
+    var best = (0, 0.0)
+    countyIndex.searchPositions(city.geometry.getEnvelopeInternal).foreach { position =>
+      val county = countyIndex.entities(position).asInstanceOf[USCountyEntity]
+      if (county.stateID == city.stateID && best._2 < cityArea) {
+        val prepared = countyIndex.prepared(position)
+        if (prepared.intersects(city.geometry)) {
+          val area = if (prepared.covers(city.geometry)) cityArea else county.geometry.intersection(city.geometry).getArea
+          if (area > best._2) best = (county.countyID, area)
+        }
       }
-    })._1
+    }
+    best._1
   }
 
-  def writeRelation(): Unit = {
-    writeGeoProperty("state.json", annotate(stateIndex.entities))
-    writeGeoProperty("county.json", annotate(countyIndex.entities))
-    writeGeoProperty("city.json", annotate(cityIndex.entities))
+  def writeRelation(cityToCountyMap: Map[Int, Int]): Unit = {
+    writeGeoProperty("state.json", annotate(stateIndex.entities, cityToCountyMap))
+    writeGeoProperty("county.json", annotate(countyIndex.entities, cityToCountyMap))
+    writeGeoProperty("city.json", annotate(cityIndex.entities, cityToCountyMap))
   }
 
-  def annotate(entities: Seq[IUSGeoJSONEntity]): Seq[String] = {
+  /**
+    * The annotated features, in geoID order, produced lazily a chunk at a time.
+    */
+  def annotate(entities: Seq[IUSGeoJSONEntity], cityToCountyMap: Map[Int, Int]): Iterator[String] = {
     val Unknown = "Unknown"
-    def getStateName(stateID: Int): String = stateIndex.entities.find(_.stateID == stateID).map(_.name).getOrElse(Unknown)
-    def getCountyName(stateID: Int, countyID: Int): String =
-      countyIndex.entities.map(_.asInstanceOf[USCountyEntity]).
-        find(county => county.stateID == stateID && county.countyID == countyID).map(_.name).getOrElse(Unknown)
-
-    entities.sortBy(_.geoID).map(entity => entity match {
+    // the first entity of a key wins, as a linear find would do
+    val stateNames: Map[Int, String] = stateIndex.entities.reverseIterator.map(s => s.stateID -> s.name).toMap
+    val countyNames: Map[(Int, Int), String] = countyIndex.entities.reverseIterator.map(_.asInstanceOf[USCountyEntity])
+      .map(county => (county.stateID, county.countyID) -> county.name).toMap
+    def getStateName(stateID: Int): String = stateNames.getOrElse(stateID, Unknown)
+    def getCountyName(stateID: Int, countyID: Int): String = countyNames.getOrElse((stateID, countyID), Unknown)
+
+    def toFeature(entity: IUSGeoJSONEntity): String = entity match {
       case e: USStateEntity =>
         writeGeoJsonFeature(e.geometry, e.toPropertyMap)
       case e: USCountyEntity =>
@@ -109,29 +128,28 @@ object USHierarchyBuilder {
                             e.copy(countyID = e.stateID * 1000 + countyID,
                                    stateName = getStateName(e.stateID),
                                    countyName = getCountyName(e.stateID, countyID)).toPropertyMap)
-    })
-  }
-
+    }
 
-  val writer = new GeoJSONWriter()
+    entities.sortBy(_.geoID).grouped(WriteChunkSize).flatMap(chunk => chunk.par.map(toFeature).seq)
+  }
 
-  //TODO convert to stream to save a big chunk of memory
   def writeGeoJsonFeature(geometry: Geometry, propertyMap: Map[String, AnyRef]): String = {
-    new Feature(writer.write(geometry), propertyMap.asJava).toString
+    // a writer per feature, the features are written from several threads
+    new Feature(new GeoJSONWriter().write(geometry), propertyMap.asJava).toString
   }
 
-  def writeGeoProperty(filePath: String, geojsonString: Seq[String]): Unit = {
+  def writeGeoProperty(filePath: String, geojsonString: Iterator[String]): Unit = {
     val file = new File(filePath)
     val bw = new BufferedWriter(new FileWriter(file))
     bw.write("{ \"type\": \"FeatureCollection\",")
     bw.newLine()
     bw.write("\"features\": [")
     bw.newLine()
-    bw.write(geojsonString.head.toString)
-    geojsonString.tail.foreach {
+    if (geojsonString.hasNext) bw.write(geojsonString.next())
+    geojsonString.foreach {
       json =>
         bw.newLine()
-        bw.write("," + json.toString)
+        bw.write("," + json)
     }
     bw.newLine()
     bw.write(']')
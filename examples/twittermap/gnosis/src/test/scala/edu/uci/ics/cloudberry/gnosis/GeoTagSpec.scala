@@ -1,9 +1,162 @@
 package edu.uci.ics.cloudberry.gnosis
 
+import java.io.File
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+
+import com.vividsolutions.jts.geom.Envelope
+import edu.uci.ics.cloudberry.util.Rectangle
 import org.scalatest.{FlatSpec, Matchers}
 
 class GeoTagSpec extends FlatSpec with Matchers {
+
+  def county(countyID: Int, polygon: String): String =
+    s"""{"type":"Feature","properties":{"geoID":"$countyID","stateID":1,"stateName":"S","countyID":$countyID,
+       |"name":"c$countyID","area":1.0},"geometry":{"type":"Polygon","coordinates":[$polygon]}}""".stripMargin
+
+  // an L shape whose envelope holds the whole square 2, and a small square 3 nested inside square 2
+  val countiesJson: String = Seq(
+    county(1, "[[0,0],[4,0],[4,1],[1,1],[1,4],[0,4],[0,0]]"),
+    county(2, "[[2,2],[4,2],[4,4],[2,4],[2,2]]"),
+    county(3, "[[2.5,2.5],[3,2.5],[3,3],[2.5,3],[2.5,2.5]]")
+  ).mkString("""{"type":"FeatureCollection","features":[""", ",", "]}")
+
   "A Geo Index" should "geo tag a twitter shape" in {
+    val index = new USGeoJSONIndex()
+    index.loadShape(countiesJson)(IUSGeoJSONEntity.apply)
+
+    def tag(longitude: Double, latitude: Double): Option[Int] =
+      index.searchPoint(longitude, latitude).map(_.asInstanceOf[USCountyEntity].countyID)
+
+    tag(0.5, 3) shouldBe Some(1)
+    tag(3.5, 3.5) shouldBe Some(2)
+    tag(2.7, 2.7) shouldBe Some(3)
+    // inside the envelope of the L shape but outside every polygon
+    tag(1.5, 1.5) shouldBe None
+    tag(5, 5) shouldBe None
+    // the shared corner of 1 and nothing else: boundaries count as covered
+    tag(4, 0) shouldBe Some(1)
+  }
+
+  it should "answer point lookups from its grid as the exact test does" in {
+    val index = new USGeoJSONIndex()
+    index.loadShape(countiesJson)(IUSGeoJSONEntity.apply)
+    // a coarse grid, so that it has owned, empty and boundary cells
+    index.buildPointRaster(maxCells = 16)
+
+    for (x <- -10 to 50; y <- -10 to 50) {
+      val (longitude, latitude) = (x * 0.1, y * 0.1)
+      index.searchPoint(longitude, latitude) shouldEqual index.searchPointExact(longitude, latitude)
+    }
+  }
+
+  "A Point Batch" should "tag every point of a batch as the single lookups do" in {
+    val index = new USGeoJSONIndex()
+    index.loadShape(countiesJson)(IUSGeoJSONEntity.apply)
+    index.buildPointRaster(maxCells = 16)
+
+    // large enough to be split across the fork/join pool
+    val random = new scala.util.Random(42)
+    val size = PointBatch.SequentialThreshold * 3 + 7
+    val longitudes = Array.fill(size)(random.nextDouble() * 6 - 1)
+    val latitudes = Array.fill(size)(random.nextDouble() * 6 - 1)
+    val results = new Array[Int](size)
+    PointBatch.run(longitudes, latitudes, results)(index.locatePoint)
+
+    results.indices.foreach(i => results(i) shouldBe index.locatePoint(longitudes(i), latitudes(i)))
+    PointBatch.spatialOrder(longitudes, latitudes).sorted shouldEqual results.indices.toArray
+  }
+
+  "A Shape Snapshot" should "keep the features of its GeoJSON source" in {
+    val source = File.createTempFile("counties", ".json")
+    val snapshot = ShapeSnapshot.snapshotOf(source)
+    try {
+      Files.write(source.toPath, countiesJson.getBytes(StandardCharsets.UTF_8))
+      ShapeSnapshot.find(source) shouldBe None
+
+      ShapeSnapshot.write(source) shouldBe 3
+      ShapeSnapshot.find(source) shouldBe Some(snapshot)
+      val expected = ShapeSnapshot.readGeoJSON(source)
+      val actual = ShapeSnapshot.load(source)
+      actual.map(_._1) shouldEqual expected.map(_._1)
+      actual.map(_._2).zip(expected.map(_._2)).foreach { case (a, e) => a.equalsExact(e) shouldBe true }
+
+      // a newer source makes the snapshot stale
+      source.setLastModified(snapshot.lastModified() + 2000)
+      ShapeSnapshot.find(source) shouldBe None
+    } finally {
+      source.delete()
+      snapshot.delete()
+    }
+  }
+
+  "A US Geo Gnosis" should "tag cities by name as the linear scan of cityByNameList did" in {
+    def square(x: Double, y: Double, size: Double): String =
+      s"[[$x,$y],[${x + size},$y],[${x + size},${y + size}],[$x,${y + size}],[$x,$y]]"
+
+    def feature(properties: String, polygon: String): String =
+      s"""{"type":"Feature","properties":{$properties},"geometry":{"type":"Polygon","coordinates":[$polygon]}}"""
+
+    def collection(features: Seq[String]): File = {
+      val file = File.createTempFile("shapes", ".json")
+      file.deleteOnExit()
+      Files.write(file.toPath, features.mkString("""{"type":"FeatureCollection","features":[""", ",", "]}")
+        .getBytes(StandardCharsets.UTF_8))
+      file
+    }
+
+    val states = Seq((17, "Illinois"), (29, "Missouri"), (41, "Oregon"), (23, "Maine"))
+    // the same names across states, and twice within Illinois with overlapping envelopes
+    val cities = Seq(
+      (1, "Springfield", 17, square(0, 0, 2)),
+      (2, "Springfield", 17, square(1, 1, 2)),
+      (3, "Springfield", 29, square(10, 10, 2)),
+      (4, "Portland", 41, square(20, 0, 2)),
+      (5, "Portland", 23, square(20, 0, 3)),
+      (6, "Salem", 41, square(30, 0, 1)))
+    val stateName = states.toMap
+    val gnosis = new USGeoGnosis(Map(
+      StateLevel -> collection(states.map { case (id, name) =>
+        feature(s""""geoID":"$id","stateID":$id,"name":"$name","area":1.0""", square(id, 50, 1))
+      }),
+      CountyLevel -> collection(states.map { case (id, name) =>
+        feature(s""""geoID":"$id","stateID":$id,"stateName":"$name","countyID":$id,"name":"c$id","area":1.0""",
+                square(id, 60, 1))
+      }),
+      CityLevel -> collection(cities.map { case (id, name, state, polygon) =>
+        feature(s""""geoID":"$id","stateID":$state,"stateName":"${stateName(state)}","countyID":$state,""" +
+                s""""countyName":"c$state","cityID":$id,"name":"$name","landArea":1.0,"waterArea":1.0""", polygon)
+      })))
+
+    // the lookups before the name index
+    def linearCity(name: String, abbr: String): Option[USGeoGnosis.USGeoTagInfo] =
+      gnosis.cityByNameList.get(name).flatMap(
+        list => list.find(_.stateName == USGeoGnosis.StateAbbr2FullNameMap.getOrElse(abbr, "")).map(USGeoGnosis.USGeoTagInfo(_)))
+
+    def linearNeighborhood(name: String, rectangle: Rectangle): Option[USGeoGnosis.USGeoTagInfo] = {
+      val box = new Envelope(rectangle.swLog, rectangle.neLog, rectangle.swLat, rectangle.neLat)
+      gnosis.cityByNameList.get(name).flatMap(
+        list => list.find(_.geometry.getEnvelopeInternal.covers(box)).map(USGeoGnosis.USGeoTagInfo(_)))
+    }
+
+    val names = Seq("Springfield", "Portland", "Salem", "Irvine")
+    for (name <- names; abbr <- Seq("IL", "MO", "OR", "ME", "CA", "XX")) {
+      gnosis.tagCity(name, abbr) shouldEqual linearCity(name, abbr)
+      Option(gnosis.tagCityJson(name, abbr)) shouldEqual linearCity(name, abbr).map(_.toString)
+    }
+    gnosis.tagCity("Springfield", "MO").flatMap(_.cityID) shouldBe Some(3)
+    gnosis.tagCity("Portland", "ME").flatMap(_.cityID) shouldBe Some(5)
+
+    val corners = Seq(-0.5, 0.5, 1.5, 2.5, 10.5, 20.5, 21.5, 22.5, 30.5)
+    for (name <- names; x1 <- corners; x2 <- corners; y1 <- Seq(0.5, 1.5, 2.5, 10.5); y2 <- Seq(0.5, 1.8, 11.5)) {
+      // the corners in either order, as a tweet's bounding box may give them
+      val rectangle = Rectangle(x1, y1, x2, y2)
+      gnosis.tagNeighborhood(name, rectangle) shouldEqual linearNeighborhood(name, rectangle)
+      Option(gnosis.tagNeighborhoodJson(name, rectangle)) shouldEqual linearNeighborhood(name, rectangle).map(_.toString)
+    }
+    // the first of the name in cityByNameList whose envelope covers the box, which is the last one loaded
+    gnosis.tagNeighborhood("Springfield", Rectangle(1.5, 1.5, 1.8, 1.8)).flatMap(_.cityID) shouldBe Some(2)
+    gnosis.tagNeighborhood("Portland", Rectangle(20.5, 0.5, 21.5, 1.5)).flatMap(_.cityID) shouldBe Some(5)
   }
 
   "A Relation Resolver" should "get children" in {
@@ -0,0 +1,98 @@
+package edu.uci.ics.cloudberry.gnosis
+
+import org.scalatest.{FlatSpec, Matchers}
+
+class USHierarchyBuilderSpec extends FlatSpec with Matchers {
+
+  def box(x1: Double, y1: Double, x2: Double, y2: Double): String =
+    s"""{"type":"Polygon","coordinates":[[[$x1,$y1],[$x2,$y1],[$x2,$y2],[$x1,$y2],[$x1,$y1]]]}"""
+
+  def collection(features: Seq[String]): String =
+    features.mkString("""{"type":"FeatureCollection","features":[""", ",", "]}")
+
+  def state(id: String, geometry: String): String =
+    s"""{"type":"Feature","properties":{"GEO_ID":"0400000US$id","STATE":"$id","NAME":"State $id",
+       |"CENSUSAREA":10.5},"geometry":$geometry}""".stripMargin
+
+  def county(stateID: String, id: String, geometry: String): String =
+    s"""{"type":"Feature","properties":{"GEO_ID":"0500000US$stateID$id","STATE":"$stateID","COUNTY":"$id",
+       |"NAME":"County $stateID$id","CENSUSAREA":5.5},"geometry":$geometry}""".stripMargin
+
+  def city(stateID: String, id: String, geometry: String): String =
+    s"""{"type":"Feature","properties":{"AFFGEOID":"1600000US$stateID$id","STATEFP":"$stateID","PLACEFP":"$id",
+       |"GEOID":"$stateID$id","NAME":"City $stateID$id","ALAND":1.5,"AWATER":0.5},"geometry":$geometry}""".stripMargin
+
+  // two states side by side, the first one cut in two counties
+  val states = Seq(state("01", box(0, 0, 10, 10)), state("02", box(10, 0, 20, 10)))
+  val counties = Seq(
+    county("01", "001", box(0, 0, 5, 10)),
+    county("01", "002", box(5, 0, 10, 10)),
+    county("02", "001", box(10, 0, 20, 10)))
+  val cities = Seq(
+    // inside a county
+    city("01", "00101", box(1, 1, 2, 2)),
+    // mostly in the second county
+    city("01", "00102", box(4, 1, 7, 2)),
+    // only over a county of another state
+    city("01", "00103", box(12, 1, 13, 2)),
+    // outside every county
+    city("01", "00104", box(30, 30, 31, 31)),
+    // across the state line, its county is the one of its own state
+    city("02", "00201", box(9, 5, 11, 6)))
+
+  USHierarchyBuilder.stateIndex.loadShape(collection(states))(RawEntityBuilder.apply)
+  USHierarchyBuilder.countyIndex.loadShape(collection(counties))(RawEntityBuilder.apply)
+  USHierarchyBuilder.cityIndex.loadShape(collection(cities))(RawEntityBuilder.apply)
+
+  // the relation as the sequential builder computed it, intersecting every candidate county
+  def previousFindCounty(city: USCityEntity): Int = {
+    USHierarchyBuilder.countyIndex.search(city.geometry).foldLeft((0, 0.0)) { (p, entity) =>
+      val county = entity.asInstanceOf[USCountyEntity]
+      if (county.stateID != city.stateID) {
+        p
+      } else {
+        val area = county.geometry.intersection(city.geometry).getArea
+        if (area > p._2) (county.countyID, area) else p
+      }
+    }._1
+  }
+
+  // the features as the sequential builder wrote them, looking the names up with linear finds
+  def previousAnnotate(entities: Seq[IUSGeoJSONEntity], cityToCountyMap: Map[Int, Int]): Seq[String] = {
+    def getStateName(stateID: Int): String =
+      USHierarchyBuilder.stateIndex.entities.find(_.stateID == stateID).map(_.name).getOrElse("Unknown")
+    def getCountyName(stateID: Int, countyID: Int): String =
+      USHierarchyBuilder.countyIndex.entities.map(_.asInstanceOf[USCountyEntity])
+        .find(county => county.stateID == stateID && county.countyID == countyID).map(_.name).getOrElse("Unknown")
+
+    entities.sortBy(_.geoID).map {
+      case e: USStateEntity =>
+        USHierarchyBuilder.writeGeoJsonFeature(e.geometry, e.toPropertyMap)
+      case e: USCountyEntity =>
+        USHierarchyBuilder.writeGeoJsonFeature(e.geometry, e.copy(stateName = getStateName(e.stateID),
+                                                                  countyID = e.stateID * 1000 + e.countyID).toPropertyMap)
+      case e: USCityEntity =>
+        val countyID = cityToCountyMap.getOrElse(e.cityID, 0)
+        USHierarchyBuilder.writeGeoJsonFeature(e.geometry,
+                                               e.copy(countyID = e.stateID * 1000 + countyID,
+                                                      stateName = getStateName(e.stateID),
+                                                      countyName = getCountyName(e.stateID, countyID)).toPropertyMap)
+    }
+  }
+
+  "USHierarchyBuilder" should "find the county of every city as the sequential builder did" in {
+    val cityToCountyMap = USHierarchyBuilder.parseRelation()
+    cityToCountyMap shouldEqual Map(100101 -> 1, 100102 -> 2, 100103 -> 0, 100104 -> 0, 200201 -> 1)
+    USHierarchyBuilder.cityIndex.entities.map(_.asInstanceOf[USCityEntity]).foreach { city =>
+      cityToCountyMap(city.cityID) shouldEqual previousFindCounty(city)
+    }
+  }
+
+  it should "write the same features as the sequential builder" in {
+    val cityToCountyMap = USHierarchyBuilder.parseRelation()
+    Seq(USHierarchyBuilder.stateIndex, USHierarchyBuilder.countyIndex, USHierarchyBuilder.cityIndex).foreach { index =>
+      USHierarchyBuilder.annotate(index.entities, cityToCountyMap).toSeq shouldEqual
+        previousAnnotate(index.entities, cityToCountyMap)
+    }
+  }
+}
@@ -0,0 +1,164 @@
+package edu.uci.ics.cloudberry.noah
+
+import java.io.Writer
+import java.util.concurrent.atomic.AtomicReference
+import java.util.concurrent.{ArrayBlockingQueue, BlockingQueue, CopyOnWriteArrayList, Semaphore, TimeUnit}
+import java.util.function.LongSupplier
+
+import edu.uci.ics.cloudberry.noah.metrics.IngestionMetrics
+
+import scala.util.control.NonFatal
+
+/**
+  * A reader -> N transform workers -> single writer pipeline over text lines.
+  *
+  * The calling thread reads, the workers run `transform` (parse + geotag), and one writer thread owns the output,
+  * so nothing else touches `out`. At most `capacity` lines are in flight, which bounds both queues and the
+  * re-ordering window. With `preserveOrder` the writer emits results in input order, otherwise as they complete.
+  * An empty transform result means nothing to write for that line.
+  *
+  * The first thread to fail interrupts the others, and the calling thread only waits with a timeout, so a dead
+  * writer or worker fails the run instead of hanging it.
+  */
+class StreamingTagPipeline(workerNumber: Int, capacity: Int, preserveOrder: Boolean)(transform: String => String) {
+
+  import StreamingTagPipeline._
+
+  require(workerNumber > 0, "workerNumber should be positive")
+  require(capacity > 0, "capacity should be positive")
+
+  /**
+    * Runs the pipeline until `lines` is exhausted and every result is written.
+    *
+    * @return the number of records written to `out`
+    */
+  def run(lines: Iterator[String], out: Writer): Long = {
+    val inFlight = new Semaphore(capacity)
+    val inQueue = new ArrayBlockingQueue[Item](capacity)
+    val outQueue = new ArrayBlockingQueue[Item](capacity)
+    val failure = new AtomicReference[Throwable]()
+    val threads = new Threads(failure)
+    var written = 0L
+    IngestionMetrics.gauge("tag.inflight", new LongSupplier {
+      override def getAsLong: Long = capacity - inFlight.availablePermits()
+    })
+
+    val workers = (1 to workerNumber).map { i =>
+      threads.start(s"tag-worker-$i") {
+        var item = inQueue.take()
+        while (item ne EndOfInput) {
+          val result = try {
+            transform(item.line)
+          } catch {
+            case NonFatal(e) => ""
+          }
+          outQueue.put(Item(item.seq, if (result == null) "" else result))
+          item = inQueue.take()
+        }
+        outQueue.put(EndOfInput)
+      }
+    }
+
+    val writer = threads.start("tag-writer") {
+      def emit(result: String): Unit = {
+        if (result.length > 0) {
+          out.write(result)
+          out.write('\n')
+          written += 1
+        }
+        inFlight.release()
+      }
+
+      // at most `capacity` lines are in flight, so seq % capacity never collides inside the window
+      val pending = new Array[String](capacity)
+      var next = 0L
+      var finished = 0
+      while (finished < workerNumber) {
+        val item = outQueue.take()
+        if (item eq EndOfInput) {
+          finished += 1
+        } else if (!preserveOrder) {
+          emit(item.line)
+        } else {
+          pending((item.seq % capacity).toInt) = item.line
+          var slot = (next % capacity).toInt
+          while (pending(slot) != null) {
+            emit(pending(slot))
+            pending(slot) = null
+            next += 1
+            slot = (next % capacity).toInt
+          }
+        }
+      }
+      out.flush()
+    }
+
+    try {
+      var seq = 0L
+      lines.foreach { line =>
+        while (!inFlight.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+          rethrow(failure)
+        }
+        offer(inQueue, Item(seq, line), failure)
+        seq += 1
+      }
+      workers.foreach(_ => offer(inQueue, EndOfInput, failure))
+    } catch {
+      case e: Throwable =>
+        failure.compareAndSet(null, e)
+        threads.interruptAll()
+    }
+    workers.foreach(_.join())
+    writer.join()
+    rethrow(failure)
+    written
+  }
+}
+
+object StreamingTagPipeline {
+
+  private case class Item(seq: Long, line: String)
+
+  private val EndOfInput = Item(-1, null)
+
+  // the threads of one run; the first one to fail records its failure and interrupts the others
+  private class Threads(failure: AtomicReference[Throwable]) {
+    private val started = new CopyOnWriteArrayList[Thread]()
+
+    def start(name: String)(body: => Unit): Thread = {
+      val thread = new Thread(new Runnable {
+        override def run(): Unit = {
+          try {
+            body
+          } catch {
+            case e: Throwable =>
+              if (failure.compareAndSet(null, e)) interruptAll()
+          }
+        }
+      }, name)
+      thread.setDaemon(true)
+      started.add(thread)
+      thread.start()
+      thread
+    }
+
+    def interruptAll(): Unit = {
+      val iterator = started.iterator()
+      while (iterator.hasNext) {
+        val thread = iterator.next()
+        if (thread ne Thread.currentThread()) thread.interrupt()
+      }
+    }
+  }
+
+  private def offer(queue: BlockingQueue[Item], item: Item, failure: AtomicReference[Throwable]): Unit = {
+    while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+      rethrow(failure)
+    }
+  }
+
+  private def rethrow(failure: AtomicReference[Throwable]): Unit = {
+    val e = failure.get()
+    if (e != null) throw e
+  }
+}
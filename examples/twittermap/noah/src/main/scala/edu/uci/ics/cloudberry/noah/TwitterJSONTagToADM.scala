@@ -1,16 +1,14 @@
 package edu.uci.ics.cloudberry.noah
 
-import java.io.File
-import java.util.concurrent.Executors
+import java.io._
+import java.nio.charset.StandardCharsets
 
 import edu.uci.ics.cloudberry.gnosis._
-import edu.uci.ics.cloudberry.noah.adm.Tweet
+import edu.uci.ics.cloudberry.noah.adm.{Tweet, UnknownPlaceException}
+import edu.uci.ics.cloudberry.noah.metrics.IngestionMetrics
 import edu.uci.ics.cloudberry.util.Profile._
-import twitter4j.TwitterObjectFactory
 
 import scala.collection.mutable
-import scala.collection.mutable.ArrayBuffer
-import scala.concurrent.{Await, ExecutionContext, Future}
 
 object TwitterJSONTagToADM {
   // TODO reserve all the fields and just replace the date and geo location to different part.
@@ -19,12 +17,18 @@ object TwitterJSONTagToADM {
   val shapeMap = mutable.Map.empty[TypeLevel, String]
   var threadNumber = 2
   var isDebug = false
-  val bufferSize = 100
+  var queueSize = 10000
+  var preserveOrder = false
+  var metricsPort = 0
+  val failed = IngestionMetrics.counter(IngestionMetrics.RECORDS_FAILED)
 
   val usage =
     """
-      |Usage: USHierarchyBuilder -state /path/to/state.json -county /path/to/county.json -city /path/to/city.json
+      |Usage: TwitterJSONTagToADM -state /path/to/state.json -county /path/to/county.json -city /path/to/city.json
+      |                           [-thread n] [-queue n] [-ordered] [-metrics-port n]
       |It will read the status from stdIn, geoTag city/county/state information, and then convert it to ADM format
+      |-thread: number of parse+geotag workers, -queue: records in flight, -ordered: keep the input order
+      |-metrics-port: serve the metrics on http://localhost:n/metrics, they are always published over JMX
     """.stripMargin
 
   def parseOption(list: List[String]) {
@@ -35,47 +39,50 @@ object TwitterJSONTagToADM {
       case "-county" :: value :: tail => shapeMap += CountyLevel -> value; parseOption(tail)
       case "-city" :: value :: tail => shapeMap += CityLevel -> value; parseOption(tail)
       case "-thread" :: value :: tail => threadNumber = value.toInt; parseOption(tail)
+      case "-queue" :: value :: tail => queueSize = value.toInt; parseOption(tail)
+      case "-ordered" :: tail => preserveOrder = true; parseOption(tail)
+      case "-metrics-port" :: value :: tail => metricsPort = value.toInt; parseOption(tail)
       case "-debug" :: value :: tail => isDebug = true; parseOption(tail)
       case option :: tail => System.err.println("unknown option:" + option); System.err.println(usage); System.exit(1);
     }
   }
 
-  def tagOneTweet(ln: String, usGeoGnosis: USGeoGnosis) = {
+  def toADM(ln: String, usGeoGnosis: USGeoGnosis): String = {
     try {
-      val adm = Tweet.toADM(TwitterObjectFactory.createStatus(ln), usGeoGnosis, true)
-      if (adm.length > 0) println(adm)
+      Tweet.toADM(ln, usGeoGnosis, true)
     } catch {
       case e: Throwable => {
+        if (!e.isInstanceOf[UnknownPlaceException]) {
+          failed.increment()
+        }
         if (isDebug) {
           e.printStackTrace(System.err)
           System.err.println(ln)
         }
+        ""
       }
     }
   }
 
-  //TODO make a parallel version of this one
+  def tagOneTweet(ln: String, usGeoGnosis: USGeoGnosis) = {
+    val adm = toADM(ln, usGeoGnosis)
+    if (adm.length > 0) println(adm)
+  }
+
   def main(args: Array[String]): Unit = {
     parseOption(args.toList)
+    IngestionMetrics.get().startHttp(metricsPort)
     val usGeoGnosis = profile("loading resource") {
       new USGeoGnosis(shapeMap.mapValues(new File(_)).toMap)
     }
 
-    val thpool = Executors.newFixedThreadPool(threadNumber)
-    implicit val ec: ExecutionContext = ExecutionContext.fromExecutor(thpool)
-
-    //We use a buffer to store a batch of records for multiple threads to process
-    val buffer = new ArrayBuffer[String](bufferSize)
-
-    for (ln <- scala.io.Source.stdin.getLines()) {
-      buffer += ln
-      if (buffer.size == bufferSize) {
-        val f = Future.traverse(buffer) { tw => Future(tagOneTweet(tw, usGeoGnosis)) }
-        Await.result(f, scala.concurrent.duration.Duration.Inf)
-        buffer.clear()
-      }
+    // only the pipeline's writer thread touches the output
+    val out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8), 1 << 16)
+    val pipeline = new StreamingTagPipeline(threadNumber, queueSize, preserveOrder)(toADM(_, usGeoGnosis))
+    val count = profile("tagging") {
+      pipeline.run(scala.io.Source.stdin.getLines(), out)
     }
-    buffer.foreach(tagOneTweet(_, usGeoGnosis))
-    thpool.shutdownNow()
+    out.flush()
+    System.err.println(s"# of converted records: $count")
   }
 }
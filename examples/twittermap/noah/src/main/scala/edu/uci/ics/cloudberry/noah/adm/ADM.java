@@ -1,18 +1,16 @@
 package edu.uci.ics.cloudberry.noah.adm;
 
 import edu.uci.ics.cloudberry.util.Rectangle;
-import org.apache.commons.lang3.StringEscapeUtils;
 import twitter4j.GeoLocation;
 import twitter4j.HashtagEntity;
 import twitter4j.UserMentionEntity;
 
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.Date;
 
 public class ADM {
 
+    // Not thread-safe, the date constructors go through AdmWriter instead
     public static final SimpleDateFormat ADMDateFormat = new SimpleDateFormat("yyyy-MM-dd");
     // ADM Time formatter needs to contain the timezone information to make AsterixDB consistent with Cloudberry
     public static final SimpleDateFormat ADMTimeFormat = new SimpleDateFormat("HH:mm:ss.SSSZZZZ");
@@ -22,7 +20,7 @@ public class ADM {
     }
 
     public static String mkInt64Constructor(long value) {
-        return mkADMConstructor("int64", String.valueOf(value));
+        return new AdmWriter(new StringBuilder(32)).int64(value).buffer().toString();
     }
     public static String mkInt8Constructor(String value) {
         return mkADMConstructor("int8", value);
@@ -31,38 +29,50 @@ public class ADM {
         return mkADMConstructor("int32", value);
     }
     public static String mkFloatConstructor(String value) {
-        return mkADMConstructor("float", (Float.toString(Float.parseFloat(value))) + "f");
+        return new AdmWriter(new StringBuilder(32)).float32(Float.parseFloat(value)).buffer().toString();
     }
-    public synchronized static String mkDateConstructor(Date jdate) {
-        return "date(\"" + ADMDateFormat.format(jdate) + "\")";
+    public static String mkDateConstructor(Date jdate) {
+        return new AdmWriter(new StringBuilder(20)).date(jdate.getTime()).buffer().toString();
     }
 
-    public synchronized static String mkDateTimeConstructor(Date jdate) {
-        return "datetime(\"" + ADMDateFormat.format(jdate) + "T" + ADMTimeFormat.format(jdate) + "\")";
+    public static String mkDateTimeConstructor(Date jdate) {
+        return new AdmWriter(new StringBuilder(48)).dateTime(jdate.getTime()).buffer().toString();
     }
 
     public static Rectangle coordinates2Rectangle(GeoLocation[][] boundingBoxCoordinates){
         if (boundingBoxCoordinates.length != 1 || boundingBoxCoordinates[0].length != 4) {
             throw new IllegalArgumentException("unknown boundingBoxCoordinates");
         }
+        double[] longitudes = new double[4];
+        double[] latitudes = new double[4];
+        for (int i = 0; i < 4; i++) {
+            longitudes[i] = boundingBoxCoordinates[0][i].getLongitude();
+            latitudes[i] = boundingBoxCoordinates[0][i].getLatitude();
+        }
+        return coordinates2Rectangle(1, 4, longitudes, latitudes);
+    }
+
+    /**
+     * The same as {@link #coordinates2Rectangle(GeoLocation[][])} on the points of the first polygon kept as
+     * primitive arrays, see {@link TweetRecord.PlaceFields}.
+     */
+    public static Rectangle coordinates2Rectangle(int polygonCount, int pointCount, double[] longitudes,
+                                                  double[] latitudes) {
+        if (polygonCount != 1 || pointCount != 4) {
+            throw new IllegalArgumentException("unknown boundingBoxCoordinates");
+        }
         // Twitter has some wield format historically, though it still rectangle, but it is not always
         // in (sw, se, ne,nw) order
-        double swLog = Collections.min(Arrays.asList(boundingBoxCoordinates[0][0].getLongitude(),
-                boundingBoxCoordinates[0][1].getLongitude(),
-                boundingBoxCoordinates[0][2].getLongitude(),
-                boundingBoxCoordinates[0][3].getLongitude()));
-        double swLat = Collections.min(Arrays.asList(boundingBoxCoordinates[0][0].getLatitude(),
-                boundingBoxCoordinates[0][1].getLatitude(),
-                boundingBoxCoordinates[0][2].getLatitude(),
-                boundingBoxCoordinates[0][3].getLatitude()));
-        double neLog = Collections.max(Arrays.asList(boundingBoxCoordinates[0][0].getLongitude(),
-                boundingBoxCoordinates[0][1].getLongitude(),
-                boundingBoxCoordinates[0][2].getLongitude(),
-                boundingBoxCoordinates[0][3].getLongitude()));
-        double neLat = Collections.max(Arrays.asList(boundingBoxCoordinates[0][0].getLatitude(),
-                boundingBoxCoordinates[0][1].getLatitude(),
-                boundingBoxCoordinates[0][2].getLatitude(),
-                boundingBoxCoordinates[0][3].getLatitude()));
+        double swLog = longitudes[0];
+        double swLat = latitudes[0];
+        double neLog = longitudes[0];
+        double neLat = latitudes[0];
+        for (int i = 1; i < 4; i++) {
+            swLog = Math.min(swLog, longitudes[i]);
+            swLat = Math.min(swLat, latitudes[i]);
+            neLog = Math.max(neLog, longitudes[i]);
+            neLat = Math.max(neLat, latitudes[i]);
+        }
 
         // AsterixDB is unhappy with this kind of point "rectangular"
         if (swLog == neLog && swLat == neLat){
@@ -78,20 +88,15 @@ public class ADM {
 
     public static String mkRectangleConstructor(GeoLocation[][] boundingBoxCoordinates)
             throws IllegalArgumentException {
-        StringBuilder sb = new StringBuilder("rectangle");
-
         Rectangle rectangle = coordinates2Rectangle(boundingBoxCoordinates);
-        sb.append("(\"").append(rectangle.swLog()).append(',')
-                .append(rectangle.swLat())
-                .append(' ')
-                .append(rectangle.neLog()).append(',')
-                .append(rectangle.neLat())
-                .append("\")");
-        return sb.toString();
+        return new AdmWriter(new StringBuilder(64)).rectangle(rectangle).buffer().toString();
     }
 
     public static void keyValueToSb(StringBuilder sb, String key, String val) {
-        sb.append(mkQuote(key)).append(":").append(val.replaceAll("\\s+", " "));
+        sb.append('"');
+        AdmWriter.appendEscaped(sb, key, false);
+        sb.append("\":");
+        AdmWriter.appendCollapsed(sb, val);
     }
 
     public static void keyValueToSbWithComma(StringBuilder sb, String key, String val) {
@@ -100,7 +105,8 @@ public class ADM {
     }
 
     public static String mkPoint(GeoLocation geoLocation) {
-        return "point(\"" + geoLocation.getLongitude() + "," + geoLocation.getLatitude() + "\")";
+        return new AdmWriter(new StringBuilder(48)).point(geoLocation.getLongitude(), geoLocation.getLatitude())
+                .buffer().toString();
     }
 
     public static String mkPoint(String lng, String lat) {
@@ -113,7 +119,9 @@ public class ADM {
             if (i > 0) {
                 sb.append(',');
             }
-            sb.append(mkQuote(hashtagEntities[i].getText()));
+            sb.append('"');
+            AdmWriter.appendEscaped(sb, hashtagEntities[i].getText(), false);
+            sb.append('"');
         }
         sb.append("}}");
         return sb.toString();
@@ -133,8 +141,10 @@ public class ADM {
     }
 
     public static String mkQuote(String str) {
-        StringBuilder sb = new StringBuilder();
-        sb.append('"').append(StringEscapeUtils.escapeJava(str)).append('"');
+        StringBuilder sb = new StringBuilder(str == null ? 6 : str.length() + 16);
+        sb.append('"');
+        AdmWriter.appendEscaped(sb, str, false);
+        sb.append('"');
         return sb.toString();
     }
 }
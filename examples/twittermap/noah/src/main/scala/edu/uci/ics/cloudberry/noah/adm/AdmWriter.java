@@ -0,0 +1,355 @@
+package edu.uci.ics.cloudberry.noah.adm;
+
+import edu.uci.ics.cloudberry.util.Rectangle;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+
+/**
+ * Appends an ADM record straight into a caller supplied {@link StringBuilder}, which can be reused across records.
+ * <p>
+ * The output is byte-identical to the {@link ADM} string helpers: strings are escaped as
+ * {@code StringEscapeUtils.escapeJava} does, and every value has its whitespace runs collapsed to one space
+ * as {@code ADM.keyValueToSb} does, but both happen inline while appending.
+ * Dates use the JVM default time zone like {@code ADM.ADMDateFormat}, through a lock-free per-day cache.
+ * <p>
+ * An instance is not thread-safe; use one writer (and one buffer) per thread.
+ */
+public class AdmWriter {
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private static final int MAX_DEPTH = 64;
+
+    private StringBuilder sb;
+    private int depth = 0;
+    // bit i is set once the record at depth i has a field, so the next field needs a comma
+    private long hasField = 0L;
+
+    public AdmWriter(StringBuilder sb) {
+        this.sb = sb;
+    }
+
+    public AdmWriter() {
+        this(new StringBuilder(1024));
+    }
+
+    public StringBuilder buffer() {
+        return sb;
+    }
+
+    /**
+     * Clears the buffer so the writer can start a new record.
+     */
+    public AdmWriter reset() {
+        sb.setLength(0);
+        depth = 0;
+        hasField = 0L;
+        return this;
+    }
+
+    public AdmWriter beginRecord() {
+        if (depth >= MAX_DEPTH) {
+            throw new IllegalStateException("ADM records nested deeper than " + MAX_DEPTH);
+        }
+        sb.append('{');
+        depth++;
+        hasField &= ~(1L << depth);
+        return this;
+    }
+
+    public AdmWriter endRecord() {
+        sb.append('}');
+        depth--;
+        return this;
+    }
+
+    /**
+     * Starts a field, the value is written by the next value call.
+     */
+    public AdmWriter key(String key) {
+        long bit = 1L << depth;
+        if ((hasField & bit) != 0) {
+            sb.append(',');
+        }
+        hasField |= bit;
+        sb.append('"');
+        appendEscaped(sb, key, false);
+        sb.append('"').append(':');
+        return this;
+    }
+
+    public AdmWriter string(CharSequence value) {
+        sb.append('"');
+        appendEscaped(sb, value, true);
+        sb.append('"');
+        return this;
+    }
+
+    public AdmWriter bool(boolean value) {
+        sb.append(value);
+        return this;
+    }
+
+    /**
+     * A plain number, as {@code String.valueOf(value)}.
+     */
+    public AdmWriter number(long value) {
+        sb.append(value);
+        return this;
+    }
+
+    public AdmWriter int64(long value) {
+        sb.append("int64(\"").append(value).append("\")");
+        return this;
+    }
+
+    public AdmWriter constructor(String constructor, CharSequence content) {
+        sb.append(constructor).append("(\"");
+        raw(content);
+        sb.append("\")");
+        return this;
+    }
+
+    public AdmWriter float32(float value) {
+        sb.append("float(\"").append(value).append("f\")");
+        return this;
+    }
+
+    public AdmWriter date(long epochMillis) {
+        DayWindow window = dateWindow;
+        if (!window.contains(epochMillis)) {
+            window = dateWindow = DayWindow.of(epochMillis);
+        }
+        sb.append("date(\"").append(window.date).append("\")");
+        return this;
+    }
+
+    public AdmWriter dateTime(long epochMillis) {
+        DayWindow window = dateTimeWindow;
+        if (!window.contains(epochMillis)) {
+            window = dateTimeWindow = DayWindow.of(epochMillis);
+        }
+        int millisOfDay = (int) Math.floorMod(epochMillis + window.offsetMillis, 86400000L);
+        sb.append("datetime(\"").append(window.date).append('T');
+        appendTwoDigits(millisOfDay / 3600000);
+        sb.append(':');
+        appendTwoDigits(millisOfDay / 60000 % 60);
+        sb.append(':');
+        appendTwoDigits(millisOfDay / 1000 % 60);
+        sb.append('.');
+        int millis = millisOfDay % 1000;
+        sb.append((char) ('0' + millis / 100));
+        appendTwoDigits(millis % 100);
+        sb.append(window.offset).append("\")");
+        return this;
+    }
+
+    public AdmWriter point(double longitude, double latitude) {
+        sb.append("point(\"").append(longitude).append(',').append(latitude).append("\")");
+        return this;
+    }
+
+    public AdmWriter point(CharSequence longitude, CharSequence latitude) {
+        sb.append("point(\"");
+        raw(longitude);
+        sb.append(',');
+        raw(latitude);
+        sb.append("\")");
+        return this;
+    }
+
+    public AdmWriter rectangle(Rectangle rectangle) {
+        sb.append("rectangle(\"").append(rectangle.swLog()).append(',').append(rectangle.swLat())
+                .append(' ')
+                .append(rectangle.neLog()).append(',').append(rectangle.neLat())
+                .append("\")");
+        return this;
+    }
+
+    public AdmWriter beginSet() {
+        sb.append("{{");
+        return this;
+    }
+
+    /**
+     * A set element, {@code index} is its position in the set.
+     */
+    public AdmWriter setString(int index, CharSequence value) {
+        if (index > 0) {
+            sb.append(',');
+        }
+        return string(value);
+    }
+
+    public AdmWriter setNumber(int index, long value) {
+        if (index > 0) {
+            sb.append(',');
+        }
+        sb.append(value);
+        return this;
+    }
+
+    public AdmWriter endSet() {
+        sb.append("}}");
+        return this;
+    }
+
+    /**
+     * An already formatted value, e.g. a pre-serialized geo tag, with its whitespace runs collapsed.
+     */
+    public AdmWriter raw(CharSequence value) {
+        appendCollapsed(sb, value);
+        return this;
+    }
+
+    /**
+     * Appends {@code value} escaped as {@code StringEscapeUtils.escapeJava} (commons-lang3) does.
+     *
+     * @param collapseSpaces collapse runs of spaces as {@code replaceAll("\\s+", " ")} would do on the escaped text
+     */
+    static void appendEscaped(StringBuilder sb, CharSequence value, boolean collapseSpaces) {
+        if (value == null) {
+            // escapeJava(null) is null, which a StringBuilder appends as "null"
+            sb.append("null");
+            return;
+        }
+        boolean lastSpace = false;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c == ' ') {
+                if (!collapseSpaces || !lastSpace) {
+                    sb.append(' ');
+                }
+                lastSpace = true;
+                continue;
+            }
+            lastSpace = false;
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\b':
+                    sb.append("\\b");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\f':
+                    sb.append("\\f");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                default:
+                    if (c < 32 || c > 0x7f) {
+                        sb.append("\\u").append(HEX[c >> 12]).append(HEX[(c >> 8) & 0xF])
+                                .append(HEX[(c >> 4) & 0xF]).append(HEX[c & 0xF]);
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+    }
+
+    /**
+     * Appends {@code value} with every run of whitespace replaced by a single space,
+     * the same as {@code replaceAll("\\s+", " ")}.
+     */
+    static void appendCollapsed(StringBuilder sb, CharSequence value) {
+        // a run may continue one that is already in the buffer
+        boolean lastSpace = sb.length() > 0 && sb.charAt(sb.length() - 1) == ' ';
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (isRegexWhitespace(c)) {
+                if (!lastSpace) {
+                    sb.append(' ');
+                    lastSpace = true;
+                }
+            } else {
+                sb.append(c);
+                lastSpace = false;
+            }
+        }
+    }
+
+    // the "\s" class of java.util.regex: [ \t\n\x0B\f\r]
+    private static boolean isRegexWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+    private void appendTwoDigits(int value) {
+        sb.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+    private static volatile DayWindow dateWindow = DayWindow.of(0L);
+    private static volatile DayWindow dateTimeWindow = DayWindow.of(0L);
+
+    /**
+     * A span of instants sharing one local date and one UTC offset in the default time zone.
+     * Instances are immutable, so publishing them through a volatile field is enough for thread-safety.
+     */
+    private static final class DayWindow {
+        private static final ZoneId ZONE = ZoneId.systemDefault();
+        private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+        final long start;
+        final long end;
+        final long offsetMillis;
+        final String date;
+        final String offset;
+
+        private DayWindow(long start, long end, long offsetMillis, String date, String offset) {
+            this.start = start;
+            this.end = end;
+            this.offsetMillis = offsetMillis;
+            this.date = date;
+            this.offset = offset;
+        }
+
+        boolean contains(long epochMillis) {
+            return start <= epochMillis && epochMillis < end;
+        }
+
+        static DayWindow of(long epochMillis) {
+            ZoneRules rules = ZONE.getRules();
+            Instant instant = Instant.ofEpochMilli(epochMillis);
+            ZoneOffset zoneOffset = rules.getOffset(instant);
+            LocalDate day = instant.atZone(ZONE).toLocalDate();
+            long start = day.atStartOfDay(ZONE).toInstant().toEpochMilli();
+            long end = day.plusDays(1).atStartOfDay(ZONE).toInstant().toEpochMilli();
+            ZoneOffsetTransition previous = rules.previousTransition(instant.plusMillis(1));
+            if (previous != null) {
+                start = Math.max(start, previous.getInstant().toEpochMilli());
+            }
+            ZoneOffsetTransition next = rules.nextTransition(instant);
+            if (next != null) {
+                end = Math.min(end, next.getInstant().toEpochMilli());
+            }
+            return new DayWindow(start, end, zoneOffset.getTotalSeconds() * 1000L,
+                    DATE_FORMAT.format(day), formatOffset(zoneOffset.getTotalSeconds()));
+        }
+
+        // RFC 822 zone as SimpleDateFormat "Z" prints it, e.g. -0800
+        private static String formatOffset(int totalSeconds) {
+            int minutes = Math.abs(totalSeconds) / 60;
+            StringBuilder sb = new StringBuilder(5);
+            sb.append(totalSeconds < 0 ? '-' : '+');
+            sb.append((char) ('0' + minutes / 600)).append((char) ('0' + minutes / 60 % 10));
+            sb.append((char) ('0' + minutes % 60 / 10)).append((char) ('0' + minutes % 10));
+            return sb.toString();
+        }
+    }
+}
@@ -1,7 +1,5 @@
 package edu.uci.ics.cloudberry.noah.adm;
 
-import twitter4j.GeoLocation;
-
 public class Place {
 
     public static String COUNTRY = "country";
@@ -13,17 +11,34 @@ public class Place {
     public static String BOUNDING_BOX = "bounding_box";
 
     public static String toADM(twitter4j.Place place) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("{");
-        ADM.keyValueToSbWithComma(sb, COUNTRY, ADM.mkQuote(place.getCountry()));
-        ADM.keyValueToSbWithComma(sb, COUNTRY_CODE, ADM.mkQuote(place.getCountry()));
-        ADM.keyValueToSbWithComma(sb, FULL_NAME, ADM.mkQuote(place.getFullName()));
-        ADM.keyValueToSbWithComma(sb, ID, ADM.mkQuote(String.valueOf(place.getId())));
-        ADM.keyValueToSbWithComma(sb, NAME, ADM.mkQuote(place.getName()));
-        ADM.keyValueToSbWithComma(sb, PLACE_TYPE, ADM.mkQuote(place.getPlaceType()));
-        ADM.keyValueToSb(sb, BOUNDING_BOX, ADM.mkRectangleConstructor(place.getBoundingBoxCoordinates()));
-        sb.append("}");
-        return sb.toString();
+        AdmWriter writer = new AdmWriter(new StringBuilder(256));
+        writeADM(writer, place);
+        return writer.buffer().toString();
+    }
+
+    public static void writeADM(AdmWriter writer, twitter4j.Place place) {
+        writer.beginRecord();
+        writer.key(COUNTRY).string(place.getCountry());
+        writer.key(COUNTRY_CODE).string(place.getCountry());
+        writer.key(FULL_NAME).string(place.getFullName());
+        writer.key(ID).string(String.valueOf(place.getId()));
+        writer.key(NAME).string(place.getName());
+        writer.key(PLACE_TYPE).string(place.getPlaceType());
+        writer.key(BOUNDING_BOX).rectangle(ADM.coordinates2Rectangle(place.getBoundingBoxCoordinates()));
+        writer.endRecord();
+    }
+
+    public static void writeADM(AdmWriter writer, TweetRecord.PlaceFields place) {
+        writer.beginRecord();
+        writer.key(COUNTRY).string(place.country);
+        writer.key(COUNTRY_CODE).string(place.country);
+        writer.key(FULL_NAME).string(place.fullName);
+        writer.key(ID).string(place.id);
+        writer.key(NAME).string(place.name);
+        writer.key(PLACE_TYPE).string(place.placeType);
+        writer.key(BOUNDING_BOX).rectangle(ADM.coordinates2Rectangle(place.boxPolygonCount, place.boxPointCount,
+                place.boxLongitudes, place.boxLatitudes));
+        writer.endRecord();
     }
 
 }
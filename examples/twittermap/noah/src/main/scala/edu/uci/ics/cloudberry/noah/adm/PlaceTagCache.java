@@ -0,0 +1,107 @@
+package edu.uci.ics.cloudberry.noah.adm;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import edu.uci.ics.cloudberry.gnosis.USGeoGnosis;
+import edu.uci.ics.cloudberry.noah.metrics.Counter;
+import edu.uci.ics.cloudberry.noah.metrics.IngestionMetrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The geo tags of the recently seen Twitter places, so that a place that shows up again skips the name and
+ * geometry lookups of {@link Tweet#textMatchPlace}. A place is keyed on its id, or on its names and bounding box
+ * when it has no id. Places without a tag are remembered too.
+ * <p>
+ * The cache is bounded and safe to share between tagging threads; hits and misses are counted per cache, and for
+ * all the caches in {@link IngestionMetrics}.
+ */
+public class PlaceTagCache {
+
+    public static final int DEFAULT_SIZE = 100000;
+
+    private static final String NO_TAG = "";
+    private static final Counter HITS = IngestionMetrics.counter(IngestionMetrics.PLACE_CACHE_HIT);
+    private static final Counter MISSES = IngestionMetrics.counter(IngestionMetrics.PLACE_CACHE_MISS);
+
+    private static volatile PlaceTagCache shared;
+
+    private final USGeoGnosis gnosis;
+    private final Cache<String, String> tags;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public PlaceTagCache(USGeoGnosis gnosis, int maxSize) {
+        this.gnosis = gnosis;
+        this.tags = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .concurrencyLevel(Runtime.getRuntime().availableProcessors())
+                .build();
+    }
+
+    /**
+     * The cache shared by the tagging threads of {@code gnosis}, a new gnosis starts a new one.
+     */
+    public static PlaceTagCache forGnosis(USGeoGnosis gnosis) {
+        PlaceTagCache cache = shared;
+        if (cache == null || cache.gnosis != gnosis) {
+            synchronized (PlaceTagCache.class) {
+                cache = shared;
+                if (cache == null || cache.gnosis != gnosis) {
+                    cache = new PlaceTagCache(gnosis, DEFAULT_SIZE);
+                    IngestionMetrics.gauge(IngestionMetrics.PLACE_CACHE_SIZE, cache::size);
+                    shared = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * @return the geo tag of the place as JSON, or null if it has none
+     */
+    public String tag(TweetRecord.PlaceFields place, long tweetId) {
+        String key = key(place);
+        String tag = tags.getIfPresent(key);
+        if (tag != null) {
+            hits.increment();
+            HITS.increment();
+        } else {
+            misses.increment();
+            MISSES.increment();
+            tag = Tweet.placeTag(place, tweetId, gnosis);
+            if (tag == null) {
+                tag = NO_TAG;
+            }
+            tags.put(key, tag);
+        }
+        return NO_TAG.equals(tag) ? null : tag;
+    }
+
+    public long size() {
+        return tags.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    static String key(TweetRecord.PlaceFields place) {
+        if (place.id != null) {
+            return place.id;
+        }
+        StringBuilder sb = new StringBuilder(64);
+        // everything placeTag reads
+        sb.append('\u0000').append(place.country).append('|').append(place.placeType)
+                .append('|').append(place.name).append('|').append(place.fullName)
+                .append('|').append(place.boxPolygonCount).append('x').append(place.boxPointCount);
+        for (int i = 0; i < Math.min(4, place.boxPointCount); i++) {
+            sb.append(',').append(place.boxLongitudes[i]).append(' ').append(place.boxLatitudes[i]);
+        }
+        return sb.toString();
+    }
+}
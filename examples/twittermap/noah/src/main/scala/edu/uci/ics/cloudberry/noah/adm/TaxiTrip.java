@@ -5,7 +5,9 @@ import java.io.*;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 public class TaxiTrip {
     public static String VENDOR_ID = "vendor_id";
@@ -43,6 +45,9 @@ public class TaxiTrip {
 
     public static String COMMA = ",";
 
+    // rows geotagged in one batch, both ends of every trip
+    public static int BATCH_SIZE = 8192;
+
     public static void toADMFile(String srcPath, NewYorkGnosis gnosis) {
         BufferedReader br;
         String line;
@@ -53,30 +58,15 @@ public class TaxiTrip {
             br = new BufferedReader(new FileReader(srcPath));
             br.readLine();      //skip first line
 
+            List<String[]> rows = new ArrayList<>(BATCH_SIZE);
             while ((line = br.readLine()) != null) {
-                StringBuilder sb = new StringBuilder();
-                sb.append("{");
-                String[] cols = line.split(COMMA);
-                ADM.keyValueToSbWithComma(sb, VENDOR_ID, ADM.mkInt8Constructor(cols[VENDOR_ID_INDEX]));
-                DateFormat formatter = new SimpleDateFormat("y-M-d H:m:s");
-                Date pickup_date = formatter.parse(cols[PICKUP_DATETIME_INDEX]);
-                ADM.keyValueToSbWithComma(sb, PICKUP_DATETIME, ADM.mkDateTimeConstructor(pickup_date));
-                Date dropoff_date = formatter.parse(cols[DROPOFF_DATETIME_INDEX]);
-                ADM.keyValueToSbWithComma(sb, DROPOFF_DATETIME, ADM.mkDateTimeConstructor(dropoff_date));
-                ADM.keyValueToSbWithComma(sb, PASSENGER_COUNT, ADM.mkInt32Constructor(cols[PASSENGER_COUNT_INDEX]));
-                ADM.keyValueToSbWithComma(sb, TRIP_DISTANCE, ADM.mkFloatConstructor(cols[TRIP_DISTANCE_INDEX]));
-                ADM.keyValueToSbWithComma(sb, PICKUP_LOCATION, ADM.mkPoint(cols[PICKUP_LONGITUDE_INDEX], cols[PICKUP_LATITUDE_INDEX]));
-                ADM.keyValueToSbWithComma(sb, DROPOFF_LOCATION, ADM.mkPoint(cols[DROPOFF_LONGITUDE_INDEX], cols[DROPOFF_LATITUDE_INDEX]));
-                ADM.keyValueToSbWithComma(sb, FARE_AMOUNT, ADM.mkFloatConstructor(cols[FARE_AMOUNT_INDEX]));
-                ADM.keyValueToSbWithComma(sb, TIP_AMOUNT, ADM.mkFloatConstructor(cols[TIP_AMOUNT_INDEX]));
-                ADM.keyValueToSbWithComma(sb, TOTAL_AMOUNT, ADM.mkFloatConstructor(cols[TOTAL_AMOUNT_INDEX]));
-                String pickup_geoTags = geoTag(cols[PICKUP_LONGITUDE_INDEX], cols[PICKUP_LATITUDE_INDEX], gnosis);
-                ADM.keyValueToSbWithComma(sb, PICKUP_GEO_TAG, pickup_geoTags);
-                String dropoff_geoTags = geoTag(cols[DROPOFF_LONGITUDE_INDEX], cols[DROPOFF_LATITUDE_INDEX], gnosis);
-                ADM.keyValueToSb(sb, DROPOFF_GEO_TAG, dropoff_geoTags);
-                sb.append("}\n");
-                osw.write(sb.toString());
+                rows.add(line.split(COMMA));
+                if (rows.size() == BATCH_SIZE) {
+                    writeBatch(rows, gnosis, osw);
+                    rows.clear();
+                }
             }
+            writeBatch(rows, gnosis, osw);
             br.close();
             osw.close();
             fos.close();
@@ -90,14 +80,53 @@ public class TaxiTrip {
 
     }
 
+    private static void writeBatch(List<String[]> rows, NewYorkGnosis gnosis, Writer writer)
+            throws IOException, ParseException {
+        // pickups at [0, n), dropoffs at [n, 2n)
+        int n = rows.size();
+        double[] longitudes = new double[2 * n];
+        double[] latitudes = new double[2 * n];
+        for (int i = 0; i < n; i++) {
+            String[] cols = rows.get(i);
+            longitudes[i] = Double.parseDouble(cols[PICKUP_LONGITUDE_INDEX]);
+            latitudes[i] = Double.parseDouble(cols[PICKUP_LATITUDE_INDEX]);
+            longitudes[n + i] = Double.parseDouble(cols[DROPOFF_LONGITUDE_INDEX]);
+            latitudes[n + i] = Double.parseDouble(cols[DROPOFF_LATITUDE_INDEX]);
+        }
+        int[] tags = new int[2 * n];
+        gnosis.tagPoints(longitudes, latitudes, tags);
 
-    public static String geoTag(String lng, String lat, NewYorkGnosis gnosis) {
+        DateFormat formatter = new SimpleDateFormat("y-M-d H:m:s");
         StringBuilder sb = new StringBuilder();
-        scala.Option<NewYorkGnosis.NYGeoTagInfo> info = gnosis.tagPoint(Double.parseDouble(lng), Double.parseDouble(lat));
-        if (info.isEmpty()) {
-            return "null";
+        for (int i = 0; i < n; i++) {
+            String[] cols = rows.get(i);
+            sb.setLength(0);
+            sb.append("{");
+            ADM.keyValueToSbWithComma(sb, VENDOR_ID, ADM.mkInt8Constructor(cols[VENDOR_ID_INDEX]));
+            Date pickup_date = formatter.parse(cols[PICKUP_DATETIME_INDEX]);
+            ADM.keyValueToSbWithComma(sb, PICKUP_DATETIME, ADM.mkDateTimeConstructor(pickup_date));
+            Date dropoff_date = formatter.parse(cols[DROPOFF_DATETIME_INDEX]);
+            ADM.keyValueToSbWithComma(sb, DROPOFF_DATETIME, ADM.mkDateTimeConstructor(dropoff_date));
+            ADM.keyValueToSbWithComma(sb, PASSENGER_COUNT, ADM.mkInt32Constructor(cols[PASSENGER_COUNT_INDEX]));
+            ADM.keyValueToSbWithComma(sb, TRIP_DISTANCE, ADM.mkFloatConstructor(cols[TRIP_DISTANCE_INDEX]));
+            ADM.keyValueToSbWithComma(sb, PICKUP_LOCATION, ADM.mkPoint(cols[PICKUP_LONGITUDE_INDEX], cols[PICKUP_LATITUDE_INDEX]));
+            ADM.keyValueToSbWithComma(sb, DROPOFF_LOCATION, ADM.mkPoint(cols[DROPOFF_LONGITUDE_INDEX], cols[DROPOFF_LATITUDE_INDEX]));
+            ADM.keyValueToSbWithComma(sb, FARE_AMOUNT, ADM.mkFloatConstructor(cols[FARE_AMOUNT_INDEX]));
+            ADM.keyValueToSbWithComma(sb, TIP_AMOUNT, ADM.mkFloatConstructor(cols[TIP_AMOUNT_INDEX]));
+            ADM.keyValueToSbWithComma(sb, TOTAL_AMOUNT, ADM.mkFloatConstructor(cols[TOTAL_AMOUNT_INDEX]));
+            ADM.keyValueToSbWithComma(sb, PICKUP_GEO_TAG, geoTagJson(tags[i], gnosis));
+            ADM.keyValueToSb(sb, DROPOFF_GEO_TAG, geoTagJson(tags[n + i], gnosis));
+            sb.append("}\n");
+            writer.write(sb.toString());
         }
-        sb.append(info.get().toString());
-        return sb.toString();
+    }
+
+    private static String geoTagJson(int tag, NewYorkGnosis gnosis) {
+        return tag < 0 ? "null" : gnosis.tagJson(tag);
+    }
+
+    public static String geoTag(String lng, String lat, NewYorkGnosis gnosis) {
+        String tag = gnosis.tagPointJson(Double.parseDouble(lng), Double.parseDouble(lat));
+        return tag == null ? "null" : tag;
     }
 }
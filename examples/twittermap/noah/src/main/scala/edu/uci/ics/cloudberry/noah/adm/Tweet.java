@@ -1,9 +1,14 @@
 package edu.uci.ics.cloudberry.noah.adm;
 
 import edu.uci.ics.cloudberry.gnosis.USGeoGnosis;
+import edu.uci.ics.cloudberry.noah.metrics.Counter;
+import edu.uci.ics.cloudberry.noah.metrics.IngestionMetrics;
+import edu.uci.ics.cloudberry.noah.metrics.LatencyHistogram;
 import twitter4j.GeoLocation;
 import twitter4j.Status;
 
+import java.io.IOException;
+
 public class Tweet {
     public static String CREATE_AT = "create_at";
     public static String ID = "id";
@@ -21,55 +26,118 @@ public class Tweet {
     public static String USER = "user";
     public static String PLACE = "place";
 
+    private static final LatencyHistogram PARSE_LATENCY = IngestionMetrics.latency(IngestionMetrics.PARSE);
+    private static final LatencyHistogram GEOTAG_LATENCY = IngestionMetrics.latency(IngestionMetrics.GEOTAG);
+    private static final LatencyHistogram ADM_BUILD_LATENCY = IngestionMetrics.latency(IngestionMetrics.ADM_BUILD);
+    private static final Counter PARSED = IngestionMetrics.counter(IngestionMetrics.RECORDS_PARSED);
+    private static final Counter UNKNOWN_PLACE = IngestionMetrics.counter(IngestionMetrics.UNKNOWN_PLACE);
+
+    // one reusable buffer and parser per tagging thread
+    private static final ThreadLocal<AdmWriter> WRITER = new ThreadLocal<AdmWriter>() {
+        @Override
+        protected AdmWriter initialValue() {
+            return new AdmWriter(new StringBuilder(4096));
+        }
+    };
+    private static final ThreadLocal<TweetJsonParser> PARSER = new ThreadLocal<TweetJsonParser>() {
+        @Override
+        protected TweetJsonParser initialValue() {
+            return new TweetJsonParser();
+        }
+    };
+
+    /**
+     * Converts a raw tweet JSON line without materializing a twitter4j {@link Status}.
+     *
+     * @throws IOException if the line is not a tweet
+     */
+    public static String toADM(String json, USGeoGnosis gnosis, boolean requireGeoField)
+            throws IOException, UnknownPlaceException {
+        long start = System.nanoTime();
+        TweetRecord tweet = PARSER.get().parse(json);
+        PARSE_LATENCY.recordSince(start);
+        PARSED.increment();
+        return toADM(tweet, gnosis, requireGeoField);
+    }
+
     public static String toADM(Status status, USGeoGnosis gnosis, boolean requireGeoField) throws UnknownPlaceException{
-        String geoTags = geoTag(status, gnosis, requireGeoField);
+        return toADM(new TweetRecord().fill(status), gnosis, requireGeoField);
+    }
+
+    public static String toADM(TweetRecord tweet, USGeoGnosis gnosis, boolean requireGeoField)
+            throws UnknownPlaceException {
+        long start = System.nanoTime();
+        String geoTags = geoTag(tweet, gnosis, requireGeoField);
+        GEOTAG_LATENCY.recordSince(start);
         if (geoTags == null && requireGeoField)
             return "";
-        StringBuilder sb = new StringBuilder();
-        sb.append("{");
-        ADM.keyValueToSbWithComma(sb, CREATE_AT, ADM.mkDateTimeConstructor(status.getCreatedAt()));
-        ADM.keyValueToSbWithComma(sb, ID, ADM.mkInt64Constructor(status.getId()));
-        ADM.keyValueToSbWithComma(sb, TEXT, ADM.mkQuote(status.getText()));
-        ADM.keyValueToSbWithComma(sb, IN_REPLY_TO_STATUS, ADM.mkInt64Constructor(status.getInReplyToStatusId()));
-        ADM.keyValueToSbWithComma(sb, IN_REPLY_TO_USER, ADM.mkInt64Constructor(status.getInReplyToUserId()));
-        ADM.keyValueToSbWithComma(sb, FAVORITE_COUNT, ADM.mkInt64Constructor(status.getFavoriteCount()));
-        ADM.keyValueToSbWithComma(sb, RETWEET_COUNT, ADM.mkInt64Constructor(status.getRetweetCount()));
-        ADM.keyValueToSbWithComma(sb, LANG, ADM.mkQuote(status.getLang()));
-        ADM.keyValueToSbWithComma(sb, IS_RETWEET, String.valueOf(status.isRetweet()));
-
-        if (status.getHashtagEntities().length > 0) {
-            ADM.keyValueToSbWithComma(sb, HASHTAG, ADM.mkStringSet(status.getHashtagEntities()));
-        }
-        if (status.getUserMentionEntities().length > 0) {
-            ADM.keyValueToSbWithComma(sb, USER_MENTION, ADM.mkStringSet(status.getUserMentionEntities()));
-        }
-        if (status.getPlace() != null) {
-            ADM.keyValueToSbWithComma(sb, PLACE, Place.toADM(status.getPlace()));
-        }
-        if (status.getGeoLocation() != null) {
-            ADM.keyValueToSbWithComma(sb, GEO_COORDINATE, ADM.mkPoint(status.getGeoLocation()));
-        } else if (status.getPlace() != null && status.getPlace().getPlaceType().equals("poi")) {
-            ADM.keyValueToSbWithComma(sb, GEO_COORDINATE, ADM.mkPoint(status.getPlace().getBoundingBoxCoordinates()[0][0]));
-        }
-        if(geoTags != null){
-            ADM.keyValueToSbWithComma(sb, GEO_TAG, geoTags);
-        }
-        ADM.keyValueToSb(sb, USER, User.toADM(status.getUser()));
-        sb.append("}");
-        return sb.toString();
+        start = System.nanoTime();
+        AdmWriter writer = WRITER.get().reset();
+        writeADM(writer, tweet, geoTags);
+        String adm = writer.buffer().toString();
+        ADM_BUILD_LATENCY.recordSince(start);
+        return adm;
+    }
+
+    public static void writeADM(AdmWriter writer, TweetRecord tweet, String geoTags) {
+        writer.beginRecord();
+        writer.key(CREATE_AT).dateTime(tweet.createdAt);
+        writer.key(ID).int64(tweet.id);
+        writer.key(TEXT).string(tweet.text);
+        writer.key(IN_REPLY_TO_STATUS).int64(tweet.inReplyToStatusId);
+        writer.key(IN_REPLY_TO_USER).int64(tweet.inReplyToUserId);
+        writer.key(FAVORITE_COUNT).int64(tweet.favoriteCount);
+        writer.key(RETWEET_COUNT).int64(tweet.retweetCount);
+        writer.key(LANG).string(tweet.lang);
+        writer.key(IS_RETWEET).bool(tweet.isRetweet);
+
+        if (tweet.hashtagCount > 0) {
+            writer.key(HASHTAG).beginSet();
+            for (int i = 0; i < tweet.hashtagCount; i++) {
+                writer.setString(i, tweet.hashtags[i]);
+            }
+            writer.endSet();
+        }
+        if (tweet.userMentionCount > 0) {
+            writer.key(USER_MENTION).beginSet();
+            for (int i = 0; i < tweet.userMentionCount; i++) {
+                writer.setNumber(i, tweet.userMentions[i]);
+            }
+            writer.endSet();
+        }
+        if (tweet.hasPlace) {
+            writer.key(PLACE);
+            Place.writeADM(writer, tweet.place);
+        }
+        if (tweet.hasGeoLocation) {
+            writer.key(GEO_COORDINATE).point(tweet.longitude, tweet.latitude);
+        } else if (tweet.hasPlace && "poi".equals(tweet.place.placeType)) {
+            writer.key(GEO_COORDINATE).point(firstBoxLongitude(tweet.place), tweet.place.boxLatitudes[0]);
+        }
+        if (geoTags != null) {
+            writer.key(GEO_TAG).raw(geoTags);
+        }
+        writer.key(USER);
+        User.writeADM(writer, tweet.user);
+        writer.endRecord();
     }
 
     public static String geoTag(Status status, USGeoGnosis gnosis, boolean requireGeoField) throws UnknownPlaceException{
+        return geoTag(new TweetRecord().fill(status), gnosis, requireGeoField);
+    }
+
+    public static String geoTag(TweetRecord tweet, USGeoGnosis gnosis, boolean requireGeoField)
+            throws UnknownPlaceException {
         StringBuilder sb = new StringBuilder();
-        if (textMatchPlace(sb, status, gnosis)) {
+        if (textMatchPlace(sb, tweet, gnosis)) {
             return sb.toString();
         }
-        GeoLocation location = status.getGeoLocation();
-        if (exactPointLookup(sb, location, gnosis)) {
+        if (tweet.hasGeoLocation && exactPointLookup(sb, tweet.longitude, tweet.latitude, gnosis)) {
             return sb.toString();
         }
         if(requireGeoField){
-            throw new UnknownPlaceException("unknown place:" + status.getPlace());
+            UNKNOWN_PLACE.increment();
+            throw new UnknownPlaceException("unknown place:" + (tweet.hasPlace ? tweet.place : null));
         }else{
             return null;
         }
@@ -79,66 +147,80 @@ public class Tweet {
         if (location == null) {
             return false;
         }
+        return exactPointLookup(sb, location.getLongitude(), location.getLatitude(), gnosis);
+    }
 
-        scala.Option<USGeoGnosis.USGeoTagInfo> info = gnosis.tagPoint(location.getLongitude(), location.getLatitude());
-        if (info.isEmpty()) {
+    protected static boolean exactPointLookup(StringBuilder sb, double longitude, double latitude, USGeoGnosis gnosis) {
+        String tag = gnosis.tagPointJson(longitude, latitude);
+        if (tag == null) {
             return false;
         }
-        sb.append(info.get().toString());
+        sb.append(tag);
         return true;
     }
 
     protected static boolean textMatchPlace(StringBuilder sb, Status status, USGeoGnosis gnosis) {
-        twitter4j.Place place = status.getPlace();
-        if (place == null) {
+        return textMatchPlace(sb, new TweetRecord().fill(status), gnosis);
+    }
+
+    protected static boolean textMatchPlace(StringBuilder sb, TweetRecord tweet, USGeoGnosis gnosis) {
+        if (!tweet.hasPlace) {
             return false;
         }
-        String country = place.getCountry();
-        if (!("United States").equals(country)) {
+        // places repeat a lot, their tags come from the cache
+        String tag = PlaceTagCache.forGnosis(gnosis).tag(tweet.place, tweet.id);
+        if (tag == null) {
             return false;
         }
-        scala.Option<USGeoGnosis.USGeoTagInfo> info;
-        String type = place.getPlaceType();
+        sb.append(tag);
+        return true;
+    }
+
+    /**
+     * The geo tag of a place from its names or its point, as JSON, or null if it has none.
+     */
+    static String placeTag(TweetRecord.PlaceFields place, long tweetId, USGeoGnosis gnosis) {
+        String country = place.country;
+        if (!("United States").equals(country)) {
+            return null;
+        }
+        String type = place.placeType;
         switch (type) {
             case "country":
-                return false;
+                return null;
             case "admin": // state level
-                return false;
+                return null;
             case "city":
-                int index = place.getFullName().indexOf(',');
+                int index = place.fullName.indexOf(',');
                 if (index < 0) {
-                    System.err.println("unknown neighborhood:" + place.getFullName());
-                    return false;
+                    System.err.println("unknown neighborhood:" + place.fullName);
+                    return null;
                 }
-                String stateAbbr = place.getFullName().substring(index + 1).trim();
-                String cityName = place.getName();
-                info = gnosis.tagCity(cityName, stateAbbr);
-                break;
+                String stateAbbr = place.fullName.substring(index + 1).trim();
+                String cityName = place.name;
+                return gnosis.tagCityJson(cityName, stateAbbr);
             case "neighborhood": // e.g. "The Las Vegas Strip, Paradise"
-                index = place.getFullName().indexOf(',');
+                index = place.fullName.indexOf(',');
                 if (index < 0) {
-                    System.err.println("unknown neighborhood:" + place.getFullName());
-                    return false;
+                    System.err.println("unknown neighborhood:" + place.fullName);
+                    return null;
                 }
-                cityName = place.getFullName().substring(index + 1).trim();
-                info = gnosis.tagNeighborhood(cityName,
-                        ADM.coordinates2Rectangle(place.getBoundingBoxCoordinates()));
-                break;
+                cityName = place.fullName.substring(index + 1).trim();
+                return gnosis.tagNeighborhoodJson(cityName, ADM.coordinates2Rectangle(place.boxPolygonCount,
+                        place.boxPointCount, place.boxLongitudes, place.boxLatitudes));
             case "poi": // a point
-                double longitude = (place.getBoundingBoxCoordinates())[0][0].getLongitude();
-                double latitude = (place.getBoundingBoxCoordinates())[0][0].getLatitude();
-                info = gnosis.tagPoint(longitude, latitude);
-                break;
+                return gnosis.tagPointJson(firstBoxLongitude(place), place.boxLatitudes[0]);
             default:
-                System.err.println("unknown place type:" + type + status.toString());
-                return false;
+                System.err.println("unknown place type:" + type + " in tweet " + tweetId);
+                return null;
         }
+    }
 
-        if (info == null || info.isEmpty()) {
-            return false;
+    private static double firstBoxLongitude(TweetRecord.PlaceFields place) {
+        if (place.boxPointCount == 0) {
+            throw new IllegalArgumentException("unknown boundingBoxCoordinates");
         }
-        sb.append(info.get().toString());
-        return true;
+        return place.boxLongitudes[0];
     }
 
 }
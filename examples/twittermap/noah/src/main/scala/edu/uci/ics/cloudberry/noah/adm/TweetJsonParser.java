@@ -0,0 +1,416 @@
+package edu.uci.ics.cloudberry.noah.adm;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Streams a raw tweet JSON line into a reusable {@link TweetRecord}, reading only the fields the ADM emission and the
+ * geotagging need and skipping every other subtree (entities details, media, the nested retweet, ...).
+ * <p>
+ * String values follow twitter4j: tweet text and place name are HTML-unescaped, the other strings are kept raw.
+ * A parser and its record are reused across calls, so use one parser per thread.
+ */
+public class TweetJsonParser {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+    private static final String MONTHS = "JanFebMarAprMayJunJulAugSepOctNovDec";
+    private static final Map<String, Character> HTML_ENTITIES = new HashMap<>();
+
+    static {
+        String table = "quot=34,amp=38,lt=60,gt=62,nbsp=160,iexcl=161,cent=162,pound=163,curren=164,yen=165,brvbar=166,"
+            + "sect=167,uml=168,copy=169,ordf=170,laquo=171,not=172,shy=173,reg=174,macr=175,deg=176,plusmn=177,"
+            + "sup2=178,sup3=179,acute=180,micro=181,para=182,middot=183,cedil=184,sup1=185,ordm=186,raquo=187,"
+            + "frac14=188,frac12=189,frac34=190,iquest=191,Agrave=192,Aacute=193,Acirc=194,Atilde=195,Auml=196,"
+            + "Aring=197,AElig=198,Ccedil=199,Egrave=200,Eacute=201,Ecirc=202,Euml=203,Igrave=204,Iacute=205,"
+            + "Icirc=206,Iuml=207,ETH=208,Ntilde=209,Ograve=210,Oacute=211,Ocirc=212,Otilde=213,Ouml=214,"
+            + "times=215,Oslash=216,Ugrave=217,Uacute=218,Ucirc=219,Uuml=220,Yacute=221,THORN=222,szlig=223,"
+            + "agrave=224,aacute=225,acirc=226,atilde=227,auml=228,aring=229,aelig=230,ccedil=231,egrave=232,"
+            + "eacute=233,ecirc=234,euml=235,igrave=236,iacute=237,icirc=238,iuml=239,eth=240,ntilde=241,"
+            + "ograve=242,oacute=243,ocirc=244,otilde=245,ouml=246,divide=247,oslash=248,ugrave=249,uacute=250,"
+            + "ucirc=251,uuml=252,yacute=253,thorn=254,yuml=255,OElig=338,oelig=339,Scaron=352,scaron=353,"
+            + "Yuml=376,fnof=402,circ=710,tilde=732,Alpha=913,Beta=914,Gamma=915,Delta=916,Epsilon=917,Zeta=918,"
+            + "Eta=919,Theta=920,Iota=921,Kappa=922,Lambda=923,Mu=924,Nu=925,Xi=926,Omicron=927,Pi=928,Rho=929,"
+            + "Sigma=931,Tau=932,Upsilon=933,Phi=934,Chi=935,Psi=936,Omega=937,alpha=945,beta=946,gamma=947,"
+            + "delta=948,epsilon=949,zeta=950,eta=951,theta=952,iota=953,kappa=954,lambda=955,mu=956,nu=957,"
+            + "xi=958,omicron=959,pi=960,rho=961,sigmaf=962,sigma=963,tau=964,upsilon=965,phi=966,chi=967,"
+            + "psi=968,omega=969,thetasym=977,upsih=978,piv=982,ensp=8194,emsp=8195,thinsp=8201,zwnj=8204,"
+            + "zwj=8205,lrm=8206,rlm=8207,ndash=8211,mdash=8212,lsquo=8216,rsquo=8217,sbquo=8218,ldquo=8220,"
+            + "rdquo=8221,bdquo=8222,dagger=8224,Dagger=8225,bull=8226,hellip=8230,permil=8240,prime=8242,"
+            + "Prime=8243,lsaquo=8249,rsaquo=8250,oline=8254,frasl=8260,euro=8364,image=8465,weierp=8472,"
+            + "real=8476,trade=8482,alefsym=8501,larr=8592,uarr=8593,rarr=8594,darr=8595,harr=8596,crarr=8629,"
+            + "lArr=8656,uArr=8657,rArr=8658,dArr=8659,hArr=8660,forall=8704,part=8706,exist=8707,empty=8709,"
+            + "nabla=8711,isin=8712,notin=8713,ni=8715,prod=8719,sum=8721,minus=8722,lowast=8727,radic=8730,"
+            + "prop=8733,infin=8734,ang=8736,and=8743,or=8744,cap=8745,cup=8746,int=8747,there4=8756,sim=8764,"
+            + "cong=8773,asymp=8776,ne=8800,equiv=8801,le=8804,ge=8805,sub=8834,sup=8835,nsub=8836,sube=8838,"
+            + "supe=8839,oplus=8853,otimes=8855,perp=8869,sdot=8901,lceil=8968,rceil=8969,lfloor=8970,"
+            + "rfloor=8971,lang=9001,rang=9002,loz=9674,spades=9824,clubs=9827,hearts=9829,diams=9830";
+        for (String entry : table.split(",")) {
+            int eq = entry.indexOf('=');
+            HTML_ENTITIES.put("&" + entry.substring(0, eq) + ";", (char) Integer.parseInt(entry.substring(eq + 1)));
+        }
+    }
+
+    private final TweetRecord record = new TweetRecord();
+    private final StringBuilder unescapeBuffer = new StringBuilder(280);
+    private SimpleDateFormat fallbackDateFormat;
+
+    /**
+     * @return the reused record, filled with the tweet
+     * @throws IOException if the line is not valid JSON or is not a tweet (e.g. a delete notice)
+     */
+    public TweetRecord parse(String json) throws IOException {
+        record.clear();
+        boolean hasId = false;
+        boolean hasCreatedAt = false;
+        boolean hasUser = false;
+        try (JsonParser p = FACTORY.createParser(json)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("a tweet should be a JSON object");
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName();
+                JsonToken token = p.nextToken();
+                if (token == JsonToken.VALUE_NULL) {
+                    continue;
+                }
+                switch (field) {
+                    case "created_at":
+                        record.createdAt = parseDate(p.getText());
+                        hasCreatedAt = true;
+                        break;
+                    case "id":
+                        record.id = p.getLongValue();
+                        hasId = true;
+                        break;
+                    case "text":
+                        record.text = unescapeHtml(p.getText());
+                        break;
+                    case "in_reply_to_status_id":
+                        record.inReplyToStatusId = p.getValueAsLong(-1);
+                        break;
+                    case "in_reply_to_user_id":
+                        record.inReplyToUserId = p.getValueAsLong(-1);
+                        break;
+                    case "favorite_count":
+                        record.favoriteCount = p.getValueAsInt(-1);
+                        break;
+                    case "retweet_count":
+                        record.retweetCount = p.getValueAsInt(-1);
+                        break;
+                    case "lang":
+                        record.lang = p.getText();
+                        break;
+                    case "retweeted_status":
+                        record.isRetweet = true;
+                        p.skipChildren();
+                        break;
+                    case "entities":
+                        parseEntities(p);
+                        break;
+                    case "coordinates":
+                        parseCoordinates(p);
+                        break;
+                    case "place":
+                        record.hasPlace = true;
+                        parsePlace(p);
+                        break;
+                    case "user":
+                        hasUser = true;
+                        parseUser(p);
+                        break;
+                    default:
+                        p.skipChildren();
+                }
+            }
+        }
+        if (!hasId || !hasCreatedAt || !hasUser) {
+            throw new IOException("not a tweet: " + (json.length() > 100 ? json.substring(0, 100) + "..." : json));
+        }
+        return record;
+    }
+
+    private void parseEntities(JsonParser p) throws IOException {
+        expect(p, JsonToken.START_OBJECT);
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.getCurrentName();
+            JsonToken token = p.nextToken();
+            if (token == JsonToken.START_ARRAY && field.equals("hashtags")) {
+                while (p.nextToken() == JsonToken.START_OBJECT) {
+                    record.addHashtag(stringField(p, "text"));
+                }
+            } else if (token == JsonToken.START_ARRAY && field.equals("user_mentions")) {
+                while (p.nextToken() == JsonToken.START_OBJECT) {
+                    record.addUserMention(longField(p, "id"));
+                }
+            } else {
+                p.skipChildren();
+            }
+        }
+    }
+
+    // "coordinates": {"type": "Point", "coordinates": [longitude, latitude]}, the one twitter4j reads rather than "geo"
+    private void parseCoordinates(JsonParser p) throws IOException {
+        expect(p, JsonToken.START_OBJECT);
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.getCurrentName();
+            JsonToken token = p.nextToken();
+            if (token == JsonToken.START_ARRAY && field.equals("coordinates")) {
+                p.nextToken();
+                record.longitude = p.getDoubleValue();
+                p.nextToken();
+                record.latitude = p.getDoubleValue();
+                record.hasGeoLocation = true;
+                while (p.nextToken() != JsonToken.END_ARRAY) {
+                    p.skipChildren();
+                }
+            } else {
+                p.skipChildren();
+            }
+        }
+    }
+
+    private void parsePlace(JsonParser p) throws IOException {
+        expect(p, JsonToken.START_OBJECT);
+        TweetRecord.PlaceFields place = record.place;
+        String type = null;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.getCurrentName();
+            JsonToken token = p.nextToken();
+            if (token == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            switch (field) {
+                case "id":
+                    place.id = p.getText();
+                    break;
+                case "name":
+                    place.name = unescapeHtml(p.getText());
+                    break;
+                case "full_name":
+                    place.fullName = p.getText();
+                    break;
+                case "country":
+                    place.country = p.getText();
+                    break;
+                case "place_type":
+                    place.placeType = p.getText();
+                    break;
+                case "type":
+                    type = p.getText();
+                    break;
+                case "bounding_box":
+                    parseBoundingBox(p, place);
+                    break;
+                default:
+                    p.skipChildren();
+            }
+        }
+        if (place.placeType == null) {
+            place.placeType = type;
+        }
+    }
+
+    // "bounding_box": {"type": "Polygon", "coordinates": [[[lon, lat], ...]]}
+    private void parseBoundingBox(JsonParser p, TweetRecord.PlaceFields place) throws IOException {
+        expect(p, JsonToken.START_OBJECT);
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.getCurrentName();
+            JsonToken token = p.nextToken();
+            if (token != JsonToken.START_ARRAY || !field.equals("coordinates")) {
+                p.skipChildren();
+                continue;
+            }
+            while (p.nextToken() == JsonToken.START_ARRAY) {
+                if (place.boxPolygonCount++ > 0) {
+                    p.skipChildren();
+                    continue;
+                }
+                while (p.nextToken() == JsonToken.START_ARRAY) {
+                    p.nextToken();
+                    double longitude = p.getDoubleValue();
+                    p.nextToken();
+                    double latitude = p.getDoubleValue();
+                    while (p.nextToken() != JsonToken.END_ARRAY) {
+                        p.skipChildren();
+                    }
+                    if (place.boxPointCount < place.boxLongitudes.length) {
+                        place.boxLongitudes[place.boxPointCount] = longitude;
+                        place.boxLatitudes[place.boxPointCount] = latitude;
+                    }
+                    place.boxPointCount++;
+                }
+            }
+        }
+    }
+
+    private void parseUser(JsonParser p) throws IOException {
+        expect(p, JsonToken.START_OBJECT);
+        TweetRecord.UserFields user = record.user;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.getCurrentName();
+            JsonToken token = p.nextToken();
+            if (token == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            switch (field) {
+                case "id":
+                    user.id = p.getLongValue();
+                    break;
+                case "name":
+                    user.name = p.getText();
+                    break;
+                case "screen_name":
+                    user.screenName = p.getText();
+                    break;
+                case "profile_image_url":
+                    user.profileImageUrl = p.getText();
+                    break;
+                case "lang":
+                    user.lang = p.getText();
+                    break;
+                case "location":
+                    user.location = p.getText();
+                    break;
+                case "created_at":
+                    user.createdAt = parseDate(p.getText());
+                    break;
+                case "description":
+                    user.description = p.getText();
+                    break;
+                case "followers_count":
+                    user.followersCount = p.getValueAsInt(-1);
+                    break;
+                case "friends_count":
+                    user.friendsCount = p.getValueAsInt(-1);
+                    break;
+                case "statuses_count":
+                    user.statusesCount = p.getValueAsInt(-1);
+                    break;
+                default:
+                    p.skipChildren();
+            }
+        }
+    }
+
+    // reads the current object up to its end and returns the string value of one field
+    private static String stringField(JsonParser p, String name) throws IOException {
+        String value = null;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.getCurrentName();
+            p.nextToken();
+            if (field.equals(name)) {
+                value = p.getValueAsString();
+            } else {
+                p.skipChildren();
+            }
+        }
+        return value;
+    }
+
+    private static long longField(JsonParser p, String name) throws IOException {
+        long value = -1;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.getCurrentName();
+            p.nextToken();
+            if (field.equals(name)) {
+                value = p.getValueAsLong(-1);
+            } else {
+                p.skipChildren();
+            }
+        }
+        return value;
+    }
+
+    private static void expect(JsonParser p, JsonToken token) throws IOException {
+        if (p.getCurrentToken() != token) {
+            throw new IOException("expected " + token + " but got " + p.getCurrentToken());
+        }
+    }
+
+    /**
+     * Parses the Twitter date layout "EEE MMM dd HH:mm:ss Z yyyy", e.g. "Wed Aug 27 13:08:45 +0000 2008".
+     */
+    long parseDate(String date) throws IOException {
+        if (date.length() == 30 && date.charAt(19) == ' ' && date.charAt(25) == ' ') {
+            int month = -1;
+            for (int i = 0; i < 12; i++) {
+                if (date.regionMatches(4, MONTHS, i * 3, 3)) {
+                    month = i + 1;
+                    break;
+                }
+            }
+            int offsetSign = date.charAt(20) == '-' ? -1 : 1;
+            if (month > 0) {
+                long epochDay = LocalDate.of(digits(date, 26, 4), month, digits(date, 8, 2)).toEpochDay();
+                long seconds = epochDay * 86400L + digits(date, 11, 2) * 3600L + digits(date, 14, 2) * 60L
+                        + digits(date, 17, 2) - offsetSign * (digits(date, 21, 2) * 3600L + digits(date, 23, 2) * 60L);
+                return seconds * 1000L;
+            }
+        }
+        try {
+            if (fallbackDateFormat == null) {
+                fallbackDateFormat = new SimpleDateFormat("EEE MMM dd HH:mm:ss Z yyyy", Locale.US);
+                fallbackDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+            }
+            return fallbackDateFormat.parse(date).getTime();
+        } catch (ParseException e) {
+            throw new IOException("unexpected date: " + date, e);
+        }
+    }
+
+    private static int digits(String s, int from, int count) throws IOException {
+        int value = 0;
+        for (int i = from; i < from + count; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IOException("unexpected date: " + s);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Replaces the named HTML 4 entities (e.g. &amp;amp;) the way twitter4j does, without re-scanning replacements.
+     */
+    String unescapeHtml(String text) {
+        int amp = text.indexOf('&');
+        if (amp < 0) {
+            return text;
+        }
+        StringBuilder sb = unescapeBuffer;
+        sb.setLength(0);
+        sb.append(text, 0, amp);
+        int i = amp;
+        int length = text.length();
+        while (i < length) {
+            char c = text.charAt(i);
+            if (c == '&') {
+                int semicolon = text.indexOf(';', i);
+                if (semicolon < 0) {
+                    sb.append(text, i, length);
+                    break;
+                }
+                Character entity = HTML_ENTITIES.get(text.substring(i, semicolon + 1));
+                if (entity != null) {
+                    sb.append(entity.charValue());
+                    i = semicolon + 1;
+                    continue;
+                }
+            }
+            sb.append(c);
+            i++;
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,170 @@
+package edu.uci.ics.cloudberry.noah.adm;
+
+import twitter4j.GeoLocation;
+import twitter4j.HashtagEntity;
+import twitter4j.Status;
+import twitter4j.UserMentionEntity;
+
+import java.util.Arrays;
+
+/**
+ * The subset of a tweet that {@link Tweet#toADM} needs, as a mutable record that is refilled for every tweet.
+ * Missing values follow twitter4j: absent ids and counts are -1, absent strings are null.
+ */
+public class TweetRecord {
+
+    public long createdAt;
+    public long id;
+    public String text;
+    public long inReplyToStatusId;
+    public long inReplyToUserId;
+    public int favoriteCount;
+    public int retweetCount;
+    public String lang;
+    public boolean isRetweet;
+
+    public int hashtagCount;
+    public String[] hashtags = new String[8];
+    public int userMentionCount;
+    public long[] userMentions = new long[8];
+
+    public boolean hasGeoLocation;
+    public double latitude;
+    public double longitude;
+
+    public boolean hasPlace;
+    public final PlaceFields place = new PlaceFields();
+    public final UserFields user = new UserFields();
+
+    public static class PlaceFields {
+        public String id;
+        public String name;
+        public String fullName;
+        public String country;
+        public String placeType;
+        // shape of the bounding box, and the coordinates of the first polygon (at most 4 points)
+        public int boxPolygonCount;
+        public int boxPointCount;
+        public final double[] boxLongitudes = new double[4];
+        public final double[] boxLatitudes = new double[4];
+
+        void clear() {
+            id = name = fullName = country = placeType = null;
+            boxPolygonCount = boxPointCount = 0;
+        }
+
+        @Override
+        public String toString() {
+            return "PlaceFields{id='" + id + "', name='" + name + "', fullName='" + fullName + "', country='" + country
+                    + "', placeType='" + placeType + "'}";
+        }
+    }
+
+    public static class UserFields {
+        public long id;
+        public String name;
+        public String screenName;
+        public String profileImageUrl;
+        public String lang;
+        public String location;
+        public long createdAt;
+        public String description;
+        public int followersCount;
+        public int friendsCount;
+        public int statusesCount;
+
+        void clear() {
+            id = -1;
+            name = screenName = profileImageUrl = lang = location = description = null;
+            createdAt = 0;
+            followersCount = friendsCount = statusesCount = -1;
+        }
+    }
+
+    public TweetRecord clear() {
+        createdAt = 0;
+        id = -1;
+        text = lang = null;
+        inReplyToStatusId = inReplyToUserId = -1;
+        favoriteCount = retweetCount = -1;
+        isRetweet = false;
+        hashtagCount = userMentionCount = 0;
+        hasGeoLocation = hasPlace = false;
+        place.clear();
+        user.clear();
+        return this;
+    }
+
+    public void addHashtag(String hashtag) {
+        if (hashtagCount == hashtags.length) {
+            hashtags = Arrays.copyOf(hashtags, hashtagCount * 2);
+        }
+        hashtags[hashtagCount++] = hashtag;
+    }
+
+    public void addUserMention(long userId) {
+        if (userMentionCount == userMentions.length) {
+            userMentions = Arrays.copyOf(userMentions, userMentionCount * 2);
+        }
+        userMentions[userMentionCount++] = userId;
+    }
+
+    /**
+     * Copies the fields of an already materialized twitter4j status.
+     */
+    public TweetRecord fill(Status status) {
+        clear();
+        createdAt = status.getCreatedAt().getTime();
+        id = status.getId();
+        text = status.getText();
+        inReplyToStatusId = status.getInReplyToStatusId();
+        inReplyToUserId = status.getInReplyToUserId();
+        favoriteCount = status.getFavoriteCount();
+        retweetCount = status.getRetweetCount();
+        lang = status.getLang();
+        isRetweet = status.isRetweet();
+        for (HashtagEntity hashtag : status.getHashtagEntities()) {
+            addHashtag(hashtag.getText());
+        }
+        for (UserMentionEntity mention : status.getUserMentionEntities()) {
+            addUserMention(mention.getId());
+        }
+        GeoLocation location = status.getGeoLocation();
+        if (location != null) {
+            hasGeoLocation = true;
+            latitude = location.getLatitude();
+            longitude = location.getLongitude();
+        }
+        twitter4j.Place statusPlace = status.getPlace();
+        if (statusPlace != null) {
+            hasPlace = true;
+            place.id = statusPlace.getId();
+            place.name = statusPlace.getName();
+            place.fullName = statusPlace.getFullName();
+            place.country = statusPlace.getCountry();
+            place.placeType = statusPlace.getPlaceType();
+            GeoLocation[][] box = statusPlace.getBoundingBoxCoordinates();
+            if (box != null) {
+                place.boxPolygonCount = box.length;
+                place.boxPointCount = box.length > 0 ? box[0].length : 0;
+                for (int i = 0; i < Math.min(4, place.boxPointCount); i++) {
+                    place.boxLongitudes[i] = box[0][i].getLongitude();
+                    place.boxLatitudes[i] = box[0][i].getLatitude();
+                }
+            }
+        }
+        twitter4j.User statusUser = status.getUser();
+        user.id = statusUser.getId();
+        user.name = statusUser.getName();
+        user.screenName = statusUser.getScreenName();
+        user.profileImageUrl = statusUser.getProfileImageURL();
+        user.lang = statusUser.getLang();
+        user.location = statusUser.getLocation();
+        user.createdAt = statusUser.getCreatedAt().getTime();
+        user.description = statusUser.getDescription();
+        user.followersCount = statusUser.getFollowersCount();
+        user.friendsCount = statusUser.getFriendsCount();
+        user.statusesCount = statusUser.getStatusesCount();
+        return this;
+    }
+}
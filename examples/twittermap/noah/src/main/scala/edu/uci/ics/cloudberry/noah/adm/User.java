@@ -15,22 +15,40 @@ public class User {
     public static final String STATUS_COUNT = "statues_count";
 
     public static String toADM(twitter4j.User user) {
+        AdmWriter writer = new AdmWriter(new StringBuilder(512));
+        writeADM(writer, user);
+        return writer.buffer().toString();
+    }
 
-        StringBuilder sb = new StringBuilder();
-        sb.append("{");
-        ADM.keyValueToSbWithComma(sb, ID, ADM.mkADMConstructor("int64", String.valueOf(user.getId())));
-        ADM.keyValueToSbWithComma(sb, NAME, ADM.mkQuote(user.getName()));
-        ADM.keyValueToSbWithComma(sb, SCREEN_NAME, ADM.mkQuote(user.getScreenName()));
-        ADM.keyValueToSbWithComma(sb, PROFILE_IMAGE_URL, ADM.mkQuote(user.getProfileImageURL()));
-        ADM.keyValueToSbWithComma(sb, LANG, ADM.mkQuote(user.getLang()));
-        ADM.keyValueToSbWithComma(sb, LOCATION, ADM.mkQuote(user.getLocation()));
-        ADM.keyValueToSbWithComma(sb, CREATE_AT, ADM.mkDateConstructor(user.getCreatedAt()));
-        ADM.keyValueToSbWithComma(sb, DESCRIPTION, ADM.mkQuote(user.getDescription()));
-        ADM.keyValueToSbWithComma(sb, FOLLOWERS_COUNT, String.valueOf(user.getFollowersCount()));
-        ADM.keyValueToSbWithComma(sb, FRIENDS_COUNT, String.valueOf(user.getFriendsCount()));
-        ADM.keyValueToSb(sb, STATUS_COUNT, String.valueOf(user.getStatusesCount()));
-        sb.append("}");
+    public static void writeADM(AdmWriter writer, twitter4j.User user) {
+        writer.beginRecord();
+        writer.key(ID).int64(user.getId());
+        writer.key(NAME).string(user.getName());
+        writer.key(SCREEN_NAME).string(user.getScreenName());
+        writer.key(PROFILE_IMAGE_URL).string(user.getProfileImageURL());
+        writer.key(LANG).string(user.getLang());
+        writer.key(LOCATION).string(user.getLocation());
+        writer.key(CREATE_AT).date(user.getCreatedAt().getTime());
+        writer.key(DESCRIPTION).string(user.getDescription());
+        writer.key(FOLLOWERS_COUNT).number(user.getFollowersCount());
+        writer.key(FRIENDS_COUNT).number(user.getFriendsCount());
+        writer.key(STATUS_COUNT).number(user.getStatusesCount());
+        writer.endRecord();
+    }
 
-        return sb.toString();
+    public static void writeADM(AdmWriter writer, TweetRecord.UserFields user) {
+        writer.beginRecord();
+        writer.key(ID).int64(user.id);
+        writer.key(NAME).string(user.name);
+        writer.key(SCREEN_NAME).string(user.screenName);
+        writer.key(PROFILE_IMAGE_URL).string(user.profileImageUrl);
+        writer.key(LANG).string(user.lang);
+        writer.key(LOCATION).string(user.location);
+        writer.key(CREATE_AT).date(user.createdAt);
+        writer.key(DESCRIPTION).string(user.description);
+        writer.key(FOLLOWERS_COUNT).number(user.followersCount);
+        writer.key(FRIENDS_COUNT).number(user.friendsCount);
+        writer.key(STATUS_COUNT).number(user.statusesCount);
+        writer.endRecord();
     }
 }
@@ -0,0 +1,285 @@
+package edu.uci.ics.cloudberry.noah.feed;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link FeedSocketAdapterClient} that writes through a NIO {@link SocketChannel}.
+ * Records are whitespace-normalized and UTF-8 encoded in one pass straight into reusable direct buffers.
+ * A filled buffer is handed to a background writer thread while the caller keeps encoding into the next one.
+ * A buffer is flushed once it reaches {@code flushBytes}, or when its oldest record is {@code flushMillis} old.
+ * Nothing waits for a free buffer while holding the monitor of the client, which the writer takes to flush a stale one.
+ * The {@code batchSize} / {@code waitMillSecPerRecord} pacing is enforced by a {@link TokenBucketRateLimiter}.
+ */
+public class BatchedFeedSocketAdapterClient extends FeedSocketAdapterClient {
+
+    public static final int DEFAULT_FLUSH_BYTES = 64 * 1024;
+    public static final int DEFAULT_FLUSH_MILLIS = 100;
+    private static final int BUFFER_COUNT = 3;
+
+    protected int flushBytes;
+    protected int flushMillis;
+
+    private SocketChannel channel;
+    private TokenBucketRateLimiter rateLimiter;
+    private BlockingQueue<ByteBuffer> filled;
+    private BlockingQueue<ByteBuffer> free;
+    // null while every buffer is handed to the writer
+    private ByteBuffer current;
+    private long oldestRecordNanos;
+    private Thread writer;
+    private volatile boolean running;
+    // number of buffers handed to the writer thread, and how many of them it has written
+    private long handedOff;
+    private volatile long written;
+    private volatile IOException writeFailure;
+    // signalled by the writer after each written buffer and when it stops; flush waits on it, not on the client
+    private final Object writeProgress = new Object();
+
+    public BatchedFeedSocketAdapterClient(String adapterUrl, int port, int batchSize, int waitMillSecPerRecord,
+                                          int maxCount, int flushBytes, int flushMillis) {
+        super(adapterUrl, port, batchSize, waitMillSecPerRecord, maxCount);
+        this.flushBytes = flushBytes;
+        this.flushMillis = Math.max(1, flushMillis);
+    }
+
+    public BatchedFeedSocketAdapterClient(String adapterUrl, int port, int batchSize, int waitMillSecPerRecord,
+                                          int maxCount) {
+        this(adapterUrl, port, batchSize, waitMillSecPerRecord, maxCount, DEFAULT_FLUSH_BYTES, DEFAULT_FLUSH_MILLIS);
+    }
+
+    @Override
+    public void initialize() throws IOException {
+        channel = SocketChannel.open(new InetSocketAddress(adapterUrl, port));
+        channel.socket().setTcpNoDelay(true);
+        if (waitMillSecond >= 1) {
+            rateLimiter = new TokenBucketRateLimiter(Math.max(1, batchSize), waitMillSecond);
+        }
+        filled = new ArrayBlockingQueue<>(BUFFER_COUNT);
+        free = new ArrayBlockingQueue<>(BUFFER_COUNT);
+        for (int i = 1; i < BUFFER_COUNT; i++) {
+            free.add(ByteBuffer.allocateDirect(flushBytes));
+        }
+        current = ByteBuffer.allocateDirect(flushBytes);
+        running = true;
+        writer = new Thread(this::drain, "feed-writer-" + adapterUrl + ":" + port);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void finalize() {
+        try {
+            synchronized (this) {
+                if (current != null && current.position() > 0) {
+                    handOff();
+                }
+            }
+            running = false;
+            if (writer != null) {
+                writer.join();
+            }
+            if (writeFailure != null) {
+                throw writeFailure;
+            }
+            System.err.println("Socket " + adapterUrl + ":" + port + " - # of total ingested records: " + recordCount);
+        } catch (IOException | InterruptedException e) {
+            System.err.println("Problem in closing socket against host " + adapterUrl + " on the port " + port);
+            e.printStackTrace();
+        } finally {
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void ingest(String record) throws IOException {
+        if (writeFailure != null) {
+            throw writeFailure;
+        }
+        if (rateLimiter != null) {
+            rateLimiter.acquire(1);
+        }
+        countRecord();
+        try {
+            while (!tryEncode(record)) {
+                // wait for the writer to give a buffer back outside of the monitor, the writer may need it for flushIfStale
+                ByteBuffer next = takeFree();
+                synchronized (this) {
+                    if (current == null) {
+                        current = next;
+                    } else {
+                        free.add(next);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for a free buffer", e);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        long target;
+        try {
+            synchronized (this) {
+                if (current != null && current.position() > 0) {
+                    handOff();
+                }
+                target = handedOff;
+            }
+            // wait outside of the monitor, the writer may need it for flushIfStale
+            synchronized (writeProgress) {
+                while (written < target && writeFailure == null && writer.isAlive()) {
+                    writeProgress.wait();
+                }
+            }
+            if (writeFailure != null) {
+                throw writeFailure;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while flushing", e);
+        }
+    }
+
+    /**
+     * Encodes {@code record} as UTF-8 into {@code out}, collapsing every run of whitespace into a single space.
+     * It produces the same bytes as {@code record.replaceAll("\\s+", " ").getBytes(UTF_8)}, without the regex
+     * or the intermediate String and byte array.
+     */
+    static void encodeNormalized(CharSequence record, ByteBuffer out) {
+        boolean inWhitespace = false;
+        int length = record.length();
+        for (int i = 0; i < length; i++) {
+            char c = record.charAt(i);
+            if (isRegexWhitespace(c)) {
+                if (!inWhitespace) {
+                    out.put((byte) ' ');
+                    inWhitespace = true;
+                }
+                continue;
+            }
+            inWhitespace = false;
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(record.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, record.charAt(++i));
+                out.put((byte) (0xF0 | (cp >> 18)));
+                out.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                out.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (cp & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogate, same replacement as String.getBytes
+                out.put((byte) '?');
+            } else {
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    // the "\s" class of java.util.regex: [ \t\n\x0B\f\r]
+    private static boolean isRegexWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+    // encodes the record into the current buffer, or returns false if every buffer is handed to the writer
+    private synchronized boolean tryEncode(String record) {
+        // A UTF-16 char never needs more than 3 UTF-8 bytes, surrogate pairs need 4 bytes for 2 chars.
+        int maxBytes = record.length() * 3;
+        if (current != null && current.remaining() < maxBytes && current.position() > 0) {
+            handOff();
+        }
+        if (current == null) {
+            return false;
+        }
+        if (current.capacity() < maxBytes) {
+            current = ByteBuffer.allocateDirect(Integer.highestOneBit(maxBytes) << 1);
+        }
+        if (current.position() == 0) {
+            oldestRecordNanos = System.nanoTime();
+        }
+        encodeNormalized(record, current);
+        INGESTED.increment();
+        if (current.position() >= flushBytes) {
+            handOff();
+        }
+        return true;
+    }
+
+    // must be called while holding the monitor of this client; never blocks, the current buffer is null
+    // until the caller takes a free one outside of the monitor
+    private void handOff() {
+        // the queue can hold every buffer of this client
+        filled.add(current);
+        handedOff++;
+        current = free.poll();
+    }
+
+    private ByteBuffer takeFree() throws InterruptedException, IOException {
+        ByteBuffer next;
+        while ((next = free.poll(flushMillis, TimeUnit.MILLISECONDS)) == null) {
+            if (writeFailure != null) {
+                throw writeFailure;
+            }
+        }
+        return next;
+    }
+
+    private void drain() {
+        try {
+            while (running || !filled.isEmpty()) {
+                ByteBuffer batch = filled.poll(flushMillis, TimeUnit.MILLISECONDS);
+                if (batch == null) {
+                    flushIfStale();
+                    continue;
+                }
+                batch.flip();
+                int bytes = batch.remaining();
+                long start = System.nanoTime();
+                while (batch.hasRemaining()) {
+                    channel.write(batch);
+                }
+                SOCKET_WRITE.recordSince(start);
+                SOCKET_BYTES.add(bytes);
+                batch.clear();
+                free.put(batch);
+                synchronized (writeProgress) {
+                    written++;
+                    writeProgress.notifyAll();
+                }
+            }
+        } catch (IOException e) {
+            writeFailure = e;
+        } catch (InterruptedException e) {
+            writeFailure = new IOException("feed writer interrupted", e);
+        } finally {
+            synchronized (writeProgress) {
+                writeProgress.notifyAll();
+            }
+        }
+    }
+
+    private synchronized void flushIfStale() {
+        if (current != null && current.position() > 0
+                && System.nanoTime() - oldestRecordNanos >= TimeUnit.MILLISECONDS.toNanos(flushMillis)) {
+            handOff();
+        }
+    }
+}
@@ -48,6 +48,42 @@ public class Config {
     @Option(name = "-c", aliases = "--count", usage = "maximum number to feed, default unlimited")
     private int maxCount = Integer.MAX_VALUE;
 
+    @Option(name = "-nio", aliases = "--nio", usage = "send through the batched NIO socket channel instead of one write per record")
+    private boolean useNio = false;
+
+    @Option(name = "-fb", aliases = "--flush-bytes", usage = "NIO mode only, flush a batch once it reaches this many bytes, default 65536")
+    private int flushBytes = BatchedFeedSocketAdapterClient.DEFAULT_FLUSH_BYTES;
+
+    @Option(name = "-fm", aliases = "--flush-millis", usage = "NIO mode only, flush a batch once its oldest record waited this many milliseconds, default 100")
+    private int flushMillis = BatchedFeedSocketAdapterClient.DEFAULT_FLUSH_MILLIS;
+
+    @Option(name = "-aq", aliases = "--archive-queue", usage = "stream driver, messages waiting for the archive file, default 100000")
+    private int archiveQueue = 100000;
+
+    @Option(name = "-ao", aliases = "--archive-overflow", usage = "stream driver, DROP_NEWEST or DROP_OLDEST when the archive queue is full, default DROP_NEWEST; BLOCK keeps the archive complete at the cost of stalling every sink")
+    private OverflowPolicy archiveOverflow = OverflowPolicy.DROP_NEWEST;
+
+    @Option(name = "-kq", aliases = "--kafka-queue", usage = "stream driver, messages waiting for Kafka, default 100000")
+    private int kafkaQueue = 100000;
+
+    @Option(name = "-kfo", aliases = "--kafka-overflow", usage = "stream driver, DROP_NEWEST or DROP_OLDEST when the Kafka queue is full, default DROP_OLDEST")
+    private OverflowPolicy kafkaOverflow = OverflowPolicy.DROP_OLDEST;
+
+    @Option(name = "-kw", aliases = "--kafka-workers", usage = "stream driver, threads sending to Kafka, default 1")
+    private int kafkaWorkers = 1;
+
+    @Option(name = "-gq", aliases = "--geotag-queue", usage = "stream driver, messages waiting to be geotagged and fed, default 10000")
+    private int geotagQueue = 10000;
+
+    @Option(name = "-go", aliases = "--geotag-overflow", usage = "stream driver, DROP_NEWEST or DROP_OLDEST when the geotag queue is full, default DROP_OLDEST")
+    private OverflowPolicy geotagOverflow = OverflowPolicy.DROP_OLDEST;
+
+    @Option(name = "-gw", aliases = "--geotag-workers", usage = "stream driver, threads geotagging and feeding AsterixDB, default 2")
+    private int geotagWorkers = 2;
+
+    @Option(name = "-mp", aliases = "--metrics-port", usage = "serve the ingestion metrics on http://localhost:port/metrics, they are always published over JMX, default 0 (off)")
+    private int metricsPort = 0;
+
     @Option(name = "-fo", aliases = "--file-only", usage = "only store in a file, do not geotag nor ingest")
     private boolean isFileOnly = false;
 
@@ -60,6 +96,15 @@ public class Config {
     @Option(name = "-kid", aliases = "--kafka-consumer-id", usage = "Id of the consumer for Kafka")
     private String kafkaId = "";
 
+    @Option(name = "-kbt", aliases = "--kafka-batch", usage = "consume Kafka in batches, committing the offsets only after AsterixDB accepted a batch")
+    private boolean kafkaBatch = false;
+
+    @Option(name = "-kbs", aliases = "--kafka-batch-size", usage = "batch mode only, maximum records per batch, default 1000")
+    private int kafkaBatchSize = 1000;
+
+    @Option(name = "-kbl", aliases = "--kafka-batch-linger", usage = "batch mode only, send a partial batch once its first record waited this many milliseconds, default 1000")
+    private int kafkaBatchLingerMillis = 1000;
+
     @Option(name = "-tpzs", aliases = "--topic-zika-streaming", usage = "Topic name on Kafka for Zika Streaming")
     private String topicZikaStream = "TwitterZikaStreaming";
 
@@ -93,6 +138,12 @@ public class Config {
     @Option(name = "-ko", aliases = "--kafka-only", usage = "Store data in kafka only if true; Store a copy in .gz file otherwise")
     private boolean kafka_only = false;
 
+    @Option(name = "-fpt", aliases = "--file-producer-threads", usage = "number of .gz files decompressed and sent to Kafka at the same time, default 4")
+    private int fileProducerThreads = 4;
+
+    @Option(name = "-fpb", aliases = "--file-producer-batch", usage = "records handed to the Kafka producer per call, default 1000")
+    private int fileProducerBatch = 1000;
+
     public String getFilePath() {
         return filePath;
     }
@@ -102,6 +153,12 @@ public class Config {
     public boolean getKfkOnly() {
         return kafka_only;
     }
+    public int getFileProducerThreads() {
+        return fileProducerThreads;
+    }
+    public int getFileProducerBatch() {
+        return fileProducerBatch;
+    }
     public String getConsumerKey() {
         return consumerKey;
     }
@@ -150,6 +207,18 @@ public class Config {
         return maxCount;
     }
 
+    public boolean isUseNio() {
+        return useNio;
+    }
+
+    public int getFlushBytes() {
+        return flushBytes;
+    }
+
+    public int getFlushMillis() {
+        return flushMillis;
+    }
+
     public String getKafkaServer() { return kafkaServer; }
 
     public String getKafkaId() { return kafkaId; }
@@ -162,6 +231,54 @@ public class Config {
         return storeKafka;
     }
 
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    public int getArchiveQueue() {
+        return archiveQueue;
+    }
+
+    public OverflowPolicy getArchiveOverflow() {
+        return archiveOverflow;
+    }
+
+    public int getKafkaQueue() {
+        return kafkaQueue;
+    }
+
+    public OverflowPolicy getKafkaOverflow() {
+        return kafkaOverflow;
+    }
+
+    public int getKafkaWorkers() {
+        return kafkaWorkers;
+    }
+
+    public int getGeotagQueue() {
+        return geotagQueue;
+    }
+
+    public OverflowPolicy getGeotagOverflow() {
+        return geotagOverflow;
+    }
+
+    public int getGeotagWorkers() {
+        return geotagWorkers;
+    }
+
+    public boolean isKafkaBatch() {
+        return kafkaBatch;
+    }
+
+    public int getKafkaBatchSize() {
+        return kafkaBatchSize;
+    }
+
+    public int getKafkaBatchLingerMillis() {
+        return kafkaBatchLingerMillis;
+    }
+
     public enum Source {
         Zika, User, HistUser
     }
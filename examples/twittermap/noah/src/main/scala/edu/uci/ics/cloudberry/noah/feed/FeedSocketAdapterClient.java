@@ -1,13 +1,24 @@
 package edu.uci.ics.cloudberry.noah.feed;
 
+import edu.uci.ics.cloudberry.noah.metrics.Counter;
+import edu.uci.ics.cloudberry.noah.metrics.IngestionMetrics;
+import edu.uci.ics.cloudberry.noah.metrics.LatencyHistogram;
+
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.Socket;
 
 public class FeedSocketAdapterClient {
+    protected static final Counter INGESTED = IngestionMetrics.counter(IngestionMetrics.RECORDS_INGESTED);
+    protected static final Counter SOCKET_BYTES = IngestionMetrics.counter(IngestionMetrics.SOCKET_BYTES);
+    // one record per write here, one batch per write in the NIO client
+    protected static final LatencyHistogram SOCKET_WRITE = IngestionMetrics.latency(IngestionMetrics.SOCKET_WRITE);
+
     private OutputStream out = null;
-    private int recordCount = 0;
+    // held only around a write and the record count, never while pacing
+    private final Object writeLock = new Object();
+    protected int recordCount = 0;
 
     protected String adapterUrl;
     protected int port;
@@ -41,15 +52,21 @@ public class FeedSocketAdapterClient {
         }
     }
 
+    /**
+     * Safe to call from several threads: only the socket write is serialized, the pacing sleep is not.
+     */
     public void ingest(String record) throws IOException{
-        recordCount++;
-        if (recordCount % 10000 == 0) {
-            System.err.println("Socket " + adapterUrl + ":" + port + " - # of ingested records: " + recordCount);
-        }
+        int count = countRecord();
         byte[] b = record.replaceAll("\\s+", " ").getBytes();
         try {
-            out.write(b);
-            if (waitMillSecond >= 1 && recordCount % batchSize == 0) {
+            synchronized (writeLock) {
+                long start = System.nanoTime();
+                out.write(b);
+                SOCKET_WRITE.recordSince(start);
+            }
+            SOCKET_BYTES.add(b.length);
+            INGESTED.increment();
+            if (waitMillSecond >= 1 && count % batchSize == 0) {
                 Thread.currentThread().sleep(waitMillSecond);
             }
         } catch (InterruptedException e) {
@@ -57,5 +74,21 @@ public class FeedSocketAdapterClient {
         }
     }
 
+    protected int countRecord() {
+        int count;
+        synchronized (writeLock) {
+            count = ++recordCount;
+        }
+        if (count % 10000 == 0) {
+            System.err.println("Socket " + adapterUrl + ":" + port + " - # of ingested records: " + count);
+        }
+        return count;
+    }
 
+    /**
+     * Returns once every record ingested so far has been handed to the socket.
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
 }
@@ -0,0 +1,160 @@
+package edu.uci.ics.cloudberry.noah.feed;
+
+import edu.uci.ics.cloudberry.noah.metrics.Counter;
+import edu.uci.ics.cloudberry.noah.metrics.IngestionMetrics;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One sink of the {@link StagedFeedPipeline}: a bounded queue drained by its own worker threads.
+ * <p>
+ * When the queue is full the {@link OverflowPolicy} decides between waiting and dropping.
+ * With a dropping policy a stalled sink only costs messages in its own stage, which are counted in
+ * {@code stage.<name>.dropped} and in {@code records.dropped}.
+ * A {@link OverflowPolicy#BLOCK} stage is not isolated: once its queue is full it stalls the dispatcher and with it
+ * every other stage, so the stream driver only lets the archive opt into it.
+ * A failing message is counted and reported, the workers keep going.
+ */
+public class FeedStage {
+
+    public interface Sink {
+        void accept(String msg) throws Exception;
+    }
+
+    private static final String END_OF_INPUT = new String("");
+    private static final Counter DROPPED = IngestionMetrics.counter(IngestionMetrics.RECORDS_DROPPED);
+    private static final Counter FAILED = IngestionMetrics.counter(IngestionMetrics.RECORDS_FAILED);
+
+    private final String name;
+    private final BlockingQueue<String> queue;
+    private final OverflowPolicy policy;
+    private final Sink sink;
+    private final Thread[] workers;
+    private final Counter stageDropped;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public FeedStage(String name, int capacity, OverflowPolicy policy, int workerCount, Sink sink) {
+        if (capacity <= 0 || workerCount <= 0) {
+            throw new IllegalArgumentException("stage " + name + " needs a positive capacity and worker count");
+        }
+        this.name = name;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.policy = policy;
+        this.sink = sink;
+        this.workers = new Thread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Thread(this::work, "feed-stage-" + name + "-" + i);
+            workers[i].setDaemon(true);
+        }
+        IngestionMetrics.gauge("stage." + name + ".queue", queue::size);
+        this.stageDropped = IngestionMetrics.counter("stage." + name + ".dropped");
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void start() {
+        for (Thread worker : workers) {
+            worker.start();
+        }
+    }
+
+    /**
+     * Queues a message following the overflow policy.
+     *
+     * @return false if the message itself was dropped
+     */
+    public boolean offer(String msg) throws InterruptedException {
+        switch (policy) {
+            case BLOCK:
+                queue.put(msg);
+                break;
+            case DROP_NEWEST:
+                if (!queue.offer(msg)) {
+                    drop();
+                    return false;
+                }
+                break;
+            case DROP_OLDEST:
+                while (!queue.offer(msg)) {
+                    if (queue.poll() != null) {
+                        drop();
+                    }
+                }
+                break;
+        }
+        accepted.incrementAndGet();
+        return true;
+    }
+
+    private void drop() {
+        if (dropped.incrementAndGet() == 1) {
+            System.err.println("Stage " + name + " is full and started to drop messages (" + policy + ")");
+        }
+        stageDropped.increment();
+        DROPPED.increment();
+    }
+
+    /**
+     * Lets the workers finish every queued message, then stops them.
+     */
+    public void close() throws InterruptedException {
+        for (int i = 0; i < workers.length; i++) {
+            queue.put(END_OF_INPUT);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    private void work() {
+        try {
+            String msg;
+            while ((msg = queue.take()) != END_OF_INPUT) {
+                try {
+                    sink.accept(msg);
+                    processed.incrementAndGet();
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    FAILED.increment();
+                    System.err.println("Stage " + name + " failed on a message: " + e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getAccepted() {
+        return accepted.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    @Override
+    public String toString() {
+        return "Stage " + name + " - accepted: " + accepted + ", dropped: " + dropped + ", processed: " + processed
+                + ", failed: " + failed + ", queued: " + queue.size();
+    }
+}
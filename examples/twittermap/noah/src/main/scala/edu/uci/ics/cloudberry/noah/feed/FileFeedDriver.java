@@ -1,12 +1,12 @@
 package edu.uci.ics.cloudberry.noah.feed;
 
+import edu.uci.ics.cloudberry.noah.metrics.IngestionMetrics;
 import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 
 import java.io.*;
-import java.util.Random;
 
 public class FileFeedDriver {
 
@@ -37,6 +37,41 @@ public class FileFeedDriver {
             usage = "maximum number to feed, default unlimited")
     private int maxCount = Integer.MAX_VALUE;
 
+    @Option(name = "-nio",
+            aliases = "--nio",
+            usage = "send through the batched NIO socket channel instead of one write per record")
+    private boolean useNio = false;
+
+    @Option(name = "-fb",
+            aliases = "--flush-bytes",
+            usage = "NIO mode only, flush a batch once it reaches this many bytes, default 65536")
+    private int flushBytes = BatchedFeedSocketAdapterClient.DEFAULT_FLUSH_BYTES;
+
+    @Option(name = "-fm",
+            aliases = "--flush-millis",
+            usage = "NIO mode only, flush a batch once its oldest record waited this many milliseconds, default 100")
+    private int flushMillis = BatchedFeedSocketAdapterClient.DEFAULT_FLUSH_MILLIS;
+
+    @Option(name = "-par",
+            aliases = "--parallel",
+            usage = "feed all adapters in parallel, one worker per adapter; plain files are memory-mapped and split")
+    private boolean parallel = false;
+
+    @Option(name = "-wt",
+            aliases = "--weights",
+            usage = "comma separated routing weights, one per adapter URL, default round-robin")
+    private String adapterWeights = null;
+
+    @Option(name = "-q",
+            aliases = "--queue",
+            usage = "parallel mode only, records buffered per adapter when reading stdin or a .gz file, default 10000")
+    private int queueSize = 10000;
+
+    @Option(name = "-mp",
+            aliases = "--metrics-port",
+            usage = "serve the ingestion metrics on http://localhost:port/metrics, they are always published over JMX, default 0 (off)")
+    private int metricsPort = 0;
+
     @Argument
     private String sourceFilePath = null;
 
@@ -48,15 +83,13 @@ public class FileFeedDriver {
         CmdLineParser parser = new CmdLineParser(this);
         FeedSocketAdapterClient[] clients = null;
         String[] adapterUrls = null;
-        int ingestionCount = 0;
-        FeedSocketAdapterClient client = null;
+        long ingestionCount = 0;
         BufferedReader br = null;
-        Random generator = null;
-        boolean multipleClients = false;
         long startTime = System.currentTimeMillis();
 
         try {
             parser.parseArgument(args);
+            IngestionMetrics.get().startHttp(metricsPort);
             if (sourceFilePath == null || sourceFilePath.length() == 0) {
                 System.err.println("Read from stdin");
             }
@@ -64,32 +97,58 @@ public class FileFeedDriver {
             // Multiple hosts? Then split them
             if (adapterUrl.contains(",")) {
                 adapterUrls = adapterUrl.split(",");
-                generator = new Random();
-                multipleClients = true;
             } else {
                 adapterUrls = new String[]{adapterUrl};
             }
             clients = new FeedSocketAdapterClient[adapterUrls.length];
 
             for (int i = 0; i < clients.length; i++) {
-                clients[i] = new FeedSocketAdapterClient(adapterUrls[i], port,
-                        batchSize, waitMillSecPerRecord, maxCount);
+                if (useNio) {
+                    clients[i] = new BatchedFeedSocketAdapterClient(adapterUrls[i], port,
+                            batchSize, waitMillSecPerRecord, maxCount, flushBytes, flushMillis);
+                } else {
+                    clients[i] = new FeedSocketAdapterClient(adapterUrls[i], port,
+                            batchSize, waitMillSecPerRecord, maxCount);
+                }
                 clients[i].initialize();
             }
 
-            InputStreamReader reader;
+            int[] weights = WeightedRoundRobin.parseWeights(adapterWeights, clients.length);
+            boolean isGZip = sourceFilePath != null && sourceFilePath.endsWith(".gz");
+            if (parallel && sourceFilePath != null && !isGZip) {
+                ParallelFileFeeder feeder = new ParallelFileFeeder(clients, weights,
+                        count -> printStats(startTime, count));
+                try {
+                    feeder.feedMapped(new File(sourceFilePath));
+                } finally {
+                    ingestionCount = feeder.getIngestionCount();
+                }
+                return;
+            }
+
             if (sourceFilePath == null) {
-                reader = new InputStreamReader(System.in);
+                br = new BufferedReader(new InputStreamReader(System.in));
+            } else if (isGZip) {
+                br = CmdLineAux.createGZipReader(sourceFilePath);
             } else {
-                reader = new FileReader(sourceFilePath);
+                br = new BufferedReader(new FileReader(sourceFilePath));
             }
 
-            br = new BufferedReader(reader);
+            if (parallel) {
+                ParallelFileFeeder feeder = new ParallelFileFeeder(clients, weights,
+                        count -> printStats(startTime, count));
+                try {
+                    feeder.feedStream(br, queueSize);
+                } finally {
+                    ingestionCount = feeder.getIngestionCount();
+                }
+                return;
+            }
+
+            WeightedRoundRobin router = new WeightedRoundRobin(weights);
             String nextRecord;
-            int socketIndex = 0;
             while ((nextRecord = br.readLine()) != null) {
-                socketIndex = multipleClients ? generator.nextInt(clients.length) : 0;
-                clients[socketIndex].ingest(nextRecord);
+                clients[router.next()].ingest(nextRecord);
                 ingestionCount++;
                 if (ingestionCount % 100000 == 0) {
                     printStats(startTime, ingestionCount);
@@ -103,14 +162,20 @@ public class FileFeedDriver {
             System.err.println(e.getMessage());
             System.err.println("usage [option] filePath, write filePath as - to read from stdin");
             parser.printUsage(System.err);
-        } catch (IOException e) {
+        } catch (IOException | IllegalArgumentException e) {
             System.err.println(e.getMessage());
+        } catch (InterruptedException e) {
+            System.err.println("Interrupted: " + e.getMessage());
         } finally {
             try {
                 for (int i = 0; i < clients.length; i++) {
-                    clients[i].finalize();
+                    if (clients[i] != null) {
+                        clients[i].finalize();
+                    }
+                }
+                if (br != null) {
+                    br.close();
                 }
-                br.close();
                 printStats(startTime, ingestionCount);
                 System.err.println(">>> An ingestion process is done.");
             } catch (IOException e) {
@@ -0,0 +1,44 @@
+package edu.uci.ics.cloudberry.noah.feed;
+
+import com.twitter.hbc.core.Client;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The raw tweets feeding a {@link StagedFeedPipeline}.
+ */
+public interface MessageSource {
+
+    /**
+     * @return the next message, or null once the source is exhausted
+     */
+    String next() throws IOException, InterruptedException;
+
+    /**
+     * The messages an hbc client puts into {@code queue}, until the client is done.
+     */
+    static MessageSource fromClient(Client client, BlockingQueue<String> queue) {
+        return () -> {
+            while (!client.isDone()) {
+                String msg = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (msg != null) {
+                    return msg;
+                }
+            }
+            return null;
+        };
+    }
+
+    /**
+     * One message per line, e.g. a previously archived stream; the line ends with a newline like the hbc messages.
+     */
+    static MessageSource fromReader(BufferedReader reader) {
+        return () -> {
+            String line = reader.readLine();
+            return line == null ? null : line + "\n";
+        };
+    }
+}
@@ -0,0 +1,19 @@
+package edu.uci.ics.cloudberry.noah.feed;
+
+/**
+ * What a {@link FeedStage} does with a new message when its queue is full.
+ */
+public enum OverflowPolicy {
+    /**
+     * Wait for room, which slows down the dispatcher and so every other stage.
+     */
+    BLOCK,
+    /**
+     * Discard the new message.
+     */
+    DROP_NEWEST,
+    /**
+     * Discard the oldest queued message to make room for the new one.
+     */
+    DROP_OLDEST
+}
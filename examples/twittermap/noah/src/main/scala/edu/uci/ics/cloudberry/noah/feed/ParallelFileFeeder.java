@@ -0,0 +1,252 @@
+package edu.uci.ics.cloudberry.noah.feed;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * Feeds one input into several adapters at once, one worker thread per {@link FeedSocketAdapterClient}.
+ * <p>
+ * A plain file is memory-mapped and cut at newline boundaries into one byte range per adapter, sized by the
+ * adapter weights, so every worker reads and sends its own slice without any hand-off.
+ * A stream (stdin or .gz) can not be split, so one reader routes its lines through {@link WeightedRoundRobin}
+ * into a bounded queue per adapter.
+ * Either way the record-to-adapter assignment only depends on the input and the weights.
+ */
+public class ParallelFileFeeder {
+
+    private static final long MAP_WINDOW = 1L << 30;
+    private static final int PROGRESS_INTERVAL = 100000;
+    private static final String END_OF_INPUT = new String("");
+
+    private final FeedSocketAdapterClient[] clients;
+    private final int[] weights;
+    private final LongConsumer progress;
+    private final long mapWindow;
+    private final AtomicLong ingestionCount = new AtomicLong();
+
+    public ParallelFileFeeder(FeedSocketAdapterClient[] clients, int[] weights, LongConsumer progress) {
+        this(clients, weights, progress, MAP_WINDOW);
+    }
+
+    // a small mapWindow makes the tests cross window boundaries
+    ParallelFileFeeder(FeedSocketAdapterClient[] clients, int[] weights, LongConsumer progress, long mapWindow) {
+        if (clients.length != weights.length) {
+            throw new IllegalArgumentException("one weight is required per adapter");
+        }
+        this.clients = clients;
+        this.weights = weights;
+        this.progress = progress;
+        this.mapWindow = mapWindow;
+    }
+
+    public long getIngestionCount() {
+        return ingestionCount.get();
+    }
+
+    public long feedMapped(File file) throws IOException, InterruptedException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            long[] bounds = splitAtNewlines(channel, weights);
+            List<WorkerTask> tasks = new ArrayList<>();
+            for (int i = 0; i < clients.length; i++) {
+                final int index = i;
+                tasks.add(() -> feedRange(channel, bounds[index], bounds[index + 1], clients[index]));
+            }
+            runAll(tasks, null);
+        }
+        return ingestionCount.get();
+    }
+
+    public long feedStream(BufferedReader reader, int queueSize) throws IOException, InterruptedException {
+        List<BlockingQueue<String>> queues = new ArrayList<>();
+        List<WorkerTask> tasks = new ArrayList<>();
+        for (int i = 0; i < clients.length; i++) {
+            BlockingQueue<String> queue = new ArrayBlockingQueue<>(queueSize);
+            FeedSocketAdapterClient client = clients[i];
+            queues.add(queue);
+            tasks.add(() -> {
+                String record;
+                while ((record = queue.take()) != END_OF_INPUT) {
+                    ingest(client, record);
+                }
+            });
+        }
+        runAll(tasks, futures -> {
+            WeightedRoundRobin router = new WeightedRoundRobin(weights);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                offer(queues.get(router.next()), line, futures);
+            }
+            for (BlockingQueue<String> queue : queues) {
+                offer(queue, END_OF_INPUT, futures);
+            }
+        });
+        return ingestionCount.get();
+    }
+
+    /**
+     * Returns {@code weights.length + 1} offsets; range i is [bounds[i], bounds[i + 1]) and always starts at a line.
+     */
+    static long[] splitAtNewlines(FileChannel channel, int[] weights) throws IOException {
+        long size = channel.size();
+        long total = 0;
+        for (int w : weights) {
+            total += w;
+        }
+        long[] bounds = new long[weights.length + 1];
+        long accumulated = 0;
+        for (int i = 1; i < weights.length; i++) {
+            accumulated += weights[i - 1];
+            long target = Math.max(bounds[i - 1], size * accumulated / total);
+            bounds[i] = nextLineStart(channel, target, size);
+        }
+        bounds[weights.length] = size;
+        return bounds;
+    }
+
+    private static long nextLineStart(FileChannel channel, long position, long size) throws IOException {
+        if (position == 0) {
+            return 0;
+        }
+        // position - 1 is a newline means position already starts a line
+        long pos = position - 1;
+        while (pos < size) {
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(64 * 1024, size - pos));
+            while (window.hasRemaining()) {
+                if (window.get() == '\n') {
+                    return pos + window.position();
+                }
+            }
+            pos += window.limit();
+        }
+        return size;
+    }
+
+    private void feedRange(FileChannel channel, long start, long end, FeedSocketAdapterClient client)
+            throws IOException {
+        byte[] line = new byte[4096];
+        long windowStart = start;
+        while (windowStart < end) {
+            long windowSize = Math.min(mapWindow, end - windowStart);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+            // the lines are copied out through a view, so that the scan of the window keeps its own position
+            ByteBuffer lines = window.duplicate();
+            boolean lastWindow = windowStart + windowSize == end;
+            int lineStart = 0;
+            int limit = window.limit();
+            for (int i = 0; i < limit; i++) {
+                if (window.get(i) == '\n') {
+                    line = emitLine(lines, lineStart, i, line, client);
+                    lineStart = i + 1;
+                }
+            }
+            if (lineStart < limit) {
+                if (lastWindow) {
+                    line = emitLine(lines, lineStart, limit, line, client);
+                    lineStart = limit;
+                } else if (lineStart == 0) {
+                    throw new IOException("a line is longer than " + mapWindow + " bytes at offset " + windowStart);
+                }
+            }
+            // remap from the first unfinished line
+            windowStart += lineStart;
+        }
+    }
+
+    private byte[] emitLine(ByteBuffer window, int from, int to, byte[] line, FeedSocketAdapterClient client)
+            throws IOException {
+        // same line terminators as BufferedReader.readLine
+        if (to > from && window.get(to - 1) == '\r') {
+            to--;
+        }
+        int length = to - from;
+        if (line.length < length) {
+            line = new byte[Integer.highestOneBit(length) << 1];
+        }
+        window.position(from);
+        window.get(line, 0, length);
+        ingest(client, new String(line, 0, length, StandardCharsets.UTF_8));
+        return line;
+    }
+
+    private void ingest(FeedSocketAdapterClient client, String record) throws IOException {
+        client.ingest(record);
+        long count = ingestionCount.incrementAndGet();
+        if (count % PROGRESS_INTERVAL == 0 && progress != null) {
+            progress.accept(count);
+        }
+    }
+
+    private static void offer(BlockingQueue<String> queue, String line, List<Future<?>> workers)
+            throws IOException, InterruptedException {
+        while (!queue.offer(line, 100, TimeUnit.MILLISECONDS)) {
+            for (Future<?> worker : workers) {
+                if (worker.isDone()) {
+                    throw new IOException("an adapter worker stopped before the end of the input");
+                }
+            }
+        }
+    }
+
+    private void runAll(List<WorkerTask> tasks, ReaderTask reader) throws IOException, InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(tasks.size());
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (WorkerTask task : tasks) {
+                futures.add(pool.submit(() -> {
+                    task.run();
+                    return null;
+                }));
+            }
+            if (reader != null) {
+                try {
+                    reader.run(futures);
+                } catch (IOException e) {
+                    // surface the worker's own failure rather than the reader's reaction to it
+                    for (Future<?> future : futures) {
+                        if (future.isDone()) {
+                            future.get();
+                        }
+                    }
+                    throw e;
+                }
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private interface WorkerTask {
+        void run() throws IOException, InterruptedException;
+    }
+
+    private interface ReaderTask {
+        void run(List<Future<?>> workers) throws IOException, InterruptedException;
+    }
+}
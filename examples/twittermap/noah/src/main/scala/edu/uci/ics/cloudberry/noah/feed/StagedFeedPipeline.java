@@ -0,0 +1,64 @@
+package edu.uci.ics.cloudberry.noah.feed;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Dispatches every message of a {@link MessageSource} to several independent {@link FeedStage}s.
+ * <p>
+ * The dispatching thread only hands messages over, so it keeps draining the source (e.g. the hbc client queue)
+ * as long as the stages do not block it.
+ */
+public class StagedFeedPipeline {
+
+    private static final int PROGRESS_INTERVAL = 100000;
+
+    private final List<FeedStage> stages = new ArrayList<>();
+
+    public StagedFeedPipeline addStage(FeedStage stage) {
+        stages.add(stage);
+        return this;
+    }
+
+    public List<FeedStage> getStages() {
+        return stages;
+    }
+
+    /**
+     * Runs until the source is exhausted and every stage has drained its queue.
+     *
+     * @return the number of dispatched messages
+     */
+    public long run(MessageSource source) throws IOException, InterruptedException {
+        for (FeedStage stage : stages) {
+            stage.start();
+        }
+        long count = 0;
+        try {
+            String msg;
+            while ((msg = source.next()) != null) {
+                for (FeedStage stage : stages) {
+                    stage.offer(msg);
+                }
+                count++;
+                if (count % PROGRESS_INTERVAL == 0) {
+                    report(count);
+                }
+            }
+        } finally {
+            for (FeedStage stage : stages) {
+                stage.close();
+            }
+        }
+        report(count);
+        return count;
+    }
+
+    private void report(long count) {
+        System.err.println("# of dispatched messages: " + count);
+        for (FeedStage stage : stages) {
+            System.err.println(stage);
+        }
+    }
+}
@@ -1,11 +1,11 @@
 package edu.uci.ics.cloudberry.noah.feed
 
-import java.io.File
+import java.io.{File, IOException}
 
 import edu.uci.ics.cloudberry.gnosis._
 import edu.uci.ics.cloudberry.noah.adm.{UnknownPlaceException, Tweet}
 import edu.uci.ics.cloudberry.util.Profile._
-import twitter4j.{TwitterException, TwitterObjectFactory}
+import twitter4j.TwitterException
 
 object TagTweet {
   val shapeMap = Seq( StateLevel -> "web/public/data/state.json",
@@ -19,7 +19,10 @@ object TagTweet {
   @throws[UnknownPlaceException]
   @throws[TwitterException]
   def tagOneTweet(ln: String, requireGeoField: Boolean): String = {
-    val adm = Tweet.toADM(TwitterObjectFactory.createStatus(ln), usGeoGnosis, requireGeoField)
-    return adm
+    try {
+      Tweet.toADM(ln, usGeoGnosis, requireGeoField)
+    } catch {
+      case e: IOException => throw new TwitterException(e.getMessage, e)
+    }
   }
 }
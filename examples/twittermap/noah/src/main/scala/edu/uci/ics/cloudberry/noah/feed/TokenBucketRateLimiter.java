@@ -0,0 +1,50 @@
+package edu.uci.ics.cloudberry.noah.feed;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A token bucket that refills {@code permitsPerPeriod} tokens every {@code periodMillis} milliseconds
+ * and holds at most {@code permitsPerPeriod} tokens, so a burst never exceeds one period worth of records.
+ * It replaces the "sleep every batch" pacing: the caller only parks for the time the bucket is actually empty.
+ */
+public class TokenBucketRateLimiter {
+
+    private final long capacity;
+    private final double nanosPerPermit;
+    private double tokens;
+    private long lastRefillNanos;
+
+    public TokenBucketRateLimiter(int permitsPerPeriod, int periodMillis) {
+        if (permitsPerPeriod < 1 || periodMillis < 1) {
+            throw new IllegalArgumentException("permitsPerPeriod and periodMillis should be positive");
+        }
+        this.capacity = permitsPerPeriod;
+        this.nanosPerPermit = (double) TimeUnit.MILLISECONDS.toNanos(periodMillis) / permitsPerPeriod;
+        this.tokens = permitsPerPeriod;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Blocks the calling thread until {@code permits} tokens are available, then consumes them.
+     */
+    public synchronized void acquire(int permits) {
+        refill(System.nanoTime());
+        tokens -= permits;
+        if (tokens < 0) {
+            long waitNanos = (long) Math.ceil(-tokens * nanosPerPermit);
+            long deadline = System.nanoTime() + waitNanos;
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, remaining);
+            }
+            refill(System.nanoTime());
+        }
+    }
+
+    private void refill(long now) {
+        double refilled = (now - lastRefillNanos) / nanosPerPermit;
+        tokens = Math.min(capacity, tokens + refilled);
+        lastRefillNanos = now;
+    }
+}
@@ -11,9 +11,9 @@ import com.twitter.hbc.httpclient.auth.Authentication;
 import com.twitter.hbc.httpclient.auth.OAuth1;
 import edu.uci.ics.cloudberry.noah.GeneralProducerKafka;
 import edu.uci.ics.cloudberry.noah.adm.UnknownPlaceException;
+import edu.uci.ics.cloudberry.noah.metrics.IngestionMetrics;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.kohsuke.args4j.CmdLineException;
-import twitter4j.TwitterException;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
@@ -34,13 +34,29 @@ public class TwitterFeedStreamDriver {
                 int batchSize = config.getBatchSize();
                 int waitMillSecPerRecord = config.getWaitMillSecPerRecord();
                 int maxCount = config.getMaxCount();
-                socketAdapterClient = new FeedSocketAdapterClient(adapterUrl, port,
-                        batchSize, waitMillSecPerRecord, maxCount);
-                socketAdapterClient.initialize();
+                FeedSocketAdapterClient client;
+                if (config.isUseNio()) {
+                    client = new BatchedFeedSocketAdapterClient(adapterUrl, port,
+                            batchSize, waitMillSecPerRecord, maxCount, config.getFlushBytes(), config.getFlushMillis());
+                } else {
+                    client = new FeedSocketAdapterClient(adapterUrl, port,
+                            batchSize, waitMillSecPerRecord, maxCount);
+                }
+                client.initialize();
+                synchronized (this) {
+                    socketAdapterClient = client;
+                }
             }
         } else {
             throw new CmdLineException("You should provide a port and an URL");
         }
+        return currentSocket();
+    }
+
+    /**
+     * The monitor only guards the reference: nothing that can block on the socket runs while holding it.
+     */
+    synchronized FeedSocketAdapterClient currentSocket() {
         return socketAdapterClient;
     }
 
@@ -92,25 +108,9 @@ public class TwitterFeedStreamDriver {
             if (config.isStoreKafka()) {
                 kafkaProducer = producer.createKafkaProducer();
             }
-            // Do whatever needs to be done with messages;
-            while (!twitterClient.isDone()) {
-                String msg = queue.take();
-                bw.write(msg);
-                if (config.isStoreKafka()) {
-                    producer.store(config.getTopic(Config.Source.Zika), msg, kafkaProducer);
-                }
-                //if is not to store in file only, geo tag and send to database
-                if (!config.isFileOnly()) {
-                    try {
-                        String adm = TagTweet.tagOneTweet(msg, true);
-                        socketAdapterClient.ingest(adm);
-                    } catch (UnknownPlaceException e) {
-
-                    } catch (TwitterException e) {
-                        e.printStackTrace(System.err);
-                    }
-                }
-            }
+            // every sink drains its own queue, so a slow feed only backs up into the hbc queue once its own queue is full
+            StagedFeedPipeline pipeline = createPipeline(config, bw, producer, kafkaProducer);
+            pipeline.run(MessageSource.fromClient(twitterClient, queue));
         } catch (Exception e) {
             e.printStackTrace(System.err);
         } finally {
@@ -123,6 +123,51 @@ public class TwitterFeedStreamDriver {
         }
     }
 
+    /**
+     * One stage per sink: the archive file, Kafka when enabled, and geotag + feed unless storing in the file only.
+     * Only the archive may block the dispatcher, Kafka and the feed drop messages when they fall behind.
+     */
+    StagedFeedPipeline createPipeline(Config config, BufferedWriter bw, GeneralProducerKafka producer,
+                                      KafkaProducer<String, String> kafkaProducer) {
+        StagedFeedPipeline pipeline = new StagedFeedPipeline();
+        if (bw != null) {
+            // a single writer keeps the archive lines whole
+            pipeline.addStage(new FeedStage("archive", config.getArchiveQueue(), config.getArchiveOverflow(), 1,
+                    bw::write));
+        }
+        if (kafkaProducer != null) {
+            String topic = config.getTopic(Config.Source.Zika);
+            pipeline.addStage(new FeedStage("kafka", config.getKafkaQueue(),
+                    dropping("kafka", config.getKafkaOverflow()), config.getKafkaWorkers(),
+                    msg -> producer.store(topic, msg, kafkaProducer)));
+        }
+        //if is not to store in file only, geo tag and send to database
+        if (!config.isFileOnly()) {
+            pipeline.addStage(new FeedStage("geotag", config.getGeotagQueue(),
+                    dropping("geotag", config.getGeotagOverflow()), config.getGeotagWorkers(), geotagSink()));
+        }
+        return pipeline;
+    }
+
+    protected FeedStage.Sink geotagSink() {
+        return msg -> {
+            try {
+                String adm = TagTweet.tagOneTweet(msg, true);
+                // the workers geotag in parallel and share one client, which serializes its own socket writes
+                currentSocket().ingest(adm);
+            } catch (UnknownPlaceException e) {
+
+            }
+        };
+    }
+
+    private static OverflowPolicy dropping(String stage, OverflowPolicy policy) {
+        if (policy == OverflowPolicy.BLOCK) {
+            throw new IllegalArgumentException("the " + stage + " stage cannot BLOCK, it would stall the archive");
+        }
+        return policy;
+    }
+
     public static void main(String[] args) throws IOException {
         TwitterFeedStreamDriver feedDriver = new TwitterFeedStreamDriver();
 
@@ -141,6 +186,7 @@ public class TwitterFeedStreamDriver {
             if (config.getTrackTerms().length == 0 && config.getTrackLocation().length == 0) {
                 throw new CmdLineException("Should provide at least one tracking word, or one location boundary");
             }
+            IngestionMetrics.get().startHttp(config.getMetricsPort());
             feedDriver.openSocket(config);
             feedDriver.run(config, bw);
         } catch (CmdLineException e) {
@@ -148,8 +194,9 @@ public class TwitterFeedStreamDriver {
         } catch (Exception e) {
             e.printStackTrace(System.err);
         } finally {
-            if (feedDriver.socketAdapterClient != null) {
-                feedDriver.socketAdapterClient.finalize();
+            FeedSocketAdapterClient client = feedDriver.currentSocket();
+            if (client != null) {
+                client.finalize();
             }
         }
     }
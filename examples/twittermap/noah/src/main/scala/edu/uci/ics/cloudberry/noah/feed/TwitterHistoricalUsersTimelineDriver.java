@@ -1,6 +1,7 @@
 package edu.uci.ics.cloudberry.noah.feed;
 
 import edu.uci.ics.cloudberry.noah.GeneralProducerKafka;
+import edu.uci.ics.cloudberry.noah.metrics.IngestionMetrics;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.kohsuke.args4j.CmdLineException;
 import twitter4j.*;
@@ -62,6 +63,7 @@ public class TwitterHistoricalUsersTimelineDriver {
         } catch (CmdLineException e) {
             System.err.println(e);
         }
+        IngestionMetrics.get().startHttp(config.getMetricsPort());
         userDriver.run(config);
     }
 }
\ No newline at end of file
@@ -8,6 +8,7 @@ import com.twitter.hbc.core.processor.StringDelimitedProcessor;
 import com.twitter.hbc.httpclient.auth.Authentication;
 import com.twitter.hbc.httpclient.auth.OAuth1;
 import edu.uci.ics.cloudberry.noah.GeneralProducerKafka;
+import edu.uci.ics.cloudberry.noah.metrics.IngestionMetrics;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.kohsuke.args4j.CmdLineException;
 import twitter4j.ResponseList;
@@ -93,6 +94,7 @@ public class TwitterUserStreamDriver {
         } catch (CmdLineException e) {
             System.err.println(e);
         }
+        IngestionMetrics.get().startHttp(config.getMetricsPort());
         userDriver.run(config);
     }
 }
@@ -0,0 +1,69 @@
+package edu.uci.ics.cloudberry.noah.feed;
+
+import java.util.Arrays;
+
+/**
+ * Smooth weighted round-robin: with weights {2, 1} it yields 0, 1, 0, 0, 1, 0, ...
+ * The sequence only depends on the weights, so a replay always routes the same record to the same adapter.
+ */
+public class WeightedRoundRobin {
+
+    private final int[] weights;
+    private final int[] current;
+    private final int total;
+
+    public WeightedRoundRobin(int[] weights) {
+        if (weights.length == 0) {
+            throw new IllegalArgumentException("at least one weight is required");
+        }
+        int sum = 0;
+        for (int w : weights) {
+            if (w < 1) {
+                throw new IllegalArgumentException("weights should be positive: " + Arrays.toString(weights));
+            }
+            sum += w;
+        }
+        this.weights = weights.clone();
+        this.current = new int[weights.length];
+        this.total = sum;
+    }
+
+    public int next() {
+        int best = 0;
+        for (int i = 0; i < weights.length; i++) {
+            current[i] += weights[i];
+            if (current[i] > current[best]) {
+                best = i;
+            }
+        }
+        current[best] -= total;
+        return best;
+    }
+
+    public int[] getWeights() {
+        return weights.clone();
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * Parses a comma separated weight list such as "2,1,1". An empty list means equal weights (plain round-robin).
+     */
+    public static int[] parseWeights(String weights, int count) {
+        int[] parsed = new int[count];
+        if (weights == null || weights.trim().isEmpty()) {
+            Arrays.fill(parsed, 1);
+            return parsed;
+        }
+        String[] parts = weights.split(",");
+        if (parts.length != count) {
+            throw new IllegalArgumentException("expected " + count + " weights, got \"" + weights + "\"");
+        }
+        for (int i = 0; i < count; i++) {
+            parsed[i] = Integer.parseInt(parts[i].trim());
+        }
+        return parsed;
+    }
+}
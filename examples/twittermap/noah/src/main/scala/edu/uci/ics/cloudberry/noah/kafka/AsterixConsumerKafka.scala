@@ -1,22 +1,32 @@
 package edu.uci.ics.cloudberry.noah.kafka
 
-import java.io.File
+import java.io.{File, IOException}
 import java.util.Properties
 
 import com.typesafe.config.ConfigFactory
 import edu.uci.ics.cloudberry.noah.feed.Config.Source
 import edu.uci.ics.cloudberry.noah.feed._
-import org.apache.kafka.clients.consumer.{ConsumerRecords, KafkaConsumer}
+import edu.uci.ics.cloudberry.noah.metrics.IngestionMetrics
+import org.apache.kafka.clients.consumer._
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.errors.WakeupException
 import org.kohsuke.args4j.CmdLineException
 import play.api.libs.ws.ahc.AhcWSClient
 
 import scala.collection.JavaConversions._
+import scala.collection.mutable
+import scala.concurrent.ExecutionContext.Implicits.global
+import scala.concurrent.duration._
+import scala.concurrent.{Await, Future, blocking}
+import scala.util.{Failure, Success, Try}
 
 /**
   * Created by Monique on 7/18/2016.
   */
 class AsterixConsumerKafka(config: Config, wsClient: AhcWSClient) {
 
+  import AsterixConsumerKafka._
+
   def getProperties(): Properties = {
     val server = config.getKafkaServer
     val groupId = config.getKafkaId
@@ -41,10 +51,15 @@ class AsterixConsumerKafka(config: Config, wsClient: AhcWSClient) {
     props.put("key.deserializer", keySerial)
     props.put("value.deserializer", valueSerial)
     props.put("poll.ms", poolTimeout)
+    if (config.isKafkaBatch) {
+      // the offsets are committed by consumeBatched once a batch is acknowledged
+      props.put("enable.auto.commit", "false")
+      props.put("max.poll.records", config.getKafkaBatchSize.toString)
+    }
     return props
   }
 
-  def subscribe(consumer: KafkaConsumer[String, String], source: Source): Unit = {
+  def subscribe(consumer: Consumer[String, String], source: Source): Unit = {
     val topics: Array[String] = Array(config.getTopic(source))
     consumer.subscribe(topics.toSeq)
   }
@@ -64,6 +79,10 @@ class AsterixConsumerKafka(config: Config, wsClient: AhcWSClient) {
 
   @throws[CmdLineException]
   def consume(source: Source, consumer: KafkaConsumer[String, String], timeout: Long) {
+    if (config.isKafkaBatch) {
+      consumeBatched(source, consumer, timeout)
+      return
+    }
     subscribe(consumer, source)
     val asterixDataInsertion = new AsterixDataInsertion(wsClient)
     val dataset = config.getDataset(source)
@@ -72,12 +91,207 @@ class AsterixConsumerKafka(config: Config, wsClient: AhcWSClient) {
       //TODO change while(true) logic to sleep(timeout) when there is no record available
       while (true) {
         val records: ConsumerRecords[String, String] = consumer.poll(timeout);
+        Consumed.add(records.count)
         sendToAsterix(source, url, dataset, asterixDataInsertion, records)
       }
     } catch {
       case e: Exception => {
         e.printStackTrace(System.err)
+      }
+    }
+  }
+
+  /**
+    * Sends the records in batches of exactly `kafkaBatchSize` records, or fewer once the first one waited
+    * `kafkaBatchLingerMillis`; the records polled beyond a full batch are carried over to the next one.
+    * Zika goes through one feed socket kept open across batches, the other sources through one multi-record
+    * insert per batch. The offsets are committed only after a batch is acknowledged;
+    * a failed batch is rewound and retried, so a restart never skips records (they may be delivered twice).
+    */
+  @throws[CmdLineException]
+  def consumeBatched(source: Source, consumer: Consumer[String, String], timeout: Long) {
+    subscribe(consumer, source)
+    val asterixDataInsertion = new AsterixDataInsertion(wsClient)
+    val dataset = config.getDataset(source)
+    val url = s"${config.getAxServer}/aql"
+    val useSocket = source == Config.Source.Zika
+    var socketAdapterClient: FeedSocketAdapterClient = null
+
+    def send(records: Seq[String]): Boolean = {
+      if (!useSocket) {
+        return asterixDataInsertion.insertBatch(url, config.getDataverse, dataset, records, BatchTimeout)
+      }
+      if (socketAdapterClient == null) {
+        try {
+          socketAdapterClient = new TwitterFeedStreamDriver().openSocket(config)
+        } catch {
+          case e: IOException =>
+            System.err.println(s"Failed to open the feed socket: ${e.getMessage}")
+            return false
+        }
+        if (socketAdapterClient == null) {
+          throw new CmdLineException("Should provide the url and port of the feed adapter to ingest Zika tweets")
+        }
+      }
+      val acknowledged = asterixDataInsertion.ingestBatch(socketAdapterClient, records)
+      if (!acknowledged) {
+        // the socket is unusable after a failed write, the retry opens a new one
+        socketAdapterClient.finalize()
+        socketAdapterClient = null
+      }
+      acknowledged
+    }
+
+    try {
+      sendBatches(consumer, timeout)(send)
+    } catch {
+      case e: CmdLineException => throw e
+      case e: Exception => {
+        e.printStackTrace(System.err)
+      }
+    } finally {
+      if (socketAdapterClient != null) {
+        socketAdapterClient.finalize()
+      }
+    }
+  }
+
+  /**
+    * The batching loop of [[consumeBatched]], until the consumer is woken up.
+    * A batch is sent on another thread, and it and the retry backoff are waited for with every assigned partition
+    * paused while the consumer keeps polling, so the consumer stays in its group however long AsterixDB takes.
+    */
+  private[kafka] def sendBatches(consumer: Consumer[String, String], timeout: Long)(send: Seq[String] => Boolean): Unit = {
+    val batchSize = config.getKafkaBatchSize
+    val lingerMillis = config.getKafkaBatchLingerMillis
+    val batch = new mutable.ArrayBuffer[ConsumerRecord[String, String]](batchSize)
+    // the records polled beyond a full batch, they start the next one
+    val carried = mutable.Queue.empty[ConsumerRecord[String, String]]
+    var firstRecordMillis = 0L
+    var retryDelayMillis = MinRetryDelayMillis
+
+    def fill(): Unit = {
+      while (batch.size < batchSize && carried.nonEmpty) {
+        if (batch.isEmpty) {
+          firstRecordMillis = System.currentTimeMillis()
         }
+        batch += carried.dequeue()
+      }
     }
+
+    def lingerLeftMillis: Long = firstRecordMillis + lingerMillis - System.currentTimeMillis()
+
+    try {
+      while (true) {
+        // a started batch is sent once it lingered, not at the end of a whole poll timeout
+        val pollMillis = if (batch.isEmpty) timeout else Math.max(0L, Math.min(timeout, lingerLeftMillis))
+        val records = consumer.poll(pollMillis)
+        Consumed.add(records.count)
+        carried ++= records
+        fill()
+        while (batch.size >= batchSize || (batch.nonEmpty && lingerLeftMillis <= 0)) {
+          val start = System.nanoTime()
+          val values = batch.map(_.value)
+          val sent = Future(blocking(send(values)))
+          keepPolling(consumer, carried) { waitMillis =>
+            Try(Await.ready(sent, waitMillis.millis))
+            sent.isCompleted
+          }
+          InsertLatency.recordSince(start)
+          val acknowledged = sent.value.get match {
+            case Success(ack) => ack
+            case Failure(e: CmdLineException) => throw e
+            case Failure(e) =>
+              System.err.println(s"Failed to send a batch: $e")
+              false
+          }
+          if (acknowledged) {
+            commit(consumer, batch)
+            retryDelayMillis = MinRetryDelayMillis
+          } else {
+            // the carried records follow the batch in their partitions, so they are replayed along with it
+            rewind(consumer, batch ++ carried)
+            carried.clear()
+            System.err.println(s"Batch of ${batch.size} records was not acknowledged, retrying in $retryDelayMillis ms")
+            val retryAt = System.currentTimeMillis() + retryDelayMillis
+            keepPolling(consumer, carried) { waitMillis =>
+              val left = retryAt - System.currentTimeMillis()
+              if (left > 0) {
+                Thread.sleep(Math.min(left, waitMillis))
+              }
+              System.currentTimeMillis() >= retryAt
+            }
+            retryDelayMillis = Math.min(retryDelayMillis * 2, MaxRetryDelayMillis)
+          }
+          batch.clear()
+          fill()
+        }
+      }
+    } catch {
+      case e: WakeupException =>
+        System.err.println("Kafka consumer woken up, stopped consuming")
     }
+  }
+
+  // Polls with the assigned partitions paused until `finished` (which may wait up to the given milliseconds)
+  // returns true. The records of partitions assigned by a rebalance meanwhile are not paused, they are carried.
+  private def keepPolling(consumer: Consumer[String, String], carried: mutable.Queue[ConsumerRecord[String, String]])
+                         (finished: Long => Boolean): Unit = {
+    val paused = consumer.assignment().toList
+    consumer.pause(paused)
+    try {
+      while (!finished(PausedPollMillis)) {
+        val records = consumer.poll(0)
+        Consumed.add(records.count)
+        carried ++= records
+      }
+    } finally {
+      val assigned = consumer.assignment()
+      consumer.resume(paused.filter(assigned.contains))
+    }
+  }
+
+  private def commit(consumer: Consumer[String, String], batch: Seq[ConsumerRecord[String, String]]): Unit = {
+    val offsets = new java.util.HashMap[TopicPartition, OffsetAndMetadata]()
+    for (record <- batch) {
+      // the committed offset is the next record to read
+      offsets.put(new TopicPartition(record.topic, record.partition), new OffsetAndMetadata(record.offset + 1))
+    }
+    try {
+      consumer.commitSync(offsets)
+      Committed.add(batch.size)
+    } catch {
+      case e: CommitFailedException =>
+        // the partitions were reassigned, their new owner resumes from the last committed offsets
+        System.err.println(s"Failed to commit a batch: ${e.getMessage}")
+    }
+  }
+
+  // seeks every partition of the batch back to its first record in the batch, so the next polls replay it
+  private def rewind(consumer: Consumer[String, String], batch: Seq[ConsumerRecord[String, String]]): Unit = {
+    val assigned = consumer.assignment()
+    val firstOffsets = mutable.Map.empty[TopicPartition, Long]
+    for (record <- batch) {
+      val partition = new TopicPartition(record.topic, record.partition)
+      if (!firstOffsets.contains(partition)) {
+        firstOffsets += partition -> record.offset
+      }
+    }
+    for ((partition, offset) <- firstOffsets if assigned.contains(partition)) {
+      consumer.seek(partition, offset)
+    }
+  }
+}
+
+object AsterixConsumerKafka {
+  val BatchTimeout = 60.seconds
+  val MinRetryDelayMillis = 500L
+  val MaxRetryDelayMillis = 30000L
+  // how long a paused consumer waits between polls, far below session.timeout.ms
+  val PausedPollMillis = 100L
+
+  private val Consumed = IngestionMetrics.counter(IngestionMetrics.KAFKA_CONSUMED)
+  private val Committed = IngestionMetrics.counter(IngestionMetrics.KAFKA_COMMITTED)
+  // one batch in batch mode
+  private val InsertLatency = IngestionMetrics.latency(IngestionMetrics.ASTERIX_INSERT)
 }
@@ -5,7 +5,10 @@ import org.apache.kafka.clients.consumer.ConsumerRecords
 import play.api.libs.ws.ahc.AhcWSClient
 
 import scala.collection.JavaConversions._
+import scala.concurrent.Await
 import scala.concurrent.ExecutionContext.Implicits.global
+import scala.concurrent.duration.Duration
+import scala.util.control.NonFatal
 
 
 class AsterixDataInsertion(wsClient: AhcWSClient){
@@ -49,4 +52,60 @@ class AsterixDataInsertion(wsClient: AhcWSClient){
       }
     }
   }
-}
\ No newline at end of file
+
+  /**
+    * Inserts the whole batch with one AQL statement and waits for AsterixDB to answer.
+    * Records that can not be tagged are reported and skipped.
+    *
+    * @return true if AsterixDB accepted the batch
+    */
+  def insertBatch(url: String, dataverse: String, dataset: String, records: Seq[String], timeout: Duration): Boolean = {
+    val adms = records.flatMap(tagRecord)
+    if (adms.isEmpty) {
+      return true
+    }
+    val aql = s"use dataverse $dataverse; insert into dataset $dataset (for $$x in [${adms.mkString(",")}] return $$x);"
+    try {
+      val wsResponse = Await.result(wsClient.url(url).post(aql), timeout)
+      if (!(200 to 299).contains(wsResponse.status)) {
+        System.err.println(s"Received unexpected status ${wsResponse.status} : ${wsResponse.body}")
+        false
+      } else {
+        true
+      }
+    } catch {
+      case NonFatal(e) =>
+        System.err.println(s"Failed to insert a batch of ${adms.size} records: ${e.getMessage}")
+        false
+    }
+  }
+
+  /**
+    * Streams the batch through an already opened feed socket and waits until it is written out.
+    *
+    * @return true if every record reached the socket
+    */
+  def ingestBatch(socketAdapterClient: FeedSocketAdapterClient, records: Seq[String]): Boolean = {
+    try {
+      for (adm <- records.flatMap(tagRecord)) {
+        socketAdapterClient.ingest(adm)
+      }
+      socketAdapterClient.flush()
+      true
+    } catch {
+      case NonFatal(e) =>
+        e.printStackTrace(System.err)
+        false
+    }
+  }
+
+  private def tagRecord(record: String): Option[String] = {
+    try {
+      Some(TagTweet.tagOneTweet(record, false)).filter(_.length > 0)
+    } catch {
+      case NonFatal(e) =>
+        System.err.println(s"Skipping a record that can not be tagged: ${e.getMessage}")
+        None
+    }
+  }
+}
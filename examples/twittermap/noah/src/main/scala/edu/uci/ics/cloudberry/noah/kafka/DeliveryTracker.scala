@@ -0,0 +1,60 @@
+package edu.uci.ics.cloudberry.noah.kafka
+
+import java.util.concurrent.atomic.{AtomicLong, AtomicReference}
+
+import edu.uci.ics.cloudberry.noah.metrics.IngestionMetrics
+import org.apache.kafka.clients.producer.{Callback, RecordMetadata}
+
+/**
+  * Counts the records handed to a [[org.apache.kafka.clients.producer.KafkaProducer]] and the outcome of each send.
+  * One instance serves as the callback of every send, so it holds no per-record state.
+  */
+class DeliveryTracker extends Callback {
+
+  import DeliveryTracker._
+
+  private val startNanos = System.nanoTime()
+  private val sentCount = new AtomicLong()
+  private val ackedCount = new AtomicLong()
+  private val failedCount = new AtomicLong()
+  private val firstError = new AtomicReference[Exception]()
+
+  def markSent(n: Int): Unit = sentCount.addAndGet(n)
+
+  def sent: Long = sentCount.get
+
+  def acked: Long = ackedCount.get
+
+  def failed: Long = failedCount.get
+
+  def pending: Long = sentCount.get - ackedCount.get - failedCount.get
+
+  def error: Option[Exception] = Option(firstError.get)
+
+  override def onCompletion(metadata: RecordMetadata, exception: Exception): Unit = {
+    if (exception == null) {
+      ackedCount.incrementAndGet()
+      Acked.increment()
+    } else {
+      failedCount.incrementAndGet()
+      Failed.increment()
+      firstError.compareAndSet(null, exception)
+    }
+  }
+
+  /**
+    * Acknowledged records per second since the tracker was created.
+    */
+  def ackRate: Double = {
+    val seconds = (System.nanoTime() - startNanos) / 1e9
+    if (seconds > 0) acked / seconds else 0
+  }
+
+  override def toString: String =
+    f"sent: $sent, acked: $acked, failed: $failed, pending: $pending, $ackRate%.1f records/sec"
+}
+
+object DeliveryTracker {
+  private val Acked = IngestionMetrics.counter(IngestionMetrics.KAFKA_ACKED)
+  private val Failed = IngestionMetrics.counter(IngestionMetrics.KAFKA_FAILED)
+}
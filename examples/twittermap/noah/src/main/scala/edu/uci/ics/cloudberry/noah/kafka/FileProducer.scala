@@ -1,17 +1,24 @@
 package edu.uci.ics.cloudberry.noah.kafka
 
-import java.io.{EOFException, File}
+import java.io.{File, IOException}
+import java.util.concurrent.{Callable, Executors, TimeUnit}
 
 import edu.uci.ics.cloudberry.noah.GeneralProducerKafka
 import edu.uci.ics.cloudberry.noah.feed.{CmdLineAux, Config}
+import edu.uci.ics.cloudberry.noah.metrics.IngestionMetrics
 import org.apache.kafka.clients.producer.KafkaProducer
 import play.api.Logger
+
+import scala.collection.mutable.ArrayBuffer
 import scala.util.{Failure, Success, Try}
 
 object FileProducer {
+  val ReportSeconds = 10L
+
   def main(args: Array[String]) {
     val fileProducer: FileProducer = new FileProducer
     val config: Config = CmdLineAux.parseCmdLine(args)
+    IngestionMetrics.get().startHttp(config.getMetricsPort)
     val generalProduceKafka: GeneralProducerKafka = new GeneralProducerKafka(config)
     val kafkaProducer: KafkaProducer[String, String] = generalProduceKafka.createKafkaProducer()
     Try (fileProducer.run(config, generalProduceKafka, kafkaProducer)) match {
@@ -23,33 +30,95 @@ object FileProducer {
 }
 
 class FileProducer {
-  def load(filePath: String, topic: String, generalProducerKafka: GeneralProducerKafka, kafkaProducer: KafkaProducer[String, String]): Unit = {
-    val file: File = new File(filePath)
-    if (file.isDirectory) {
-      file.listFiles().foreach { file =>
-        load(filePath + "/" + file.getName, topic, generalProducerKafka, kafkaProducer)
+
+  import FileProducer._
+
+  /**
+    * Sends every line of the .gz files under `filePath` to `topic`.
+    * Up to `threads` files are decompressed at the same time, each one is streamed in batches of `batchSize` lines,
+    * so memory does not grow with the file size. The sends are asynchronous; the producer is flushed before returning.
+    *
+    * @return the delivery counts
+    */
+  def load(filePath: String, topic: String, generalProducerKafka: GeneralProducerKafka,
+           kafkaProducer: KafkaProducer[String, String], threads: Int, batchSize: Int): DeliveryTracker = {
+    val files = listFiles(new File(filePath))
+    val tracker = new DeliveryTracker
+    val pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, files.size)))
+    val reporter = Executors.newSingleThreadScheduledExecutor()
+    reporter.scheduleAtFixedRate(new Runnable {
+      override def run(): Unit = Logger.info(tracker.toString)
+    }, ReportSeconds, ReportSeconds, TimeUnit.SECONDS)
+    try {
+      val loads = files.map { file =>
+        pool.submit(new Callable[Long] {
+          override def call(): Long = loadFile(file, topic, generalProducerKafka, kafkaProducer, batchSize, tracker)
+        })
       }
-    } else if (filePath.endsWith(".gz")){
-      Logger.info("Loading file " + filePath + " ...... ")
-      Try (CmdLineAux.createGZipReader(filePath)) match {
-        case Success(br) => {
-          val stream = Stream.continually(br.readLine()).takeWhile(Option(_) != None)
-          stream.foreach (generalProducerKafka.store(topic, _, kafkaProducer))
-          Logger.info("Loaded " + stream.size + " records into kafka")
+      loads.foreach(_.get)
+      kafkaProducer.flush()
+    } finally {
+      pool.shutdownNow()
+      reporter.shutdownNow()
+    }
+    Logger.info("Loaded " + tracker)
+    tracker.error.foreach(e => Logger.error("First failed send", e))
+    tracker
+  }
+
+  private def listFiles(file: File): Seq[File] = {
+    if (file.isDirectory) {
+      file.listFiles().sortBy(_.getName).flatMap(listFiles)
+    } else if (file.getName.endsWith(".gz")) {
+      Seq(file)
+    } else {
+      Logger.info("Ingored file " + file.getPath)
+      Seq.empty
+    }
+  }
+
+  private def loadFile(file: File, topic: String, generalProducerKafka: GeneralProducerKafka,
+                       kafkaProducer: KafkaProducer[String, String], batchSize: Int, tracker: DeliveryTracker): Long = {
+    Logger.info("Loading file " + file.getPath + " ...... ")
+    var count = 0L
+    Try(CmdLineAux.createGZipReader(file.getPath)) match {
+      case Success(br) => {
+        try {
+          // a fresh buffer per batch, the previous one may still be referenced by the caller
+          var batch = new ArrayBuffer[String](batchSize)
+          var line = br.readLine()
+          while (line != null) {
+            batch += line
+            if (batch.size >= batchSize) {
+              generalProducerKafka.storeBatch(topic, batch, kafkaProducer, tracker)
+              count += batch.size
+              batch = new ArrayBuffer[String](batchSize)
+            }
+            line = br.readLine()
+          }
+          if (batch.nonEmpty) {
+            generalProducerKafka.storeBatch(topic, batch, kafkaProducer, tracker)
+            count += batch.size
+          }
+          Logger.info("Loaded " + count + " records of " + file.getPath + " into kafka")
+        } catch {
+          case e: IOException => e.printStackTrace
+        } finally {
           br.close
         }
-        case Failure(br) => br.printStackTrace
       }
-    } else {
-      Logger.info("Ingored file " + filePath)
+      case Failure(e) => e.printStackTrace
     }
+    count
   }
+
   def run(config: Config, generalProducerKafka: GeneralProducerKafka, kafkaProducer: KafkaProducer[String, String]) {
     val path = getClass.getResource(config.getFilePath).getPath
 
     if (config.getKfkTopic == None)
       throw new Error("No kafka topic specified")
 
-    load(path, config.getKfkTopic, generalProducerKafka, kafkaProducer)
+    load(path, config.getKfkTopic, generalProducerKafka, kafkaProducer,
+      Math.max(1, config.getFileProducerThreads), Math.max(1, config.getFileProducerBatch))
   }
-}
\ No newline at end of file
+}
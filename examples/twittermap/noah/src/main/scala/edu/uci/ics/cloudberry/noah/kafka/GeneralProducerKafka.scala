@@ -5,6 +5,8 @@ import java.util.Properties
 
 import com.typesafe.config.ConfigFactory
 import edu.uci.ics.cloudberry.noah.feed.Config
+import edu.uci.ics.cloudberry.noah.kafka.DeliveryTracker
+import edu.uci.ics.cloudberry.noah.metrics.IngestionMetrics
 import org.apache.kafka.clients.producer._
 
 /**
@@ -12,6 +14,8 @@ import org.apache.kafka.clients.producer._
   */
 class GeneralProducerKafka(config: Config) {
 
+  import GeneralProducerKafka._
+
   private def getProperties: Properties = {
     val server = config.getKafkaServer();
     val file = new File(getClass().getClassLoader().getResource(config.getConfigFilename()).getFile())
@@ -41,6 +45,37 @@ class GeneralProducerKafka(config: Config) {
 
   def store(topic: String, msg: String, producer: KafkaProducer[String, String]) {
     val data = new ProducerRecord[String, String](topic, msg)
+    val start = System.nanoTime()
     producer.send(data)
+    SendLatency.recordSince(start)
+    Sent.increment()
+  }
+
+  /**
+    * Sends the messages without waiting for them, `tracker` receives the outcome of every send.
+    * The producer batches them on the wire (batch.size, linger.ms) and blocks here only when its buffer.memory is full.
+    * A send that throws is reported to `tracker` as a failure and stops the batch, the later messages are not counted.
+    */
+  def storeBatch(topic: String, msgs: Seq[String], producer: KafkaProducer[String, String], tracker: DeliveryTracker) {
+    msgs.foreach { msg =>
+      val start = System.nanoTime()
+      tracker.markSent(1)
+      try {
+        producer.send(new ProducerRecord[String, String](topic, msg), tracker)
+      } catch {
+        case e: Exception =>
+          // the producer does not call back for a record it refused to take
+          tracker.onCompletion(null, e)
+          throw e
+      }
+      SendLatency.recordSince(start)
+      Sent.increment()
+    }
   }
 }
+
+object GeneralProducerKafka {
+  // the time send() takes to hand a record to the producer buffer, it grows when buffer.memory is full
+  private val SendLatency = IngestionMetrics.latency(IngestionMetrics.KAFKA_SEND)
+  private val Sent = IngestionMetrics.counter(IngestionMetrics.KAFKA_SENT)
+}
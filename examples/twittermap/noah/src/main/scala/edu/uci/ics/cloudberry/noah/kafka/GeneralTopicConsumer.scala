@@ -4,6 +4,7 @@ import akka.actor.ActorSystem
 import akka.stream.ActorMaterializer
 import edu.uci.ics.cloudberry.noah.feed.Config.Source
 import edu.uci.ics.cloudberry.noah.feed.{CmdLineAux, Config}
+import edu.uci.ics.cloudberry.noah.metrics.IngestionMetrics
 import org.apache.kafka.clients.consumer.KafkaConsumer
 import org.kohsuke.args4j.CmdLineException
 import play.api.libs.ws.ahc.AhcWSClient
@@ -32,6 +33,7 @@ class GeneralTopicConsumer {
       if (config.getKafkaServer.isEmpty || config.getKafkaId.isEmpty || config.getAxServer.isEmpty) {
         throw new CmdLineException("Should provide a server for both kafka and asterixDB(hostname:port) and a consumer ID")
       }
+      IngestionMetrics.get().startHttp(config.getMetricsPort)
       val consumer = new AsterixConsumerKafka(config, wsClient)
       val props = consumer.getProperties()
       val kafkaConsumer = new KafkaConsumer[String, String](props)
@@ -10,6 +10,7 @@ import com.twitter.hbc.core.{Client, Constants}
 import com.twitter.hbc.httpclient.auth.{Authentication, OAuth1}
 import edu.uci.ics.cloudberry.noah.GeneralProducerKafka
 import edu.uci.ics.cloudberry.noah.feed.{CmdLineAux, Config}
+import edu.uci.ics.cloudberry.noah.metrics.IngestionMetrics
 import org.apache.kafka.clients.producer.KafkaProducer
 import org.kohsuke.args4j.CmdLineException
 
@@ -23,6 +24,7 @@ object TweetsProducer {
     val tweetsProducer: TweetsProducer = new TweetsProducer
     try {
       val config: Config = CmdLineAux.parseCmdLine(args)
+      IngestionMetrics.get().startHttp(config.getMetricsPort)
       val queue: BlockingQueue[String] = new LinkedBlockingQueue[String](10000)
       val twitterClient = Try(tweetsProducer.connectTwitter(config, queue))
       Runtime.getRuntime.addShutdownHook(new Thread() {
@@ -0,0 +1,47 @@
+package edu.uci.ics.cloudberry.noah.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonically increasing count. Incrementing is lock-free and does not allocate.
+ */
+public class Counter implements CounterMBean {
+
+    private final LongAdder count = new LongAdder();
+    private final long startNanos = System.nanoTime();
+    // only touched by readers
+    private long lastCount;
+    private long lastNanos = startNanos;
+
+    public void increment() {
+        count.increment();
+    }
+
+    public void add(long n) {
+        count.add(n);
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public double getMeanRate() {
+        return perSecond(getCount(), System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public synchronized double getRecentRate() {
+        long now = System.nanoTime();
+        long current = getCount();
+        double rate = perSecond(current - lastCount, now - lastNanos);
+        lastCount = current;
+        lastNanos = now;
+        return rate;
+    }
+
+    static double perSecond(long count, long nanos) {
+        return nanos > 0 ? count * 1e9 / nanos : 0;
+    }
+}
@@ -0,0 +1,15 @@
+package edu.uci.ics.cloudberry.noah.metrics;
+
+public interface CounterMBean {
+    long getCount();
+
+    /**
+     * Events per second since the counter was created.
+     */
+    double getMeanRate();
+
+    /**
+     * Events per second since the previous call, the first call covers the whole lifetime.
+     */
+    double getRecentRate();
+}
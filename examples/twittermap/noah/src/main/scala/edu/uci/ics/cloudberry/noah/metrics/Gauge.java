@@ -0,0 +1,20 @@
+package edu.uci.ics.cloudberry.noah.metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * A value read on demand, e.g. the depth of a queue; the supplier only runs when the metric is read.
+ */
+public class Gauge implements GaugeMBean {
+
+    private final LongSupplier supplier;
+
+    public Gauge(LongSupplier supplier) {
+        this.supplier = supplier;
+    }
+
+    @Override
+    public long getValue() {
+        return supplier.getAsLong();
+    }
+}
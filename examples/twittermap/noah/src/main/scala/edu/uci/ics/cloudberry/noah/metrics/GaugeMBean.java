@@ -0,0 +1,5 @@
+package edu.uci.ics.cloudberry.noah.metrics;
+
+public interface GaugeMBean {
+    long getValue();
+}
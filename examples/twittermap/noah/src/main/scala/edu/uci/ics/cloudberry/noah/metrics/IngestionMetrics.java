@@ -0,0 +1,170 @@
+package edu.uci.ics.cloudberry.noah.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * The metrics shared by the noah drivers, the tagging code and the Kafka classes.
+ * <p>
+ * Look a metric up once, keep the reference, and record on it in the hot path: {@link Counter} and
+ * {@link LatencyHistogram} record without locks or allocation. Every metric is published over JMX under
+ * {@code edu.uci.ics.cloudberry.noah:type=<Type>,name=<name>}, and {@link #startHttp(int)} additionally serves
+ * all of them as plain text on a local port.
+ */
+public class IngestionMetrics {
+
+    // latencies of the ingestion steps
+    public static final String PARSE = "parse";
+    public static final String GEOTAG = "geotag";
+    public static final String ADM_BUILD = "adm.build";
+    public static final String SOCKET_WRITE = "socket.write";
+    public static final String KAFKA_SEND = "kafka.send";
+    public static final String ASTERIX_INSERT = "asterix.insert";
+
+    // counters
+    public static final String RECORDS_PARSED = "records.parsed";
+    public static final String RECORDS_INGESTED = "records.ingested";
+    public static final String RECORDS_FAILED = "records.failed";
+    public static final String RECORDS_DROPPED = "records.dropped";
+    public static final String UNKNOWN_PLACE = "records.unknown.place";
+    public static final String SOCKET_BYTES = "socket.bytes";
+    public static final String KAFKA_SENT = "kafka.sent";
+    public static final String KAFKA_ACKED = "kafka.acked";
+    public static final String KAFKA_FAILED = "kafka.failed";
+    public static final String KAFKA_CONSUMED = "kafka.consumed";
+    public static final String KAFKA_COMMITTED = "kafka.committed";
+    public static final String PLACE_CACHE_HIT = "place.cache.hit";
+    public static final String PLACE_CACHE_MISS = "place.cache.miss";
+
+    // gauges
+    public static final String PLACE_CACHE_SIZE = "place.cache.size";
+
+    private static final String DOMAIN = "edu.uci.ics.cloudberry.noah";
+    private static final IngestionMetrics INSTANCE = new IngestionMetrics();
+
+    private final Map<String, Object> metrics = new ConcurrentHashMap<>();
+    private final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+    private HttpServer httpServer;
+
+    public static IngestionMetrics get() {
+        return INSTANCE;
+    }
+
+    public static Counter counter(String name) {
+        return INSTANCE.register(name, "Counter", Counter.class, Counter::new);
+    }
+
+    public static LatencyHistogram latency(String name) {
+        return INSTANCE.register(name, "Latency", LatencyHistogram.class, LatencyHistogram::new);
+    }
+
+    /**
+     * Registers a gauge, replacing a previous one of the same name (e.g. the queue of a restarted stage).
+     */
+    public static Gauge gauge(String name, LongSupplier supplier) {
+        Gauge gauge = new Gauge(supplier);
+        INSTANCE.metrics.put(name, gauge);
+        INSTANCE.publish(name, "Gauge", gauge, true);
+        return gauge;
+    }
+
+    private <T> T register(String name, String type, Class<T> kind, Supplier<T> factory) {
+        Object metric = metrics.computeIfAbsent(name, key -> {
+            T created = factory.get();
+            publish(key, type, created, false);
+            return created;
+        });
+        if (!kind.isInstance(metric)) {
+            throw new IllegalArgumentException("metric " + name + " is already registered as another type");
+        }
+        return kind.cast(metric);
+    }
+
+    private void publish(String name, String type, Object metric, boolean replace) {
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+            if (replace && mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+            mBeanServer.registerMBean(metric, objectName);
+        } catch (JMException e) {
+            System.err.println("Unable to publish the metric " + name + " over JMX: " + e);
+        }
+    }
+
+    /**
+     * Serves every metric as plain text on http://localhost:port/metrics, a port of 0 or less does nothing.
+     */
+    public synchronized void startHttp(int port) throws IOException {
+        if (port <= 0 || httpServer != null) {
+            return;
+        }
+        httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        httpServer.createContext("/metrics", exchange -> {
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        // the dispatcher thread inherits the daemon flag of the thread starting the server
+        Thread thread = new Thread(httpServer::start, "metrics-http");
+        thread.setDaemon(true);
+        thread.start();
+        System.err.println("Serving metrics on http://localhost:" + port + "/metrics");
+    }
+
+    public synchronized void stopHttp() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+            httpServer = null;
+        }
+    }
+
+    /**
+     * One "name.field value" line per value, sorted by metric name.
+     */
+    public String render() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Object> entry : new TreeMap<>(metrics).entrySet()) {
+            String name = entry.getKey();
+            Object metric = entry.getValue();
+            if (metric instanceof Counter) {
+                Counter counter = (Counter) metric;
+                line(sb, name, "count", counter.getCount());
+                line(sb, name, "mean_rate", counter.getMeanRate());
+            } else if (metric instanceof LatencyHistogram) {
+                LatencyHistogram histogram = (LatencyHistogram) metric;
+                line(sb, name, "count", histogram.getCount());
+                line(sb, name, "mean_rate", histogram.getMeanRate());
+                line(sb, name, "mean_us", histogram.getMeanMicros());
+                line(sb, name, "p50_us", histogram.getP50Micros());
+                line(sb, name, "p99_us", histogram.getP99Micros());
+                line(sb, name, "p999_us", histogram.getP999Micros());
+                line(sb, name, "max_us", histogram.getMaxMicros());
+            } else if (metric instanceof Gauge) {
+                line(sb, name, "value", ((Gauge) metric).getValue());
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void line(StringBuilder sb, String name, String field, Object value) {
+        sb.append(name).append('.').append(field).append(' ').append(value).append('\n');
+    }
+}
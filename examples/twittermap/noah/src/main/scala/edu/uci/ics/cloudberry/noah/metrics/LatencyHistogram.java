@@ -0,0 +1,103 @@
+package edu.uci.ics.cloudberry.noah.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies in nanoseconds, counted into power-of-two buckets.
+ * <p>
+ * Recording is a few atomic adds on preallocated cells: no lock and no allocation. Percentiles are reported as the
+ * upper bound of their bucket, so they are accurate within a factor of two, which is enough to spot the slow stage.
+ */
+public class LatencyHistogram implements LatencyHistogramMBean {
+
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(nanos));
+        count.increment();
+        sum.add(nanos);
+        long current;
+        while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos)) {
+            // another thread raised the max, check again
+        }
+    }
+
+    /**
+     * Records the time elapsed since {@code startNanos}, a value of {@link System#nanoTime()}.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public double getMeanRate() {
+        return Counter.perSecond(getCount(), System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public double getMeanMicros() {
+        long n = count.sum();
+        return n == 0 ? 0 : sum.sum() / 1000.0 / n;
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return max.get() / 1000.0;
+    }
+
+    @Override
+    public double getP50Micros() {
+        return percentile(0.5);
+    }
+
+    @Override
+    public double getP99Micros() {
+        return percentile(0.99);
+    }
+
+    @Override
+    public double getP999Micros() {
+        return percentile(0.999);
+    }
+
+    /**
+     * The upper bound, in microseconds, of the bucket holding the given quantile.
+     */
+    public double percentile(double quantile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                // bucket i holds the values of i significant bits, i.e. below 2^i
+                return Math.min((double) (1L << Math.min(i, 62)), max.get()) / 1000.0;
+            }
+        }
+        return max.get() / 1000.0;
+    }
+}
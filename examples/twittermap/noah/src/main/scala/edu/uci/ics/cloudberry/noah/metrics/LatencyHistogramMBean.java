@@ -0,0 +1,17 @@
+package edu.uci.ics.cloudberry.noah.metrics;
+
+public interface LatencyHistogramMBean {
+    long getCount();
+
+    double getMeanRate();
+
+    double getMeanMicros();
+
+    double getMaxMicros();
+
+    double getP50Micros();
+
+    double getP99Micros();
+
+    double getP999Micros();
+}
@@ -0,0 +1,79 @@
+package edu.uci.ics.cloudberry.noah
+
+import java.io.{IOException, StringWriter, Writer}
+
+import org.scalatest.{FlatSpec, Matchers}
+
+import scala.util.Random
+
+class StreamingTagPipelineTest extends FlatSpec with Matchers {
+
+  val lines = (1 to 2000).map(_.toString)
+
+  def slowTag(ln: String): String = {
+    Thread.sleep(0, Random.nextInt(100000))
+    if (ln.toInt % 10 == 0) "" else "r" + ln
+  }
+
+  "StreamingTagPipeline" should "keep the input order when asked to" in {
+    val out = new StringWriter()
+    val count = new StreamingTagPipeline(8, 16, preserveOrder = true)(slowTag).run(lines.iterator, out)
+    val expected = lines.filter(_.toInt % 10 != 0).map("r" + _)
+    count shouldBe expected.size
+    out.toString.split('\n').toSeq shouldEqual expected
+  }
+
+  it should "write every non-empty result without ordering" in {
+    val out = new StringWriter()
+    val count = new StreamingTagPipeline(4, 8, preserveOrder = false)(slowTag).run(lines.iterator, out)
+    count shouldBe 1800
+    out.toString.split('\n').toSet shouldEqual lines.filter(_.toInt % 10 != 0).map("r" + _).toSet
+  }
+
+  it should "skip the records whose transform failed" in {
+    val out = new StringWriter()
+    val count = new StreamingTagPipeline(2, 4, preserveOrder = true) { ln =>
+      if (ln == "3") throw new IllegalArgumentException(ln) else ln
+    }.run(Iterator("1", "2", "3", "4"), out)
+    count shouldBe 3
+    out.toString shouldEqual "1\n2\n4\n"
+  }
+
+  // runs the pipeline on its own thread, so that a hang fails the test instead of blocking it
+  def runWithin(pipeline: StreamingTagPipeline, out: Writer): Throwable = {
+    var thrown: Throwable = null
+    val caller = new Thread(new Runnable {
+      override def run(): Unit = {
+        try {
+          pipeline.run(Iterator.continually("1").take(100000), out)
+        } catch {
+          case e: Throwable => thrown = e
+        }
+      }
+    })
+    caller.start()
+    caller.join(30000)
+    caller.isAlive shouldBe false
+    thrown
+  }
+
+  it should "fail instead of hanging when the writer dies" in {
+    val out = new StringWriter() {
+      var writes = 0
+
+      override def write(str: String): Unit = {
+        writes += 1
+        if (writes > 10) throw new IOException("disk full")
+        super.write(str)
+      }
+    }
+    val thrown = runWithin(new StreamingTagPipeline(4, 8, preserveOrder = true)(identity), out)
+    thrown shouldBe an[IOException]
+    thrown.getMessage shouldEqual "disk full"
+  }
+
+  it should "fail instead of hanging when a worker dies of a fatal error" in {
+    val thrown = runWithin(new StreamingTagPipeline(4, 8, preserveOrder = false)(_ => throw new OutOfMemoryError("tagger")), new StringWriter())
+    thrown shouldBe an[OutOfMemoryError]
+  }
+}
@@ -0,0 +1,43 @@
+package edu.uci.ics.cloudberry.noah.adm
+
+import java.text.SimpleDateFormat
+import java.util.Date
+
+import org.apache.commons.lang3.StringEscapeUtils
+import org.scalatest.{FlatSpec, Matchers}
+
+class AdmWriterTest extends FlatSpec with Matchers {
+
+  val texts = Seq("plain", "two  spaces\tand\nnew line", "\"quoted\" \\ back", "café 中文 😀", "\u0001\u007f\u0080", "", null)
+
+  def legacyQuote(str: String): String = "\"" + StringEscapeUtils.escapeJava(str) + "\""
+
+  "AdmWriter" should "escape and collapse strings as escapeJava and replaceAll did" in {
+    for (text <- texts) {
+      val writer = new AdmWriter()
+      writer.beginRecord().key("text").string(text).endRecord()
+      writer.buffer().toString shouldEqual "{\"text\":" + legacyQuote(text).replaceAll("\\s+", " ") + "}"
+      ADM.mkQuote(text) shouldEqual legacyQuote(text)
+    }
+  }
+
+  it should "separate fields and nested records with commas" in {
+    val writer = new AdmWriter()
+    writer.beginRecord().key("a").int64(1).key("b").beginRecord().key("c").bool(true).endRecord()
+      .key("d").beginSet().setNumber(0, 2).setNumber(1, 3).endSet().endRecord()
+    writer.buffer().toString shouldEqual "{\"a\":int64(\"1\"),\"b\":{\"c\":true},\"d\":{{2,3}}}"
+    writer.reset().beginRecord().key("e").raw("x   y").endRecord()
+    writer.buffer().toString shouldEqual "{\"e\":x y}"
+  }
+
+  it should "format dates as the SimpleDateFormat based constructors did" in {
+    val dateFormat = new SimpleDateFormat("yyyy-MM-dd")
+    val timeFormat = new SimpleDateFormat("HH:mm:ss.SSSZZZZ")
+    for (millis <- Seq(0L, 1262304000123L, 1478413800000L, 1489312800000L, 1500000000999L, -86400001L)) {
+      val date = new Date(millis)
+      ADM.mkDateTimeConstructor(date) shouldEqual
+        "datetime(\"" + dateFormat.format(date) + "T" + timeFormat.format(date) + "\")"
+      ADM.mkDateConstructor(date) shouldEqual "date(\"" + dateFormat.format(date) + "\")"
+    }
+  }
+}
@@ -0,0 +1,62 @@
+package edu.uci.ics.cloudberry.noah.adm
+
+import edu.uci.ics.cloudberry.gnosis.USGeoGnosis
+import org.mockito.Mockito._
+import org.specs2.mock.Mockito
+import org.specs2.mutable.Specification
+
+class PlaceTagCacheTest extends Specification with Mockito {
+
+  def cityPlace(id: String): TweetRecord.PlaceFields = {
+    val place = new TweetRecord().clear().place
+    place.id = id
+    place.name = "Irvine"
+    place.fullName = "Irvine, CA"
+    place.country = "United States"
+    place.placeType = "city"
+    place
+  }
+
+  "PlaceTagCache" should {
+    "look a place up in the gnosis only once" in {
+      val gnosis = mock[USGeoGnosis]
+      when(gnosis.tagCityJson("Irvine", "CA")).thenReturn("""{"cityID":1}""")
+      val cache = new PlaceTagCache(gnosis, 10)
+      (1 to 5).map(_ => cache.tag(cityPlace("p1"), 1L)).toSet must_== Set("""{"cityID":1}""")
+      verify(gnosis, times(1)).tagCityJson("Irvine", "CA")
+      cache.getHits must_== 4
+      cache.getMisses must_== 1
+      cache.size() must_== 1
+    }
+
+    "remember the places without a tag" in {
+      val gnosis = mock[USGeoGnosis]
+      when(gnosis.tagCityJson("Irvine", "CA")).thenReturn(null)
+
+      val cache = new PlaceTagCache(gnosis, 10)
+      cache.tag(cityPlace("p2"), 1L) must beNull
+      cache.tag(cityPlace("p2"), 2L) must beNull
+      verify(gnosis, times(1)).tagCityJson("Irvine", "CA")
+    }
+
+    "key a place without an id on its names and box" in {
+      val place = cityPlace(null)
+      place.boxPolygonCount = 1
+      place.boxPointCount = 1
+      place.boxLongitudes(0) = -117.8
+      place.boxLatitudes(0) = 33.6
+      val other = cityPlace(null)
+      PlaceTagCache.key(place) must_!= PlaceTagCache.key(other)
+      PlaceTagCache.key(cityPlace("p3")) must_== "p3"
+    }
+
+    "stay within its size" in {
+      val gnosis = mock[USGeoGnosis]
+      when(gnosis.tagCityJson("Irvine", "CA")).thenReturn("""{"cityID":1}""")
+
+      val cache = new PlaceTagCache(gnosis, 10)
+      (1 to 100).foreach(i => cache.tag(cityPlace("p" + i), i))
+      cache.size() must be_<=(10L)
+    }
+  }
+}
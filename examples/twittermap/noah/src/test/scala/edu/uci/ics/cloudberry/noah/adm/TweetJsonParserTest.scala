@@ -0,0 +1,38 @@
+package edu.uci.ics.cloudberry.noah.adm
+
+import java.io.IOException
+
+import org.scalatest.{FlatSpec, Matchers}
+import twitter4j.TwitterObjectFactory
+
+class TweetJsonParserTest extends FlatSpec with Matchers {
+
+  def write(record: TweetRecord): String = {
+    val writer = new AdmWriter()
+    Tweet.writeADM(writer, record, "{\"stateID\":6}")
+    writer.buffer().toString
+  }
+
+  "TweetJsonParser" should "produce the same ADM as the twitter4j status" in {
+    val parser = new TweetJsonParser()
+    for (ln <- scala.io.Source.fromURL(getClass.getResource("/sample.json")).getLines()) {
+      val expected = write(new TweetRecord().fill(TwitterObjectFactory.createStatus(ln)))
+      write(parser.parse(ln)) shouldEqual expected
+    }
+  }
+
+  it should "unescape the html entities of the text as twitter4j does" in {
+    val parser = new TweetJsonParser()
+    parser.unescapeHtml("a &amp; b &lt;3 &bogus; & &amp;lt;") shouldEqual "a & b <3 &bogus; & &lt;"
+  }
+
+  it should "parse the twitter date layout" in {
+    val parser = new TweetJsonParser()
+    parser.parseDate("Wed Aug 27 13:08:45 +0000 2008") shouldBe 1219842525000L
+    parser.parseDate("Wed Aug 27 13:08:45 -0130 2008") shouldBe 1219842525000L + 90 * 60 * 1000
+  }
+
+  it should "reject a line that is not a tweet" in {
+    an[IOException] should be thrownBy new TweetJsonParser().parse("{\"delete\":{\"status\":{\"id\":1}}}")
+  }
+}
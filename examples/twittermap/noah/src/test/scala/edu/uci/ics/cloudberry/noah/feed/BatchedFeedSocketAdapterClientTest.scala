@@ -0,0 +1,90 @@
+package edu.uci.ics.cloudberry.noah.feed
+
+import java.io.ByteArrayOutputStream
+import java.net.ServerSocket
+import java.nio.ByteBuffer
+
+import org.scalatest.{FlatSpec, Matchers}
+
+class BatchedFeedSocketAdapterClientTest extends FlatSpec with Matchers {
+
+  "encodeNormalized" should "produce the same bytes as the regex replacement" in {
+    val records = Seq("plain", "  leading\tand\r\ntrailing  ", "café 中文", "emoji 😀 \ud800 half", "")
+    for (record <- records) {
+      val buffer = ByteBuffer.allocate(record.length * 3)
+      BatchedFeedSocketAdapterClient.encodeNormalized(record, buffer)
+      buffer.flip()
+      val bytes = new Array[Byte](buffer.remaining())
+      buffer.get(bytes)
+      bytes shouldEqual record.replaceAll("\\s+", " ").getBytes("UTF-8")
+    }
+  }
+
+  "BatchedFeedSocketAdapterClient" should "deliver every record in order over a local socket" in {
+    val server = new ServerSocket(0)
+    val received = new ByteArrayOutputStream()
+    val reader = new Thread(new Runnable {
+      override def run(): Unit = {
+        val socket = server.accept()
+        val in = socket.getInputStream
+        val chunk = new Array[Byte](4096)
+        var n = in.read(chunk)
+        while (n >= 0) {
+          received.write(chunk, 0, n)
+          n = in.read(chunk)
+        }
+        socket.close()
+      }
+    })
+    reader.start()
+
+    val client = new BatchedFeedSocketAdapterClient("localhost", server.getLocalPort, 100, 1, Int.MaxValue, 256, 5)
+    client.initialize()
+    val records = (1 to 1000).map(i => s"{ \"id\": $i,\n  \"text\": \"a  b\" }")
+    records.foreach(client.ingest)
+    client.finalize()
+    reader.join()
+    server.close()
+
+    received.toString("UTF-8") shouldEqual records.map(_.replaceAll("\\s+", " ")).mkString
+  }
+
+  it should "keep going while large records take every buffer and the writer flushes stale ones" in {
+    val server = new ServerSocket(0)
+    val received = new ByteArrayOutputStream()
+    val reader = new Thread(new Runnable {
+      override def run(): Unit = {
+        val socket = server.accept()
+        val in = socket.getInputStream
+        val chunk = new Array[Byte](4096)
+        var n = in.read(chunk)
+        while (n >= 0) {
+          received.write(chunk, 0, n)
+          // a slow reader, so that the writer often finds no buffer to write and looks for a stale one
+          Thread.sleep(1)
+          n = in.read(chunk)
+        }
+        socket.close()
+      }
+    })
+    reader.start()
+
+    // every record is larger than a buffer and the stale ones are flushed after 1 ms
+    val client = new BatchedFeedSocketAdapterClient("localhost", server.getLocalPort, 100, 0, Int.MaxValue, 64, 1)
+    client.initialize()
+    val records = (1 to 2000).map(i => s"$i " + "x" * 100)
+    val ingester = new Thread(new Runnable {
+      override def run(): Unit = {
+        records.foreach(client.ingest)
+        client.finalize()
+      }
+    })
+    ingester.start()
+    ingester.join(30000)
+    ingester.isAlive shouldBe false
+    reader.join()
+    server.close()
+
+    received.toString("UTF-8") shouldEqual records.mkString
+  }
+}
@@ -0,0 +1,67 @@
+package edu.uci.ics.cloudberry.noah.feed
+
+import java.io.{BufferedReader, File, StringReader}
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.util.Collections
+
+import org.scalatest.{FlatSpec, Matchers}
+
+import scala.collection.JavaConverters._
+
+class ParallelFileFeederTest extends FlatSpec with Matchers {
+
+  class RecordingClient extends FeedSocketAdapterClient("localhost", 0, 1, 0, Int.MaxValue) {
+    val records = Collections.synchronizedList(new java.util.ArrayList[String]())
+
+    override def ingest(record: String): Unit = records.add(record)
+
+    override def finalize(): Unit = {}
+  }
+
+  def withFile(content: String)(test: File => Unit): Unit = {
+    val file = File.createTempFile("feed", ".json")
+    try {
+      Files.write(file.toPath, content.getBytes(StandardCharsets.UTF_8))
+      test(file)
+    } finally {
+      file.delete()
+    }
+  }
+
+  val lines = (1 to 200).map(i => s"""{"id":$i,"text":"${"x" * (i % 13)} café"}""")
+
+  "feedMapped" should "deliver every line once and in order when the lines cross the map windows" in {
+    withFile(lines.mkString("\n") + "\n") { file =>
+      val clients = Array.fill(3)(new RecordingClient)
+      val feeder = new ParallelFileFeeder(clients.toArray[FeedSocketAdapterClient], Array(2, 1, 1), null, 40)
+      feeder.feedMapped(file) shouldEqual lines.size
+      clients.flatMap(_.records.asScala).toSeq shouldEqual lines
+      clients.foreach(_.records.isEmpty shouldBe false)
+    }
+  }
+
+  it should "strip the carriage returns and keep a last line without a newline" in {
+    withFile(lines.mkString("\r\n")) { file =>
+      val clients = Array.fill(2)(new RecordingClient)
+      val feeder = new ParallelFileFeeder(clients.toArray[FeedSocketAdapterClient], Array(1, 1), null, 45)
+      feeder.feedMapped(file) shouldEqual lines.size
+      clients.flatMap(_.records.asScala).toSeq shouldEqual lines
+    }
+  }
+
+  it should "refuse a line longer than the map window" in {
+    withFile("short\n" + "y" * 100 + "\n") { file =>
+      val feeder = new ParallelFileFeeder(Array[FeedSocketAdapterClient](new RecordingClient), Array(1), null, 64)
+      an[java.io.IOException] should be thrownBy feeder.feedMapped(file)
+    }
+  }
+
+  "feedStream" should "route the lines by the weights" in {
+    val clients = Array.fill(2)(new RecordingClient)
+    val feeder = new ParallelFileFeeder(clients.toArray[FeedSocketAdapterClient], Array(2, 1), null)
+    feeder.feedStream(new BufferedReader(new StringReader(lines.take(6).mkString("\n"))), 4) shouldEqual 6
+    clients(0).records.asScala shouldEqual Seq(lines(0), lines(2), lines(3), lines(5))
+    clients(1).records.asScala shouldEqual Seq(lines(1), lines(4))
+  }
+}
@@ -0,0 +1,146 @@
+package edu.uci.ics.cloudberry.noah.feed
+
+import java.io.{BufferedReader, BufferedWriter, ByteArrayOutputStream, File, FileReader, PrintWriter, StringWriter}
+import java.net.ServerSocket
+import java.util.concurrent.{ConcurrentLinkedQueue, CountDownLatch}
+
+import edu.uci.ics.cloudberry.noah.metrics.IngestionMetrics
+import org.scalatest.{FlatSpec, Matchers}
+
+import scala.collection.JavaConverters._
+
+class StagedFeedPipelineTest extends FlatSpec with Matchers {
+
+  def messageFile(count: Int): File = {
+    val file = File.createTempFile("messages", ".json")
+    file.deleteOnExit()
+    val writer = new PrintWriter(file, "UTF-8")
+    (1 to count).foreach(i => writer.println(s"""{"id": $i}"""))
+    writer.close()
+    file
+  }
+
+  def source(file: File): MessageSource = MessageSource.fromReader(new BufferedReader(new FileReader(file)))
+
+  "StagedFeedPipeline" should "feed every message through a socket stage" in {
+    val server = new ServerSocket(0)
+    val received = new ByteArrayOutputStream()
+    val stub = new Thread(new Runnable {
+      override def run(): Unit = {
+        val socket = server.accept()
+        val in = socket.getInputStream
+        val chunk = new Array[Byte](4096)
+        var n = in.read(chunk)
+        while (n >= 0) {
+          received.write(chunk, 0, n)
+          n = in.read(chunk)
+        }
+        socket.close()
+      }
+    })
+    stub.start()
+
+    val client = new FeedSocketAdapterClient("localhost", server.getLocalPort, 100, 0, Int.MaxValue)
+    client.initialize()
+    val pipeline = new StagedFeedPipeline()
+      .addStage(new FeedStage("feed", 16, OverflowPolicy.BLOCK, 1, new FeedStage.Sink {
+        override def accept(msg: String): Unit = client.ingest(msg)
+      }))
+    pipeline.run(source(messageFile(500))) shouldBe 500
+    client.finalize()
+    stub.join()
+    server.close()
+
+    received.toString("UTF-8") shouldEqual (1 to 500).map(i => s"""{"id": $i} """).mkString
+  }
+
+  it should "keep the other stages going while one sink is stalled" in {
+    val release = new CountDownLatch(1)
+    val archived = new ConcurrentLinkedQueue[String]()
+    val stalled = new FeedStage("stalled", 10, OverflowPolicy.DROP_NEWEST, 1, new FeedStage.Sink {
+      override def accept(msg: String): Unit = release.await()
+    })
+    val archive = new FeedStage("archive", 10, OverflowPolicy.BLOCK, 1, new FeedStage.Sink {
+      override def accept(msg: String): Unit = archived.add(msg)
+    })
+    val pipeline = new StagedFeedPipeline().addStage(stalled).addStage(archive)
+
+    val dispatcher = new Thread(new Runnable {
+      override def run(): Unit = pipeline.run(source(messageFile(1000)))
+    })
+    dispatcher.start()
+    // every message reaches the archive although the stalled sink never takes more than one
+    while (archive.getProcessed < 1000) {
+      Thread.sleep(1)
+    }
+    stalled.getDropped should be >= 989L
+    release.countDown()
+    dispatcher.join()
+
+    archived.asScala.toSeq shouldEqual (1 to 1000).map(i => s"""{"id": $i}""" + "\n")
+    stalled.getAccepted + stalled.getDropped shouldBe 1000
+    stalled.getProcessed shouldBe stalled.getAccepted
+  }
+
+  "TwitterFeedStreamDriver" should "keep archiving with its default overflow policies while the geotag stage is stalled" in {
+    val release = new CountDownLatch(1)
+    val driver = new TwitterFeedStreamDriver {
+      // AsterixDB does not take anything
+      override protected def geotagSink(): FeedStage.Sink = new FeedStage.Sink {
+        override def accept(msg: String): Unit = release.await()
+      }
+    }
+    val archived = new StringWriter()
+    val bw = new BufferedWriter(archived)
+    val pipeline = driver.createPipeline(CmdLineAux.parseCmdLine(Array("-gq", "10")), bw, null, null)
+    val stages = pipeline.getStages.asScala.map(stage => stage.getName -> stage).toMap
+    stages.keySet shouldEqual Set("archive", "geotag")
+
+    val dispatcher = new Thread(new Runnable {
+      override def run(): Unit = pipeline.run(source(messageFile(1000)))
+    })
+    dispatcher.start()
+    while (stages("archive").getProcessed < 1000) {
+      Thread.sleep(1)
+    }
+    // at most the queue and one message per worker were kept
+    stages("geotag").getDropped should be >= 988L
+    release.countDown()
+    dispatcher.join()
+    bw.flush()
+
+    archived.toString shouldEqual (1 to 1000).map(i => s"""{"id": $i}""" + "\n").mkString
+    stages("archive").getDropped shouldBe 0
+  }
+
+  it should "refuse to let a sink other than the archive block the dispatcher" in {
+    val config = CmdLineAux.parseCmdLine(Array("-go", "BLOCK"))
+    an[IllegalArgumentException] should be thrownBy new TwitterFeedStreamDriver().createPipeline(config, null, null, null)
+    val archive = CmdLineAux.parseCmdLine(Array("-fo", "-ao", "BLOCK"))
+    new TwitterFeedStreamDriver().createPipeline(archive, new BufferedWriter(new StringWriter()), null, null)
+      .getStages.asScala.map(_.getName) shouldEqual Seq("archive")
+  }
+
+  "FeedStage" should "make room by dropping the oldest messages" in {
+    val release = new CountDownLatch(1)
+    val seen = new ConcurrentLinkedQueue[String]()
+    val stage = new FeedStage("oldest", 2, OverflowPolicy.DROP_OLDEST, 1, new FeedStage.Sink {
+      override def accept(msg: String): Unit = {
+        release.await()
+        seen.add(msg)
+      }
+    })
+    stage.start()
+    stage.offer("0")
+    // wait until the worker holds "0", the queue is then empty
+    while (stage.getQueueSize > 0) {
+      Thread.sleep(1)
+    }
+    (1 to 5).foreach(i => stage.offer(i.toString))
+    release.countDown()
+    stage.close()
+    seen.asScala.toSeq shouldEqual Seq("0", "4", "5")
+    stage.getDropped shouldBe 3
+    IngestionMetrics.counter("stage.oldest.dropped").getCount shouldBe 3
+  }
+}
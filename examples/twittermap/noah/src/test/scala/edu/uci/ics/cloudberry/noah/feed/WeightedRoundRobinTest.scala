@@ -0,0 +1,38 @@
+package edu.uci.ics.cloudberry.noah.feed
+
+import org.scalatest.{FlatSpec, Matchers}
+
+class WeightedRoundRobinTest extends FlatSpec with Matchers {
+
+  def route(weights: Int*)(count: Int): Seq[Int] = {
+    val router = new WeightedRoundRobin(weights.toArray)
+    Seq.fill(count)(router.next())
+  }
+
+  "WeightedRoundRobin" should "interleave the adapters instead of sending bursts" in {
+    route(2, 1)(6) shouldEqual Seq(0, 1, 0, 0, 1, 0)
+    route(5, 1, 1)(7) shouldEqual Seq(0, 0, 1, 0, 2, 0, 0)
+  }
+
+  it should "take turns between equal weights" in {
+    route(1, 1, 1)(6) shouldEqual Seq(0, 1, 2, 0, 1, 2)
+  }
+
+  it should "route each adapter its share of every cycle" in {
+    val weights = Seq(3, 1, 4)
+    val routed = route(weights: _*)(weights.sum * 10)
+    routed.grouped(weights.sum).foreach { cycle =>
+      weights.indices.map(i => cycle.count(_ == i)) shouldEqual weights
+    }
+  }
+
+  it should "give the same sequence for the same weights" in {
+    route(3, 2)(50) shouldEqual route(3, 2)(50)
+  }
+
+  "parseWeights" should "default every adapter to one and reject a wrong count" in {
+    WeightedRoundRobin.parseWeights("", 3) shouldEqual Array(1, 1, 1)
+    WeightedRoundRobin.parseWeights("2,1", 2) shouldEqual Array(2, 1)
+    an[IllegalArgumentException] should be thrownBy WeightedRoundRobin.parseWeights("2,1", 3)
+  }
+}
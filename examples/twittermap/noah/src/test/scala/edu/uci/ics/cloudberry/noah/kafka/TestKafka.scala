@@ -3,15 +3,18 @@ package edu.uci.ics.cloudberry.noah.kafka
 import java.util
 
 import edu.uci.ics.cloudberry.noah.GeneralProducerKafka
-import edu.uci.ics.cloudberry.noah.feed.Config
-import org.apache.kafka.clients.consumer.{ConsumerRecords, KafkaConsumer}
-import org.apache.kafka.clients.producer.{KafkaProducer, ProducerRecord}
+import edu.uci.ics.cloudberry.noah.feed.{CmdLineAux, Config}
+import org.apache.kafka.clients.consumer._
+import org.apache.kafka.clients.producer.{Callback, KafkaProducer, ProducerRecord}
+import org.apache.kafka.common.{KafkaException, TopicPartition}
 import org.mockito._
 import org.specs2.mock.Mockito
 import org.specs2.mutable.Specification
 import play.api.libs.ws.ahc.AhcWSClient
 import org.mockito.Mockito._
 
+import scala.collection.mutable
+
 class TestKafka extends Specification with Mockito {
 
   "General Producer Kafka" should {
@@ -26,6 +29,20 @@ class TestKafka extends Specification with Mockito {
       argument.getValue.isInstanceOf[ProducerRecord[String, String]] must(beTrue)
     }
 
+    "count a send that throws as a failure and not count the messages after it" in {
+      val mockProducer = mock[KafkaProducer[String, String]]
+      val tracker = new DeliveryTracker
+      when(mockProducer.send(any[ProducerRecord[String, String]], any[Callback]))
+        .thenReturn(null)
+        .thenThrow(new KafkaException("closed"))
+      val producerKafka = new GeneralProducerKafka(config = new Config)
+      producerKafka.storeBatch("TestKafka", Seq("one", "two", "three"), mockProducer, tracker) must throwA[KafkaException]
+      tracker.sent must_== 2
+      tracker.failed must_== 1
+      // only the record the producer took is still waiting for its callback
+      tracker.pending must_== 1
+    }
+
   }
 
   "Asterix Consumer Kafka" should {
@@ -47,6 +64,79 @@ class TestKafka extends Specification with Mockito {
       Mockito.verify(mockAsterix, Mockito.times(0)).insertRecord(any, any, any, any) must_== (())
       Mockito.verify(mockAsterix, Mockito.times(0)).ingest(any, any) must_== (())
     }
+
+    "commit the offsets manually in batch mode" in {
+      val batchConsumer = new AsterixConsumerKafka(CmdLineAux.parseCmdLine(Array("-kbt", "-kbs", "200")), mockClient)
+      val props = batchConsumer.getProperties()
+      props.getProperty("enable.auto.commit") must_== "false"
+      props.getProperty("max.poll.records") must_== "200"
+    }
   }
 
+  "Asterix Consumer Kafka in batch mode" should {
+
+    val mockClient = mock[AhcWSClient]
+    val partition = new TopicPartition("TwitterZikaStreaming", 0)
+
+    def batchConsumer(batchSize: Int, lingerMillis: Int) = new AsterixConsumerKafka(
+      CmdLineAux.parseCmdLine(Array("-kbt", "-kbs", batchSize.toString, "-kbl", lingerMillis.toString)), mockClient)
+
+    // a consumer of `count` records that is woken up, which ends sendBatches, once `stopWhen` holds
+    def kafkaOf(count: Int)(stopWhen: MockConsumer[String, String] => Boolean): MockConsumer[String, String] = {
+      val deadline = System.currentTimeMillis() + 10000
+      val kafka = new MockConsumer[String, String](OffsetResetStrategy.EARLIEST) {
+        override def poll(timeout: Long): ConsumerRecords[String, String] = {
+          if (stopWhen(this) || System.currentTimeMillis() > deadline) {
+            wakeup()
+          }
+          super.poll(timeout)
+        }
+      }
+      kafka.assign(util.Arrays.asList(partition))
+      val beginning = new util.HashMap[TopicPartition, java.lang.Long]()
+      beginning.put(partition, 0L)
+      kafka.updateBeginningOffsets(beginning)
+      for (offset <- 0 until count) {
+        kafka.addRecord(new ConsumerRecord[String, String](partition.topic, partition.partition, offset, null, s"tweet$offset"))
+      }
+      kafka
+    }
+
+    def committed(kafka: MockConsumer[String, String]): Long =
+      Option(kafka.committed(partition)).map(_.offset).getOrElse(-1L)
+
+    "send a partial batch once its first record lingered" in {
+      val sent = mutable.ArrayBuffer.empty[Seq[String]]
+      val kafka = kafkaOf(3)(committed(_) == 3)
+      val start = System.currentTimeMillis()
+      batchConsumer(10, 200).sendBatches(kafka, 5000) { records => sent += records; true }
+
+      sent must_== Seq(Seq("tweet0", "tweet1", "tweet2"))
+      committed(kafka) must_== 3
+      // neither sent right away nor held for the whole poll timeout
+      System.currentTimeMillis() - start must be_>=(200L)
+      System.currentTimeMillis() - start must be_<(5000L)
+    }
+
+    "carry the records polled beyond a full batch over to the next ones" in {
+      val sent = mutable.ArrayBuffer.empty[Seq[String]]
+      val kafka = kafkaOf(5)(committed(_) == 5)
+      batchConsumer(2, 100).sendBatches(kafka, 1000) { records => sent += records; true }
+
+      sent must_== Seq(Seq("tweet0", "tweet1"), Seq("tweet2", "tweet3"), Seq("tweet4"))
+      committed(kafka) must_== 5
+    }
+
+    "rewind a refused batch along with the carried records, and keep polling paused during the backoff" in {
+      val sent = mutable.ArrayBuffer.empty[Seq[String]]
+      // stopped on the first poll after the rewind, which is a paused one
+      val kafka = kafkaOf(3)(k => sent.nonEmpty && k.position(partition) == 0 && !k.paused().isEmpty)
+      batchConsumer(2, 100).sendBatches(kafka, 1000) { records => sent += records; false }
+
+      sent must_== Seq(Seq("tweet0", "tweet1"))
+      kafka.committed(partition) must beNull
+      kafka.position(partition) must_== 0
+      kafka.paused().isEmpty must beTrue
+    }
+  }
 }
@@ -12,6 +12,8 @@ import org.specs2.mutable.Specification
 import org.mockito.Mockito._
 import com.twitter.hbc.core.endpoint.Location
 
+import scala.collection.JavaConverters._
+
 class TestProducer extends Specification with Mockito {
 
   "FileProducer" should {
@@ -25,14 +27,27 @@ class TestProducer extends Specification with Mockito {
       when (mockConfig.getKfkTopic).thenReturn("")
       fileProducer.run(mockConfig, generalProducerKafka, kafkaProducer)
 
-      val argument = ArgumentCaptor.forClass(classOf[String])
-      Mockito.verify(generalProducerKafka, times(3)).store(any, argument.capture(), any)
+      val argument = ArgumentCaptor.forClass(classOf[Seq[String]])
+      Mockito.verify(generalProducerKafka, atLeastOnce()).storeBatch(any, argument.capture(), any, any)
 
-      val result = argument.getAllValues
+      val result = argument.getAllValues.asScala.flatten
       result should have size 3
-      result.get(0) must_== "test1"
-      result.get(1) must_== "test2"
-      result.get(2) must_== "test3"
+      result(0) must_== "test1"
+      result(1) must_== "test2"
+      result(2) must_== "test3"
+    }
+
+    "send a file in batches of the configured size" in {
+      val generalProducerKafka = mock[GeneralProducerKafka]
+      val kafkaProducer = mock[KafkaProducer[String, String]]
+      val path = getClass.getResource("/Tweet").getPath
+      new FileProducer().load(path, "", generalProducerKafka, kafkaProducer, 2, 2)
+
+      val argument = ArgumentCaptor.forClass(classOf[Seq[String]])
+      Mockito.verify(generalProducerKafka, times(2)).storeBatch(any, argument.capture(), any, any)
+      argument.getAllValues.asScala.map(_.size) must_== Seq(2, 1)
+      Mockito.verify(kafkaProducer).flush()
+      ok
     }
   }
 
@@ -0,0 +1,57 @@
+package edu.uci.ics.cloudberry.noah.metrics
+
+import java.lang.management.ManagementFactory
+import java.net.{ServerSocket, URL}
+import javax.management.ObjectName
+
+import org.scalatest.{FlatSpec, Matchers}
+
+import scala.io.Source
+
+class IngestionMetricsTest extends FlatSpec with Matchers {
+
+  "LatencyHistogram" should "report percentiles within their power-of-two bucket" in {
+    val histogram = new LatencyHistogram
+    (1 to 1000).foreach(i => histogram.record(i * 1000L))
+    histogram.getCount shouldBe 1000
+    histogram.getMeanMicros shouldBe 500.5
+    histogram.getMaxMicros shouldBe 1000.0
+    histogram.getP50Micros should (be >= 500.0 and be <= 1000.0)
+    histogram.getP99Micros shouldBe 1000.0
+  }
+
+  "IngestionMetrics" should "return the same counter for a name and publish it over JMX" in {
+    val counter = IngestionMetrics.counter("test.jmx")
+    counter.add(3)
+    IngestionMetrics.counter("test.jmx") should be theSameInstanceAs counter
+    val name = new ObjectName("edu.uci.ics.cloudberry.noah:type=Counter,name=" + ObjectName.quote("test.jmx"))
+    ManagementFactory.getPlatformMBeanServer.getAttribute(name, "Count") shouldBe 3L
+  }
+
+  it should "refuse to reuse a name for another type of metric" in {
+    IngestionMetrics.counter("test.type")
+    an[IllegalArgumentException] should be thrownBy IngestionMetrics.latency("test.type")
+  }
+
+  it should "serve the metrics over http" in {
+    IngestionMetrics.counter("test.http").add(7)
+    val probe = new ServerSocket(0)
+    val port = probe.getLocalPort
+    probe.close()
+    IngestionMetrics.get().startHttp(port)
+    try {
+      var body = ""
+      var attempts = 0
+      while (body.isEmpty && attempts < 50) {
+        try {
+          body = Source.fromURL(new URL(s"http://localhost:$port/metrics")).mkString
+        } catch {
+          case e: java.io.IOException => attempts += 1; Thread.sleep(20)
+        }
+      }
+      body.split('\n') should contain("test.http.count 7")
+    } finally {
+      IngestionMetrics.get().stopHttp()
+    }
+  }
+}
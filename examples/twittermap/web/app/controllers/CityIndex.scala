@@ -0,0 +1,170 @@
+package controllers
+
+import java.util
+
+import akka.util.ByteString
+import play.api.libs.json.{JsValue, Json}
+
+import scala.collection.mutable
+
+/**
+  * The cities loaded by [[TwitterMapApplication.loadCity]], indexed for [[TwitterMapApplication.findCity]].
+  *
+  * The centroids live in primitive arrays in the (longitude sorted) order of the list, and a uniform grid over them
+  * keeps, per cell, the positions of its cities. Every feature is serialized to JSON once, so an answer is the
+  * header followed by the already serialized features, byte for byte what findCity would render.
+  * The candidates of a viewport are cached by its bounding box rounded outward to [[CityIndex.Quantum]] degrees,
+  * the exact bounds are then applied on the primitive arrays. The cache holds at most cacheSize positions in total,
+  * and a viewport with more than [[CityIndex.LargestCachedShare]] of them, e.g. the whole country, is not cached.
+  */
+class CityIndex(cities: Seq[JsValue], cacheSize: Int = CityIndex.DefaultCacheSize) {
+
+  import CityIndex._
+  import TwitterMapApplication.{CentroidLatitude, CentroidLongitude}
+
+  val count: Int = cities.size
+
+  private val longitudes: Array[Double] = cities.map(city => (city \ CentroidLongitude).as[Double]).toArray
+  private val latitudes: Array[Double] = cities.map(city => (city \ CentroidLatitude).as[Double]).toArray
+  private val fragments: Array[ByteString] = cities.map(city => ByteString(Json.stringify(city))).toArray
+
+  private val minLng = if (count == 0) 0.0 else longitudes.min
+  private val minLat = if (count == 0) 0.0 else latitudes.min
+  // about CitiesPerCell cities per cell on average
+  private val columns = math.max(1, math.sqrt(count.toDouble / CitiesPerCell).toInt)
+  private val rows = columns
+  private val cellWidth = math.max(MinCellDegrees, ((if (count == 0) 0.0 else longitudes.max) - minLng) / columns)
+  private val cellHeight = math.max(MinCellDegrees, ((if (count == 0) 0.0 else latitudes.max) - minLat) / rows)
+
+  // the positions in cell c are cellItems(cellStart(c) until cellStart(c + 1)), ascending
+  private val (cellStart: Array[Int], cellItems: Array[Int]) = {
+    val counts = new Array[Int](columns * rows + 1)
+    (0 until count).foreach(p => counts(cell(p) + 1) += 1)
+    (1 until counts.length).foreach(c => counts(c) += counts(c - 1))
+    val items = new Array[Int](count)
+    val next = counts.clone()
+    (0 until count).foreach { p =>
+      val c = cell(p)
+      items(next(c)) = p
+      next(c) += 1
+    }
+    (counts, items)
+  }
+
+  // in access order, guarded by itself together with cachedPositions
+  private val candidateCache = new util.LinkedHashMap[(Long, Long, Long, Long), Array[Int]](16, 0.75f, true)
+  private var cachedPositions = 0L
+
+  /**
+    * The serialized FeatureCollection of the cities findCity would return for the same bounds.
+    */
+  def find(neLat: Double, swLat: Double, neLng: Double, swLng: Double): ByteString = {
+    // the same bounds as findCity: a slice of the longitude order, then the latitudes
+    val start = binarySearch(swLng)
+    val end = binarySearch(neLng)
+
+    val builder = ByteString.newBuilder
+    builder ++= Header
+    var first = true
+    candidates(neLat, swLat, neLng, swLng).foreach { p =>
+      if (start <= p && p < end && latitudes(p) <= neLat && latitudes(p) >= swLat) {
+        if (!first) builder ++= Comma
+        builder ++= fragments(p)
+        first = false
+      }
+    }
+    builder ++= Footer
+    builder.result()
+  }
+
+  private def candidates(neLat: Double, swLat: Double, neLng: Double, swLng: Double): Array[Int] = {
+    // one extra quantum on every side absorbs the rounding of the division
+    val key = (math.floor(swLng / Quantum).toLong - 1, math.floor(swLat / Quantum).toLong - 1,
+               math.ceil(neLng / Quantum).toLong + 1, math.ceil(neLat / Quantum).toLong + 1)
+    val cached = candidateCache.synchronized(candidateCache.get(key))
+    if (cached != null) return cached
+
+    val found = search(key._1 * Quantum, key._2 * Quantum, key._3 * Quantum, key._4 * Quantum)
+    if (found.length <= cacheSize * LargestCachedShare) cache(key, found)
+    found
+  }
+
+  private def cache(key: (Long, Long, Long, Long), found: Array[Int]): Unit = candidateCache.synchronized {
+    val replaced = candidateCache.put(key, found)
+    cachedPositions += found.length - (if (replaced == null) 0 else replaced.length)
+    // evict the least recently used viewports until the positions fit
+    val eldest = candidateCache.values().iterator()
+    while (cachedPositions > cacheSize && eldest.hasNext) {
+      cachedPositions -= eldest.next().length
+      eldest.remove()
+    }
+  }
+
+  /**
+    * The number of positions held by the candidate cache.
+    */
+  private[controllers] def cacheUsage: Long = candidateCache.synchronized(cachedPositions)
+
+  /**
+    * The positions of the centroids inside the box, in ascending order.
+    */
+  private def search(lngFrom: Double, latFrom: Double, lngTo: Double, latTo: Double): Array[Int] = {
+    val found = new mutable.ArrayBuilder.ofInt
+    if (count > 0 && lngFrom <= lngTo && latFrom <= latTo) {
+      for (r <- row(latFrom) to row(latTo); c <- column(lngFrom) to column(lngTo)) {
+        val cell = r * columns + c
+        var i = cellStart(cell)
+        while (i < cellStart(cell + 1)) {
+          val p = cellItems(i)
+          if (longitudes(p) >= lngFrom && longitudes(p) <= lngTo && latitudes(p) >= latFrom && latitudes(p) <= latTo) {
+            found += p
+          }
+          i += 1
+        }
+      }
+    }
+    val result = found.result()
+    util.Arrays.sort(result)
+    result
+  }
+
+  private def cell(position: Int): Int = row(latitudes(position)) * columns + column(longitudes(position))
+
+  private def column(lng: Double): Int = math.min(columns - 1, math.max(0, math.floor((lng - minLng) / cellWidth).toInt))
+
+  private def row(lat: Double): Int = math.min(rows - 1, math.max(0, math.floor((lat - minLat) / cellHeight).toInt))
+
+  /**
+    * [[TwitterMapApplication.binarySearch]] over the primitive longitudes.
+    */
+  private def binarySearch(targetLng: Double): Int = {
+    var from = 0
+    var until = count
+    while (from < until) {
+      val middle = (from + until) / 2
+      if (longitudes(middle) > targetLng) {
+        until = middle
+      } else if (longitudes(middle) < targetLng) {
+        from = middle + 1
+      } else {
+        return middle
+      }
+    }
+    from
+  }
+}
+
+object CityIndex {
+
+  val Quantum: Double = 0.01
+  // positions, 4 bytes each
+  val DefaultCacheSize: Int = 1 << 20
+  val LargestCachedShare: Double = 0.125
+
+  private val CitiesPerCell = 4
+  private val MinCellDegrees = 1e-6
+
+  private val Header = ByteString("""{"type":"FeatureCollection","features":[""")
+  private val Comma = ByteString(",")
+  private val Footer = ByteString("]}")
+}
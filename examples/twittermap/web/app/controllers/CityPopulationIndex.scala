@@ -0,0 +1,105 @@
+package controllers
+
+import java.util
+
+import akka.util.ByteString
+import play.api.libs.json._
+
+/**
+  * The populations loaded by [[TwitterMapApplication.loadCityPop]], keyed on their cityID.
+  *
+  * The ids live in an open addressing table of primitives, so a lookup is a few array reads whatever the size of the
+  * population file, and every `{"cityID":..,"population":..}` entry is serialized once, so an answer is only the
+  * concatenation of the entries of the ids found.
+  */
+class CityPopulationIndex(populations: Seq[JsValue]) {
+
+  import CityPopulationIndex._
+
+  private val cityIDs: Array[Int] = populations.map(city => (city \ CityID).as[Int]).toArray
+  private val counts: Array[Long] = populations.map(city => (city \ Population).as[Long]).toArray
+  private val fragments: Array[ByteString] = cityIDs.indices.map { p =>
+    ByteString(Json.stringify(Json.obj(CityID -> cityIDs(p), Population -> counts(p))))
+  }.toArray
+
+  // at most half full; slots(i) is the position of the city plus one, 0 marks an empty slot
+  private val mask: Int = Integer.highestOneBit(math.max(1, cityIDs.length) * 2) * 2 - 1
+  private val slots: Array[Int] = {
+    val table = new Array[Int](mask + 1)
+    cityIDs.indices.foreach { p =>
+      var slot = hash(cityIDs(p)) & mask
+      while (table(slot) != 0 && cityIDs(table(slot) - 1) != cityIDs(p)) {
+        slot = (slot + 1) & mask
+      }
+      // the first entry of a repeated id wins
+      if (table(slot) == 0) table(slot) = p + 1
+    }
+    table
+  }
+
+  def size: Int = cityIDs.length
+
+  /**
+    * @return the position of the city in the loaded list, or -1 if it has no population
+    */
+  def position(cityID: Int): Int = {
+    var slot = hash(cityID) & mask
+    while (slots(slot) != 0) {
+      val p = slots(slot) - 1
+      if (cityIDs(p) == cityID) return p
+      slot = (slot + 1) & mask
+    }
+    -1
+  }
+
+  def population(cityID: Int): Option[Long] = {
+    val p = position(cityID)
+    if (p < 0) None else Some(counts(p))
+  }
+
+  /**
+    * The serialized array of the populations of the comma separated cityIds, in ascending cityID order.
+    * Ids without a population and repeated ids are skipped.
+    */
+  def find(cityIds: String): ByteString = {
+    val ids = parseIds(cityIds)
+    util.Arrays.sort(ids)
+
+    val builder = ByteString.newBuilder
+    builder ++= Open
+    var first = true
+    var i = 0
+    while (i < ids.length) {
+      if (i == 0 || ids(i) != ids(i - 1)) {
+        val p = position(ids(i))
+        if (p >= 0) {
+          if (!first) builder ++= Comma
+          builder ++= fragments(p)
+          first = false
+        }
+      }
+      i += 1
+    }
+    builder ++= Close
+    builder.result()
+  }
+}
+
+object CityPopulationIndex {
+
+  val CityID: String = "cityID"
+  val Population: String = "population"
+
+  private val Open = ByteString("[")
+  private val Comma = ByteString(",")
+  private val Close = ByteString("]")
+
+  def parseIds(cityIds: String): Array[Int] =
+    cityIds.split(",").iterator.map(_.trim).filter(_.nonEmpty).map(_.toInt).toArray
+
+  // spreads the consecutive ids of a state over the table
+  private def hash(cityID: Int): Int = {
+    val h = cityID * 0x9E3779B9
+    h ^ (h >>> 16)
+  }
+}
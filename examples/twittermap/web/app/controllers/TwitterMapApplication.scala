@@ -8,6 +8,7 @@ import akka.actor._
 import akka.stream.Materializer
 import model.{Migration_20170428, MySqlMigration_20170810, PostgreSqlMigration_20172829}
 import play.api.libs.concurrent.Execution.Implicits.defaultContext
+import play.api.http.HttpEntity
 import play.api.libs.json.{JsValue, Json, _}
 import play.api.libs.streams.ActorFlow
 import play.api.libs.ws.WSClient
@@ -44,7 +45,9 @@ class TwitterMapApplication @Inject()(val wsClient: WSClient,
   val startDate: String = config.getString("startDate").getOrElse("2015-11-22T00:00:00.000")
   val endDate : Option[String] = config.getString("endDate")
   val cities: List[JsValue] = TwitterMapApplication.loadCity(environment.getFile(USCityDataPath))
-  val citiesPopulation: List[JsValue] = TwitterMapApplication.loadCityPop(environment.getFile(USCityPopDataPath))
+  val cityIndex: CityIndex = new CityIndex(cities)
+  val citiesPopulation: CityPopulationIndex =
+    new CityPopulationIndex(TwitterMapApplication.loadCityPop(environment.getFile(USCityPopDataPath)))
   val cacheThreshold : Option[String] = config.getString("cacheThreshold")
   val querySliceMills: Option[String] = config.getString("querySliceMills")
   val heatmapSamplingDayRange: String = config.getString("heatmap.samplingDayRange").getOrElse("30")
@@ -248,11 +251,12 @@ class TwitterMapApplication @Inject()(val wsClient: WSClient,
   }
 
   def getCity(neLat: Double, swLat: Double, neLng: Double, swLng: Double) = Action {
-    Ok(TwitterMapApplication.findCity(neLat, swLat, neLng, swLng, cities))
+    // the same response as findCity, assembled from the features serialized at startup
+    Ok.sendEntity(HttpEntity.Strict(cityIndex.find(neLat, swLat, neLng, swLng), Some(JSON)))
   }
 
   def getCityPop(cityIds: String) = Action {
-    Ok(TwitterMapApplication.findCityPop(cityIds, citiesPopulation))
+    Ok.sendEntity(HttpEntity.Strict(citiesPopulation.find(cityIds), Some(JSON)))
   }
 }
 
@@ -369,44 +373,16 @@ object TwitterMapApplication {
   /** Find cities' population whose cityID are in cityIDs.
     *
     * @param cityIds List of cities in current boundary in String
-    * @param citiesPopulation List of all cities' population data
-    * @return List of cities population which centroids is in current boundary
+    * @param citiesPopulation All cities' population data
+    * @return List of cities population in ascending cityID order
     */
-  def findCityPop(cityIds: String, citiesPopulation: List[JsValue]): JsArray = {
-    val cityIdsList : List[Int] = cityIds.split(",").map(_.toInt).toList
-    val incCityIdsList = cityIdsList.sortWith(_<_)
-    sortedListBinarySearch(citiesPopulation, 0, 29833, incCityIdsList, 0, Json.arr())
-  }
-
-  /**
-    * Find the population data data for each geoId in from the sorted geoIds list.
-    *
-    * @param sortedCityIds Sorted list of cities in current boundary
-    * @param citiesPopulation List of all cities' population data
-    * @return List of cities in sortedCityIds' population data
-    */
-  def sortedListBinarySearch(citiesPopulation: List[JsValue], startIndex: Int, endIndex: Int,
-                             sortedCityIds: List[Int], sortedCityIndex: Int, resultArr: JsArray): JsArray = {
-    if (startIndex == endIndex) {
-        resultArr
-    } else {
-      val thisIndex = (startIndex + endIndex) / 2
-      val thisCityId = (citiesPopulation(thisIndex) \ "cityID").as[Int]
-      if (thisCityId > sortedCityIds(sortedCityIndex)) {
-        sortedListBinarySearch(citiesPopulation, startIndex, thisIndex, sortedCityIds, sortedCityIndex, resultArr)
-      } else if (thisCityId < sortedCityIds(sortedCityIndex)) {
-        sortedListBinarySearch(citiesPopulation, thisIndex + 1, endIndex, sortedCityIds, sortedCityIndex, resultArr)
-      } else { // Current cityId sortedCityIds(sortedCityIndex) is find in citiesPopulation
-        val currPop : JsValue = JsObject(Seq("cityID" -> JsNumber(thisCityId),
-                                             "population" -> JsNumber((citiesPopulation(thisIndex) \ "population").as[Int])
-                                            ))
-        if (sortedCityIndex < sortedCityIds.length - 1) {
-          sortedListBinarySearch(citiesPopulation, thisIndex + 1, 29833, sortedCityIds, sortedCityIndex + 1, resultArr :+ currPop)
-        } else {
-          resultArr :+ currPop
-        }
+  def findCityPop(cityIds: String, citiesPopulation: CityPopulationIndex): JsArray = {
+    val sortedCityIds = CityPopulationIndex.parseIds(cityIds).sorted.distinct
+    JsArray(sortedCityIds.flatMap { cityID =>
+      citiesPopulation.population(cityID).map { population =>
+        Json.obj(CityPopulationIndex.CityID -> cityID, CityPopulationIndex.Population -> population)
       }
-    }
+    }.toSeq)
   }
 
   object DBType extends Enumeration {
@@ -36,5 +36,39 @@ class TwitterMapApplicationTest extends SpecificationLike {
       cityIDs.result().contains(100820) must_== true
     }
 
+    "answer from the city index what findCity answers" in {
+      val index = new CityIndex(cities, cacheSize = 400)
+      val regions = Seq((35.0, 33.0, -85.0, -87.0), (35.004, 33.001, -85.003, -87.002), (34.0, 34.0, -86.0, -86.0),
+                        (90.0, -90.0, 180.0, -180.0), (10.0, 20.0, -85.0, -87.0), (35.0, 33.0, -85.0, -87.0))
+      regions.foreach { case (neLat, swLat, neLng, swLng) =>
+        index.find(neLat, swLat, neLng, swLng).utf8String must_==
+          Json.stringify(TwitterMapApplication.findCity(neLat, swLat, neLng, swLng, cities))
+      }
+      index.count must_== cities.size
+      index.cacheUsage must be_<=(400L)
+
+      // the whole world holds more positions than an eighth of the cache, it is answered but not cached
+      val fresh = new CityIndex(cities, cacheSize = 400)
+      fresh.find(90.0, -90.0, 180.0, -180.0).utf8String must_==
+        Json.stringify(TwitterMapApplication.findCity(90.0, -90.0, 180.0, -180.0, cities))
+      fresh.cacheUsage must_== 0L
+    }
+
+    "find the population of cities by their ids" in {
+      val populations = new CityPopulationIndex(
+        TwitterMapApplication.loadCityPop(new File("public/data/allCityPopulation.json")))
+      populations.size must_== 29833
+      populations.population(36005) must_== Some(1385108L)
+      populations.population(-1) must_== None
+
+      // unsorted, repeated and unknown ids
+      val cityIds = "36061, 36005,36047,36005,-1,"
+      populations.find(cityIds).utf8String must_==
+        """[{"cityID":36005,"population":1385108},{"cityID":36047,"population":2504700},""" +
+          """{"cityID":36061,"population":1585873}]"""
+      Json.parse(populations.find(cityIds).utf8String) must_== TwitterMapApplication.findCityPop(cityIds, populations)
+      populations.find("").utf8String must_== "[]"
+    }
+
   }
 }